@@ -0,0 +1,37 @@
+package com.choosemuse.example.libmuse;
+
+import android.os.Build;
+import android.os.Trace;
+
+import com.choosemuse.example.libmuse.trace.TraceSink;
+
+/**
+ * Sends the sections of a {@link com.choosemuse.example.libmuse.trace.LatencyTracer}
+ * to android.os.Trace, so they appear in systrace, eg.
+ * python systrace.py --app=com.choosemuse.example.libmuse sched gfx view
+ * <p>
+ * Trace sections need API 18; on older devices only the tracer's own
+ * histograms are kept.  Spans are not forwarded, the report covers them.
+ */
+class AndroidTraceSink implements TraceSink {
+
+    private static final boolean ENABLED = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    @Override
+    public void beginSection(String name) {
+        if (ENABLED) {
+            Trace.beginSection(name);
+        }
+    }
+
+    @Override
+    public void endSection() {
+        if (ENABLED) {
+            Trace.endSection();
+        }
+    }
+
+    @Override
+    public void span(String stage, long tag, long startNanos, long endNanos) {
+    }
+}
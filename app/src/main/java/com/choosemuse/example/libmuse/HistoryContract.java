@@ -0,0 +1,83 @@
+package com.choosemuse.example.libmuse;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * The columns and URIs of {@link HistoryProvider}.
+ * <p>
+ * Every mood decision is one row; TRACK_ID is the Spotify track that was
+ * playing during the window the decision covers, if any, so a track started
+ * for a decision shows up from the next row on.  Rows are listed newest first.  Pages are fetched with
+ * {@link #page}, which selects the rows strictly older than the last row of the
+ * previous page, so each page is an index range scan no matter how deep the
+ * user has scrolled.
+ */
+public final class HistoryContract implements BaseColumns {
+
+    public static final String AUTHORITY = "com.choosemuse.example.libmuse.history";
+    public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/moods");
+
+    public static final String TABLE = "moods";
+
+    public static final String TIMESTAMP = "timestamp";
+    public static final String MOOD = "mood";
+    public static final String CONFIDENCE = "confidence";
+    public static final String AROUSAL = "arousal";
+    public static final String VALENCE = "valence";
+    public static final String TRACK_ID = "track_id";
+
+    /**
+     * Query parameter holding the maximum number of rows to return.
+     */
+    public static final String PARAM_LIMIT = "limit";
+
+    public static final String SORT_NEWEST_FIRST = TIMESTAMP + " DESC, " + _ID + " DESC";
+
+    private HistoryContract() {
+    }
+
+    /**
+     * @return The URI of a page of at most limit rows.
+     */
+    public static Uri page(int limit) {
+        return CONTENT_URI.buildUpon()
+                .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                .build();
+    }
+
+    /**
+     * Builds the selection of the rows after (timestamp, id) in newest-first
+     * order, optionally restricted to one mood.
+     *
+     * @param mood The mood key, eg. "happy", or null for every mood.
+     * @param afterTimestamp The timestamp of the last row already shown, or
+     *                       Long.MAX_VALUE for the first page.
+     */
+    public static String pageSelection(String mood, long afterTimestamp) {
+        StringBuilder sb = new StringBuilder();
+        if (mood != null) {
+            sb.append(MOOD).append(" = ? AND ");
+        }
+        if (afterTimestamp == Long.MAX_VALUE) {
+            sb.append("1");
+        } else {
+            sb.append('(').append(TIMESTAMP).append(" < ? OR (")
+                    .append(TIMESTAMP).append(" = ? AND ").append(_ID).append(" < ?))");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return The arguments matching {@link #pageSelection}.
+     */
+    public static String[] pageSelectionArgs(String mood, long afterTimestamp, long afterId) {
+        String ts = Long.toString(afterTimestamp);
+        if (afterTimestamp == Long.MAX_VALUE) {
+            return mood == null ? null : new String[]{mood};
+        }
+        return mood == null
+                ? new String[]{ts, ts, Long.toString(afterId)}
+                : new String[]{mood, ts, ts, Long.toString(afterId)};
+    }
+}
@@ -0,0 +1,44 @@
+package com.choosemuse.example.libmuse;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * The SQLite database behind {@link HistoryProvider}.
+ * <p>
+ * Rows are read newest first, either over everything or for one mood, so there
+ * is one index per access path: (timestamp, _id) and (mood, timestamp, _id).
+ */
+class HistoryDatabase extends SQLiteOpenHelper {
+
+    private static final String NAME = "history.db";
+    private static final int VERSION = 1;
+
+    HistoryDatabase(Context context) {
+        super(context, NAME, null, VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + HistoryContract.TABLE + " ("
+                + HistoryContract._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + HistoryContract.TIMESTAMP + " INTEGER NOT NULL, "
+                + HistoryContract.MOOD + " TEXT NOT NULL, "
+                + HistoryContract.CONFIDENCE + " REAL, "
+                + HistoryContract.AROUSAL + " REAL, "
+                + HistoryContract.VALENCE + " REAL, "
+                + HistoryContract.TRACK_ID + " TEXT)");
+        db.execSQL("CREATE INDEX moods_timestamp ON " + HistoryContract.TABLE
+                + " (" + HistoryContract.TIMESTAMP + ", " + HistoryContract._ID + ")");
+        db.execSQL("CREATE INDEX moods_mood_timestamp ON " + HistoryContract.TABLE
+                + " (" + HistoryContract.MOOD + ", " + HistoryContract.TIMESTAMP + ", "
+                + HistoryContract._ID + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + HistoryContract.TABLE);
+        onCreate(db);
+    }
+}
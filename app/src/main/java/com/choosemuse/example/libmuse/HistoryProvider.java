@@ -0,0 +1,111 @@
+package com.choosemuse.example.libmuse;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+/**
+ * Serves the listening and mood history to {@link PlaylistActivity}.
+ * <p>
+ * Only the moods table is exposed, and the provider is not exported.  Queries
+ * honour the {@link HistoryContract#PARAM_LIMIT} query parameter so callers can
+ * fetch one page at a time.  Paged cursors are not notified of inserts; full
+ * queries are.
+ */
+public class HistoryProvider extends ContentProvider {
+
+    private static final int MOODS = 1;
+    private static final int MOOD_ID = 2;
+
+    private static final UriMatcher MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
+
+    static {
+        MATCHER.addURI(HistoryContract.AUTHORITY, "moods", MOODS);
+        MATCHER.addURI(HistoryContract.AUTHORITY, "moods/#", MOOD_ID);
+    }
+
+    private HistoryDatabase database;
+
+    @Override
+    public boolean onCreate() {
+        database = new HistoryDatabase(getContext());
+        return true;
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        switch (MATCHER.match(uri)) {
+            case MOODS:
+                break;
+            case MOOD_ID:
+                selection = HistoryContract._ID + " = " + ContentUris.parseId(uri);
+                selectionArgs = null;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+        if (sortOrder == null) {
+            sortOrder = HistoryContract.SORT_NEWEST_FIRST;
+        }
+        String limit = uri.getQueryParameter(HistoryContract.PARAM_LIMIT);
+        if (limit != null) {
+            // Reject anything but a number; the limit is pasted into the SQL.
+            limit = Integer.toString(Integer.parseInt(limit));
+        }
+        SQLiteDatabase db = database.getReadableDatabase();
+        Cursor c = db.query(HistoryContract.TABLE, projection, selection, selectionArgs,
+                null, null, sortOrder, limit);
+        if (limit == null) {
+            // Pages are snapshots: reloading one page after an insert would shift
+            // its rows into the next one.
+            c.setNotificationUri(getContext().getContentResolver(), HistoryContract.CONTENT_URI);
+        }
+        return c;
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        switch (MATCHER.match(uri)) {
+            case MOODS:
+                return "vnd.android.cursor.dir/vnd." + HistoryContract.AUTHORITY + ".mood";
+            case MOOD_ID:
+                return "vnd.android.cursor.item/vnd." + HistoryContract.AUTHORITY + ".mood";
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        if (MATCHER.match(uri) != MOODS) {
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+        long id = database.getWritableDatabase().insertOrThrow(HistoryContract.TABLE, null, values);
+        Uri row = ContentUris.withAppendedId(HistoryContract.CONTENT_URI, id);
+        getContext().getContentResolver().notifyChange(row, null);
+        return row;
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        if (MATCHER.match(uri) != MOODS) {
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+        int n = database.getWritableDatabase().delete(HistoryContract.TABLE, selection, selectionArgs);
+        if (n > 0) {
+            getContext().getContentResolver().notifyChange(HistoryContract.CONTENT_URI, null);
+        }
+        return n;
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        // History is append-only: nothing is ever updated.
+        return 0;
+    }
+}
@@ -0,0 +1,1621 @@
+package com.choosemuse.example.libmuse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.ref.WeakReference;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.choosemuse.example.libmuse.analysis.ArtifactDetector;
+import com.choosemuse.example.libmuse.analysis.PolyphaseResampler;
+import com.choosemuse.example.libmuse.analysis.SampleKind;
+import com.choosemuse.example.libmuse.analysis.SnapshotPublisher;
+import com.choosemuse.example.libmuse.analysis.TimeSeriesStore;
+import com.choosemuse.example.libmuse.live.DashboardPublisher;
+import com.choosemuse.example.libmuse.loadgen.EegProfile;
+import com.choosemuse.example.libmuse.loadgen.LoadGenerator;
+import com.choosemuse.example.libmuse.loadgen.SyntheticHeadband;
+import com.choosemuse.example.libmuse.mood.GroupMoodFusion;
+import com.choosemuse.example.libmuse.mood.LogisticMoodClassifier;
+import com.choosemuse.example.libmuse.mood.MoodClassifier;
+import com.choosemuse.example.libmuse.mood.MoodEngine;
+import com.choosemuse.example.libmuse.mood.MoodParameters;
+import com.choosemuse.example.libmuse.mood.Moods;
+import com.choosemuse.example.libmuse.mood.QuadrantClassifier;
+import com.choosemuse.example.libmuse.pipeline.BlockPool;
+import com.choosemuse.example.libmuse.pipeline.FrameAccumulator;
+import com.choosemuse.example.libmuse.pipeline.Pipeline;
+import com.choosemuse.example.libmuse.pipeline.ResampleStage;
+import com.choosemuse.example.libmuse.pipeline.SeriesSink;
+import com.choosemuse.example.libmuse.power.PowerGovernor;
+import com.choosemuse.example.libmuse.power.PowerMode;
+import com.choosemuse.example.libmuse.recording.RetentionPolicy;
+import com.choosemuse.example.libmuse.recording.SegmentedRecorder;
+import com.choosemuse.example.libmuse.timeline.MoodTimelineLog;
+import com.choosemuse.example.libmuse.timeline.Resolution;
+import com.choosemuse.example.libmuse.timeline.RollupBucket;
+import com.choosemuse.example.libmuse.trace.LatencyTracer;
+import com.choosemuse.libmuse.Accelerometer;
+import com.choosemuse.libmuse.AnnotationData;
+import com.choosemuse.libmuse.AnnotationFormat;
+import com.choosemuse.libmuse.Battery;
+import com.choosemuse.libmuse.ConnectionState;
+import com.choosemuse.libmuse.Eeg;
+import com.choosemuse.libmuse.LibmuseVersion;
+import com.choosemuse.libmuse.Muse;
+import com.choosemuse.libmuse.MuseArtifactPacket;
+import com.choosemuse.libmuse.MuseConnectionListener;
+import com.choosemuse.libmuse.MuseConnectionPacket;
+import com.choosemuse.libmuse.MuseDataListener;
+import com.choosemuse.libmuse.MuseDataPacket;
+import com.choosemuse.libmuse.MuseDataPacketType;
+import com.choosemuse.libmuse.MuseListener;
+import com.choosemuse.libmuse.MuseManagerAndroid;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Binder;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+/**
+ * Owns everything that has to keep running while a headband is connected:
+ * the connection itself, the DataListener, the recording, the processing
+ * pipeline and the mood engine.  MainActivity only binds to it to display the
+ * latest values and to pick songs, so opening Spotify, rotating the screen or
+ * pausing the activity no longer interrupts the data.
+ * <p>
+ * The service is started and bound by MainActivity.  While a headband (or a
+ * synthetic one) is connected it runs in the foreground with an ongoing
+ * notification; once disconnected and unbound it stops itself.
+ * <p>
+ * Work is batched to keep wakeups down: packets are recorded in batches of
+ * RECORD_BATCH_MILLIS instead of one file thread message per packet, and the
+ * mood engine is ticked on its own analysis thread rather than the UI thread.
+ * <p>
+ * For shared listening the other headbands in the room can join the connected
+ * one as guests, see joinGroup().  The music then follows the group mood.
+ */
+public class IngestionService extends Service {
+
+    /**
+     * Tag used for logging purposes.
+     */
+    private final String TAG = "MuseIngestion";
+
+    /**
+     * Started with this action, eg. from the notification, the service
+     * disconnects the headband.
+     */
+    static final String ACTION_DISCONNECT = "com.choosemuse.example.libmuse.action.DISCONNECT";
+    private static final int NOTIFICATION_ID = 1;
+
+    /**
+     * Told about the headbands found, connection changes and mood decisions.
+     * Every call is made on the main thread.
+     */
+    interface Listener {
+
+        void museListChanged();
+
+        void connectionChanged(MuseConnectionPacket p, Muse muse);
+
+        /**
+         * @param tag The tracer tag of the decision, for TRACE_SWITCH.
+         */
+        void moodDecided(Moods mood, double arousal, double valence, long tag);
+    }
+
+    class LocalBinder extends Binder {
+        IngestionService getService() {
+            return IngestionService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile Listener listener;
+    private boolean bound;
+
+    /**
+     * The MuseManager is how you detect Muse headbands and receive notifications
+     * when the list of available headbands changes.
+     */
+    private MuseManagerAndroid manager;
+
+    /**
+     * A Muse refers to a Muse headband.  Use this to connect/disconnect from the
+     * headband, register listeners to receive EEG data and get headband
+     * configuration and version information.
+     * <p>
+     * Set on the main thread, cleared on the libmuse callback thread when the
+     * headband disconnects and read on both, so it is volatile and each method
+     * reads it once into a local.
+     */
+    private volatile Muse muse;
+
+    /**
+     * Forward the connection state changes and data packets of the headband
+     * to this service.  See the listener translators at the bottom of this file.
+     */
+    private ConnectionListener connectionListener;
+    private DataListener dataListener;
+
+    /**
+     * The buffers hold the values of the last data packet received and are only
+     * touched on the libmuse callback thread.  Each packet is published to the
+     * activity through a SnapshotPublisher, which hands it a consistent copy
+     * without ever blocking the callback.
+     * <p>
+     * Note: the array lengths of the buffers are taken from the comments in
+     * MuseDataPacketType, which specify 3 values for accelerometer and 6
+     * values for EEG and EEG-derived packets.
+     */
+    private final double[] eegBuffer = new double[6];
+    private final double[] alphaBuffer = new double[6];
+    private final double[] accelBuffer = new double[3];
+    private final double[] betaBuffer = new double[6];
+    private final double[] artifactBuffer = new double[3];
+
+    private final SnapshotPublisher eegSnapshot = new SnapshotPublisher(eegBuffer.length);
+    private final SnapshotPublisher alphaSnapshot = new SnapshotPublisher(alphaBuffer.length);
+    private final SnapshotPublisher betaSnapshot = new SnapshotPublisher(betaBuffer.length);
+
+    /**
+     * The buffers above only hold the latest packet.  The history keeps the last
+     * HISTORY_MILLIS of every packet type we store so the analysis and UI code can
+     * look back, eg. at the last 30 seconds of alpha.  EEG is stored after it has
+     * been resampled to ANALYSIS_RATE, so its series is the same size on every headband.
+     */
+    private static final long HISTORY_MILLIS = 5 * 60 * 1000;
+    private static final long HISTORY_BUDGET_BYTES = 8 * 1024 * 1024;
+    private final TimeSeriesStore<MuseDataPacketType> history =
+            new TimeSeriesStore<>(HISTORY_MILLIS, HISTORY_BUDGET_BYTES);
+
+    /**
+     * Mood features only use EEG content below ~40Hz, so raw EEG is resampled from
+     * the headband's output frequency (220Hz, 256Hz or 500Hz) to one common rate
+     * before analysis.
+     * <p>
+     * The processing runs as a Pipeline of stages on its own thread, so the packet
+     * handler only copies each EEG frame into a pooled block.  The pipeline is built
+     * once the headband connects and we know its configuration.
+     */
+    private static final int ANALYSIS_RATE = 100;
+    private static final int RESAMPLER_SPAN = 16;
+    private static final int BLOCK_FRAMES = 32;
+    private static final int POOL_BLOCKS = 16;
+
+    /**
+     * How long stopPipeline() waits for the last blocks to pass through the
+     * graph.  A few blocks take well under a millisecond.
+     */
+    private static final long PIPELINE_DRAIN_MILLIS = 500;
+    private volatile Pipeline pipeline;
+    private volatile FrameAccumulator eegFrames;
+
+    /**
+     * While connected, the resampled EEG, the band powers and each mood are
+     * streamed to the web interface's live dashboard every DASHBOARD_PERIOD,
+     * if a dashboard URL is set.  The publisher reads the history and the
+     * snapshots on its own thread, so a slow network never delays packets.
+     * <p>
+     * The URL carries a per-user publish key, so it is set at runtime: the
+     * activity stores it under PREF_DASHBOARD_URL in the PREFS preferences,
+     * and R.string.dashboard_url is only a build-time default.  It is read
+     * as each headband connects.
+     */
+    private static final long DASHBOARD_PERIOD = 250;
+    static final String PREFS = "settings";
+    static final String PREF_DASHBOARD_URL = "dashboard_url";
+    private volatile DashboardPublisher dashboard;
+
+    static final int SHORT_INTERVAL = 1000;
+    static final int LONG_INTERVAL = 10000;
+
+    /**
+     * The mood logic lives in the engine module so it can also run off-device.
+     * It is ticked every analysis hop of the power mode (SHORT_INTERVAL at full
+     * power) and asked for a decision every LONG_INTERVAL, both on the analysis
+     * thread.  The classifier weights are loaded from MOOD_MODEL_ASSET in
+     * onCreate.
+     */
+    private static final String MOOD_MODEL_ASSET = "mood_model.txt";
+    private MoodClassifier moodClassifier;
+    private MoodEngine moodEngine;
+    private HandlerThread analysisThread;
+    private Handler analysisHandler;
+
+    /**
+     * Guests only feed their own mood engine; the recording, history, pipeline
+     * and dashboard stay with the connected headband.  Every decision each
+     * headband's features are submitted to the group fusion, weighted by how
+     * well its electrodes touch, and the fused mood is what the listener gets.
+     * The engines and the fusion are only used on the analysis thread, apart
+     * from receiveSample.
+     */
+    private static final int MAX_GROUP = 32;
+    private static final long GROUP_MAX_AGE_MICROS = LONG_INTERVAL * 1000L * 3 / 2;
+    private final CopyOnWriteArrayList<Guest> guests = new CopyOnWriteArrayList<>();
+    // The same guests by the Muse instance their listeners were registered on,
+    // which is the instance libmuse passes back with their packets.
+    private final ConcurrentHashMap<Muse, Guest> guestsByMuse = new ConcurrentHashMap<>();
+    private GroupMoodFusion group;
+    private int groupHost;
+
+    private static final class Guest {
+        final Muse muse;
+        final String macAddress;
+        final int device;
+        final MoodEngine moodEngine;
+        // Only touched on the libmuse callback thread.
+        final double[] buffer = new double[6];
+        final double[] artifactBuffer = new double[3];
+
+        Guest(Muse muse, int device, MoodEngine moodEngine) {
+            this.muse = muse;
+            this.macAddress = muse.getMacAddress();
+            this.device = device;
+            this.moodEngine = moodEngine;
+        }
+    }
+
+    /**
+     * Long sessions should finish on one charge of the headband and the phone.
+     * After every decision the governor picks a PowerMode from both battery
+     * levels, and the analysis hop, the UI refresh, the rate raw EEG is
+     * recorded at and which optional packet types are streamed follow it.
+     * Each change is logged with what it gives up.
+     */
+    private static final long SESSION_MILLIS = 3 * 60 * 60 * 1000;
+    private static final MuseDataPacketType[] HOST_OPTIONAL_TYPES = {
+            MuseDataPacketType.ACCELEROMETER, MuseDataPacketType.DRL_REF, MuseDataPacketType.QUANTIZATION};
+    private static final MuseDataPacketType[] GUEST_OPTIONAL_TYPES = {MuseDataPacketType.ACCELEROMETER};
+    private final PowerGovernor power = new PowerGovernor(SESSION_MILLIS);
+
+    /**
+     * Traces how long a packet takes to reach a song: TRACE_PACKET in the
+     * packet handler, whose run time is that stage's latency, TRACE_TICK once
+     * the tick has folded it into the mood features, TRACE_DECIDE once the
+     * decision is made on it and TRACE_SWITCH once MainActivity has started
+     * the song for that decision.  Each stage is a systrace section, and the
+     * latency percentiles are logged with the pipeline stats.
+     */
+    static final int TRACE_PACKET = 0;
+    static final int TRACE_TICK = 1;
+    static final int TRACE_DECIDE = 2;
+    static final int TRACE_SWITCH = 3;
+    private final LatencyTracer tracer =
+            new LatencyTracer(new AndroidTraceSink(), "packet", "tick", "decide", "switch");
+
+    /**
+     * Every mood decision made while connected is appended to the timeline so
+     * history views can read it back later.  Rollups to coarser resolutions run
+     * in the background every ROLLUP_PERIOD, and the notification shows the
+     * dominant mood of the last SUMMARY_MILLIS from the one minute tier.
+     */
+    private static final long ROLLUP_PERIOD = 60 * 1000;
+    private static final long SUMMARY_MILLIS = 60 * 60 * 1000;
+    private MoodTimelineLog moodLog;
+    // Used on the analysis thread
+    private long nextSummary;
+    private volatile String currentTrackId;
+
+    /**
+     * To save data to a file, you should use a MuseFileWriter.  The MuseFileWriter knows how to
+     * serialize the data packets received from the headband into a compact binary format.
+     * To read the file back, you would use a MuseFileReader.
+     * <p>
+     * Each launch records a new session under SESSIONS_DIR, split into segments
+     * of at most SEGMENT_MILLIS or SEGMENT_BYTES so a crash only loses the open
+     * segment.  Sessions beyond RETENTION_MILLIS or RETENTION_BYTES in total are
+     * deleted on the file thread.  The recorder is only used on the file thread.
+     * <p>
+     * Packets are queued and written by the file thread RECORD_BATCH_MILLIS
+     * after the first one of a batch, so it wakes a few times a second instead
+     * of once per packet.
+     * <p>
+     * EEG is recorded at the rate the power mode asks for (see recordEeg), and
+     * every segment starts with an EEG_RATE_EVENT annotation giving that rate,
+     * with another one wherever it changes.  The queue holds the EegRate of
+     * such a change in line with the packets.
+     */
+    private static final String SESSIONS_DIR = "sessions";
+    private static final long SEGMENT_MILLIS = 10 * 60 * 1000;
+    private static final long SEGMENT_BYTES = 32 * 1024 * 1024;
+    private static final long RETENTION_MILLIS = 14L * 24 * 60 * 60 * 1000;
+    private static final long RETENTION_BYTES = 512L * 1024 * 1024;
+    private static final long RECORD_BATCH_MILLIS = 500;
+    private volatile SegmentedRecorder<MuseSegmentWriter> recorder;
+    private final Object recordLock = new Object();
+    private static final String EEG_RATE_EVENT = "eeg_rate";
+    private ArrayList<Object> recordQueue = new ArrayList<>();
+    private ArrayList<Object> recordBatch = new ArrayList<>();
+    // The EEG rate of the recording, only touched on the file thread.
+    private EegRate recordedRate;
+    private MuseSegmentWriter annotatedWriter;
+
+    /**
+     * We don't want file operations to slow down the packet handler, so we will defer those file
+     * operations to a handler on a separate thread.
+     */
+    private final AtomicReference<Handler> fileHandler = new AtomicReference<>();
+
+    private volatile boolean connected = false;
+
+    /**
+     * Debug builds can run without a headband, see MainActivity.EXTRA_SYNTHETIC_HEADBANDS.
+     */
+    private static final long SYNTHETIC_MICROS = 24L * 60 * 60 * 1000 * 1000;
+    private LoadGenerator synthetic;
+
+
+    //--------------------------------------
+    // Lifecycle / Connection code
+
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        initHistory();
+        moodClassifier = loadMoodClassifier();
+        moodEngine = new MoodEngine(ticksPerDecision(), MoodParameters.DEFAULT, moodClassifier);
+        group = new GroupMoodFusion(MAX_GROUP, GROUP_MAX_AGE_MICROS, moodClassifier);
+        groupHost = group.addDevice();
+        openMoodLog();
+        // We need to set the context on MuseManagerAndroid before we can do anything.
+        // This must come before other LibMuse API calls as it also loads the library.
+        manager = MuseManagerAndroid.getInstance();
+        manager.setContext(this);
+
+        Log.i(TAG, "LibMuse version=" + LibmuseVersion.instance().getString());
+
+        WeakReference<IngestionService> weakService = new WeakReference<>(this);
+        // Register a listener to receive connection state changes.
+        connectionListener = new ConnectionListener(weakService);
+        // Register a listener to receive data from a Muse.
+        dataListener = new DataListener(weakService);
+        // Register a listener to receive notifications of what Muse headbands
+        // we can connect to.
+        manager.setMuseListener(new MuseL(weakService));
+
+        // Start up a thread for asynchronous file operations.
+        // This is only needed if you want to do File I/O.
+        fileThread.start();
+
+        analysisThread = new HandlerThread("analysis");
+        analysisThread.start();
+        analysisHandler = new Handler(analysisThread.getLooper());
+        analysisHandler.post(tick);
+        analysisHandler.postDelayed(decide, LONG_INTERVAL);
+        registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_DISCONNECT.equals(intent.getAction())) {
+            disconnect();
+            stopIfIdle();
+        } else if (intent != null) {
+            startSynthetic(intent);
+        }
+        // Nothing to resume without the activity after the process is killed.
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        bound = true;
+        return binder;
+    }
+
+    @Override
+    public void onRebind(Intent intent) {
+        bound = true;
+    }
+
+    @Override
+    public boolean onUnbind(Intent intent) {
+        bound = false;
+        listener = null;
+        // Discovery is only needed while the activity is shown.  This does not
+        // affect a headband that is already connected.
+        manager.stopListening();
+        stopIfIdle();
+        return true;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        unregisterReceiver(batteryReceiver);
+        if (synthetic != null) {
+            synthetic.stop();
+            synthetic = null;
+        }
+        final Muse host = muse;
+        if (host != null) {
+            host.unregisterAllListeners();
+            host.disconnect();
+            muse = null;
+        }
+        for (Guest g : guests) {
+            g.muse.unregisterAllListeners();
+            g.muse.disconnect();
+        }
+        guests.clear();
+        guestsByMuse.clear();
+        manager.stopListening();
+        stopPipeline();
+        // Quit once the pipeline has drained; quit() drops pending messages.
+        analysisHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                analysisThread.quit();
+            }
+        });
+        saveFile();
+        final Handler h = fileHandler.get();
+        if (h != null) {
+            h.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (recorder != null) {
+                        try {
+                            recorder.close();
+                        } catch (IOException e) {
+                            Log.w(TAG, "Could not close recording", e);
+                        }
+                    }
+                    Looper.myLooper().quit();
+                }
+            });
+        }
+        if (moodLog != null) {
+            try {
+                moodLog.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Could not close mood history", e);
+            }
+            moodLog = null;
+        }
+    }
+
+    /**
+     * Sets who is told about headbands, connections and moods, or null.
+     */
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts listening for nearby or paired Muse headbands.  We call stopListening
+     * first to make sure startListening will clear the list of headbands and start fresh.
+     */
+    void refresh() {
+        manager.stopListening();
+        manager.startListening();
+    }
+
+    List<Muse> getMuses() {
+        return manager.getMuses();
+    }
+
+    /**
+     * Connects to the first headband found and streams its data asynchronously.
+     *
+     * @return false if there is nothing to connect to.
+     */
+    boolean connect() {
+        // Listening is an expensive operation, so now that we know
+        // which headband the user wants to connect to we can stop
+        // listening for other headbands.
+        manager.stopListening();
+
+        List<Muse> availableMuses = manager.getMuses();
+        if (availableMuses.size() < 1) {
+            return false;
+        }
+        // Connect to the first Muse by default
+        final Muse host = availableMuses.get(0);
+        muse = host;
+        // Unregister all prior listeners and register our data listener to
+        // receive the MuseDataPacketTypes we are interested in.  If you do
+        // not register a listener for a particular data type, you will not
+        // receive data packets of that type.
+        host.unregisterAllListeners();
+        host.registerConnectionListener(connectionListener);
+        host.registerDataListener(dataListener, MuseDataPacketType.EEG);
+        host.registerDataListener(dataListener, MuseDataPacketType.ALPHA_ABSOLUTE);
+        host.registerDataListener(dataListener, MuseDataPacketType.BETA_ABSOLUTE);
+        host.registerDataListener(dataListener, MuseDataPacketType.BATTERY);
+        host.registerDataListener(dataListener, MuseDataPacketType.ARTIFACTS);
+        subscribe(host, HOST_OPTIONAL_TYPES);
+
+        // Start the history fresh for the new headband.
+        history.clear();
+
+        // Initiate a connection to the headband and stream the data asynchronously.
+        host.runAsynchronously();
+        return true;
+    }
+
+    void disconnect() {
+        final Muse host = muse;
+        if (host != null) {
+            host.disconnect();
+        }
+        for (Guest g : guests) {
+            g.muse.disconnect();
+        }
+        if (synthetic != null) {
+            synthetic.stop();
+            synthetic = null;
+            connected = false;
+            stopPipeline();
+            saveFile();
+            stopForeground(true);
+            stopIfIdle();
+        }
+    }
+
+    /**
+     * Connects every other headband found as a guest of the connected one, so
+     * the music follows the mood of the whole group.  Guests leave when they
+     * disconnect or when the connected headband is disconnected.
+     *
+     * @return The number of headbands that joined.
+     */
+    int joinGroup() {
+        final Muse host = muse;
+        if (host == null) {
+            return 0;
+        }
+        manager.stopListening();
+        int joined = 0;
+        for (Muse m : manager.getMuses()) {
+            if (sameHeadband(m, host) || findGuest(m) != null) {
+                continue;
+            }
+            if (guests.size() + 1 >= MAX_GROUP) {
+                Log.w(TAG, "The group is full at " + MAX_GROUP + " headbands");
+                break;
+            }
+            final Guest g = new Guest(m, group.addDevice(),
+                    new MoodEngine(ticksPerDecision(), MoodParameters.DEFAULT, moodClassifier));
+            guests.add(g);
+            guestsByMuse.put(m, g);
+            m.unregisterAllListeners();
+            m.registerConnectionListener(connectionListener);
+            m.registerDataListener(dataListener, MuseDataPacketType.EEG);
+            m.registerDataListener(dataListener, MuseDataPacketType.ALPHA_ABSOLUTE);
+            m.registerDataListener(dataListener, MuseDataPacketType.BETA_ABSOLUTE);
+            m.registerDataListener(dataListener, MuseDataPacketType.ARTIFACTS);
+            subscribe(m, GUEST_OPTIONAL_TYPES);
+            m.runAsynchronously();
+            joined++;
+        }
+        return joined;
+    }
+
+    /**
+     * Called for every packet, so the common cases avoid the JNI call behind
+     * getMacAddress(): the host and known guest instances are found by
+     * identity, and only an instance never seen before is compared by address.
+     */
+    private Guest findGuest(Muse m) {
+        if (m == muse || guests.isEmpty()) {
+            return null;
+        }
+        final Guest known = guestsByMuse.get(m);
+        if (known != null) {
+            return known;
+        }
+        final String mac = m.getMacAddress();
+        for (Guest g : guests) {
+            if (g.macAddress.equals(mac)) {
+                return g;
+            }
+        }
+        return null;
+    }
+
+    private static boolean sameHeadband(Muse a, Muse b) {
+        return a == b || (a != null && b != null && a.getMacAddress().equals(b.getMacAddress()));
+    }
+
+    private void leaveGroup(Guest g) {
+        if (guests.remove(g)) {
+            guestsByMuse.remove(g.muse);
+            g.muse.unregisterAllListeners();
+            group.removeDevice(g.device);
+            Log.i(TAG, g.muse.getName() + " left the group");
+        }
+    }
+
+    boolean isConnected() {
+        return connected;
+    }
+
+    SnapshotPublisher getEegSnapshot() {
+        return eegSnapshot;
+    }
+
+    SnapshotPublisher getAlphaSnapshot() {
+        return alphaSnapshot;
+    }
+
+    SnapshotPublisher getBetaSnapshot() {
+        return betaSnapshot;
+    }
+
+    LatencyTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Sets the track recorded with the following mood decisions.  The listener
+     * calls this after the decision that made it start the track has been
+     * logged, so each row names the track heard during its window.
+     */
+    void setCurrentTrack(String trackId) {
+        currentTrackId = trackId;
+    }
+
+    void startCalibration() {
+        analysisHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                moodEngine.startCalibration();
+            }
+        });
+    }
+
+    void stopCalibration(final long elapsedMillis) {
+        analysisHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                moodEngine.stopCalibration(elapsedMillis, power.getMode().getTickMillis());
+            }
+        });
+    }
+
+    /**
+     * Starts the virtual headbands asked for by the intent, if any and if none
+     * are running yet.  Only debug builds honour the extras.
+     */
+    private void startSynthetic(Intent intent) {
+        final int count = intent.getIntExtra(MainActivity.EXTRA_SYNTHETIC_HEADBANDS, 0);
+        if (count <= 0 || !BuildConfig.DEBUG || synthetic != null) {
+            return;
+        }
+        final int rate = intent.getIntExtra(MainActivity.EXTRA_SYNTHETIC_RATE, 256);
+        final String profileName = intent.getStringExtra(MainActivity.EXTRA_SYNTHETIC_PROFILE);
+        final EegProfile profile = EegProfile.named(profileName == null ? "relaxed" : profileName);
+        final long start = System.currentTimeMillis() * 1000;
+        final SyntheticHeadband[] headbands = new SyntheticHeadband[count];
+        final SyntheticPacketSource[] sources = new SyntheticPacketSource[count];
+        final Object lock = new Object();
+        for (int i = 0; i < count; i++) {
+            headbands[i] = new SyntheticHeadband(rate, profile, i, start);
+            sources[i] = new SyntheticPacketSource(this, lock);
+        }
+        Log.i(TAG, "Feeding " + count + " synthetic headbands at " + rate + "Hz");
+        connected = true;
+        startForeground();
+        startPipeline(rate);
+        synthetic = new LoadGenerator(headbands, sources, 1);
+        synthetic.start(SYNTHETIC_MICROS);
+    }
+
+    /**
+     * Keeps the process alive while connected, with a notification that
+     * leads back to the activity and can disconnect the headband.
+     */
+    private void startForeground() {
+        startForeground(NOTIFICATION_ID, buildNotification(getString(R.string.ingestion_notification)));
+    }
+
+    private Notification buildNotification(String text) {
+        final PendingIntent open = PendingIntent.getActivity(this, 0,
+                new Intent(this, MainActivity.class), 0);
+        final PendingIntent disconnect = PendingIntent.getService(this, 0,
+                new Intent(this, IngestionService.class).setAction(ACTION_DISCONNECT), 0);
+        return new NotificationCompat.Builder(this)
+                .setSmallIcon(R.drawable.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(text)
+                .setContentIntent(open)
+                .addAction(android.R.drawable.ic_menu_close_clear_cancel,
+                        getString(R.string.disconnect), disconnect)
+                .setOngoing(true)
+                .build();
+    }
+
+    /**
+     * Shows the dominant mood of the last SUMMARY_MILLIS in the notification.
+     * It is read from the one minute rollups, so it costs at most sixty
+     * buckets however many decisions were made.
+     */
+    private void showMoodSummary(long now) throws IOException {
+        final RollupBucket recent = moodLog.summarize(Resolution.ONE_MINUTE, now - SUMMARY_MILLIS, now);
+        if (recent.count == 0 || !connected) {
+            return;
+        }
+        final NotificationManager nm = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        nm.notify(NOTIFICATION_ID, buildNotification(
+                getString(R.string.ingestion_notification_summary, recent.getDominantMood())));
+    }
+
+    private void stopIfIdle() {
+        if (!connected && !bound) {
+            stopSelf();
+        }
+    }
+
+    private void openMoodLog() {
+        try {
+            moodLog = new MoodTimelineLog(new File(getFilesDir(), "timeline"));
+            moodLog.startRollups(ROLLUP_PERIOD);
+        } catch (IOException e) {
+            Log.w(TAG, "Mood history disabled", e);
+        }
+    }
+
+    /**
+     * Loads the mood model shipped in the assets.  If it is missing or malformed
+     * we fall back to the original quadrant rule.
+     */
+    private MoodClassifier loadMoodClassifier() {
+        try {
+            InputStreamReader in = new InputStreamReader(getAssets().open(MOOD_MODEL_ASSET), "UTF-8");
+            try {
+                return LogisticMoodClassifier.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not load " + MOOD_MODEL_ASSET + ", using quadrant rule", e);
+            return new QuadrantClassifier(MoodParameters.DEFAULT);
+        }
+    }
+
+    /**
+     * Allocates the history series for the packet types we keep.  Band powers
+     * arrive at 10Hz and the accelerometer at about 52Hz.
+     */
+    private void initHistory() {
+        history.register(MuseDataPacketType.EEG, eegBuffer.length, ANALYSIS_RATE);
+        history.register(MuseDataPacketType.ALPHA_ABSOLUTE, alphaBuffer.length, 10);
+        history.register(MuseDataPacketType.BETA_ABSOLUTE, betaBuffer.length, 10);
+        history.register(MuseDataPacketType.ACCELEROMETER, accelBuffer.length, 52);
+    }
+
+
+    //--------------------------------------
+    // Mood
+
+    /**
+     * Folds the samples received since the last tick into the mood features.
+     */
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            tracer.begin(TRACE_TICK);
+            moodEngine.tick();
+            tracer.end(TRACE_TICK, moodEngine.getTickTimestamp());
+            for (Guest g : guests) {
+                g.moodEngine.tick();
+            }
+            analysisHandler.postDelayed(tick, power.getMode().getTickMillis());
+        }
+    };
+
+    /**
+     * Decides on the mood, or the group mood while guests are connected,
+     * records it while connected and tells the listener.  Then the power mode
+     * is reconsidered, so a new analysis hop starts with a new interval.
+     */
+    private final Runnable decide = new Runnable() {
+        @Override
+        public void run() {
+            tracer.begin(TRACE_DECIDE);
+            Moods decided = moodEngine.decide();
+            final long tag = moodEngine.getTickTimestamp();
+            double confidence = moodEngine.getProbability(decided);
+            double fusedArousal = moodEngine.getArousal();
+            double fusedValence = moodEngine.getValence();
+            if (!guests.isEmpty()) {
+                // The window ends at the newest sample of any headband, so the
+                // fusion does not depend on the headband clocks matching ours.
+                long windowEnd = tag;
+                group.submit(groupHost, moodEngine);
+                for (Guest g : guests) {
+                    g.moodEngine.decide();
+                    group.submit(g.device, g.moodEngine);
+                    windowEnd = Math.max(windowEnd, g.moodEngine.getTickTimestamp());
+                }
+                final Moods fused = group.fuse(windowEnd);
+                if (fused != null) {
+                    decided = fused;
+                    confidence = group.getProbability(fused);
+                    fusedArousal = group.getArousal();
+                    fusedValence = group.getValence();
+                }
+            }
+            tracer.end(TRACE_DECIDE, tag);
+            final Moods mood = decided;
+            final double arousal = fusedArousal;
+            final double valence = fusedValence;
+            if (connected) {
+                logMood(mood, (float) confidence, (float) arousal, (float) valence);
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    final Listener l = listener;
+                    if (l != null) {
+                        l.moodDecided(mood, arousal, valence, tag);
+                    }
+                }
+            });
+            if (connected && power.update(System.currentTimeMillis())) {
+                applyPowerMode();
+            }
+            analysisHandler.postDelayed(decide, LONG_INTERVAL);
+        }
+    };
+
+    /**
+     * Appends the decision just made to the timeline, with the track that was
+     * playing while its window was measured.
+     */
+    private void logMood(Moods mood, float confidence, float arousal, float valence) {
+        final long now = System.currentTimeMillis();
+        final String trackId = currentTrackId;
+        insertHistory(now, mood, confidence, arousal, valence, trackId);
+        final DashboardPublisher d = dashboard;
+        if (d != null) {
+            d.setMood(mood, arousal, valence, confidence);
+        }
+        if (moodLog == null) {
+            return;
+        }
+        try {
+            moodLog.append(now, mood, confidence, arousal, valence, trackId);
+            if (now >= nextSummary) {
+                nextSummary = now + ROLLUP_PERIOD;
+                showMoodSummary(now);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not record mood", e);
+        }
+    }
+
+    /**
+     * Adds the decision to the history shown by PlaylistActivity.  The insert
+     * goes through SQLite, so it is done on the file thread.
+     */
+    private void insertHistory(long timestamp, Moods mood, float confidence, float arousal,
+                               float valence, String trackId) {
+        Handler h = fileHandler.get();
+        if (h == null) {
+            return;
+        }
+        final ContentValues values = new ContentValues();
+        values.put(HistoryContract.TIMESTAMP, timestamp);
+        values.put(HistoryContract.MOOD, mood.getKey());
+        values.put(HistoryContract.CONFIDENCE, confidence);
+        values.put(HistoryContract.AROUSAL, arousal);
+        values.put(HistoryContract.VALENCE, valence);
+        values.put(HistoryContract.TRACK_ID, trackId);
+        h.post(new Runnable() {
+            @Override
+            public void run() {
+                getContentResolver().insert(HistoryContract.CONTENT_URI, values);
+            }
+        });
+    }
+
+
+    //--------------------------------------
+    // Listeners
+
+    /**
+     * You will receive a callback to this method each time a headband is discovered.
+     */
+    public void museListChanged() {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Listener l = listener;
+                if (l != null) {
+                    l.museListChanged();
+                }
+            }
+        });
+    }
+
+    /**
+     * You will receive a callback to this method each time there is a change to the
+     * connection state of one of the headbands.
+     *
+     * @param p    A packet containing the current and prior connection states
+     * @param muse The headband whose state changed.
+     */
+    public void receiveMuseConnectionPacket(final MuseConnectionPacket p, final Muse muse) {
+
+        final ConnectionState current = p.getCurrentConnectionState();
+        Log.i(TAG, p.getPreviousConnectionState() + " -> " + current);
+
+        final Guest guest = findGuest(muse);
+        if (guest != null) {
+            if (current == ConnectionState.CONNECTED) {
+                final int rate = muse.getMuseConfiguration().getOutputFrequency();
+                guest.moodEngine.setEegRate(guest.buffer.length, rate);
+                Log.i(TAG, muse.getName() + " joined the group");
+            } else if (current == ConnectionState.DISCONNECTED) {
+                leaveGroup(guest);
+            }
+            return;
+        }
+
+        if (current == ConnectionState.CONNECTED) {
+            connected = true;
+            startPipeline(muse.getMuseConfiguration().getOutputFrequency());
+        }
+
+        if (current == ConnectionState.DISCONNECTED) {
+            Log.i(TAG, "Muse disconnected:" + muse.getName());
+            connected = false;
+            stopPipeline();
+            // Save the data file once streaming has stopped.
+            saveFile();
+            // We have disconnected from the headband, so set our cached copy to null.
+            this.muse = null;
+            // The group goes with it.
+            for (Guest g : guests) {
+                g.muse.disconnect();
+            }
+        }
+
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (current == ConnectionState.CONNECTED) {
+                    startForeground();
+                } else if (current == ConnectionState.DISCONNECTED) {
+                    stopForeground(true);
+                    stopIfIdle();
+                }
+                final Listener l = listener;
+                if (l != null) {
+                    l.connectionChanged(p, muse);
+                }
+            }
+        });
+    }
+
+    /**
+     * You will receive a callback to this method each time the headband sends a MuseDataPacket
+     * that you have registered.  You can use different listeners for different packet types or
+     * a single listener for all packet types as we have done here.
+     *
+     * @param p    The data packet containing the data from the headband (eg. EEG data)
+     * @param muse The headband that sent the information.
+     */
+    public void receiveMuseDataPacket(final MuseDataPacket p, final Muse muse) {
+        final Guest guest = findGuest(muse);
+        if (guest != null) {
+            receiveGuestPacket(guest, p);
+            return;
+        }
+        tracer.begin(TRACE_PACKET);
+        if (p.packetType() == MuseDataPacketType.EEG) {
+            recordEeg(p);
+        } else {
+            writeDataPacketToFile(p);
+        }
+
+        // valuesSize returns the number of data values contained in the packet.
+        final long n = p.valuesSize();
+        switch (p.packetType()) {
+            case EEG:
+                assert (eegBuffer.length >= n);
+                getEegChannelValues(eegBuffer, p);
+                moodEngine.receiveSample(SampleKind.EEG, p.timestamp(), eegBuffer);
+                final FrameAccumulator frames = eegFrames;
+                if (frames != null) {
+                    frames.add(p.timestamp(), eegBuffer);
+                }
+                eegSnapshot.publish(eegBuffer);
+                break;
+            case ACCELEROMETER:
+                assert (accelBuffer.length >= n);
+                getAccelValues(accelBuffer, p);
+                moodEngine.receiveSample(SampleKind.ACCELEROMETER, p.timestamp(), accelBuffer);
+                history.append(MuseDataPacketType.ACCELEROMETER, p.timestamp(), accelBuffer);
+                break;
+            case ALPHA_ABSOLUTE:
+                assert (alphaBuffer.length >= n);
+                getEegChannelValues(alphaBuffer, p);
+                moodEngine.receiveSample(SampleKind.ALPHA_ABSOLUTE, p.timestamp(), alphaBuffer);
+                history.append(MuseDataPacketType.ALPHA_ABSOLUTE, p.timestamp(), alphaBuffer);
+                alphaSnapshot.publish(alphaBuffer);
+                break;
+            case BETA_ABSOLUTE:
+                assert (betaBuffer.length >= n);
+                getEegChannelValues(betaBuffer, p);
+                moodEngine.receiveSample(SampleKind.BETA_ABSOLUTE, p.timestamp(), betaBuffer);
+                history.append(MuseDataPacketType.BETA_ABSOLUTE, p.timestamp(), betaBuffer);
+                betaSnapshot.publish(betaBuffer);
+                break;
+            case BATTERY:
+                power.setHeadbandLevel(p.getBatteryValue(Battery.CHARGE_PERCENTAGE_REMAINING));
+                break;
+            case DRL_REF:
+            case QUANTIZATION:
+            default:
+                break;
+        }
+        tracer.end(TRACE_PACKET, p.timestamp());
+    }
+
+    /**
+     * Feeds a guest's packets to its mood engine.  Nothing else is kept.
+     */
+    private void receiveGuestPacket(Guest g, MuseDataPacket p) {
+        switch (p.packetType()) {
+            case EEG:
+                getEegChannelValues(g.buffer, p);
+                g.moodEngine.receiveSample(SampleKind.EEG, p.timestamp(), g.buffer);
+                break;
+            case ALPHA_ABSOLUTE:
+                getEegChannelValues(g.buffer, p);
+                g.moodEngine.receiveSample(SampleKind.ALPHA_ABSOLUTE, p.timestamp(), g.buffer);
+                break;
+            case BETA_ABSOLUTE:
+                getEegChannelValues(g.buffer, p);
+                g.moodEngine.receiveSample(SampleKind.BETA_ABSOLUTE, p.timestamp(), g.buffer);
+                break;
+            case ACCELEROMETER:
+                getAccelValues(g.buffer, p);
+                g.moodEngine.receiveSample(SampleKind.ACCELEROMETER, p.timestamp(), g.buffer);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * You will receive a callback to this method each time an artifact packet is generated if you
+     * have registered for the ARTIFACTS data type.  MuseArtifactPackets are generated when
+     * eye blinks are detected, the jaw is clenched and when the headband is put on or removed.
+     * The mood engine skips the windows they contaminate.
+     *
+     * @param p    The artifact packet with the data from the headband.
+     * @param muse The headband that sent the information.
+     */
+    public void receiveMuseArtifactPacket(final MuseArtifactPacket p, final Muse muse) {
+        final Guest guest = findGuest(muse);
+        if (guest != null) {
+            getArtifactValues(guest.artifactBuffer, p);
+            guest.moodEngine.receiveSample(SampleKind.ARTIFACTS, p.getTimestamp(), guest.artifactBuffer);
+            return;
+        }
+        getArtifactValues(artifactBuffer, p);
+        moodEngine.receiveSample(SampleKind.ARTIFACTS, p.getTimestamp(), artifactBuffer);
+    }
+
+    /**
+     * Helper methods to get different packet values.  These methods simply store the
+     * data in the buffers for later display in the UI.
+     * <p>
+     * getEegChannelValue can be used for any EEG or EEG derived data packet type
+     * such as EEG, ALPHA_ABSOLUTE, ALPHA_RELATIVE or HSI_PRECISION.  See the documentation
+     * of MuseDataPacketType for all of the available values.
+     * Specific packet types like ACCELEROMETER, GYRO, BATTERY and DRL_REF have their own
+     * getValue methods.
+     */
+    private void getEegChannelValues(double[] buffer, MuseDataPacket p) {
+        buffer[0] = p.getEegChannelValue(Eeg.EEG1);
+        buffer[1] = p.getEegChannelValue(Eeg.EEG2);
+        buffer[2] = p.getEegChannelValue(Eeg.EEG3);
+        buffer[3] = p.getEegChannelValue(Eeg.EEG4);
+        buffer[4] = p.getEegChannelValue(Eeg.AUX_LEFT);
+        buffer[5] = p.getEegChannelValue(Eeg.AUX_RIGHT);
+    }
+
+    private void getArtifactValues(double[] buffer, MuseArtifactPacket p) {
+        buffer[ArtifactDetector.HEADBAND_ON] = p.getHeadbandOn() ? 1 : 0;
+        buffer[ArtifactDetector.BLINK] = p.getBlink() ? 1 : 0;
+        buffer[ArtifactDetector.JAW_CLENCH] = p.getJawClench() ? 1 : 0;
+    }
+
+    private void getAccelValues(double[] buffer, MuseDataPacket p) {
+        buffer[0] = p.getAccelerometerValue(Accelerometer.X);
+        buffer[1] = p.getAccelerometerValue(Accelerometer.Y);
+        buffer[2] = p.getAccelerometerValue(Accelerometer.Z);
+    }
+
+
+    //--------------------------------------
+    // Processing pipeline
+
+    /**
+     * Builds the processing graph for a newly connected headband: raw EEG is
+     * resampled to ANALYSIS_RATE and stored in the history, and the mood engine
+     * gets a mains and drift filter and an alpha spectrum for the headband
+     * rate.  New features should be added here as stages rather than in the
+     * packet handler.
+     *
+     * @param eegRate The EEG output frequency of the headband.
+     */
+    private void startPipeline(int eegRate) {
+        stopPipeline();
+        Log.i(TAG, "Resampling EEG from " + eegRate + "Hz to " + ANALYSIS_RATE + "Hz");
+        recordHeadbandRate = eegRate;
+
+        analysisHandler.post(startPower);
+        final int channels = eegBuffer.length;
+        moodEngine.setEegRate(channels, eegRate);
+        final PolyphaseResampler resampler =
+                PolyphaseResampler.forRates(channels, eegRate, ANALYSIS_RATE, RESAMPLER_SPAN);
+
+        final Pipeline p = new Pipeline(Executors.newSingleThreadExecutor());
+        final ResampleStage resample = p.add(new ResampleStage("eeg-resample", resampler,
+                new BlockPool(channels, resampler.maxOutputFrames(BLOCK_FRAMES), POOL_BLOCKS)));
+        final SeriesSink eegHistory = p.add(new SeriesSink("eeg-history",
+                history.get(MuseDataPacketType.EEG)));
+        p.connect(resample, eegHistory);
+
+        eegFrames = new FrameAccumulator(p, resample,
+                new BlockPool(channels, BLOCK_FRAMES, POOL_BLOCKS), eegRate);
+        pipeline = p;
+
+        final String url = getDashboardUrl(this);
+        if (!url.isEmpty()) {
+            final DashboardPublisher d = new DashboardPublisher(URI.create(url),
+                    history.get(MuseDataPacketType.EEG), ANALYSIS_RATE, alphaSnapshot, betaSnapshot,
+                    DASHBOARD_PERIOD);
+            d.start();
+            dashboard = d;
+        }
+    }
+
+    /**
+     * @return The dashboard URL the user set, or the build-time default, or
+     * "" to not stream.
+     */
+    static String getDashboardUrl(Context context) {
+        final String url = context.getSharedPreferences(PREFS, MODE_PRIVATE).getString(PREF_DASHBOARD_URL, null);
+        return url != null ? url : context.getString(R.string.dashboard_url);
+    }
+
+    /**
+     * Detaches the processing graph from the packet handler, then stops it on
+     * the analysis thread once the last EEG has passed through it and logs how
+     * much time each stage took.  The drain can take up to
+     * PIPELINE_DRAIN_MILLIS, which must not hold up the libmuse callback
+     * thread this is usually called from.
+     */
+    private void stopPipeline() {
+        final Pipeline p = pipeline;
+        if (p == null) {
+            return;
+        }
+        // Push the partly filled block too, so the end of the session is kept.
+        final FrameAccumulator frames = eegFrames;
+        eegFrames = null;
+        if (frames != null) {
+            frames.close();
+        }
+        pipeline = null;
+        final DashboardPublisher d = dashboard;
+        if (d != null) {
+            dashboard = null;
+            d.stop();
+        }
+        analysisHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!p.awaitIdle(PIPELINE_DRAIN_MILLIS)) {
+                        Log.w(TAG, "Pipeline still busy after " + PIPELINE_DRAIN_MILLIS + "ms; dropping the rest");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (d != null) {
+                    Log.i(TAG, "Dashboard sent " + d.getFramesSent() + " frames, " + d.getBytesSent()
+                            + " bytes, " + d.getFailures() + " failures");
+                }
+                Log.i(TAG, "Mood windows: " + moodEngine.getProcessedWindows() + " processed, "
+                        + moodEngine.getRejectedWindows() + " rejected for artifacts");
+                Log.i(TAG, "Pipeline stats:\n" + p.report());
+                Log.i(TAG, "Latency (ms):\n" + tracer.report());
+                p.shutdown();
+            }
+        });
+    }
+
+
+    //--------------------------------------
+    // Power
+
+    /**
+     * Feeds the phone's battery level to the governor.  The sticky broadcast
+     * delivers the current level as soon as the receiver is registered.
+     */
+    private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            final int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            final int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            if (level < 0 || scale <= 0) {
+                return;
+            }
+            power.setPhoneLevel(100.0 * level / scale, status == BatteryManager.BATTERY_STATUS_CHARGING
+                    || status == BatteryManager.BATTERY_STATUS_FULL);
+        }
+    };
+
+    /**
+     * Starts a session at full power.  Run on the analysis thread.
+     */
+    private final Runnable startPower = new Runnable() {
+        @Override
+        public void run() {
+            power.start(System.currentTimeMillis());
+            applyPowerMode();
+        }
+    };
+
+    /**
+     * Moves the engines, the ticks and the subscriptions to the governor's
+     * mode.  Only run on the analysis thread, as a session starts or right
+     * after a decision.
+     */
+    private void applyPowerMode() {
+        final PowerMode mode = power.getMode();
+        Log.i(TAG, "Power mode " + mode + " for " + power.getReason() + ": " + mode.describe());
+        final int ticks = ticksPerDecision();
+        moodEngine.setTicksPerDecision(ticks);
+        for (Guest g : guests) {
+            g.moodEngine.setTicksPerDecision(ticks);
+        }
+        // Restart the ticks on the new hop, in step with the decisions.
+        analysisHandler.removeCallbacks(tick);
+        analysisHandler.postDelayed(tick, mode.getTickMillis());
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Muse m = muse;
+                if (m != null) {
+                    subscribe(m, HOST_OPTIONAL_TYPES);
+                }
+                for (Guest g : guests) {
+                    subscribe(g.muse, GUEST_OPTIONAL_TYPES);
+                }
+            }
+        });
+    }
+
+    private int ticksPerDecision() {
+        return LONG_INTERVAL / power.getMode().getTickMillis();
+    }
+
+    /**
+     * Registers for the optional packet types the power mode streams and
+     * unregisters from the others.
+     */
+    private void subscribe(Muse m, MuseDataPacketType[] types) {
+        final PowerMode mode = power.getMode();
+        for (MuseDataPacketType type : types) {
+            if (mode.isSubscribed(SampleKind.valueOf(type.name()))) {
+                m.registerDataListener(dataListener, type);
+            } else {
+                m.unregisterDataListener(dataListener, type);
+            }
+        }
+    }
+
+    /**
+     * @return false if the power mode does not stream packets of the kind, eg.
+     * to drop them from synthetic headbands as well.
+     */
+    boolean isStreamed(SampleKind kind) {
+        return power.getMode().isSubscribed(kind);
+    }
+
+    /**
+     * @return How often the activity should refresh the values shown.
+     */
+    int getUiRefreshMillis() {
+        return power.getMode().getUiRefreshMillis();
+    }
+
+    /**
+     * The EEG rate of a recording: the headband rate and the decimation the
+     * power mode applied to it.
+     */
+    private static final class EegRate {
+        final int headbandRate;
+        final int decimation;
+
+        EegRate(int headbandRate, int decimation) {
+            this.headbandRate = headbandRate;
+            this.decimation = decimation;
+        }
+
+        AnnotationData toAnnotation() {
+            final String json = "{\"headband_hz\":" + headbandRate + ",\"decimation\":" + decimation
+                    + ",\"recorded_hz\":" + ((double) headbandRate / decimation) + "}";
+            return new AnnotationData(json, AnnotationFormat.JSON, EEG_RATE_EVENT, "", "");
+        }
+    }
+
+    // The headband EEG rate, set as a pipeline starts.
+    private volatile int recordHeadbandRate;
+
+    // Only touched on the libmuse callback thread.
+    private int recordDecimation;
+    private int recordRate;
+    private PolyphaseResampler recordDecimator;
+    private long recordDelayMicros;
+    private double[] recordFrame = new double[0];
+    private float[] recordOut;
+
+    /**
+     * Records an EEG packet at the rate the power mode asks for.  Below the
+     * full rate the EEG is low-passed and decimated rather than thinned, so
+     * the recording has no gaps and no aliasing.  The output is stamped with
+     * the packet time less the filter delay, so it stays in line with the
+     * other packets.  Only called on the libmuse callback thread.
+     */
+    private void recordEeg(MuseDataPacket p) {
+        final int decimation = power.getMode().getRecordEegDecimation();
+        final int rate = recordHeadbandRate;
+        final int channels = (int) p.valuesSize();
+        if (decimation != recordDecimation || rate != recordRate || channels != recordFrame.length) {
+            recordDecimation = decimation;
+            recordRate = rate;
+            recordFrame = new double[channels];
+            if (decimation == 1) {
+                recordDecimator = null;
+            } else {
+                recordDecimator = PolyphaseResampler.decimator(channels, decimation, RESAMPLER_SPAN);
+                recordOut = new float[recordDecimator.maxOutputFrames(1) * channels];
+                // The filter is linear phase: a delay of half its length.
+                recordDelayMicros = rate > 0
+                        ? (long) ((recordDecimator.getTapsPerPhase() - 1) / 2.0 * 1e6 / rate) : 0;
+            }
+            queueRecord(new EegRate(rate, decimation));
+        }
+        if (recordDecimator == null) {
+            writeDataPacketToFile(p);
+            return;
+        }
+        final ArrayList<Double> values = p.values();
+        for (int c = 0; c < channels; c++) {
+            final double v = values.get(c);
+            // Lost samples come as NaN; hold the last value so the filter
+            // does not smear them over the following output.
+            if (v == v) {
+                recordFrame[c] = v;
+            }
+        }
+        final int frames = recordDecimator.process(recordFrame, recordOut);
+        for (int f = 0; f < frames; f++) {
+            final ArrayList<Double> out = new ArrayList<>(channels);
+            for (int c = 0; c < channels; c++) {
+                out.add((double) recordOut[f * channels + c]);
+            }
+            writeDataPacketToFile(MuseDataPacket.makePacket(MuseDataPacketType.EEG,
+                    p.timestamp() - recordDelayMicros, out));
+        }
+    }
+
+
+    //--------------------------------------
+    // File I/O
+
+    /**
+     * We don't want to block the packet handler while we write to a file, so the file
+     * writing is moved to a separate thread.
+     */
+    private final Thread fileThread = new Thread("recording") {
+        @Override
+        public void run() {
+            Looper.prepare();
+            final File dir = new File(getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS), SESSIONS_DIR);
+            // The session directory is created with the first segment.
+            recorder = new SegmentedRecorder<>(dir, System.currentTimeMillis(), MuseSegmentWriter.FACTORY,
+                    ".muse", SEGMENT_MILLIS, SEGMENT_BYTES,
+                    new RetentionPolicy(RETENTION_MILLIS, RETENTION_BYTES));
+            Log.i(TAG, "Writing sessions to: " + dir.getAbsolutePath());
+            fileHandler.set(new Handler());
+            Looper.loop();
+        }
+    };
+
+    /**
+     * Queues the provided MuseDataPacket for the current segment.  The first
+     * packet of a batch schedules writeBatch.
+     *
+     * @param p The data packet to write.
+     */
+    private void writeDataPacketToFile(final MuseDataPacket p) {
+        queueRecord(p);
+    }
+
+    /**
+     * Queues a packet or an EegRate for the file thread.
+     */
+    private void queueRecord(Object item) {
+        Handler h = fileHandler.get();
+        if (h == null || recorder == null) {
+            return;
+        }
+        final boolean first;
+        synchronized (recordLock) {
+            first = recordQueue.isEmpty();
+            recordQueue.add(item);
+        }
+        if (first) {
+            h.postDelayed(writeBatch, RECORD_BATCH_MILLIS);
+        }
+    }
+
+    /**
+     * Writes the queued packets to the current segment, rotating to a new one
+     * when it is due.  MuseFileWriter knows how to write all packet types
+     * generated from LibMuse.  Only run on the file thread.
+     */
+    private final Runnable writeBatch = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (recordLock) {
+                final ArrayList<Object> queued = recordQueue;
+                recordQueue = recordBatch;
+                recordBatch = queued;
+            }
+            if (recordBatch.isEmpty()) {
+                return;
+            }
+            try {
+                final MuseSegmentWriter w = recorder.writer(System.currentTimeMillis());
+                if (w != annotatedWriter && recordedRate != null) {
+                    // A new segment: say what rate its EEG is at.
+                    w.getWriter().addAnnotation(0, recordedRate.toAnnotation());
+                }
+                annotatedWriter = w;
+                for (int i = 0; i < recordBatch.size(); i++) {
+                    final Object item = recordBatch.get(i);
+                    if (item instanceof EegRate) {
+                        recordedRate = (EegRate) item;
+                        w.getWriter().addAnnotation(0, recordedRate.toAnnotation());
+                    } else {
+                        w.getWriter().addDataPacket(0, (MuseDataPacket) item);
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Could not record " + recordBatch.size() + " packets", e);
+            } finally {
+                recordBatch.clear();
+            }
+        }
+    };
+
+    /**
+     * Flushes all the data to the segment and closes it.  Packets after a
+     * reconnect go to a new segment of the same session.
+     */
+    private void saveFile() {
+        Handler h = fileHandler.get();
+        if (h != null && recorder != null) {
+            h.post(new Runnable() {
+                @Override
+                public void run() {
+                    writeBatch.run();
+                    MuseSegmentWriter w = recorder.currentWriter();
+                    if (w == null) {
+                        return;
+                    }
+                    // Annotation strings can be added to the file to
+                    // give context as to what is happening at that point in
+                    // time.  An annotation can be an arbitrary string or
+                    // may include additional AnnotationData.
+                    w.getWriter().addAnnotationString(0, "Disconnected");
+                    try {
+                        recorder.closeSegment(System.currentTimeMillis());
+                    } catch (IOException e) {
+                        Log.w(TAG, "Could not close recording", e);
+                    }
+                }
+            });
+        }
+    }
+
+
+    //--------------------------------------
+    // Listener translators
+    //
+    // Each of these classes extend from the appropriate listener and contain a weak reference
+    // to the service.  Each class simply forwards the messages it receives back to the service.
+    static class MuseL extends MuseListener {
+        final WeakReference<IngestionService> serviceRef;
+
+        MuseL(final WeakReference<IngestionService> serviceRef) {
+            this.serviceRef = serviceRef;
+        }
+
+        @Override
+        public void museListChanged() {
+            IngestionService s = serviceRef.get();
+            if (s != null) {
+                s.museListChanged();
+            }
+        }
+    }
+
+    static class ConnectionListener extends MuseConnectionListener {
+        final WeakReference<IngestionService> serviceRef;
+
+        ConnectionListener(final WeakReference<IngestionService> serviceRef) {
+            this.serviceRef = serviceRef;
+        }
+
+        @Override
+        public void receiveMuseConnectionPacket(final MuseConnectionPacket p, final Muse muse) {
+            IngestionService s = serviceRef.get();
+            if (s != null) {
+                s.receiveMuseConnectionPacket(p, muse);
+            }
+        }
+    }
+
+    static class DataListener extends MuseDataListener {
+        final WeakReference<IngestionService> serviceRef;
+
+        DataListener(final WeakReference<IngestionService> serviceRef) {
+            this.serviceRef = serviceRef;
+        }
+
+        @Override
+        public void receiveMuseDataPacket(final MuseDataPacket p, final Muse muse) {
+            IngestionService s = serviceRef.get();
+            if (s != null) {
+                s.receiveMuseDataPacket(p, muse);
+            }
+        }
+
+        @Override
+        public void receiveMuseArtifactPacket(final MuseArtifactPacket p, final Muse muse) {
+            IngestionService s = serviceRef.get();
+            if (s != null) {
+                s.receiveMuseArtifactPacket(p, muse);
+            }
+        }
+    }
+}
@@ -6,32 +6,31 @@
 package com.choosemuse.example.libmuse;
 
 import java.io.File;
-import java.lang.ref.WeakReference;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicReference;
 
+import com.choosemuse.example.libmuse.analysis.SnapshotPublisher;
+import com.choosemuse.example.libmuse.mood.Moods;
+import com.choosemuse.example.libmuse.music.AudioFeatureCache;
+import com.choosemuse.example.libmuse.music.AudioFeatures;
+import com.choosemuse.example.libmuse.music.TrackIndex;
+import com.choosemuse.example.libmuse.trace.LatencyTracer;
 import com.choosemuse.libmuse.AnnotationData;
-import com.choosemuse.libmuse.ConnectionState;
-import com.choosemuse.libmuse.Eeg;
-import com.choosemuse.libmuse.LibmuseVersion;
 import com.choosemuse.libmuse.MessageType;
 import com.choosemuse.libmuse.Muse;
-import com.choosemuse.libmuse.MuseArtifactPacket;
 import com.choosemuse.libmuse.MuseConfiguration;
-import com.choosemuse.libmuse.MuseConnectionListener;
 import com.choosemuse.libmuse.MuseConnectionPacket;
-import com.choosemuse.libmuse.MuseDataListener;
 import com.choosemuse.libmuse.MuseDataPacket;
-import com.choosemuse.libmuse.MuseDataPacketType;
 import com.choosemuse.libmuse.MuseFileFactory;
 import com.choosemuse.libmuse.MuseFileReader;
-import com.choosemuse.libmuse.MuseFileWriter;
-import com.choosemuse.libmuse.MuseListener;
-import com.choosemuse.libmuse.MuseManagerAndroid;
 import com.choosemuse.libmuse.MuseVersion;
 import com.choosemuse.libmuse.Result;
 import com.choosemuse.libmuse.ResultLevel;
@@ -44,24 +43,28 @@ import com.google.firebase.database.ValueEventListener;
 import android.Manifest;
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.content.ComponentName;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
-import android.os.Looper;
 import android.os.Handler;
+import android.os.IBinder;
 import android.util.Log;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.TextView;
+import android.widget.Toast;
 import android.bluetooth.BluetoothAdapter;
 
 
@@ -75,6 +78,10 @@ import org.w3c.dom.Text;
  * register for and receive EEG data and disconnect from the headband.
  * Saving EEG data to a .muse file is also covered.
  * <p>
+ * The connection, the data handling and the recording run in IngestionService
+ * so they survive this activity being paused; the activity binds to it to
+ * display the data and to play a song for each mood.
+ * <p>
  * For instructions on how to pair your headband with your Android device
  * please see:
  * http://developer.choosemuse.com/hardware-firmware/bluetooth-connectivity/developer-sdk-bluetooth-connectivity-2
@@ -91,7 +98,7 @@ import org.w3c.dom.Text;
  * 7. You can pause/resume data transmission with the button at the bottom of the screen.
  * 8. To disconnect from the headband, press "Disconnect"
  */
-public class MainActivity extends Activity implements OnClickListener {
+public class MainActivity extends Activity implements OnClickListener, IngestionService.Listener {
 
     /**
      * Tag used for logging purposes.
@@ -101,102 +108,87 @@ public class MainActivity extends Activity implements OnClickListener {
     private MediaPlayer mediaPlayer;
 
     /**
-     * The MuseManager is how you detect Muse headbands and receive notifications
-     * when the list of available headbands changes.
+     * The headband connection, the recording and the analysis live in the
+     * IngestionService, so they keep running while this activity is paused or
+     * recreated, eg. while Spotify plays the song we picked.  The activity
+     * starts the service, binds to it while it is visible and only displays
+     * what the service publishes.
      */
-    private MuseManagerAndroid manager;
+    private IngestionService service;
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = ((IngestionService.LocalBinder) binder).getService();
+            service.setListener(MainActivity.this);
+            if (!service.isConnected()) {
+                service.refresh();
+            }
+            museListChanged();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            service = null;
+        }
+    };
 
     /**
-     * A Muse refers to a Muse headband.  Use this to connect/disconnect from the
-     * headband, register listeners to receive EEG data and get headband
-     * configuration and version information.
+     * The UI thread's copies of the service's snapshots and the versions last
+     * displayed.  Comparing the versions tells us whether new data has been
+     * received.  We are displaying the EEG, ALPHA_ABSOLUTE and BETA_ABSOLUTE
+     * values in this example.
      */
-    private Muse muse;
+    private final double[] eegShown = new double[6];
+    private long eegShownVersion;
+    private final double[] alphaShown = new double[6];
+    private long alphaShownVersion;
+    private final double[] betaShown = new double[6];
+    private long betaShownVersion;
+
+    private String currentTrackId;
 
     /**
-     * The ConnectionListener will be notified whenever there is a change in
-     * the connection state of a headband, for example when the headband connects
-     * or disconnects.
-     * <p>
-     * Note that ConnectionListener is an inner class at the bottom of this file
-     * that extends MuseConnectionListener.
+     * The last mood decided, or null; the history button can list just this
+     * mood.  Only touched on the main thread.
      */
-    private ConnectionListener connectionListener;
+    private Moods lastMood;
 
     /**
-     * The DataListener is how you will receive EEG (and other) data from the
-     * headband.
-     * <p>
-     * Note that DataListener is an inner class at the bottom of this file
-     * that extends MuseDataListener.
+     * Songs are matched to the user's arousal/valence point by the energy and
+     * valence Spotify reports for them.  The features of the catalog are cached
+     * in FEATURE_CACHE_FILE and indexed on a background thread whenever the
+     * catalog changes; until the index exists getSong falls back to the mood
+     * buckets.  The engine's rounded arousal and valence are squashed into
+     * [0, 1] with tanh, AROUSAL_SPREAD and VALENCE_SPREAD being roughly a
+     * strong reading on each axis.
      */
-    private DataListener dataListener;
+    private static final String FEATURE_CACHE_FILE = "audio_features.bin";
+    private static final int FEATURE_CACHE_TRACKS = 5000;
+    private static final double AROUSAL_SPREAD = 50;
+    private static final double VALENCE_SPREAD = 5;
+    private static final int SONG_CANDIDATES = 5;
+    private static final String TRACK_URL = "https://open.spotify.com/track/";
+    private AudioFeatureCache featureCache;
+    private volatile TrackIndex trackIndex;
 
     /**
-     * Data comes in from the headband at a very fast rate; 220Hz, 256Hz or 500Hz,
-     * depending on the type of headband and the preset configuration.  We buffer the
-     * data that is read until we can update the UI.
-     * <p>
-     * The stale flags indicate whether or not new data has been received and the buffers
-     * hold the values of the last data packet received.  We are displaying the EEG, ALPHA_RELATIVE
-     * and ACCELEROMETER values in this example.
-     * <p>
-     * Note: the array lengths of the buffers are taken from the comments in
-     * MuseDataPacketType, which specify 3 values for accelerometer and 6
-     * values for EEG and EEG-derived packets.
+     * Runs indexCatalog's work one request at a time.  Calls made while a run
+     * is queued only replace the ids it will index, so a burst of catalog
+     * changes costs one extra run at most.
      */
-    private final double[] eegBuffer = new double[6];
-    private boolean eegStale;
-    private final double[] alphaBuffer = new double[6];
-    private boolean alphaStale;
-    //    private final double[] accelBuffer = new double[3];
-//    private boolean accelStale;
-    private final double[] betaBuffer = new double[6];
-    private boolean betaStale;
-
-    // The average of all channels for Alpha_Relative and Beta_Relative
-    private double avgAlpha;
-    private double avgBeta;
-
-    private double avgAlphaLong;
-    private double avgBetaLong;
-
-    private double eegLeft;
-    private double eegRight;
-
-    // For sampling
-    private double relativeX = 0.0;
-    private double relativeY = 0.0;
-    private int noOfTime = 0;
-    private double totalX = 0.0;
-    private double totalY = 0.0;
-
-    private final int SHORT_INTERVAL = 1000;
-    private final int LONG_INTERVAL = 10000;
-    private final int NUM_OF_TIMES = LONG_INTERVAL / SHORT_INTERVAL;
+    private final ExecutorService indexer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "track-index");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    private final AtomicReference<List<String>> pendingIndex = new AtomicReference<>();
 
     private long startingTime;
     private long endTime;
 
-    // Four emotions
-    private enum Moods {
-        HAPPY, ANGRY, RELAXED, SAD, NEUTRAL;
-
-        public String toString() {
-            switch (this) {
-                case HAPPY:
-                    return "Happy";
-                case ANGRY:
-                    return "Angry";
-                case SAD:
-                    return "Sad";
-                case RELAXED:
-                    return "Relaxed";
-            }
-            return "Neutral";
-        }
-    }
-
     /**
      * We will be updating the UI using a handler instead of in packet handlers because
      * packets come in at a very high frequency and it only makes sense to update the UI
@@ -217,25 +209,34 @@ public class MainActivity extends Activity implements OnClickListener {
      */
     private boolean dataTransmission = true;
 
-    /**
-     * To save data to a file, you should use a MuseFileWriter.  The MuseFileWriter knows how to
-     * serialize the data packets received from the headband into a compact binary format.
-     * To read the file back, you would use a MuseFileReader.
-     */
-    private final AtomicReference<MuseFileWriter> fileWriter = new AtomicReference<>();
-
-    /**
-     * We don't want file operations to slow down the UI, so we will defer those file operations
-     * to a handler on a separate thread.
-     */
-    private final AtomicReference<Handler> fileHandler = new AtomicReference<>();
-
     private TextView song;
     private TextView artist;
     private TextView emotion;
     private TextView oppEmotion;
 
-    private boolean connected = false;
+    /**
+     * Debug builds can run without a headband: started with
+     * EXTRA_SYNTHETIC_HEADBANDS > 0, eg.
+     * adb shell am start -n com.choosemuse.example.libmuse/.MainActivity --ei synthetic_headbands 1
+     * the service is fed by that many SyntheticHeadbands at
+     * EXTRA_SYNTHETIC_RATE Hz with the EegProfile named by
+     * EXTRA_SYNTHETIC_PROFILE, through the same receiveMuseDataPacket as a
+     * real Muse.  The activity passes the extras on when it starts the service.
+     */
+    public static final String EXTRA_SYNTHETIC_HEADBANDS = "synthetic_headbands";
+    public static final String EXTRA_SYNTHETIC_RATE = "synthetic_rate";
+    public static final String EXTRA_SYNTHETIC_PROFILE = "synthetic_profile";
+
+    /**
+     * The live dashboard's publish URL, from the web interface's live page.
+     * It can be pasted into the dialog behind the Live Dashboard button, or
+     * passed as this extra, eg.
+     * adb shell am start -n com.choosemuse.example.libmuse/.MainActivity
+     * -e dashboard_url ws://10.0.2.2:3000/live/publish?token=...
+     * Either way it is kept for later sessions and used from the next
+     * connection on.
+     */
+    public static final String EXTRA_DASHBOARD_URL = "dashboard_url";
 
     private long beginTime;
     private long stopTime;
@@ -249,6 +250,10 @@ public class MainActivity extends Activity implements OnClickListener {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         initializeMap();
+        String token = getString(R.string.spotify_access_token);
+        featureCache = new AudioFeatureCache(token.isEmpty() ? null : new SpotifyAudioFeatureSource(token),
+                FEATURE_CACHE_TRACKS);
+        indexCatalog();
 
         FirebaseDatabase database = FirebaseDatabase.getInstance();
         DatabaseReference myRef = database.getReference("choose-music");
@@ -268,6 +273,7 @@ public class MainActivity extends Activity implements OnClickListener {
                     songMap.put(entry.getKey(), songList);
                 }
                 Log.d("DATABASE", songMap.toString());
+                indexCatalog();
             }
 
             @Override
@@ -278,27 +284,6 @@ public class MainActivity extends Activity implements OnClickListener {
 
 
         beginTime = System.currentTimeMillis();
-        // We need to set the context on MuseManagerAndroid before we can do anything.
-        // This must come before other LibMuse API calls as it also loads the library.
-        manager = MuseManagerAndroid.getInstance();
-        manager.setContext(this);
-
-        Log.i(TAG, "LibMuse version=" + LibmuseVersion.instance().getString());
-
-        WeakReference<MainActivity> weakActivity =
-                new WeakReference<MainActivity>(this);
-        // Register a listener to receive connection state changes.
-        connectionListener = new ConnectionListener(weakActivity);
-        // Register a listener to receive data from a Muse.
-        dataListener = new DataListener(weakActivity);
-        // Register a listener to receive notifications of what Muse headbands
-        // we can connect to.
-        manager.setMuseListener(new MuseL(weakActivity));
-
-        // Refresh the listener
-        manager.stopListening();
-
-        manager.startListening();
 
         // Muse 2016 (MU-02) headbands use Bluetooth Low Energy technology to
         // simplify the connection process.  This requires access to the COARSE_LOCATION
@@ -309,28 +294,70 @@ public class MainActivity extends Activity implements OnClickListener {
         // Load and initialize our UI.
         initUI();
 
-        // Start up a thread for asynchronous file operations.
-        // This is only needed if you want to do File I/O.
-        fileThread.start();
-
-        // Start our asynchronous updates of the UI.
-        handler.post(tickUi);
-//        stopTime = System.currentTimeMillis();
-//        if (connected) {
-//            handler.post(getMood);
-//        } else if (stopTime - beginTime >= 20000) {
-//            Intent songIntent = new Intent(Intent.ACTION_VIEW);
-//            songIntent.setData(Uri.parse(getSong("happy")));
-//            startActivity(songIntent);
-//        }
-        handler.post(getMood);
+        final String dashboardUrl = getIntent().getStringExtra(EXTRA_DASHBOARD_URL);
+        if (dashboardUrl != null) {
+            saveDashboardUrl(dashboardUrl);
+        }
+    }
 
+    /**
+     * Keeps the live dashboard URL for the service, or clears it for "".
+     *
+     * @return false if the URL is not a ws:// or wss:// one.
+     */
+    private boolean saveDashboardUrl(String url) {
+        url = url.trim();
+        if (!url.isEmpty() && !url.startsWith("ws://") && !url.startsWith("wss://")) {
+            Toast.makeText(this, R.string.dashboard_invalid, Toast.LENGTH_LONG).show();
+            return false;
+        }
+        getSharedPreferences(IngestionService.PREFS, MODE_PRIVATE).edit()
+                .putString(IngestionService.PREF_DASHBOARD_URL, url).apply();
+        Log.i(TAG, url.isEmpty() ? "Live dashboard off" : "Live dashboard set");
+        return true;
+    }
 
+    /**
+     * Asks for the publish URL shown on the web interface's live page.
+     */
+    private void showDashboardDialog() {
+        final EditText input = new EditText(this);
+        input.setSingleLine(true);
+        input.setText(IngestionService.getDashboardUrl(this));
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.dashboard)
+                .setMessage(R.string.dashboard_description)
+                .setView(input)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        saveDashboardUrl(input.getText().toString());
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .create()
+                .show();
     }
 
     private Map<String, List<String>> songMap = new HashMap<>();
 
-    //open.spotify.com/track
+    /**
+     * @return The id in a track link, eg. 4uLU6hMCjMI75M1A2tKUQC for
+     * https://open.spotify.com/track/4uLU6hMCjMI75M1A2tKUQC?si=a1b2c3.
+     */
+    private static String trackIdOf(String url) {
+        int end = url.length();
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            end = query;
+        }
+        int fragment = url.indexOf('#');
+        if (fragment >= 0 && fragment < end) {
+            end = fragment;
+        }
+        return url.substring(url.lastIndexOf('/', end - 1) + 1, end);
+    }
+
     private void initializeMap() {
         List<String> happyList = new ArrayList<>();
         happyList.add("6NPVjNh8Jhru9xOmyQigds");
@@ -375,11 +402,111 @@ public class MainActivity extends Activity implements OnClickListener {
         return songMap.get(key).get(index);
     }
 
-    protected void onPause() {
-        super.onPause();
-        // It is important to call stopListening when the Activity is paused
-        // to avoid a resource leak from the LibMuse library.
-        manager.stopListening();
+    /**
+     * Picks one of the SONG_CANDIDATES tracks closest to the decision's
+     * arousal and valence, avoiding the track that just played.
+     */
+    private String getSong(Moods mood, double arousal, double valence) {
+        TrackIndex index = trackIndex;
+        if (index == null || index.size() == 0) {
+            return getSong(mood.getKey());
+        }
+        double songValence = 0.5 + 0.5 * Math.tanh(valence / VALENCE_SPREAD);
+        double energy = 0.5 + 0.5 * Math.tanh(arousal / AROUSAL_SPREAD);
+        AudioFeatures[] candidates = new AudioFeatures[SONG_CANDIDATES];
+        int n = index.nearest(songValence, energy, candidates);
+        AudioFeatures pick = candidates[(int) (Math.random() * n)];
+        if (n > 1 && pick.getTrackId().equals(currentTrackId)) {
+            pick = candidates[pick == candidates[0] ? 1 : 0];
+        }
+        return TRACK_URL + pick.getTrackId();
+    }
+
+    /**
+     * Fetches the features of every track in songMap that is not cached yet and
+     * rebuilds trackIndex, off the UI thread.  Without a Spotify token, or if
+     * the request fails, only the tracks already cached are indexed.  Runs
+     * never overlap; see indexer.
+     */
+    private void indexCatalog() {
+        List<String> catalog = new ArrayList<>();
+        for (List<String> songs : songMap.values()) {
+            for (String song : songs) {
+                catalog.add(trackIdOf(song));
+            }
+        }
+        final File cacheFile = new File(getFilesDir(), FEATURE_CACHE_FILE);
+        if (pendingIndex.getAndSet(catalog) != null) {
+            // A run is already queued and will pick up these ids.
+            return;
+        }
+        indexer.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<String> ids = pendingIndex.getAndSet(null);
+                try {
+                    if (featureCache.size() == 0) {
+                        featureCache.load(cacheFile);
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Ignoring audio feature cache", e);
+                }
+                List<AudioFeatures> features;
+                try {
+                    features = featureCache.getAll(ids);
+                    featureCache.save(cacheFile);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not fetch audio features", e);
+                    features = new ArrayList<>();
+                    for (String id : ids) {
+                        AudioFeatures f = featureCache.peek(id);
+                        if (f != null) {
+                            features.add(f);
+                        }
+                    }
+                }
+                trackIndex = new TrackIndex(features);
+                Log.i(TAG, "Indexed " + features.size() + " of " + ids.size() + " tracks");
+            }
+        });
+    }
+
+    /**
+     * Starts the service, passing on the synthetic headband extras if any, and
+     * binds to it while the activity is visible.
+     */
+    @Override
+    protected void onStart() {
+        super.onStart();
+        final Intent intent = new Intent(this, IngestionService.class);
+        if (getIntent().getExtras() != null) {
+            intent.putExtras(getIntent().getExtras());
+        }
+        startService(intent);
+        bindService(intent, serviceConnection, BIND_AUTO_CREATE);
+        // Start our asynchronous updates of the UI.
+        handler.post(tickUi);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        indexer.shutdown();
+    }
+
+    /**
+     * Unbinding does not stop the ingestion.  The service keeps running while
+     * a headband is connected and stops itself otherwise.
+     */
+    @Override
+    protected void onStop() {
+        super.onStop();
+        handler.removeCallbacks(tickUi);
+        if (service != null) {
+            service.setListener(null);
+            service = null;
+        }
+        unbindService(serviceConnection);
     }
 
     public boolean isBluetoothEnabled() {
@@ -389,59 +516,37 @@ public class MainActivity extends Activity implements OnClickListener {
     @Override
     public void onClick(View v) {
 
+        if (service == null) {
+            return;
+        }
+
         if (v.getId() == R.id.refresh) {
             // The user has pressed the "Refresh" button.
-            // Start listening for nearby or paired Muse headbands. We call stopListening
-            // first to make sure startListening will clear the list of headbands and start fresh.
-            manager.stopListening();
-
-            manager.startListening();
+            // Start listening for nearby or paired Muse headbands.
+            service.refresh();
 
         } else if (v.getId() == R.id.connect) {
 
             // The user has pressed the "Connect" button to connect to
             // the headband in the spinner.
-
-            // Listening is an expensive operation, so now that we know
-            // which headband the user wants to connect to we can stop
-            // listening for other headbands.
-            manager.stopListening();
-
-            List<Muse> availableMuses = manager.getMuses();
             Spinner musesSpinner = (Spinner) findViewById(R.id.muses_spinner);
 
             // Check that we actually have something to connect to.
-            if (availableMuses.size() < 1 || musesSpinner.getAdapter().getCount() < 1) {
+            if (musesSpinner.getAdapter().getCount() < 1 || !service.connect()) {
                 Log.w(TAG, "There is nothing to connect to");
-            } else {
-
-                // Connect to the first Muse by default
-                muse = availableMuses.get(0);
-                // Unregister all prior listeners and register our data listener to
-                // receive the MuseDataPacketTypes we are interested in.  If you do
-                // not register a listener for a particular data type, you will not
-                // receive data packets of that type.
-                muse.unregisterAllListeners();
-                muse.registerConnectionListener(connectionListener);
-                muse.registerDataListener(dataListener, MuseDataPacketType.EEG);
-                muse.registerDataListener(dataListener, MuseDataPacketType.ALPHA_ABSOLUTE);
-                muse.registerDataListener(dataListener, MuseDataPacketType.BETA_ABSOLUTE);
-                muse.registerDataListener(dataListener, MuseDataPacketType.ACCELEROMETER);
-                muse.registerDataListener(dataListener, MuseDataPacketType.BATTERY);
-                muse.registerDataListener(dataListener, MuseDataPacketType.DRL_REF);
-                muse.registerDataListener(dataListener, MuseDataPacketType.QUANTIZATION);
-
-                // Initiate a connection to the headband and stream the data asynchronously.
-                muse.runAsynchronously();
             }
 
         } else if (v.getId() == R.id.disconnect) {
 
             // The user has pressed the "Disconnect" button.
             // Disconnect from the selected Muse.
-            if (muse != null) {
-                muse.disconnect();
-            }
+            service.disconnect();
+
+        } else if (v.getId() == R.id.group) {
+
+            // The user has pressed the "Group" button.  The other headbands in
+            // the list join the connected one and the music follows them all.
+            Log.i(TAG, service.joinGroup() + " headbands joined the group");
 
         } else if (v.getId() == R.id.rescan) {
 
@@ -504,8 +609,12 @@ public class MainActivity extends Activity implements OnClickListener {
      * You will receive a callback to this method each time a headband is discovered.
      * In this example, we update the spinner with the MAC address of the headband.
      */
+    @Override
     public void museListChanged() {
-        final List<Muse> list = manager.getMuses();
+        if (service == null) {
+            return;
+        }
+        final List<Muse> list = service.getMuses();
         spinnerAdapter.clear();
         for (Muse m : list) {
             spinnerAdapter.add(m.getName() + " - " + m.getMacAddress());
@@ -519,138 +628,28 @@ public class MainActivity extends Activity implements OnClickListener {
      * @param p    A packet containing the current and prior connection states
      * @param muse The headband whose state changed.
      */
-    public void receiveMuseConnectionPacket(final MuseConnectionPacket p, final Muse muse) {
-
-        final ConnectionState current = p.getCurrentConnectionState();
-
-        // Format a message to show the change of connection state in the UI.
-        final String status = p.getPreviousConnectionState() + " -> " + current;
-        Log.i(TAG, status);
-
-        // Update the UI with the change in connection state.
-        handler.post(new Runnable() {
-            @Override
-            public void run() {
-
-                final TextView statusText = (TextView) findViewById(R.id.con_status);
-                statusText.setText(status);
-
-                final MuseVersion museVersion = muse.getMuseVersion();
-                final TextView museVersionText = (TextView) findViewById(R.id.version);
-                // If we haven't yet connected to the headband, the version information
-                // will be null.  You have to connect to the headband before either the
-                // MuseVersion or MuseConfiguration information is known.
-                if (museVersion != null) {
-                    final String version = museVersion.getFirmwareType() + " - "
-                            + museVersion.getFirmwareVersion() + " - "
-                            + museVersion.getProtocolVersion();
-                    museVersionText.setText(version);
-                } else {
-                    museVersionText.setText(R.string.undefined);
-                }
-            }
-        });
-
-        if (current == ConnectionState.CONNECTED) {
-            connected = true;
-        }
-
-        if (current == ConnectionState.DISCONNECTED) {
-            Log.i(TAG, "Muse disconnected:" + muse.getName());
-            // Save the data file once streaming has stopped.
-            saveFile();
-            // We have disconnected from the headband, so set our cached copy to null.
-            this.muse = null;
-        }
-    }
-
-    /**
-     * You will receive a callback to this method each time the headband sends a MuseDataPacket
-     * that you have registered.  You can use different listeners for different packet types or
-     * a single listener for all packet types as we have done here.
-     *
-     * @param p    The data packet containing the data from the headband (eg. EEG data)
-     * @param muse The headband that sent the information.
-     */
-    public void receiveMuseDataPacket(final MuseDataPacket p, final Muse muse) {
-        writeDataPacketToFile(p);
-
-        /**
-         * Things I am trying to do:
-         * Left brain & Right brain
-         * Agitated or not (Alpha-beta)
-         *
-         * If alpha is above a threshold, is calm
-         * If beta is above a threshold, is alert
-         */
-
-        // valuesSize returns the number of data values contained in the packet.
-        final long n = p.valuesSize();
-        switch (p.packetType()) {
-            case EEG:
-                assert (eegBuffer.length >= n);
-                getEegChannelValues(eegBuffer, p);
-                eegStale = true;
-                break;
-//            case ACCELEROMETER:
-//                assert(accelBuffer.length >= n);
-//                getAccelValues(p);
-//                accelStale = true;
-//                break;
-            case ALPHA_ABSOLUTE:
-                assert (alphaBuffer.length >= n);
-                getEegChannelValues(alphaBuffer, p);
-                alphaStale = true;
-                break;
-            case BETA_ABSOLUTE:
-                assert (betaBuffer.length >= n);
-                getEegChannelValues(betaBuffer, p);
-                betaStale = true;
-                break;
-            case BATTERY:
-            case DRL_REF:
-            case QUANTIZATION:
-            default:
-                break;
+    @Override
+    public void connectionChanged(final MuseConnectionPacket p, final Muse muse) {
+        // Show the change of connection state in the UI.
+        final String status = p.getPreviousConnectionState() + " -> " + p.getCurrentConnectionState();
+        final TextView statusText = (TextView) findViewById(R.id.con_status);
+        statusText.setText(status);
+
+        final MuseVersion museVersion = muse.getMuseVersion();
+        final TextView museVersionText = (TextView) findViewById(R.id.version);
+        // If we haven't yet connected to the headband, the version information
+        // will be null.  You have to connect to the headband before either the
+        // MuseVersion or MuseConfiguration information is known.
+        if (museVersion != null) {
+            final String version = museVersion.getFirmwareType() + " - "
+                    + museVersion.getFirmwareVersion() + " - "
+                    + museVersion.getProtocolVersion();
+            museVersionText.setText(version);
+        } else {
+            museVersionText.setText(R.string.undefined);
         }
     }
 
-    /**
-     * You will receive a callback to this method each time an artifact packet is generated if you
-     * have registered for the ARTIFACTS data type.  MuseArtifactPackets are generated when
-     * eye blinks are detected, the jaw is clenched and when the headband is put on or removed.
-     *
-     * @param p    The artifact packet with the data from the headband.
-     * @param muse The headband that sent the information.
-     */
-    public void receiveMuseArtifactPacket(final MuseArtifactPacket p, final Muse muse) {
-    }
-
-    /**
-     * Helper methods to get different packet values.  These methods simply store the
-     * data in the buffers for later display in the UI.
-     * <p>
-     * getEegChannelValue can be used for any EEG or EEG derived data packet type
-     * such as EEG, ALPHA_ABSOLUTE, ALPHA_RELATIVE or HSI_PRECISION.  See the documentation
-     * of MuseDataPacketType for all of the available values.
-     * Specific packet types like ACCELEROMETER, GYRO, BATTERY and DRL_REF have their own
-     * getValue methods.
-     */
-    private void getEegChannelValues(double[] buffer, MuseDataPacket p) {
-        buffer[0] = p.getEegChannelValue(Eeg.EEG1);
-        buffer[1] = p.getEegChannelValue(Eeg.EEG2);
-        buffer[2] = p.getEegChannelValue(Eeg.EEG3);
-        buffer[3] = p.getEegChannelValue(Eeg.EEG4);
-        buffer[4] = p.getEegChannelValue(Eeg.AUX_LEFT);
-        buffer[5] = p.getEegChannelValue(Eeg.AUX_RIGHT);
-    }
-
-//    private void getAccelValues(MuseDataPacket p) {
-//        accelBuffer[0] = p.getAccelerometerValue(Accelerometer.X);
-//        accelBuffer[1] = p.getAccelerometerValue(Accelerometer.Y);
-//        accelBuffer[2] = p.getAccelerometerValue(Accelerometer.Z);
-//    }
-
 
     //--------------------------------------
     // UI Specific methods
@@ -664,20 +663,18 @@ public class MainActivity extends Activity implements OnClickListener {
         recorderButton.setOnClickListener(new OnClickListener() {
             @Override
             public void onClick(View view) {
+                if (service == null) {
+                    return;
+                }
                 if (recorderButton.getText().toString().equals("Start Recording")) {
                     recorderButton.setText("Stop Recording");
                     startingTime = System.currentTimeMillis();
-                    noOfTime++;
+                    service.startCalibration();
                 } else {
                     recorderButton.setText("Start Recording");
                     endTime = System.currentTimeMillis();
                     long elapse = endTime - startingTime;
-                    // Arousal
-                    totalY += (avgBeta - avgAlpha) / (elapse / SHORT_INTERVAL);
-                    // Valence
-                    totalX += (eegLeft - eegRight) / (elapse / SHORT_INTERVAL);
-                    relativeX = totalX / noOfTime;
-                    relativeY = totalY / noOfTime;
+                    service.stopCalibration(elapse);
                 }
             }
         });
@@ -688,9 +685,39 @@ public class MainActivity extends Activity implements OnClickListener {
         connectButton.setOnClickListener(this);
         Button disconnectButton = (Button) findViewById(R.id.disconnect);
         disconnectButton.setOnClickListener(this);
+        Button groupButton = (Button) findViewById(R.id.group);
+        groupButton.setOnClickListener(this);
         Button rescanButton = (Button) findViewById(R.id.rescan);
         rescanButton.setOnClickListener(this);
 
+        // A tap lists the whole mood history, a long press only the current mood.
+        Button historyButton = (Button) findViewById(R.id.history);
+        historyButton.setOnClickListener(new OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                startActivity(new Intent(MainActivity.this, PlaylistActivity.class));
+            }
+        });
+        historyButton.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                Intent intent = new Intent(MainActivity.this, PlaylistActivity.class);
+                if (lastMood != null) {
+                    intent.putExtra(PlaylistActivity.EXTRA_MOOD, lastMood.getKey());
+                }
+                startActivity(intent);
+                return true;
+            }
+        });
+
+        Button dashboardButton = (Button) findViewById(R.id.dashboard);
+        dashboardButton.setOnClickListener(new OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                showDashboardDialog();
+            }
+        });
+
         spinnerAdapter = new ArrayAdapter<String>(this, android.R.layout.simple_spinner_item);
         Spinner musesSpinner = (Spinner) findViewById(R.id.muses_spinner);
         musesSpinner.setAdapter(spinnerAdapter);
@@ -708,248 +735,154 @@ public class MainActivity extends Activity implements OnClickListener {
     private final Runnable tickUi = new Runnable() {
         @Override
         public void run() {
-            if (eegStale) {
+            if (service == null) {
+                handler.postDelayed(tickUi, IngestionService.SHORT_INTERVAL);
+                return;
+            }
+            final SnapshotPublisher eegSnapshot = service.getEegSnapshot();
+            final SnapshotPublisher alphaSnapshot = service.getAlphaSnapshot();
+            final SnapshotPublisher betaSnapshot = service.getBetaSnapshot();
+            if (eegSnapshot.getVersion() != eegShownVersion) {
+                eegShownVersion = eegSnapshot.read(eegShown);
                 updateEeg();
             }
-//            if (accelStale) {
+//            if (accelSnapshot.getVersion() != accelShownVersion) {
+//                accelShownVersion = accelSnapshot.read(accelShown);
 //                updateAccel();
 //            }
-            if (alphaStale) {
+            if (alphaSnapshot.getVersion() != alphaShownVersion) {
+                alphaShownVersion = alphaSnapshot.read(alphaShown);
                 updateAlpha();
             }
-            if (betaStale) {
+            if (betaSnapshot.getVersion() != betaShownVersion) {
+                betaShownVersion = betaSnapshot.read(betaShown);
                 updateBeta();
             }
-
-            handler.postDelayed(tickUi, SHORT_INTERVAL);
+            // Slower on a low battery, see PowerMode.
+            handler.postDelayed(tickUi, service.getUiRefreshMillis());
         }
     };
 
 
     private boolean playingMusic = false;
     /**
-     * The following runnable deals with updating the mood
+     * Called every LONG_INTERVAL with the service's mood decision; starts a
+     * song for it unless one is already playing.
      */
-    private Runnable getMood = new Runnable() {
-        @Override
-        public void run() {
-            avgAlphaLong = avgAlphaLong / NUM_OF_TIMES;
-            avgBetaLong = avgBetaLong / NUM_OF_TIMES;
-            eegLeft = eegLeft / NUM_OF_TIMES;
-            eegRight = eegRight / NUM_OF_TIMES;
-
-            //ImageView background = (ImageView) findViewById(R.id.background_img);
-            if (!playingMusic) {
-                stopTime = System.currentTimeMillis();
-                if (connected) {
-                    String url = getSong(determineMood().toLowerCase());
-                    TextView mood = (TextView) findViewById(R.id.mood);
-                    mood.setText("You are feeling " + determineMood().toLowerCase());
-                    Intent songIntent = new Intent(Intent.ACTION_VIEW);
-                    songIntent.setData(Uri.parse(url));
-                    startActivity(songIntent);
-                    playingMusic = true;
-                } else if (stopTime - beginTime >= 25000) {
-                    playingMusic = true;
-                    TextView mood = (TextView) findViewById(R.id.mood);
-                    mood.setText("You are feeling happy");
-                    Intent songIntent = new Intent(Intent.ACTION_VIEW);
-                    songIntent.setData(Uri.parse(getSong("happy")));
-                    startActivity(songIntent);
-                }
+    @Override
+    public void moodDecided(Moods currentMood, double arousal, double valence, long tag) {
+        lastMood = currentMood;
+
+        //ImageView background = (ImageView) findViewById(R.id.background_img);
+        if (!playingMusic) {
+            stopTime = System.currentTimeMillis();
+            if (service != null && service.isConnected()) {
+                final LatencyTracer tracer = service.getTracer();
+                tracer.begin(IngestionService.TRACE_SWITCH);
+                String url = getSong(currentMood, arousal, valence);
+                TextView mood = (TextView) findViewById(R.id.mood);
+                mood.setText("You are feeling " + currentMood.getKey());
+                Intent songIntent = new Intent(Intent.ACTION_VIEW);
+                songIntent.setData(Uri.parse(url));
+                startActivity(songIntent);
+                currentTrackId = trackIdOf(url);
+                service.setCurrentTrack(currentTrackId);
+                playingMusic = true;
+                tracer.end(IngestionService.TRACE_SWITCH, tag);
+            } else if (stopTime - beginTime >= 25000) {
+                playingMusic = true;
+                TextView mood = (TextView) findViewById(R.id.mood);
+                mood.setText("You are feeling happy");
+                Intent songIntent = new Intent(Intent.ACTION_VIEW);
+                songIntent.setData(Uri.parse(getSong("happy")));
+                startActivity(songIntent);
             }
+        }
 
 
-//            artist.setText(currentSong.artist);
-//            song.setText(currentSong.name);
+//        artist.setText(currentSong.artist);
+//        song.setText(currentSong.name);
 //
-//            // If no other song is playing, update the whole thing
-//            if (!mediaPlayer.isPlaying()) {
+//        // If no other song is playing, update the whole thing
+//        if (!mediaPlayer.isPlaying()) {
 //
-//            }
-//            if(mood.toLowerCase().equals("happy")) {
-//                emotion.setText("happy");
-//                oppEmotion.setText("sad");
-//                background.setImageResource(R.drawable.happy2);
-//            }
-//            else if(mood.toLowerCase().equals("sad")){
-//                emotion.setText("sad");
-//                oppEmotion.setText("happy");
-//                background.setImageResource(R.drawable.sad2);
-//            }
-//            else if(mood.toLowerCase().equals("angry")) {
-//                emotion.setText("angry");
-//                oppEmotion.setText("relaxed");
-//                background.setImageResource(R.drawable.angry1);
-//            }
-//            else if(mood.toLowerCase().equals("relaxed")) {
-//                emotion.setText("relaxed");
-//                oppEmotion.setText("angry");
-//                background.setImageResource(R.drawable.neutral1);
-//            }
-//            else {
-//                emotion.setText("neutral");
-//                oppEmotion.setText("neutral");
-//                background.setImageResource(R.drawable.neutral2);
-//            }
-            avgAlphaLong = 0;
-            avgBetaLong = 0;
-            handler.postDelayed(getMood, LONG_INTERVAL);
-        }
-    };
+//        }
+//        if(mood.toLowerCase().equals("happy")) {
+//            emotion.setText("happy");
+//            oppEmotion.setText("sad");
+//            background.setImageResource(R.drawable.happy2);
+//        }
+//        else if(mood.toLowerCase().equals("sad")){
+//            emotion.setText("sad");
+//            oppEmotion.setText("happy");
+//            background.setImageResource(R.drawable.sad2);
+//        }
+//        else if(mood.toLowerCase().equals("angry")) {
+//            emotion.setText("angry");
+//            oppEmotion.setText("relaxed");
+//            background.setImageResource(R.drawable.angry1);
+//        }
+//        else if(mood.toLowerCase().equals("relaxed")) {
+//            emotion.setText("relaxed");
+//            oppEmotion.setText("angry");
+//            background.setImageResource(R.drawable.neutral1);
+//        }
+//        else {
+//            emotion.setText("neutral");
+//            oppEmotion.setText("neutral");
+//            background.setImageResource(R.drawable.neutral2);
+//        }
+    }
 
     /**
-     * The following methods update the TextViews in the UI with the data
-     * from the buffers.
+     * The following methods update the TextViews in the UI with the latest
+     * snapshots.
      */
 //    private void updateAccel() {
 //        TextView acc_x = (TextView)findViewById(R.id.acc_x);
 //        TextView acc_y = (TextView)findViewById(R.id.acc_y);
 //        TextView acc_z = (TextView)findViewById(R.id.acc_z);
-//        acc_x.setText(String.format("%6.2f", accelBuffer[0]));
-//        acc_y.setText(String.format("%6.2f", accelBuffer[1]));
-//        acc_z.setText(String.format("%6.2f", accelBuffer[2]));
+//        acc_x.setText(String.format("%6.2f", accelShown[0]));
+//        acc_y.setText(String.format("%6.2f", accelShown[1]));
+//        acc_z.setText(String.format("%6.2f", accelShown[2]));
 //    }
     private void updateEeg() {
         TextView tp9 = (TextView) findViewById(R.id.eeg_tp9);
         TextView fp1 = (TextView) findViewById(R.id.eeg_af7);
         TextView fp2 = (TextView) findViewById(R.id.eeg_af8);
         TextView tp10 = (TextView) findViewById(R.id.eeg_tp10);
-        tp9.setText(String.format("%6.2f", eegBuffer[0]));
-        fp1.setText(String.format("%6.2f", eegBuffer[1]));
-        fp2.setText(String.format("%6.2f", eegBuffer[2]));
-        tp10.setText(String.format("%6.2f", eegBuffer[3]));
-
-        eegLeft += eegBuffer[0] + eegBuffer[1];
-        eegRight += eegBuffer[2] + eegBuffer[3];
+        tp9.setText(String.format("%6.2f", eegShown[0]));
+        fp1.setText(String.format("%6.2f", eegShown[1]));
+        fp2.setText(String.format("%6.2f", eegShown[2]));
+        tp10.setText(String.format("%6.2f", eegShown[3]));
     }
 
     private void updateAlpha() {
         TextView elem1 = (TextView) findViewById(R.id.elem1);
-        elem1.setText(String.format("%6.2f", alphaBuffer[0]));
+        elem1.setText(String.format("%6.2f", alphaShown[0]));
         TextView elem2 = (TextView) findViewById(R.id.elem2);
-        elem2.setText(String.format("%6.2f", alphaBuffer[1]));
+        elem2.setText(String.format("%6.2f", alphaShown[1]));
         TextView elem3 = (TextView) findViewById(R.id.elem3);
-        elem3.setText(String.format("%6.2f", alphaBuffer[2]));
+        elem3.setText(String.format("%6.2f", alphaShown[2]));
         TextView elem4 = (TextView) findViewById(R.id.elem4);
-        elem4.setText(String.format("%6.2f", alphaBuffer[3]));
-
-        avgAlpha = getAvg(alphaBuffer[0], alphaBuffer[1], alphaBuffer[2], alphaBuffer[3]);
-
-        avgAlphaLong += avgAlpha;
+        elem4.setText(String.format("%6.2f", alphaShown[3]));
     }
 
     private void updateBeta() {
         TextView beta1 = (TextView) findViewById(R.id.beta1);
-        beta1.setText(String.format("%6.2f", betaBuffer[0]));
+        beta1.setText(String.format("%6.2f", betaShown[0]));
         TextView beta2 = (TextView) findViewById(R.id.beta2);
-        beta2.setText(String.format("%6.2f", betaBuffer[1]));
+        beta2.setText(String.format("%6.2f", betaShown[1]));
         TextView beta3 = (TextView) findViewById(R.id.beta3);
-        beta3.setText(String.format("%6.2f", betaBuffer[2]));
+        beta3.setText(String.format("%6.2f", betaShown[2]));
         TextView beta4 = (TextView) findViewById(R.id.beta4);
-        beta4.setText(String.format("%6.2f", betaBuffer[3]));
-
-        avgBeta = getAvg(betaBuffer[0], betaBuffer[1], betaBuffer[2], betaBuffer[3]);
-
-        avgBetaLong += avgBeta;
-    }
-
-    private double getAvg(double... nums) {
-        double sum = 0;
-        int count = 0;
-        for (double d : nums) {
-            if (d > 0) {
-                sum += d;
-                count++;
-            }
-        }
-        return (count > 0) ? (sum / count) : 0;
-    }
-
-    // Determine which mood the user is in
-    private String determineMood() {
-        // Change valence values
-        double valence = Math.round(eegRight / 50 - eegLeft / 50 - relativeX / 50);
-        double arousal = Math.round(avgBetaLong * 100 - avgAlphaLong * 100 - relativeY * 100);
-        if ((arousal > 0) && (valence > 0)) {
-            return (Moods.HAPPY.toString());
-        } else if ((arousal > 0) && (valence < 0)) {
-            return (Moods.ANGRY.toString());
-        } else if ((arousal < 0) && (valence > 0)) {
-            return (Moods.RELAXED.toString());
-        } else if ((arousal < 0) && (valence < 0)) {
-            return (Moods.SAD.toString());
-        }
-        return (Moods.NEUTRAL.toString());
+        beta4.setText(String.format("%6.2f", betaShown[3]));
     }
 
 
     //--------------------------------------
     // File I/O
 
-    /**
-     * We don't want to block the UI thread while we write to a file, so the file
-     * writing is moved to a separate thread.
-     */
-    private final Thread fileThread = new Thread() {
-        @Override
-        public void run() {
-            Looper.prepare();
-            fileHandler.set(new Handler());
-            final File dir = getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS);
-            final File file = new File(dir, "new_muse_file.muse");
-            // MuseFileWriter will append to an existing file.
-            // In this case, we want to start fresh so the file
-            // if it exists.
-            if (file.exists()) {
-                file.delete();
-            }
-            Log.i(TAG, "Writing data to: " + file.getAbsolutePath());
-            fileWriter.set(MuseFileFactory.getMuseFileWriter(file));
-            Looper.loop();
-        }
-    };
-
-    /**
-     * Writes the provided MuseDataPacket to the file.  MuseFileWriter knows
-     * how to write all packet types generated from LibMuse.
-     *
-     * @param p The data packet to write.
-     */
-    private void writeDataPacketToFile(final MuseDataPacket p) {
-        Handler h = fileHandler.get();
-        if (h != null) {
-            h.post(new Runnable() {
-                @Override
-                public void run() {
-                    fileWriter.get().addDataPacket(0, p);
-                }
-            });
-        }
-    }
-
-    /**
-     * Flushes all the data to the file and closes the file writer.
-     */
-    private void saveFile() {
-        Handler h = fileHandler.get();
-        if (h != null) {
-            h.post(new Runnable() {
-                @Override
-                public void run() {
-                    MuseFileWriter w = fileWriter.get();
-                    // Annotation strings can be added to the file to
-                    // give context as to what is happening at that point in
-                    // time.  An annotation can be an arbitrary string or
-                    // may include additional AnnotationData.
-                    w.addAnnotationString(0, "Disconnected");
-                    w.flush();
-                    w.close();
-                }
-            });
-        }
-    }
-
     /**
      * Reads the provided .muse file and prints the data to the logcat.
      *
@@ -1017,53 +950,4 @@ public class MainActivity extends Activity implements OnClickListener {
             res = fileReader.gotoNextMessage();
         }
     }
-
-    //--------------------------------------
-    // Listener translators
-    //
-    // Each of these classes extend from the appropriate listener and contain a weak reference
-    // to the activity.  Each class simply forwards the messages it receives back to the Activity.
-    class MuseL extends MuseListener {
-        final WeakReference<MainActivity> activityRef;
-
-        MuseL(final WeakReference<MainActivity> activityRef) {
-            this.activityRef = activityRef;
-        }
-
-        @Override
-        public void museListChanged() {
-            activityRef.get().museListChanged();
-        }
-    }
-
-    class ConnectionListener extends MuseConnectionListener {
-        final WeakReference<MainActivity> activityRef;
-
-        ConnectionListener(final WeakReference<MainActivity> activityRef) {
-            this.activityRef = activityRef;
-        }
-
-        @Override
-        public void receiveMuseConnectionPacket(final MuseConnectionPacket p, final Muse muse) {
-            activityRef.get().receiveMuseConnectionPacket(p, muse);
-        }
-    }
-
-    class DataListener extends MuseDataListener {
-        final WeakReference<MainActivity> activityRef;
-
-        DataListener(final WeakReference<MainActivity> activityRef) {
-            this.activityRef = activityRef;
-        }
-
-        @Override
-        public void receiveMuseDataPacket(final MuseDataPacket p, final Muse muse) {
-            activityRef.get().receiveMuseDataPacket(p, muse);
-        }
-
-        @Override
-        public void receiveMuseArtifactPacket(final MuseArtifactPacket p, final Muse muse) {
-            activityRef.get().receiveMuseArtifactPacket(p, muse);
-        }
-    }
 }
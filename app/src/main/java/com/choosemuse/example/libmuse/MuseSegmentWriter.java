@@ -0,0 +1,50 @@
+package com.choosemuse.example.libmuse;
+
+import com.choosemuse.example.libmuse.recording.SegmentWriter;
+import com.choosemuse.example.libmuse.recording.SegmentWriterFactory;
+import com.choosemuse.libmuse.MuseFileFactory;
+import com.choosemuse.libmuse.MuseFileWriter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A .muse segment of a session recording.
+ */
+class MuseSegmentWriter implements SegmentWriter {
+
+    static final SegmentWriterFactory<MuseSegmentWriter> FACTORY = new SegmentWriterFactory<MuseSegmentWriter>() {
+        @Override
+        public MuseSegmentWriter create(File file) throws IOException {
+            return new MuseSegmentWriter(file);
+        }
+    };
+
+    private final File file;
+    private final MuseFileWriter writer;
+
+    MuseSegmentWriter(File file) throws IOException {
+        this.file = file;
+        this.writer = MuseFileFactory.getMuseFileWriter(file);
+        if (writer == null) {
+            throw new IOException("Cannot open " + file);
+        }
+    }
+
+    MuseFileWriter getWriter() {
+        return writer;
+    }
+
+    @Override
+    public long size() {
+        return file.length() + writer.getBufferedMessagesSize();
+    }
+
+    @Override
+    public void close() throws IOException {
+        boolean flushed = writer.flush();
+        if (!writer.close() || !flushed) {
+            throw new IOException("Cannot close " + file);
+        }
+    }
+}
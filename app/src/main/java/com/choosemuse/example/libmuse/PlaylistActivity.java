@@ -5,46 +5,134 @@ import android.app.LoaderManager;
 import android.content.CursorLoader;
 import android.content.Loader;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.os.Bundle;
-import android.app.Activity;
-import android.provider.ContactsContract;
+import android.text.format.DateUtils;
+import android.view.View;
+import android.widget.AbsListView;
 import android.widget.SimpleCursorAdapter;
+import android.widget.TextView;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 
-public class PlaylistActivity extends ListActivity implements LoaderManager.LoaderCallbacks<Cursor>
+/**
+ * Lists the mood history recorded by IngestionService, newest first.
+ * <p>
+ * The history can grow to tens of thousands of rows, so it is never loaded in
+ * one go.  Each page of PAGE_SIZE rows has its own loader, whose id is the page
+ * number, and selects the rows older than the last row of the previous page.
+ * The pages are shown through one MergeCursor; when the user scrolls within
+ * half a page of the end, the next page is loaded.
+ * <p>
+ * Start it with EXTRA_MOOD set to a mood key, eg. "happy", to only list that
+ * mood.
+ */
+public class PlaylistActivity extends ListActivity
+        implements LoaderManager.LoaderCallbacks<Cursor>, AbsListView.OnScrollListener
 {
 
+    public static final String EXTRA_MOOD = "mood";
+
+    static final int PAGE_SIZE = 50;
+
+    private static final String ARG_AFTER_TIMESTAMP = "afterTimestamp";
+    private static final String ARG_AFTER_ID = "afterId";
+
     // This is the Adapter being used to display the list's data
     SimpleCursorAdapter mAdapter;
 
-    static final String[] PROJECTION = new String[] {ContactsContract.Data._ID,
-            ContactsContract.Data.DISPLAY_NAME};
+    static final String[] PROJECTION = new String[] {HistoryContract._ID,
+            HistoryContract.TIMESTAMP, HistoryContract.MOOD, HistoryContract.TRACK_ID};
 
-    // This is the select criteria
-    static final String SELECTION = "((" +
-            ContactsContract.Data.DISPLAY_NAME + " NOTNULL) AND (" +
-            ContactsContract.Data.DISPLAY_NAME + " != '' ))";
+    // The loaded pages, indexed by loader id
+    private final List<Cursor> pages = new ArrayList<>();
+
+    private String mood;
+    private long lastTimestamp = Long.MAX_VALUE;
+    private long lastId;
+    private boolean loading;
+    private boolean exhausted;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_playlist);
+        mood = getIntent().getStringExtra(EXTRA_MOOD);
+
+        mAdapter = new SimpleCursorAdapter(this, android.R.layout.simple_list_item_2, null,
+                new String[] {HistoryContract.MOOD, HistoryContract.TIMESTAMP},
+                new int[] {android.R.id.text1, android.R.id.text2}, 0);
+        mAdapter.setViewBinder(new SimpleCursorAdapter.ViewBinder() {
+            @Override
+            public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
+                if (columnIndex != cursor.getColumnIndex(HistoryContract.TIMESTAMP)) {
+                    return false;
+                }
+                String when = DateUtils.formatDateTime(PlaylistActivity.this, cursor.getLong(columnIndex),
+                        DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_TIME);
+                int track = cursor.getColumnIndex(HistoryContract.TRACK_ID);
+                ((TextView) view).setText(cursor.isNull(track) ? when : when + "  " + cursor.getString(track));
+                return true;
+            }
+        });
+        setListAdapter(mAdapter);
+        getListView().setOnScrollListener(this);
+
+        loadNextPage();
+    }
+
+    private void loadNextPage() {
+        if (loading || exhausted) {
+            return;
+        }
+        loading = true;
+        Bundle args = new Bundle();
+        args.putLong(ARG_AFTER_TIMESTAMP, lastTimestamp);
+        args.putLong(ARG_AFTER_ID, lastId);
+        // After a configuration change this hands back the page already loaded.
+        getLoaderManager().initLoader(pages.size(), args, this);
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_SIZE / 2) {
+            loadNextPage();
+        }
     }
 
     // Called when a new Loader needs to be created
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        // Now create and return a CursorLoader that will take care of
-        // creating a Cursor for the data being displayed.
-        return new CursorLoader(this, ContactsContract.Data.CONTENT_URI,
-                PROJECTION, SELECTION, null, null);
+        long afterTimestamp = args.getLong(ARG_AFTER_TIMESTAMP);
+        long afterId = args.getLong(ARG_AFTER_ID);
+        return new CursorLoader(this, HistoryContract.page(PAGE_SIZE), PROJECTION,
+                HistoryContract.pageSelection(mood, afterTimestamp),
+                HistoryContract.pageSelectionArgs(mood, afterTimestamp, afterId),
+                HistoryContract.SORT_NEWEST_FIRST);
     }
 
     // Called when a previously created loader has finished loading
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Swap the new cursor in.  (The framework will take care of closing the
-        // old cursor once we return.)
-        mAdapter.swapCursor(data);
+        int page = loader.getId();
+        if (page < pages.size()) {
+            pages.set(page, data);
+        } else {
+            pages.add(data);
+        }
+        if (page == pages.size() - 1) {
+            exhausted = data.getCount() < PAGE_SIZE;
+            if (data.moveToLast()) {
+                lastTimestamp = data.getLong(data.getColumnIndex(HistoryContract.TIMESTAMP));
+                lastId = data.getLong(data.getColumnIndex(HistoryContract._ID));
+            }
+            loading = false;
+        }
+        // The loaders own the page cursors, so the old MergeCursor is not closed.
+        mAdapter.swapCursor(new MergeCursor(pages.toArray(new Cursor[pages.size()])));
     }
 
     // Called when a previously created loader is reset, making the data unavailable
@@ -53,8 +141,9 @@ public class PlaylistActivity extends ListActivity implements LoaderManager.Load
         // above is about to be closed.  We need to make sure we are no
         // longer using it.
         mAdapter.swapCursor(null);
+        int page = loader.getId();
+        if (page < pages.size()) {
+            pages.set(page, null);
+        }
     }
-
-
-
 }
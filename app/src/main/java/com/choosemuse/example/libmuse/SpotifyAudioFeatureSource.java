@@ -0,0 +1,74 @@
+package com.choosemuse.example.libmuse;
+
+import com.choosemuse.example.libmuse.music.AudioFeatureSource;
+import com.choosemuse.example.libmuse.music.AudioFeatures;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import kaaes.spotify.webapi.android.SpotifyApi;
+import kaaes.spotify.webapi.android.SpotifyService;
+import kaaes.spotify.webapi.android.models.AudioFeaturesTrack;
+import kaaes.spotify.webapi.android.models.AudioFeaturesTracks;
+import retrofit.RequestInterceptor;
+import retrofit.RestAdapter;
+import retrofit.RetrofitError;
+
+/**
+ * Fetches audio features from the Spotify Web API, one request per batch.
+ * The calls are synchronous, so use it off the UI thread.
+ */
+class SpotifyAudioFeatureSource implements AudioFeatureSource {
+
+    private final SpotifyService spotify;
+
+    SpotifyAudioFeatureSource(String accessToken) {
+        this(accessToken, SpotifyApi.SPOTIFY_WEB_API_ENDPOINT);
+    }
+
+    /**
+     * @param endpoint The Web API base URL, eg. a local stub server in tests.
+     */
+    SpotifyAudioFeatureSource(final String accessToken, String endpoint) {
+        // SpotifyApi always talks to the real endpoint, so build the same
+        // service on our own adapter.
+        spotify = new RestAdapter.Builder()
+                .setEndpoint(endpoint)
+                .setRequestInterceptor(new RequestInterceptor() {
+                    @Override
+                    public void intercept(RequestFacade request) {
+                        request.addHeader("Authorization", "Bearer " + accessToken);
+                    }
+                })
+                .build()
+                .create(SpotifyService.class);
+    }
+
+    @Override
+    public List<AudioFeatures> fetch(List<String> trackIds) throws IOException {
+        StringBuilder ids = new StringBuilder();
+        for (String id : trackIds) {
+            if (ids.length() > 0) {
+                ids.append(',');
+            }
+            ids.append(id);
+        }
+        final AudioFeaturesTracks response;
+        try {
+            response = spotify.getTracksAudioFeatures(ids.toString());
+        } catch (RetrofitError e) {
+            throw new IOException("audio-features request failed", e);
+        }
+        List<AudioFeatures> out = new ArrayList<>();
+        if (response.audio_features != null) {
+            for (AudioFeaturesTrack t : response.audio_features) {
+                // Unknown ids come back as null entries.
+                if (t != null) {
+                    out.add(new AudioFeatures(t.id, t.valence, t.energy, t.tempo));
+                }
+            }
+        }
+        return out;
+    }
+}
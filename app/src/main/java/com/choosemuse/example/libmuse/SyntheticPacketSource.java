@@ -0,0 +1,57 @@
+package com.choosemuse.example.libmuse;
+
+import com.choosemuse.example.libmuse.analysis.ArtifactDetector;
+import com.choosemuse.example.libmuse.analysis.SampleKind;
+import com.choosemuse.example.libmuse.analysis.SampleListener;
+import com.choosemuse.libmuse.MuseArtifactPacket;
+import com.choosemuse.libmuse.MuseDataPacket;
+import com.choosemuse.libmuse.MuseDataPacketType;
+
+import java.util.ArrayList;
+
+/**
+ * Turns the samples of a {@link com.choosemuse.example.libmuse.loadgen.SyntheticHeadband}
+ * into real libmuse packets and hands them to IngestionService.receiveMuseDataPacket
+ * and receiveMuseArtifactPacket, the same entry points the DataListener uses.  This lets the whole app, recording
+ * included, run against virtual headbands, eg. at 500Hz without a Muse.
+ * <p>
+ * The packets are built by libmuse itself, so the MuseFileWriter accepts them.
+ * libmuse calls the DataListener from one thread only; when several headbands
+ * share the service their sources share a lock to keep that guarantee.
+ */
+class SyntheticPacketSource implements SampleListener {
+
+    private final IngestionService service;
+    private final Object lock;
+
+    SyntheticPacketSource(IngestionService service, Object lock) {
+        this.service = service;
+        this.lock = lock;
+    }
+
+    @Override
+    public void receiveSample(SampleKind kind, long timestamp, double[] values) {
+        if (!service.isStreamed(kind)) {
+            // A headband would not send what the service has unsubscribed from.
+            return;
+        }
+        if (kind == SampleKind.ARTIFACTS) {
+            // libmuse delivers artifacts as their own packet type.
+            final MuseArtifactPacket a = new MuseArtifactPacket(values[ArtifactDetector.HEADBAND_ON] != 0,
+                    values[ArtifactDetector.BLINK] != 0, values[ArtifactDetector.JAW_CLENCH] != 0, timestamp);
+            synchronized (lock) {
+                service.receiveMuseArtifactPacket(a, null);
+            }
+            return;
+        }
+        final MuseDataPacketType type = MuseDataPacketType.valueOf(kind.name());
+        final ArrayList<Double> list = new ArrayList<>(values.length);
+        for (double v : values) {
+            list.add(v);
+        }
+        final MuseDataPacket p = MuseDataPacket.makePacket(type, timestamp, list);
+        synchronized (lock) {
+            service.receiveMuseDataPacket(p, null);
+        }
+    }
+}
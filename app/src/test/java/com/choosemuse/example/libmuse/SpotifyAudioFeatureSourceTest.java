@@ -0,0 +1,105 @@
+package com.choosemuse.example.libmuse;
+
+import com.choosemuse.example.libmuse.music.AudioFeatures;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the Web API client against a local server standing in for
+ * api.spotify.com, so the request it sends and the parsing of the reply are
+ * checked without a network or a token.
+ */
+public class SpotifyAudioFeatureSourceTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private HttpServer server;
+    private String endpoint;
+
+    // What the stub answers with, and what it saw of the last request.
+    private volatile int status = 200;
+    private volatile String body = "{}";
+    private volatile String lastQuery;
+    private volatile String lastAuthorization;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/audio-features", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                lastQuery = exchange.getRequestURI().getQuery();
+                lastAuthorization = exchange.getRequestHeaders().getFirst("Authorization");
+                byte[] reply = body.getBytes(UTF8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(status, reply.length);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(reply);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+        server.start();
+        endpoint = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void fetchesOneBatchAndSkipsUnknownIds() throws Exception {
+        body = "{\"audio_features\": ["
+                + "{\"id\": \"a\", \"valence\": 0.25, \"energy\": 0.75, \"tempo\": 128.5},"
+                + "null,"
+                + "{\"id\": \"c\", \"valence\": 1, \"energy\": 0, \"tempo\": 90}]}";
+        SpotifyAudioFeatureSource source = new SpotifyAudioFeatureSource("token", endpoint);
+        List<AudioFeatures> features = source.fetch(Arrays.asList("a", "b", "c"));
+
+        assertEquals("ids=a,b,c", lastQuery);
+        assertEquals("Bearer token", lastAuthorization);
+        assertEquals(2, features.size());
+        assertEquals("a", features.get(0).getTrackId());
+        assertEquals(0.25f, features.get(0).getValence(), 0);
+        assertEquals(0.75f, features.get(0).getEnergy(), 0);
+        assertEquals(128.5f, features.get(0).getTempo(), 0);
+        assertEquals("c", features.get(1).getTrackId());
+    }
+
+    @Test
+    public void emptyRepliesGiveNoFeatures() throws Exception {
+        SpotifyAudioFeatureSource source = new SpotifyAudioFeatureSource("token", endpoint);
+        assertEquals(0, source.fetch(Arrays.asList("a")).size());
+    }
+
+    @Test
+    public void errorsSurfaceAsIOException() throws Exception {
+        status = 401;
+        body = "{\"error\": {\"status\": 401, \"message\": \"The access token expired\"}}";
+        SpotifyAudioFeatureSource source = new SpotifyAudioFeatureSource("expired", endpoint);
+        try {
+            source.fetch(Arrays.asList("a"));
+            fail("expected an IOException");
+        } catch (IOException expected) {
+            // AudioFeatureCache keeps what it has cached and retries later.
+        }
+    }
+}
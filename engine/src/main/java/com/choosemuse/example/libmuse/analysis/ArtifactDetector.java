@@ -0,0 +1,105 @@
+package com.choosemuse.example.libmuse.analysis;
+
+/**
+ * Marks the time ranges in which EEG is contaminated, so the analysis can skip
+ * them instead of folding blinks and head movements into the mood.
+ * <p>
+ * Two kinds of samples are used.  ARTIFACTS samples carry the libmuse artifact
+ * flags, at the HEADBAND_ON, BLINK and JAW_CLENCH indices (1 for true): a blink
+ * or jaw clench contaminates the following BLINK_HOLD_MICROS or
+ * JAW_HOLD_MICROS, and the headband being off contaminates everything until
+ * OFF_HEAD_HOLD_MICROS after it is back on.  ACCELEROMETER samples count as
+ * head movement when their magnitude strays more than MOVEMENT_G from the
+ * slowly tracked gravity, and contaminate the following MOVEMENT_HOLD_MICROS.
+ * <p>
+ * Samples are taken on one thread.  The end of the latest contaminated range
+ * is published through a volatile, so another thread can ask whether a window
+ * it is about to analyse was contaminated.
+ */
+public class ArtifactDetector implements SampleListener {
+
+    public static final int HEADBAND_ON = 0;
+    public static final int BLINK = 1;
+    public static final int JAW_CLENCH = 2;
+
+    public static final long BLINK_HOLD_MICROS = 400000;
+    public static final long JAW_HOLD_MICROS = 500000;
+    public static final long OFF_HEAD_HOLD_MICROS = 500000;
+    public static final long MOVEMENT_HOLD_MICROS = 1000000;
+    public static final double MOVEMENT_G = 0.1;
+
+    // How quickly the gravity estimate follows the accelerometer, per sample.
+    private static final double GRAVITY_SMOOTHING = 0.02;
+
+    private double gravity = Double.NaN;
+    private volatile long contaminatedUntil = Long.MIN_VALUE;
+
+    @Override
+    public void receiveSample(SampleKind kind, long timestamp, double[] values) {
+        switch (kind) {
+            case ARTIFACTS:
+                if (values[HEADBAND_ON] == 0) {
+                    // Held past the next sample, which may say it is still off.
+                    contaminate(timestamp, OFF_HEAD_HOLD_MICROS);
+                }
+                if (values[BLINK] != 0) {
+                    contaminate(timestamp, BLINK_HOLD_MICROS);
+                }
+                if (values[JAW_CLENCH] != 0) {
+                    contaminate(timestamp, JAW_HOLD_MICROS);
+                }
+                break;
+            case ACCELEROMETER:
+                final double x = values[0];
+                final double y = values[1];
+                final double z = values[2];
+                final double magnitude = Math.sqrt(x * x + y * y + z * z);
+                if (magnitude != magnitude) {
+                    break;
+                }
+                if (gravity != gravity) {
+                    gravity = magnitude;
+                }
+                if (Math.abs(magnitude - gravity) > MOVEMENT_G) {
+                    contaminate(timestamp, MOVEMENT_HOLD_MICROS);
+                } else {
+                    gravity += GRAVITY_SMOOTHING * (magnitude - gravity);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void contaminate(long timestamp, long holdMicros) {
+        final long until = timestamp + holdMicros;
+        if (until > contaminatedUntil) {
+            contaminatedUntil = until;
+        }
+    }
+
+    /**
+     * @return The end of the latest contaminated range, or Long.MIN_VALUE if
+     * nothing was contaminated yet.  A window from a timestamp before this was
+     * at least partly contaminated.  May be called from any thread.
+     */
+    public long getContaminatedUntil() {
+        return contaminatedUntil;
+    }
+
+    /**
+     * @return true if a sample at the timestamp falls in a contaminated range.
+     */
+    public boolean isContaminated(long timestamp) {
+        return timestamp < contaminatedUntil;
+    }
+
+    /**
+     * Forgets the contaminated ranges and the gravity estimate, eg. when a
+     * new headband connects.
+     */
+    public void reset() {
+        gravity = Double.NaN;
+        contaminatedUntil = Long.MIN_VALUE;
+    }
+}
@@ -0,0 +1,169 @@
+package com.choosemuse.example.libmuse.analysis;
+
+/**
+ * The coefficients of a cascade of second order IIR sections (biquads) for one
+ * sample rate, run by a {@link BiquadFilterBank}.
+ * <p>
+ * Sections are designed with the usual bilinear transform formulas: notches at
+ * the mains frequencies, a second order Butterworth high-pass to take out DC
+ * drift and a fourth order Butterworth low-pass.  Sections at or above the
+ * Nyquist frequency are left out, eg. the 60Hz notch at 100Hz.
+ * <p>
+ * The EEG designs for the headband rates in SUPPORTED_RATES are built once
+ * when the class loads, so connecting a headband only allocates the filter
+ * state.  Designs are immutable and may be shared between banks and threads.
+ */
+public final class BiquadDesign {
+
+    public static final int[] SUPPORTED_RATES = {100, 220, 256, 500};
+    public static final double[] MAINS_HZ = {50, 60};
+    public static final double EEG_HIGH_PASS_HZ = 1;
+    public static final double EEG_LOW_PASS_HZ = 40;
+
+    /**
+     * Width of the notches; a Q of 30 removes about 2Hz around 60Hz.
+     */
+    public static final double NOTCH_Q = 30;
+
+    private static final double[] BUTTERWORTH_2 = {Math.sqrt(0.5)};
+    private static final double[] BUTTERWORTH_4 = {0.54119610, 1.30656296};
+
+    private static final int NOTCH = 0;
+    private static final int HIGH_PASS = 1;
+    private static final int LOW_PASS = 2;
+
+    // Sections at or above this fraction of the sample rate are dropped.
+    private static final double MAX_FRACTION = 0.49;
+
+    private static final BiquadDesign[] EEG = new BiquadDesign[SUPPORTED_RATES.length];
+
+    static {
+        for (int i = 0; i < SUPPORTED_RATES.length; i++) {
+            EEG[i] = of(SUPPORTED_RATES[i], EEG_HIGH_PASS_HZ, EEG_LOW_PASS_HZ, MAINS_HZ);
+        }
+    }
+
+    private final double sampleRate;
+    // b0, b1, b2, a1, a2 of each section, normalized so a0 is 1.
+    private final double[] coeffs;
+
+    private BiquadDesign(double sampleRate, double[] coeffs) {
+        this.sampleRate = sampleRate;
+        this.coeffs = coeffs;
+    }
+
+    /**
+     * @return The EEG design for a headband rate: notches at 50Hz and 60Hz,
+     * EEG_HIGH_PASS_HZ high-pass and EEG_LOW_PASS_HZ low-pass.  Precomputed
+     * for SUPPORTED_RATES, designed on the spot for any other rate.
+     */
+    public static BiquadDesign eeg(int sampleRate) {
+        for (int i = 0; i < SUPPORTED_RATES.length; i++) {
+            if (SUPPORTED_RATES[i] == sampleRate) {
+                return EEG[i];
+            }
+        }
+        return of(sampleRate, EEG_HIGH_PASS_HZ, EEG_LOW_PASS_HZ, MAINS_HZ);
+    }
+
+    /**
+     * Designs a cascade.
+     *
+     * @param highPassHz The high-pass cutoff, or 0 for none.
+     * @param lowPassHz  The low-pass cutoff, or 0 for none.
+     * @param notchHz    The frequencies to notch out, eg. MAINS_HZ.
+     */
+    public static BiquadDesign of(double sampleRate, double highPassHz, double lowPassHz, double... notchHz) {
+        if (sampleRate <= 0 || highPassHz < 0 || lowPassHz < 0) {
+            throw new IllegalArgumentException("Rates and cutoffs must not be negative");
+        }
+        final double max = MAX_FRACTION * sampleRate;
+        final double[] coeffs = new double[5 * (notchHz.length + BUTTERWORTH_2.length + BUTTERWORTH_4.length)];
+        int n = 0;
+        for (double hz : notchHz) {
+            if (hz > 0 && hz < max) {
+                n = section(coeffs, n, NOTCH, sampleRate, hz, NOTCH_Q);
+            }
+        }
+        if (highPassHz > 0 && highPassHz < max) {
+            for (double q : BUTTERWORTH_2) {
+                n = section(coeffs, n, HIGH_PASS, sampleRate, highPassHz, q);
+            }
+        }
+        if (lowPassHz > 0 && lowPassHz < max) {
+            for (double q : BUTTERWORTH_4) {
+                n = section(coeffs, n, LOW_PASS, sampleRate, lowPassHz, q);
+            }
+        }
+        final double[] used = new double[n];
+        System.arraycopy(coeffs, 0, used, 0, n);
+        return new BiquadDesign(sampleRate, used);
+    }
+
+    private static int section(double[] out, int n, int type, double sampleRate, double hz, double q) {
+        final double w0 = 2 * Math.PI * hz / sampleRate;
+        final double cos = Math.cos(w0);
+        final double alpha = Math.sin(w0) / (2 * q);
+        final double a0 = 1 + alpha;
+        double b0;
+        double b1;
+        double b2;
+        switch (type) {
+            case NOTCH:
+                b0 = 1;
+                b1 = -2 * cos;
+                b2 = 1;
+                break;
+            case HIGH_PASS:
+                b0 = (1 + cos) / 2;
+                b1 = -(1 + cos);
+                b2 = (1 + cos) / 2;
+                break;
+            default:
+                b0 = (1 - cos) / 2;
+                b1 = 1 - cos;
+                b2 = (1 - cos) / 2;
+                break;
+        }
+        out[n] = b0 / a0;
+        out[n + 1] = b1 / a0;
+        out[n + 2] = b2 / a0;
+        out[n + 3] = -2 * cos / a0;
+        out[n + 4] = (1 - alpha) / a0;
+        return n + 5;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getSections() {
+        return coeffs.length / 5;
+    }
+
+    /**
+     * @return The gain of the whole cascade at a frequency, eg. close to 0 at a
+     * notch and close to 1 in the pass band.
+     */
+    public double gain(double hz) {
+        final double w = 2 * Math.PI * hz / sampleRate;
+        // z^-1 and z^-2 on the unit circle.
+        final double c1 = Math.cos(w);
+        final double s1 = -Math.sin(w);
+        final double c2 = Math.cos(2 * w);
+        final double s2 = -Math.sin(2 * w);
+        double gain = 1;
+        for (int i = 0; i < coeffs.length; i += 5) {
+            double numRe = coeffs[i] + coeffs[i + 1] * c1 + coeffs[i + 2] * c2;
+            double numIm = coeffs[i + 1] * s1 + coeffs[i + 2] * s2;
+            double denRe = 1 + coeffs[i + 3] * c1 + coeffs[i + 4] * c2;
+            double denIm = coeffs[i + 3] * s1 + coeffs[i + 4] * s2;
+            gain *= Math.sqrt((numRe * numRe + numIm * numIm) / (denRe * denRe + denIm * denIm));
+        }
+        return gain;
+    }
+
+    double[] getCoefficients() {
+        return coeffs;
+    }
+}
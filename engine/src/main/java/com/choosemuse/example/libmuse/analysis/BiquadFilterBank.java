@@ -0,0 +1,121 @@
+package com.choosemuse.example.libmuse.analysis;
+
+import java.util.Arrays;
+
+/**
+ * Runs every channel of a multi-channel stream through the same cascade of
+ * biquads, eg. to take mains noise and DC drift out of raw EEG before the mood
+ * features are computed from it.
+ * <p>
+ * Samples are filtered in place, either as blocks of interleaved frames (frame
+ * f, channel c at index f * channels + c) or one frame at a time, such as the
+ * values of one EEG packet.  Missing samples (NaN) stay NaN and leave the
+ * filter state alone, so one dropped packet does not poison the channel.
+ * <p>
+ * Each section is in transposed direct form II with its state kept in
+ * doubles, which stays stable for the low high-pass cutoffs.  The coefficients
+ * come from a shared {@link BiquadDesign}; no memory is allocated after
+ * construction.  Not thread safe.
+ */
+public class BiquadFilterBank {
+
+    private final BiquadDesign design;
+    private final double[] coeffs;
+    private final int channels;
+    private final int sections;
+
+    // z1, z2 of section s of channel c at 2 * (c * sections + s).
+    private final double[] state;
+
+    public BiquadFilterBank(BiquadDesign design, int channels) {
+        if (channels < 1) {
+            throw new IllegalArgumentException("At least one channel");
+        }
+        this.design = design;
+        this.coeffs = design.getCoefficients();
+        this.channels = channels;
+        this.sections = design.getSections();
+        this.state = new double[2 * channels * sections];
+    }
+
+    /**
+     * Creates a bank with the EEG design for a headband rate, see
+     * {@link BiquadDesign#eeg(int)}.
+     */
+    public static BiquadFilterBank forEeg(int channels, int sampleRate) {
+        return new BiquadFilterBank(BiquadDesign.eeg(sampleRate), channels);
+    }
+
+    public BiquadDesign getDesign() {
+        return design;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * Filters a block of interleaved frames in place.
+     *
+     * @param data   The frames.
+     * @param frames The number of frames to filter.
+     */
+    public void process(float[] data, int frames) {
+        final int end = frames * channels;
+        for (int c = 0; c < channels; c++) {
+            int z = 2 * c * sections;
+            for (int s = 0; s < sections; s++, z += 2) {
+                // Run one section over the whole block with its state in locals.
+                final int k = 5 * s;
+                final double b0 = coeffs[k];
+                final double b1 = coeffs[k + 1];
+                final double b2 = coeffs[k + 2];
+                final double a1 = coeffs[k + 3];
+                final double a2 = coeffs[k + 4];
+                double z1 = state[z];
+                double z2 = state[z + 1];
+                for (int i = c; i < end; i += channels) {
+                    final double x = data[i];
+                    if (x != x) {
+                        continue;
+                    }
+                    final double y = b0 * x + z1;
+                    z1 = b1 * x - a1 * y + z2;
+                    z2 = b2 * x - a2 * y;
+                    data[i] = (float) y;
+                }
+                state[z] = z1;
+                state[z + 1] = z2;
+            }
+        }
+    }
+
+    /**
+     * Filters a single frame in place.  Channels beyond getChannels() are left
+     * as they are.
+     */
+    public void process(double[] frame) {
+        int z = 0;
+        for (int c = 0; c < channels; c++) {
+            double x = frame[c];
+            if (x != x) {
+                z += 2 * sections;
+                continue;
+            }
+            for (int k = 0; k < coeffs.length; k += 5, z += 2) {
+                final double y = coeffs[k] * x + state[z];
+                state[z] = coeffs[k + 1] * x - coeffs[k + 3] * y + state[z + 1];
+                state[z + 1] = coeffs[k + 2] * x - coeffs[k + 4] * y;
+                x = y;
+            }
+            frame[c] = x;
+        }
+    }
+
+    /**
+     * Clears the filter state, eg. when a new headband connects.
+     */
+    public void reset() {
+        Arrays.fill(state, 0);
+    }
+}
@@ -0,0 +1,273 @@
+package com.choosemuse.example.libmuse.analysis;
+
+import java.util.Arrays;
+
+/**
+ * Running auto and cross spectra of a few EEG channels in one frequency band,
+ * for features that compare channels: the asymmetry of band power between
+ * two channels and the magnitude-squared coherence of channel pairs.
+ * <p>
+ * Frames are taken one at a time.  Each is multiplied into the Hann windowed
+ * DFT of the current segment at the band's bins only, so a frame costs
+ * channels x bins multiply-adds.  Every completed segment (the hop) is folded
+ * into exponentially weighted averages of the auto spectrum of each channel
+ * and the cross spectrum of each pair, as in Welch's method, so no window is
+ * ever recomputed.  A segment containing a missing sample (NaN) or a skipped
+ * frame is dropped.
+ * <p>
+ * The band is resolved in steps of 1 / segmentSeconds Hz.  No memory is
+ * allocated after construction.  Not thread safe.
+ */
+public class CrossSpectrum {
+
+    /**
+     * The Muse EEG channels, in the order the frames hold them.
+     */
+    public static final int TP9 = 0;
+    public static final int AF7 = 1;
+    public static final int AF8 = 2;
+    public static final int TP10 = 3;
+
+    public static final double ALPHA_LOW_HZ = 8;
+    public static final double ALPHA_HIGH_HZ = 13;
+    public static final double SEGMENT_SECONDS = 1;
+    public static final int AVERAGED_SEGMENTS = 8;
+
+    /**
+     * The pairs forAlpha() tracks: the frontal and the temporal channels.
+     */
+    public static final int FRONTAL = 0;
+    public static final int TEMPORAL = 1;
+    private static final int[] ALPHA_PAIRS = {AF7, AF8, TP9, TP10};
+
+    private final int channels;
+    private final int length;
+    private final int bins;
+    private final double firstHz;
+    private final double binHz;
+    private final int averagedSegments;
+    private final int[] pairs;
+
+    // The window times cos and -sin of bin b at sample n, at n * bins + b.
+    private final double[] twiddleRe;
+    private final double[] twiddleIm;
+
+    // The DFT of the current segment of channel c at bin b, at c * bins + b.
+    private final double[] segmentRe;
+    private final double[] segmentIm;
+    private int position;
+    private boolean gap;
+
+    // The averages: power of channel c at c * bins + b, cross spectrum of pair p at p * bins + b.
+    private final double[] power;
+    private final double[] crossRe;
+    private final double[] crossIm;
+    private long segments;
+
+    /**
+     * @param channels         The number of channels to take from each frame.
+     * @param averagedSegments The time constant of the averages, in segments.
+     * @param pairs            The channel pairs to track the cross spectrum of,
+     *                         as consecutive channel numbers, eg. {AF7, AF8}.
+     */
+    public CrossSpectrum(int channels, double sampleRate, double lowHz, double highHz, double segmentSeconds,
+                         int averagedSegments, int... pairs) {
+        length = (int) Math.round(sampleRate * segmentSeconds);
+        binHz = sampleRate / length;
+        final int first = (int) Math.ceil(lowHz / binHz);
+        final int last = (int) Math.floor(highHz / binHz);
+        if (channels < 1 || averagedSegments < 1 || pairs.length % 2 != 0) {
+            throw new IllegalArgumentException("Need channels, a positive average and whole pairs");
+        }
+        if (first < 1 || last < first || 2 * last >= length) {
+            throw new IllegalArgumentException("No bins between " + lowHz + "Hz and " + highHz + "Hz");
+        }
+        for (int c : pairs) {
+            if (c < 0 || c >= channels) {
+                throw new IllegalArgumentException("No channel " + c);
+            }
+        }
+        this.channels = channels;
+        this.bins = last - first + 1;
+        this.firstHz = first * binHz;
+        this.averagedSegments = averagedSegments;
+        this.pairs = pairs.clone();
+
+        twiddleRe = new double[length * bins];
+        twiddleIm = new double[length * bins];
+        for (int n = 0; n < length; n++) {
+            final double window = 0.5 - 0.5 * Math.cos(2 * Math.PI * n / length);
+            for (int b = 0; b < bins; b++) {
+                final double phase = 2 * Math.PI * (first + b) * n / length;
+                twiddleRe[n * bins + b] = window * Math.cos(phase);
+                twiddleIm[n * bins + b] = -window * Math.sin(phase);
+            }
+        }
+        segmentRe = new double[channels * bins];
+        segmentIm = new double[channels * bins];
+        power = new double[channels * bins];
+        crossRe = new double[pairs.length / 2 * bins];
+        crossIm = new double[pairs.length / 2 * bins];
+    }
+
+    /**
+     * Tracks the alpha band of the four Muse EEG channels, with the FRONTAL
+     * and TEMPORAL pairs.
+     */
+    public static CrossSpectrum forAlpha(double sampleRate) {
+        return new CrossSpectrum(4, sampleRate, ALPHA_LOW_HZ, ALPHA_HIGH_HZ, SEGMENT_SECONDS,
+                AVERAGED_SEGMENTS, ALPHA_PAIRS);
+    }
+
+    /**
+     * Adds a frame, eg. the values of one EEG packet.  Values beyond the
+     * channels are ignored.
+     *
+     * @return true if the frame completed a segment and the averages changed.
+     */
+    public boolean add(double[] frame) {
+        final int t = position * bins;
+        for (int c = 0; c < channels; c++) {
+            final double x = frame[c];
+            if (x != x) {
+                gap = true;
+                continue;
+            }
+            final int s = c * bins;
+            for (int b = 0; b < bins; b++) {
+                segmentRe[s + b] += x * twiddleRe[t + b];
+                segmentIm[s + b] += x * twiddleIm[t + b];
+            }
+        }
+        if (++position < length) {
+            return false;
+        }
+        final boolean complete = !gap;
+        if (complete) {
+            average();
+        }
+        startSegment();
+        return complete;
+    }
+
+    /**
+     * Takes the place of a frame that must not be used, eg. because it is
+     * contaminated by an artifact.  The current segment is dropped, as if the
+     * frame were missing.
+     */
+    public void skip() {
+        gap = true;
+        if (++position == length) {
+            startSegment();
+        }
+    }
+
+    private void startSegment() {
+        position = 0;
+        gap = false;
+        Arrays.fill(segmentRe, 0);
+        Arrays.fill(segmentIm, 0);
+    }
+
+    private void average() {
+        segments++;
+        // A plain mean until there are enough segments, then exponential.
+        final double weight = 1.0 / Math.min(segments, averagedSegments);
+        final double keep = 1 - weight;
+        for (int i = 0; i < power.length; i++) {
+            power[i] = keep * power[i] + weight * (segmentRe[i] * segmentRe[i] + segmentIm[i] * segmentIm[i]);
+        }
+        for (int p = 0; p < pairs.length / 2; p++) {
+            final int x = pairs[2 * p] * bins;
+            final int y = pairs[2 * p + 1] * bins;
+            for (int b = 0; b < bins; b++) {
+                // X times the conjugate of Y.
+                final double re = segmentRe[x + b] * segmentRe[y + b] + segmentIm[x + b] * segmentIm[y + b];
+                final double im = segmentIm[x + b] * segmentRe[y + b] - segmentRe[x + b] * segmentIm[y + b];
+                crossRe[p * bins + b] = keep * crossRe[p * bins + b] + weight * re;
+                crossIm[p * bins + b] = keep * crossIm[p * bins + b] + weight * im;
+            }
+        }
+    }
+
+    /**
+     * @return The number of segments averaged so far.
+     */
+    public long getSegments() {
+        return segments;
+    }
+
+    public int getBins() {
+        return bins;
+    }
+
+    /**
+     * @return The frequency of the lowest bin; the others follow every
+     * getBinHz().
+     */
+    public double getFirstHz() {
+        return firstHz;
+    }
+
+    public double getBinHz() {
+        return binHz;
+    }
+
+    /**
+     * @return The average power of a channel summed over the band, in the
+     * squared units of the samples times an arbitrary constant.
+     */
+    public double getBandPower(int channel) {
+        double sum = 0;
+        for (int b = 0; b < bins; b++) {
+            sum += power[channel * bins + b];
+        }
+        return sum;
+    }
+
+    /**
+     * @return The log band power of the right channel minus that of the left
+     * one, eg. frontal alpha asymmetry with AF7 and AF8, or 0 while either has
+     * no power.
+     */
+    public double getAsymmetry(int left, int right) {
+        final double l = getBandPower(left);
+        final double r = getBandPower(right);
+        return (l > 0 && r > 0) ? Math.log(r) - Math.log(l) : 0;
+    }
+
+    /**
+     * @return The magnitude-squared coherence of a pair averaged over the band
+     * bins, from 0 (unrelated) to 1 (one channel is a filtered copy of the
+     * other), or 0 before the first segment.
+     */
+    public double getCoherence(int pair) {
+        final int x = pairs[2 * pair] * bins;
+        final int y = pairs[2 * pair + 1] * bins;
+        double sum = 0;
+        for (int b = 0; b < bins; b++) {
+            final double denominator = power[x + b] * power[y + b];
+            if (denominator > 0) {
+                final double re = crossRe[pair * bins + b];
+                final double im = crossIm[pair * bins + b];
+                sum += (re * re + im * im) / denominator;
+            }
+        }
+        return sum / bins;
+    }
+
+    /**
+     * Forgets the current segment and the averages, eg. when a new headband
+     * connects.
+     */
+    public void reset() {
+        position = 0;
+        gap = false;
+        segments = 0;
+        Arrays.fill(segmentRe, 0);
+        Arrays.fill(segmentIm, 0);
+        Arrays.fill(power, 0);
+        Arrays.fill(crossRe, 0);
+        Arrays.fill(crossIm, 0);
+    }
+}
@@ -0,0 +1,218 @@
+package com.choosemuse.example.libmuse.analysis;
+
+import java.util.Arrays;
+
+/**
+ * Anti-aliased rational resampler for multi-channel sample streams.
+ * <p>
+ * Raw EEG arrives at 220Hz, 256Hz or 500Hz depending on the headband and preset,
+ * but the mood features only use content below ~40Hz.  This resampler converts
+ * the stream by up/down (eg. 1/4 for plain decimation, or 25/64 to take 256Hz to
+ * 100Hz) so every headband can be analysed at one common, lower rate.
+ * <p>
+ * The low-pass prototype is a Hamming windowed sinc spanning span periods of the
+ * lower of the two rates, split into up polyphase branches.  Each output sample
+ * only evaluates the one branch it needs (a few dozen multiply-adds per
+ * channel) and input samples
+ * that do not line up with an output cost nothing but a history write, so the
+ * CPU cost follows the output rate rather than the input rate.
+ * <p>
+ * Samples are passed as interleaved frames: frame f, channel c lives at
+ * index f * channels + c.  No memory is allocated after construction.
+ */
+public class PolyphaseResampler {
+
+    /**
+     * The fraction of the output Nyquist frequency kept by the low-pass filter.
+     */
+    private static final double PASSBAND = 0.9;
+
+    private final int channels;
+    private final int up;
+    private final int down;
+    private final int taps;
+
+    // coeffs[p * taps + k] = h[p + k * up], ie. each phase is contiguous.
+    private final float[] coeffs;
+
+    // Per channel history, written twice so the last taps samples are contiguous.
+    private final float[][] history;
+    private int pos;
+
+    // Position of the next output sample relative to the current input, in
+    // units of the upsampled rate.
+    private int phase;
+
+    /**
+     * @param channels     The number of interleaved channels.
+     * @param up           The interpolation factor L.
+     * @param down         The decimation factor M.
+     * @param span     The filter length in periods of the lower rate.  Longer
+     *                 filters give a sharper cutoff at a higher cost; 16 is a
+     *                 good default.
+     */
+    public PolyphaseResampler(int channels, int up, int down, int span) {
+        if (channels < 1 || up < 1 || down < 1 || span < 1) {
+            throw new IllegalArgumentException("All resampler parameters must be positive");
+        }
+        int g = gcd(up, down);
+        this.channels = channels;
+        this.up = up / g;
+        this.down = down / g;
+        this.taps = (span * Math.max(this.up, this.down) + this.up - 1) / this.up;
+        this.coeffs = design(this.up, this.down, taps);
+        this.history = new float[channels][2 * taps];
+    }
+
+    /**
+     * Creates a resampler converting inputRate to outputRate, eg. 220, 256 or
+     * 500Hz EEG to a common analysis rate.
+     */
+    public static PolyphaseResampler forRates(int channels, int inputRate, int outputRate,
+                                              int span) {
+        return new PolyphaseResampler(channels, outputRate, inputRate, span);
+    }
+
+    /**
+     * Creates a plain decimator keeping every factor-th (filtered) sample.
+     */
+    public static PolyphaseResampler decimator(int channels, int factor, int span) {
+        return new PolyphaseResampler(channels, 1, factor, span);
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getUp() {
+        return up;
+    }
+
+    public int getDown() {
+        return down;
+    }
+
+    /**
+     * @return The number of multiply-adds per channel for each output sample.
+     */
+    public int getTapsPerPhase() {
+        return taps;
+    }
+
+    /**
+     * @return The largest number of output frames process() can return for the
+     * given number of input frames.  Use this to size the output buffer.
+     */
+    public int maxOutputFrames(int inputFrames) {
+        return (int) (((long) inputFrames * up + down - 1) / down) + 1;
+    }
+
+    /**
+     * Resamples a block of interleaved frames.
+     *
+     * @param in     The input frames.
+     * @param frames The number of input frames to consume.
+     * @param out    Receives the output frames; must hold maxOutputFrames(frames) frames.
+     * @return The number of output frames written.
+     */
+    public int process(float[] in, int frames, float[] out) {
+        int produced = 0;
+        for (int f = 0; f < frames; f++) {
+            int base = f * channels;
+            for (int c = 0; c < channels; c++) {
+                float[] h = history[c];
+                h[pos] = in[base + c];
+                h[pos + taps] = in[base + c];
+            }
+            while (phase < up) {
+                filter(phase, out, produced * channels);
+                produced++;
+                phase += down;
+            }
+            phase -= up;
+            pos = (pos + 1 == taps) ? 0 : pos + 1;
+        }
+        return produced;
+    }
+
+    /**
+     * Resamples a single frame, such as the values of one EEG packet.
+     *
+     * @return The number of output frames written to out (0, 1 or more when
+     * upsampling).
+     */
+    public int process(double[] frame, float[] out) {
+        for (int c = 0; c < channels; c++) {
+            float[] h = history[c];
+            h[pos] = (float) frame[c];
+            h[pos + taps] = (float) frame[c];
+        }
+        int produced = 0;
+        while (phase < up) {
+            filter(phase, out, produced * channels);
+            produced++;
+            phase += down;
+        }
+        phase -= up;
+        pos = (pos + 1 == taps) ? 0 : pos + 1;
+        return produced;
+    }
+
+    /**
+     * Clears the filter history, eg. when a new headband connects.
+     */
+    public void reset() {
+        for (float[] h : history) {
+            Arrays.fill(h, 0f);
+        }
+        pos = 0;
+        phase = 0;
+    }
+
+    private void filter(int p, float[] out, int outBase) {
+        int cBase = p * taps;
+        // The newest sample is at pos + taps, the oldest at pos + 1.
+        int newest = pos + taps;
+        for (int c = 0; c < channels; c++) {
+            float[] h = history[c];
+            float acc = 0f;
+            for (int k = 0; k < taps; k++) {
+                acc += coeffs[cBase + k] * h[newest - k];
+            }
+            out[outBase + c] = acc;
+        }
+    }
+
+    private static float[] design(int up, int down, int tapsPerPhase) {
+        int n = up * tapsPerPhase;
+        double[] h = new double[n];
+        // Cutoff in cycles per sample at the upsampled rate.
+        double fc = 0.5 * PASSBAND / Math.max(up, down);
+        double mid = (n - 1) / 2.0;
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            double t = i - mid;
+            double sinc = (t == 0) ? 2 * fc : Math.sin(2 * Math.PI * fc * t) / (Math.PI * t);
+            double window = (n == 1) ? 1 : 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (n - 1));
+            h[i] = sinc * window;
+            sum += h[i];
+        }
+        // Unity DC gain after interpolation means a total gain of up.
+        float[] phases = new float[n];
+        for (int p = 0; p < up; p++) {
+            for (int k = 0; k < tapsPerPhase; k++) {
+                phases[p * tapsPerPhase + k] = (float) (h[p + k * up] * up / sum);
+            }
+        }
+        return phases;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
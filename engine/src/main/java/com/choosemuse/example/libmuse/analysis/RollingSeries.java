@@ -0,0 +1,202 @@
+package com.choosemuse.example.libmuse.analysis;
+
+/**
+ * A fixed capacity ring of timestamped multi-channel samples.
+ * <p>
+ * Samples are kept in primitive columns: one long[] of timestamps and one
+ * float[] holding the channel values of each sample back to back.  Once the
+ * ring is full the oldest sample is overwritten, so memory use never grows
+ * past what was allocated in the constructor.
+ * <p>
+ * Timestamps are expected to be non-decreasing (the libmuse packet timestamps
+ * are in microseconds), which lets range queries use a binary search.
+ * <p>
+ * Appends come from the libmuse callback thread while queries come from the
+ * UI or analysis threads, so all access is synchronized on the series.
+ */
+public class RollingSeries {
+
+    private final int channels;
+    private final int capacity;
+    private final long[] timestamps;
+    private final float[] values;
+
+    // Index of the oldest sample and number of valid samples.
+    private int head;
+    private int size;
+
+    public RollingSeries(int channels, int capacity) {
+        if (channels < 1 || capacity < 1) {
+            throw new IllegalArgumentException("channels and capacity must be positive");
+        }
+        this.channels = channels;
+        this.capacity = capacity;
+        this.timestamps = new long[capacity];
+        this.values = new float[capacity * channels];
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The number of bytes held by the sample columns.
+     */
+    public long memoryBytes() {
+        return (long) capacity * 8 + (long) capacity * channels * 4;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Appends one sample, overwriting the oldest one if the series is full.
+     *
+     * @param timestamp The sample time, not earlier than the last appended sample.
+     * @param sample    At least getChannels() values.
+     */
+    public synchronized void append(long timestamp, float[] sample) {
+        append(timestamp, sample, 0);
+    }
+
+    /**
+     * Appends one sample read from sample[offset], eg. one frame of an
+     * interleaved block.
+     */
+    public synchronized void append(long timestamp, float[] sample, int offset) {
+        int slot;
+        if (size < capacity) {
+            slot = (head + size) % capacity;
+            size++;
+        } else {
+            slot = head;
+            head = (head + 1) % capacity;
+        }
+        timestamps[slot] = timestamp;
+        System.arraycopy(sample, offset, values, slot * channels, channels);
+    }
+
+    /**
+     * Same as {@link #append(long, float[])} for callers holding double values,
+     * such as the buffers filled from MuseDataPacket.
+     */
+    public synchronized void append(long timestamp, double[] sample) {
+        int slot;
+        if (size < capacity) {
+            slot = (head + size) % capacity;
+            size++;
+        } else {
+            slot = head;
+            head = (head + 1) % capacity;
+        }
+        timestamps[slot] = timestamp;
+        int base = slot * channels;
+        for (int c = 0; c < channels; c++) {
+            values[base + c] = (float) sample[c];
+        }
+    }
+
+    /**
+     * @return The timestamp of the newest sample, or Long.MIN_VALUE if empty.
+     */
+    public synchronized long newestTimestamp() {
+        if (size == 0) {
+            return Long.MIN_VALUE;
+        }
+        return timestamps[(head + size - 1) % capacity];
+    }
+
+    /**
+     * @return The timestamp of the oldest retained sample, or Long.MIN_VALUE if empty.
+     */
+    public synchronized long oldestTimestamp() {
+        if (size == 0) {
+            return Long.MIN_VALUE;
+        }
+        return timestamps[head];
+    }
+
+    /**
+     * Counts the samples with from <= timestamp < to.
+     */
+    public synchronized int count(long from, long to) {
+        return lowerBound(to) - lowerBound(from);
+    }
+
+    /**
+     * Copies the samples with from <= timestamp < to, oldest first.
+     *
+     * @param from     Inclusive start time.
+     * @param to       Exclusive end time.
+     * @param tsOut    Receives the timestamps; may be null.
+     * @param valsOut  Receives getChannels() values per sample; may be null.
+     * @param maxCount The maximum number of samples to copy.  If the range holds
+     *                 more, the newest ones are kept.
+     * @return The number of samples copied.
+     */
+    public synchronized int query(long from, long to, long[] tsOut, float[] valsOut, int maxCount) {
+        int start = lowerBound(from);
+        int end = lowerBound(to);
+        int n = end - start;
+        if (n > maxCount) {
+            start = end - maxCount;
+            n = maxCount;
+        }
+        for (int i = 0; i < n; i++) {
+            int slot = (head + start + i) % capacity;
+            if (tsOut != null) {
+                tsOut[i] = timestamps[slot];
+            }
+            if (valsOut != null) {
+                System.arraycopy(values, slot * channels, valsOut, i * channels, channels);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Averages one channel over the samples with from <= timestamp < to.
+     *
+     * @return The mean value, or NaN if the range holds no samples.
+     */
+    public synchronized double mean(int channel, long from, long to) {
+        int start = lowerBound(from);
+        int end = lowerBound(to);
+        if (end <= start) {
+            return Double.NaN;
+        }
+        double sum = 0;
+        for (int i = start; i < end; i++) {
+            sum += values[((head + i) % capacity) * channels + channel];
+        }
+        return sum / (end - start);
+    }
+
+    /**
+     * @return The logical index (0 = oldest) of the first sample whose timestamp is
+     * not less than t, or size if there is none.
+     */
+    private int lowerBound(long t) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps[(head + mid) % capacity] < t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
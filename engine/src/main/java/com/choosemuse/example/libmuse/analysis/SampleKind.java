@@ -0,0 +1,14 @@
+package com.choosemuse.example.libmuse.analysis;
+
+/**
+ * The kinds of samples the engine understands.  These mirror the libmuse
+ * MuseDataPacketType values we use, so the engine does not depend on libmuse
+ * and can be fed from recordings, generators or tests.
+ * <p>
+ * ARTIFACTS carries the flags of a libmuse artifact packet as 1 or 0, see
+ * {@link ArtifactDetector}.  New kinds go at the end, since recordings store
+ * the ordinal.
+ */
+public enum SampleKind {
+    EEG, ALPHA_ABSOLUTE, BETA_ABSOLUTE, ACCELEROMETER, BATTERY, DRL_REF, QUANTIZATION, ARTIFACTS
+}
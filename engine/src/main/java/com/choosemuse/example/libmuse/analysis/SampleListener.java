@@ -0,0 +1,15 @@
+package com.choosemuse.example.libmuse.analysis;
+
+/**
+ * Receives samples from a headband, a recording or a generator.  This is the
+ * engine's neutral counterpart of MuseDataListener.receiveMuseDataPacket.
+ */
+public interface SampleListener {
+
+    /**
+     * @param kind      What the values hold.
+     * @param timestamp The sample time in microseconds.
+     * @param values    The sample values; only valid for the duration of the call.
+     */
+    void receiveSample(SampleKind kind, long timestamp, double[] values);
+}
@@ -0,0 +1,84 @@
+package com.choosemuse.example.libmuse.analysis;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Publishes the latest values of one packet type from a single writer to any
+ * number of readers, eg. from the libmuse callback thread to the UI thread.
+ * <p>
+ * This is a seqlock.  The writer makes the sequence odd, stores the values and
+ * makes it even again; it never waits.  A reader copies the values between two
+ * reads of the sequence and retries if the sequence was odd or changed, so it
+ * always gets a copy from exactly one publish() and never blocks the writer.
+ * <p>
+ * The values live in an AtomicLongArray rather than a double[]: without a
+ * load fence, plain reads of the copy could be reordered past the second
+ * sequence read and a torn copy would go unnoticed.
+ */
+public final class SnapshotPublisher {
+
+    private final int width;
+    private final AtomicLongArray values;
+
+    // Twice the number of publishes, plus one while a publish is in progress.
+    private volatile long sequence;
+
+    public SnapshotPublisher(int width) {
+        if (width < 1) {
+            throw new IllegalArgumentException("width must be positive");
+        }
+        this.width = width;
+        this.values = new AtomicLongArray(width);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Replaces the values.  Only one thread may publish; values beyond the
+     * width are ignored and missing ones are left as they were.
+     */
+    public void publish(double[] v) {
+        final long s = sequence;
+        sequence = s + 1;
+        final int n = Math.min(v.length, width);
+        for (int i = 0; i < n; i++) {
+            values.set(i, Double.doubleToRawLongBits(v[i]));
+        }
+        sequence = s + 2;
+    }
+
+    /**
+     * @return The number of publishes so far.  Compare with the result of an
+     * earlier read() to see whether anything new has arrived.
+     */
+    public long getVersion() {
+        return sequence >>> 1;
+    }
+
+    /**
+     * Copies a consistent snapshot of the values into out, which must hold at
+     * least getWidth() values.
+     *
+     * @return The version of the snapshot, 0 if nothing was published yet.
+     */
+    public long read(double[] out) {
+        int spins = 0;
+        while (true) {
+            final long before = sequence;
+            if ((before & 1) == 0) {
+                for (int i = 0; i < width; i++) {
+                    out[i] = Double.longBitsToDouble(values.get(i));
+                }
+                if (sequence == before) {
+                    return before >>> 1;
+                }
+            }
+            if (++spins > 64) {
+                // The writer was descheduled mid-publish; let it finish.
+                Thread.yield();
+            }
+        }
+    }
+}
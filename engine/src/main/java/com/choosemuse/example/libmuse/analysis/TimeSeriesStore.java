@@ -0,0 +1,98 @@
+package com.choosemuse.example.libmuse.analysis;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the last few minutes of every subscribed packet type in memory.
+ * <p>
+ * Each key (usually a MuseDataPacketType) gets its own {@link RollingSeries}
+ * sized from its nominal sample rate and the retention window, so the total
+ * memory is fixed once all series are registered.  Registration fails if it
+ * would push the store past its byte budget.
+ * <p>
+ * Timestamps are in microseconds, matching MuseDataPacket.timestamp().
+ */
+public class TimeSeriesStore<K> {
+
+    private final long retentionMicros;
+    private final long budgetBytes;
+    private final Map<K, RollingSeries> series = new HashMap<>();
+    private long usedBytes;
+
+    /**
+     * @param retentionMillis How far back each series must be able to look.
+     * @param budgetBytes     The maximum memory all series together may hold.
+     */
+    public TimeSeriesStore(long retentionMillis, long budgetBytes) {
+        this.retentionMicros = retentionMillis * 1000;
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Allocates a series for the given key.  Registering a key twice returns
+     * the existing series.
+     *
+     * @param key      The packet type to keep.
+     * @param channels The number of values per packet.
+     * @param rateHz   The nominal packet rate, eg. 256 for EEG or 10 for band powers.
+     */
+    public synchronized RollingSeries register(K key, int channels, double rateHz) {
+        RollingSeries existing = series.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        int capacity = (int) Math.ceil(rateHz * retentionMicros / 1000000.0);
+        RollingSeries s = new RollingSeries(channels, Math.max(1, capacity));
+        if (usedBytes + s.memoryBytes() > budgetBytes) {
+            throw new IllegalStateException("Series for " + key + " needs " + s.memoryBytes()
+                    + " bytes, only " + (budgetBytes - usedBytes) + " left");
+        }
+        usedBytes += s.memoryBytes();
+        series.put(key, s);
+        return s;
+    }
+
+    /**
+     * @return The series for the key, or null if it was never registered.
+     */
+    public synchronized RollingSeries get(K key) {
+        return series.get(key);
+    }
+
+    /**
+     * Appends a sample to the series for key.  Samples for unregistered keys
+     * are dropped.
+     */
+    public void append(K key, long timestamp, double[] sample) {
+        RollingSeries s = get(key);
+        if (s != null) {
+            s.append(timestamp, sample);
+        }
+    }
+
+    /**
+     * Averages one channel over the last windowMillis before the newest sample
+     * of the series.
+     *
+     * @return The mean value, or NaN if there is no data in the window.
+     */
+    public double recentMean(K key, int channel, long windowMillis) {
+        RollingSeries s = get(key);
+        if (s == null || s.size() == 0) {
+            return Double.NaN;
+        }
+        long newest = s.newestTimestamp();
+        return s.mean(channel, newest - windowMillis * 1000, newest + 1);
+    }
+
+    public synchronized long usedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized void clear() {
+        for (RollingSeries s : series.values()) {
+            s.clear();
+        }
+    }
+}
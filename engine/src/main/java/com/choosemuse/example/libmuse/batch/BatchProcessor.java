@@ -0,0 +1,310 @@
+package com.choosemuse.example.libmuse.batch;
+
+import com.choosemuse.example.libmuse.mood.LogisticMoodClassifier;
+import com.choosemuse.example.libmuse.mood.MoodParameters;
+import com.choosemuse.example.libmuse.mood.Moods;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Command line tool that recomputes the mood timeline of every recording in a
+ * directory, optionally for a whole grid of {@link MoodParameters}.
+ * <p>
+ * Recordings are muse-player CSV exports (see {@link MusePlayerCsvParser}).
+ * Work runs on one ForkJoinPool: one task per file, whose parse is split into
+ * chunk subtasks, followed by one replay task per parameter set.  Idle workers
+ * steal chunks and replays of long files, so a directory with one huge file and
+ * many small ones still keeps every core busy.
+ * <p>
+ * Usage:
+ * <pre>
+ * BatchProcessor &lt;dir&gt; [--threads N] [--tick-ms 1000] [--decision-ticks 10]
+ *                [--valence-scale 50[,...]] [--arousal-scale 100[,...]]
+ *                [--valence-threshold 0[,...]] [--arousal-threshold 0[,...]]
+ *                [--eeg-rate 256] [--model mood_model.txt] [--out dir]
+ * </pre>
+ * Comma separated values are swept as a grid.  With --out, each timeline is
+ * written as CSV next to a summary on stdout.
+ * <p>
+ * --eeg-rate is the EEG rate of the headband the recordings came from, 256Hz
+ * for a Muse 2016, or 0 to replay the EEG unfiltered.  Pass the app's
+ * mood_model.txt as --model to replay the app's decisions; without it moods
+ * come from the quadrant rule.
+ */
+public class BatchProcessor {
+
+    private final MoodReplay replay;
+    private final List<MoodParameters> grid;
+    private final File outDir;
+
+    private final AtomicLong samplesParsed = new AtomicLong();
+    private final AtomicLong samplesReplayed = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public BatchProcessor(MoodReplay replay, List<MoodParameters> grid, File outDir) {
+        this.replay = replay;
+        this.grid = grid;
+        this.outDir = outDir;
+    }
+
+    public long getSamplesParsed() {
+        return samplesParsed.get();
+    }
+
+    public long getSamplesReplayed() {
+        return samplesReplayed.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Processes every file on the pool and waits for all of them.
+     */
+    public void run(ForkJoinPool pool, List<File> files) {
+        List<FileTask> tasks = new ArrayList<>();
+        for (File f : files) {
+            tasks.add(new FileTask(f));
+        }
+        pool.invoke(new AllFiles(tasks));
+    }
+
+    @SuppressWarnings("serial")
+    private static class AllFiles extends RecursiveAction {
+        private final List<FileTask> tasks;
+
+        AllFiles(List<FileTask> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        protected void compute() {
+            invokeAll(tasks);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class FileTask extends RecursiveAction {
+        private final File file;
+
+        FileTask(File file) {
+            this.file = file;
+        }
+
+        @Override
+        protected void compute() {
+            final Recording recording;
+            try {
+                recording = MusePlayerCsvParser.parse(file);
+            } catch (IOException e) {
+                failures.incrementAndGet();
+                System.err.println("Skipping " + file + ": " + e.getMessage());
+                return;
+            }
+            samplesParsed.addAndGet(recording.size());
+
+            List<ReplayTask> replays = new ArrayList<>();
+            for (int i = 0; i < grid.size(); i++) {
+                replays.add(new ReplayTask(file, recording, i));
+            }
+            invokeAll(replays);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class ReplayTask extends RecursiveAction {
+        private final File file;
+        private final Recording recording;
+        private final int index;
+
+        ReplayTask(File file, Recording recording, int index) {
+            this.file = file;
+            this.recording = recording;
+            this.index = index;
+        }
+
+        @Override
+        protected void compute() {
+            MoodParameters parameters = grid.get(index);
+            MoodTimeline timeline = replay.run(recording, parameters);
+            samplesReplayed.addAndGet(recording.size());
+            report(file, index, parameters, timeline);
+            if (outDir != null) {
+                try {
+                    write(new File(outDir, file.getName() + "." + index + ".moods.csv"), timeline);
+                } catch (IOException e) {
+                    failures.incrementAndGet();
+                    System.err.println("Could not write timeline for " + file + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static void report(File file, int index, MoodParameters parameters, MoodTimeline timeline) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(file.getName()).append(" #").append(index).append(" [").append(parameters)
+                .append("] decisions=").append(timeline.size());
+        int[] counts = timeline.counts();
+        for (Moods m : Moods.values()) {
+            sb.append(' ').append(m.getKey()).append('=').append(counts[m.ordinal()]);
+        }
+        synchronized (System.out) {
+            System.out.println(sb);
+        }
+    }
+
+    private static void write(File out, MoodTimeline timeline) throws IOException {
+        PrintWriter w = new PrintWriter(new FileWriter(out));
+        try {
+            w.println("seconds,mood,arousal,valence");
+            for (int i = 0; i < timeline.size(); i++) {
+                w.printf(Locale.US, "%.6f,%s,%.0f,%.0f%n", timeline.getTimestamp(i) / 1e6,
+                        timeline.getMood(i), timeline.getArousal(i), timeline.getValence(i));
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: BatchProcessor <dir> [--threads N] [--tick-ms 1000]"
+                    + " [--decision-ticks 10] [--valence-scale 50[,...]] [--arousal-scale 100[,...]]"
+                    + " [--valence-threshold 0[,...]] [--arousal-threshold 0[,...]]"
+                    + " [--eeg-rate 256] [--model mood_model.txt] [--out dir]");
+            System.exit(2);
+        }
+        File dir = new File(args[0]);
+        int threads = Runtime.getRuntime().availableProcessors();
+        long tickMillis = 1000;
+        int decisionTicks = 10;
+        double[] valenceScales = {MoodParameters.DEFAULT.getValenceScale()};
+        double[] arousalScales = {MoodParameters.DEFAULT.getArousalScale()};
+        double[] valenceThresholds = {MoodParameters.DEFAULT.getValenceThreshold()};
+        double[] arousalThresholds = {MoodParameters.DEFAULT.getArousalThreshold()};
+        int eegRate = 256;
+        LogisticMoodClassifier model = null;
+        File outDir = null;
+
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--tick-ms":
+                    tickMillis = Long.parseLong(value);
+                    break;
+                case "--decision-ticks":
+                    decisionTicks = Integer.parseInt(value);
+                    break;
+                case "--valence-scale":
+                    valenceScales = parseList(value);
+                    break;
+                case "--arousal-scale":
+                    arousalScales = parseList(value);
+                    break;
+                case "--valence-threshold":
+                    valenceThresholds = parseList(value);
+                    break;
+                case "--arousal-threshold":
+                    arousalThresholds = parseList(value);
+                    break;
+                case "--eeg-rate":
+                    eegRate = Integer.parseInt(value);
+                    break;
+                case "--model":
+                    InputStreamReader in = new InputStreamReader(new FileInputStream(value), "UTF-8");
+                    try {
+                        model = LogisticMoodClassifier.load(in);
+                    } finally {
+                        in.close();
+                    }
+                    break;
+                case "--out":
+                    outDir = new File(value);
+                    if (!outDir.isDirectory() && !outDir.mkdirs()) {
+                        throw new IOException("Cannot create " + outDir);
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        List<MoodParameters> grid = new ArrayList<>();
+        for (double vs : valenceScales) {
+            for (double as : arousalScales) {
+                for (double vt : valenceThresholds) {
+                    for (double at : arousalThresholds) {
+                        grid.add(new MoodParameters(vs, as, vt, at));
+                    }
+                }
+            }
+        }
+
+        File[] listed = dir.listFiles();
+        if (listed == null) {
+            throw new IOException(dir + " is not a directory");
+        }
+        List<File> files = new ArrayList<>();
+        for (File f : listed) {
+            if (f.isFile() && f.getName().endsWith(".csv")) {
+                files.add(f);
+            }
+        }
+        // Start the biggest files first so they do not finish last on their own.
+        File[] sorted = files.toArray(new File[files.size()]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(b.length(), a.length());
+            }
+        });
+
+        BatchProcessor processor = new BatchProcessor(
+                new MoodReplay(tickMillis, decisionTicks, eegRate, model), grid, outDir);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        try {
+            processor.run(pool, Arrays.asList(sorted));
+        } finally {
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf(Locale.US, "%d files, %d parameter sets, %d threads, %.2fs%n",
+                sorted.length, grid.size(), threads, seconds);
+        System.out.printf(Locale.US, "parsed   %d samples (%.0f samples/s)%n",
+                processor.getSamplesParsed(), processor.getSamplesParsed() / seconds);
+        System.out.printf(Locale.US, "replayed %d samples (%.0f samples/s)%n",
+                processor.getSamplesReplayed(), processor.getSamplesReplayed() / seconds);
+        if (processor.getFailures() > 0) {
+            System.out.println(processor.getFailures() + " failures");
+            System.exit(1);
+        }
+    }
+
+    private static double[] parseList(String value) {
+        String[] parts = value.split(",");
+        double[] out = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            out[i] = Double.parseDouble(parts[i].trim());
+        }
+        return out;
+    }
+}
@@ -0,0 +1,77 @@
+package com.choosemuse.example.libmuse.batch;
+
+import com.choosemuse.example.libmuse.mood.LogisticMoodClassifier;
+import com.choosemuse.example.libmuse.mood.MoodClassifier;
+import com.choosemuse.example.libmuse.mood.MoodEngine;
+import com.choosemuse.example.libmuse.mood.MoodParameters;
+import com.choosemuse.example.libmuse.mood.QuadrantClassifier;
+
+/**
+ * Re-runs the mood engine over a recording.
+ * <p>
+ * In the app the engine is ticked by wall clock handlers; here the ticks are
+ * driven by the recording's own timestamps.  Given the headband's EEG rate and
+ * the app's mood model, each run sets its engine up the way IngestionService
+ * does (see {@link MoodEngine#setEegRate(int, int)}), so a replay makes the
+ * same decisions the app would have made, only much faster.
+ */
+public class MoodReplay {
+
+    private final long tickMicros;
+    private final int ticksPerDecision;
+    private final int eegRate;
+    private final LogisticMoodClassifier model;
+
+    /**
+     * A replay of the bare engine: EEG is used as recorded and moods come from
+     * the quadrant rule.  Meant for synthetic recordings; it does not match
+     * the app.
+     */
+    public MoodReplay(long tickMillis, int ticksPerDecision) {
+        this(tickMillis, ticksPerDecision, 0, null);
+    }
+
+    /**
+     * @param tickMillis       The short interval between engine ticks.
+     * @param ticksPerDecision The number of ticks per mood decision.
+     * @param eegRate          The EEG rate of the headband the recordings came
+     *                         from, or 0 to use the EEG unfiltered.
+     * @param model            The mood model, eg. the app's mood_model.txt, or
+     *                         null for the quadrant rule.
+     */
+    public MoodReplay(long tickMillis, int ticksPerDecision, int eegRate, LogisticMoodClassifier model) {
+        this.tickMicros = tickMillis * 1000;
+        this.ticksPerDecision = ticksPerDecision;
+        this.eegRate = eegRate;
+        this.model = model;
+    }
+
+    public MoodTimeline run(Recording recording, MoodParameters parameters) {
+        MoodTimeline timeline = new MoodTimeline();
+        if (recording.size() == 0) {
+            return timeline;
+        }
+        // Runs may be on different threads, and the model keeps scratch scores.
+        MoodClassifier classifier = model != null ? model.copy() : new QuadrantClassifier(parameters);
+        MoodEngine engine = new MoodEngine(ticksPerDecision, parameters, classifier);
+        if (eegRate > 0) {
+            engine.setEegRate(Recording.CHANNELS, eegRate);
+        }
+        double[] values = new double[Recording.CHANNELS];
+        long nextTick = recording.getTimestamp(0) + tickMicros;
+        int ticks = 0;
+        for (int i = 0; i < recording.size(); i++) {
+            long t = recording.getTimestamp(i);
+            while (t >= nextTick) {
+                engine.tick();
+                if (++ticks % ticksPerDecision == 0) {
+                    timeline.add(nextTick, engine.decide(), engine.getArousal(), engine.getValence());
+                }
+                nextTick += tickMicros;
+            }
+            recording.getValues(i, values);
+            engine.receiveSample(recording.getKind(i), t, values);
+        }
+        return timeline;
+    }
+}
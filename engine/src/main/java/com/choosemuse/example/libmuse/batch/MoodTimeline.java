@@ -0,0 +1,65 @@
+package com.choosemuse.example.libmuse.batch;
+
+import com.choosemuse.example.libmuse.mood.Moods;
+
+import java.util.Arrays;
+
+/**
+ * The sequence of mood decisions made over a recording.
+ */
+public class MoodTimeline {
+
+    private static final Moods[] MOODS = Moods.values();
+
+    private long[] timestamps = new long[64];
+    private byte[] moods = new byte[64];
+    private double[] arousal = new double[64];
+    private double[] valence = new double[64];
+    private int size;
+
+    public void add(long timestamp, Moods mood, double a, double v) {
+        if (size == timestamps.length) {
+            int capacity = size * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            moods = Arrays.copyOf(moods, capacity);
+            arousal = Arrays.copyOf(arousal, capacity);
+            valence = Arrays.copyOf(valence, capacity);
+        }
+        timestamps[size] = timestamp;
+        moods[size] = (byte) mood.ordinal();
+        arousal[size] = a;
+        valence[size] = v;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTimestamp(int i) {
+        return timestamps[i];
+    }
+
+    public Moods getMood(int i) {
+        return MOODS[moods[i]];
+    }
+
+    public double getArousal(int i) {
+        return arousal[i];
+    }
+
+    public double getValence(int i) {
+        return valence[i];
+    }
+
+    /**
+     * @return The number of decisions for each mood, indexed by Moods.ordinal().
+     */
+    public int[] counts() {
+        int[] counts = new int[MOODS.length];
+        for (int i = 0; i < size; i++) {
+            counts[moods[i]]++;
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,239 @@
+package com.choosemuse.example.libmuse.batch;
+
+import com.choosemuse.example.libmuse.analysis.SampleKind;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses recordings exported with muse-player ("muse-player -f session.muse -C
+ * session.csv").  The .muse reader in libmuse needs the Android native library,
+ * so batch jobs work on the CSV export instead.
+ * <p>
+ * Each line is "seconds, path, value, value, ...".  Only the paths the mood
+ * engine and the EEG codec use are kept.  Large files are split at line
+ * boundaries and the chunks are parsed as fork/join subtasks, so idle workers
+ * steal chunks of long files.
+ */
+public class MusePlayerCsvParser {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * Chunks smaller than this are parsed by a single task.
+     */
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    private static final byte[][] PATHS = {
+            "/muse/eeg".getBytes(ASCII),
+            "/muse/elements/alpha_absolute".getBytes(ASCII),
+            "/muse/elements/beta_absolute".getBytes(ASCII),
+            "/muse/acc".getBytes(ASCII),
+            "/muse/eeg/quantization".getBytes(ASCII),
+    };
+    private static final SampleKind[] PATH_KINDS = {
+            SampleKind.EEG, SampleKind.ALPHA_ABSOLUTE, SampleKind.BETA_ABSOLUTE,
+            SampleKind.ACCELEROMETER, SampleKind.QUANTIZATION,
+    };
+
+    private MusePlayerCsvParser() {
+    }
+
+    /**
+     * Reads and parses a whole file.  Called from a fork/join task, the chunks
+     * are forked onto the current pool; otherwise a temporary pool is used.
+     */
+    public static Recording parse(File file) throws IOException {
+        byte[] data = readFully(file);
+        ChunkTask task = new ChunkTask(data, 0, data.length);
+        if (ForkJoinTask.inForkJoinPool()) {
+            return task.invoke();
+        }
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            return pool.invoke(task);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to parse in memory");
+            }
+            byte[] data = new byte[(int) raf.length()];
+            raf.readFully(data);
+            return data;
+        } finally {
+            raf.close();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class ChunkTask extends RecursiveTask<Recording> {
+        private final byte[] data;
+        private final int from;
+        private final int to;
+
+        ChunkTask(byte[] data, int from, int to) {
+            this.data = data;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Recording compute() {
+            if (to - from <= CHUNK_BYTES) {
+                return parseRange(data, from, to);
+            }
+            // Split after the newline nearest the middle.
+            int mid = from + (to - from) / 2;
+            while (mid < to && data[mid - 1] != '\n') {
+                mid++;
+            }
+            if (mid >= to) {
+                return parseRange(data, from, to);
+            }
+            ChunkTask left = new ChunkTask(data, from, mid);
+            ChunkTask right = new ChunkTask(data, mid, to);
+            right.fork();
+            Recording result = left.compute();
+            result.addAll(right.join());
+            return result;
+        }
+    }
+
+    static Recording parseRange(byte[] data, int from, int to) {
+        // A typical line is about 60 bytes.
+        Recording r = new Recording((to - from) / 60);
+        double[] values = new double[Recording.CHANNELS];
+        int pos = from;
+        while (pos < to) {
+            int end = pos;
+            while (end < to && data[end] != '\n') {
+                end++;
+            }
+            parseLine(data, pos, end, r, values);
+            pos = end + 1;
+        }
+        return r;
+    }
+
+    private static void parseLine(byte[] data, int from, int to, Recording r, double[] values) {
+        int[] cursor = {from};
+        double seconds = parseNumber(data, cursor, to);
+        if (Double.isNaN(seconds)) {
+            return;
+        }
+        int pathStart = skipSpaces(data, cursor[0] + 1, to);
+        int pathEnd = pathStart;
+        while (pathEnd < to && data[pathEnd] != ',' && data[pathEnd] != '\r') {
+            pathEnd++;
+        }
+        SampleKind kind = kindOf(data, pathStart, pathEnd);
+        if (kind == null) {
+            return;
+        }
+        int count = 0;
+        cursor[0] = pathEnd;
+        while (cursor[0] < to && data[cursor[0]] == ',' && count < values.length) {
+            cursor[0]++;
+            double v = parseNumber(data, cursor, to);
+            values[count++] = Double.isNaN(v) ? 0 : v;
+        }
+        r.add((long) (seconds * 1e6), kind, values, count);
+    }
+
+    private static SampleKind kindOf(byte[] data, int from, int to) {
+        outer:
+        for (int k = 0; k < PATHS.length; k++) {
+            byte[] p = PATHS[k];
+            if (p.length != to - from) {
+                continue;
+            }
+            for (int i = 0; i < p.length; i++) {
+                if (data[from + i] != p[i]) {
+                    continue outer;
+                }
+            }
+            return PATH_KINDS[k];
+        }
+        return null;
+    }
+
+    private static int skipSpaces(byte[] data, int pos, int to) {
+        while (pos < to && data[pos] == ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Parses a plain decimal number starting at cursor[0], leaving the cursor on
+     * the character after it.  Numbers with exponents fall back to
+     * Double.parseDouble.
+     *
+     * @return The number, or NaN if there is none.
+     */
+    static double parseNumber(byte[] data, int[] cursor, int to) {
+        int pos = skipSpaces(data, cursor[0], to);
+        int start = pos;
+        boolean negative = false;
+        if (pos < to && (data[pos] == '-' || data[pos] == '+')) {
+            negative = data[pos] == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean fraction = false;
+        while (pos < to) {
+            byte b = data[pos];
+            if (b >= '0' && b <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    digits++;
+                    if (fraction) {
+                        scale++;
+                    }
+                } else if (!fraction) {
+                    scale--;
+                }
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+            pos++;
+        }
+        if (pos < to && (data[pos] == 'e' || data[pos] == 'E')) {
+            while (pos < to && data[pos] != ',' && data[pos] != '\r' && data[pos] != ' ') {
+                pos++;
+            }
+            cursor[0] = pos;
+            try {
+                return Double.parseDouble(new String(data, start, pos - start, ASCII));
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+        cursor[0] = pos;
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        double v = mantissa;
+        if (scale > 0) {
+            v /= Math.pow(10, scale);
+        } else if (scale < 0) {
+            v *= Math.pow(10, -scale);
+        }
+        return negative ? -v : v;
+    }
+}
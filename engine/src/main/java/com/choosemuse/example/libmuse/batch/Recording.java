@@ -0,0 +1,105 @@
+package com.choosemuse.example.libmuse.batch;
+
+import com.choosemuse.example.libmuse.analysis.SampleKind;
+import com.choosemuse.example.libmuse.analysis.SampleListener;
+
+import java.util.Arrays;
+
+/**
+ * A recorded session held in primitive columns: one timestamp, one kind and
+ * CHANNELS values per sample, in recording order.
+ * <p>
+ * Once parsed a recording is never modified, so any number of replays with
+ * different parameters can read it concurrently.
+ */
+public class Recording {
+
+    public static final int CHANNELS = 6;
+
+    private static final SampleKind[] KINDS = SampleKind.values();
+
+    private long[] timestamps;
+    private byte[] kinds;
+    private float[] values;
+    private int size;
+
+    public Recording(int initialCapacity) {
+        int capacity = Math.max(16, initialCapacity);
+        timestamps = new long[capacity];
+        kinds = new byte[capacity];
+        values = new float[capacity * CHANNELS];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTimestamp(int i) {
+        return timestamps[i];
+    }
+
+    public SampleKind getKind(int i) {
+        return KINDS[kinds[i]];
+    }
+
+    /**
+     * Copies the values of sample i into out, which must hold CHANNELS values.
+     */
+    public void getValues(int i, double[] out) {
+        int base = i * CHANNELS;
+        for (int c = 0; c < CHANNELS; c++) {
+            out[c] = values[base + c];
+        }
+    }
+
+    /**
+     * Appends a sample.  Missing channels are stored as 0.
+     */
+    public void add(long timestamp, SampleKind kind, double[] v, int count) {
+        if (size == timestamps.length) {
+            grow(size + 1);
+        }
+        timestamps[size] = timestamp;
+        kinds[size] = (byte) kind.ordinal();
+        int base = size * CHANNELS;
+        int n = Math.min(count, CHANNELS);
+        for (int c = 0; c < n; c++) {
+            values[base + c] = (float) v[c];
+        }
+        for (int c = n; c < CHANNELS; c++) {
+            values[base + c] = 0f;
+        }
+        size++;
+    }
+
+    /**
+     * Appends all samples of other, eg. to join chunks parsed in parallel.
+     */
+    public void addAll(Recording other) {
+        if (size + other.size > timestamps.length) {
+            grow(size + other.size);
+        }
+        System.arraycopy(other.timestamps, 0, timestamps, size, other.size);
+        System.arraycopy(other.kinds, 0, kinds, size, other.size);
+        System.arraycopy(other.values, 0, values, size * CHANNELS, other.size * CHANNELS);
+        size += other.size;
+    }
+
+    /**
+     * Feeds samples [from, to) to a listener in order.
+     */
+    public void replay(int from, int to, SampleListener listener) {
+        double[] scratch = new double[CHANNELS];
+        for (int i = from; i < to; i++) {
+            getValues(i, scratch);
+            listener.receiveSample(getKind(i), timestamps[i], scratch);
+        }
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, timestamps.length * 2);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        kinds = Arrays.copyOf(kinds, capacity);
+        values = Arrays.copyOf(values, capacity * CHANNELS);
+    }
+}
@@ -0,0 +1,67 @@
+package com.choosemuse.example.libmuse.codec;
+
+/**
+ * Constants and helpers shared by {@link EegEncoder} and {@link EegDecoder}.
+ * <p>
+ * A block of frames is coded as:
+ * <pre>
+ * varint  frames
+ * per channel:
+ *   varint  quantization level, or RAW
+ *   byte    predictor order (2 bits) and Rice parameter (6 bits)
+ *   varint  the first order samples, zigzagged
+ * bits    the residuals, channel after channel, Rice coded
+ * </pre>
+ * Samples are first turned into integers on the headband's grid: value /
+ * (lsb * quantization), rounded.  If that does not give back every sample of a
+ * channel exactly, the channel's integers are the samples' float bits instead
+ * and its level is written as RAW.  The predictor of each channel is the fixed
+ * polynomial of order 0, 1 or 2 with the smallest residuals in that block.
+ * A residual whose Rice quotient reaches ESCAPE is written as ESCAPE one bits
+ * followed by its 32 bit zigzag value.
+ */
+public final class EegCodec {
+
+    /**
+     * The EEG resolution of the headband: 1682.815 uV full scale over 12 bits.
+     */
+    public static final double MUSE_LSB = 1682.815 / 4096;
+
+    /**
+     * The integer standing for NaN, ie. a sample the headband dropped.  Real
+     * samples are clamped to +-MAX_CODE so residuals always fit in an int.
+     */
+    static final int NAN_CODE = -(1 << 24);
+    static final int MAX_CODE = (1 << 23) - 1;
+
+    /**
+     * The quantization level of a channel stored as float bits.
+     */
+    static final int RAW = 0;
+
+    static final int ESCAPE = 24;
+    static final int MAX_ORDER = 2;
+    static final int MAX_RICE = 31;
+
+    private EegCodec() {
+    }
+
+    /**
+     * @return An upper bound of the encoded size of a block.
+     */
+    public static int maxEncodedBytes(int channels, int frames) {
+        // Header: frames, then per channel quantization, parameters and warm-up.
+        int header = 5 + channels * (5 + 1 + MAX_ORDER * 5);
+        // Worst case residual: the escape prefix and 32 raw bits.
+        long bits = (long) channels * frames * (ESCAPE + 32);
+        return (int) (header + (bits + 7) / 8 + 8);
+    }
+
+    static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    static int unzigzag(int u) {
+        return (u >>> 1) ^ -(u & 1);
+    }
+}
@@ -0,0 +1,164 @@
+package com.choosemuse.example.libmuse.codec;
+
+/**
+ * Decodes blocks written by {@link EegEncoder}.  Reuses its scratch buffers
+ * like the encoder.  Not thread safe.
+ */
+public final class EegDecoder {
+
+    private final int channels;
+    private final double lsb;
+    private final int[] quantization;
+    private final int[] orders;
+    private final int[] rice;
+    private final int[][] warmup;
+
+    // Input state for the block being decoded.
+    private byte[] in;
+    private int pos;
+    private int end;
+    private long bits;
+    private int bitCount;
+
+    public EegDecoder(int channels, double lsb) {
+        if (channels < 1 || !(lsb > 0)) {
+            throw new IllegalArgumentException("channels=" + channels + " lsb=" + lsb);
+        }
+        this.channels = channels;
+        this.lsb = lsb;
+        this.quantization = new int[channels];
+        this.orders = new int[channels];
+        this.rice = new int[channels];
+        this.warmup = new int[channels][EegCodec.MAX_ORDER];
+    }
+
+    /**
+     * @return The number of frames in the block at offset, without decoding it.
+     */
+    public static int frames(byte[] src, int offset) {
+        int v = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = src[offset++];
+            v |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return v;
+            }
+        }
+    }
+
+    /**
+     * Decodes the block of length bytes at offset into dst as interleaved
+     * frames.
+     *
+     * @param dst Must hold frames(src, offset) * channels samples.
+     * @return The number of frames decoded.
+     * @throws IllegalArgumentException If the block is malformed.
+     */
+    public int decode(byte[] src, int offset, int length, float[] dst) {
+        in = src;
+        pos = offset;
+        end = offset + length;
+        bits = 0;
+        bitCount = 0;
+
+        int frames = readVarint();
+        if (frames < 0 || (long) frames * channels > dst.length) {
+            throw new IllegalArgumentException("Block of " + frames + " frames does not fit");
+        }
+        for (int c = 0; c < channels; c++) {
+            quantization[c] = readVarint();
+            int p = readByte();
+            orders[c] = p >>> 6;
+            rice[c] = p & 0x3f;
+            if (orders[c] > EegCodec.MAX_ORDER || rice[c] > EegCodec.MAX_RICE) {
+                throw new IllegalArgumentException("Bad channel header " + p);
+            }
+            for (int i = 0; i < orders[c] && i < frames; i++) {
+                warmup[c][i] = EegCodec.unzigzag(readVarint());
+            }
+        }
+        for (int c = 0; c < channels; c++) {
+            double step = lsb * quantization[c];
+            int order = orders[c];
+            int k = rice[c];
+            int x1 = 0;
+            int x2 = 0;
+            for (int i = 0; i < frames; i++) {
+                int x;
+                if (i < order) {
+                    x = warmup[c][i];
+                } else {
+                    int r = EegCodec.unzigzag(readRice(k));
+                    switch (order) {
+                        case 0:
+                            x = r;
+                            break;
+                        case 1:
+                            x = r + x1;
+                            break;
+                        default:
+                            x = r + 2 * x1 - x2;
+                            break;
+                    }
+                }
+                if (quantization[c] == EegCodec.RAW) {
+                    dst[i * channels + c] = Float.intBitsToFloat(x);
+                } else {
+                    dst[i * channels + c] = x == EegCodec.NAN_CODE ? Float.NaN : (float) (x * step);
+                }
+                x2 = x1;
+                x1 = x;
+            }
+        }
+        in = null;
+        return frames;
+    }
+
+    private int readByte() {
+        if (pos >= end) {
+            throw new IllegalArgumentException("Truncated block");
+        }
+        return in[pos++] & 0xff;
+    }
+
+    private int readVarint() {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            v |= (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return v;
+            }
+        }
+        throw new IllegalArgumentException("Bad varint");
+    }
+
+    private int readRice(int k) {
+        int q = 0;
+        while (q < EegCodec.ESCAPE && readBit() == 1) {
+            q++;
+        }
+        if (q == EegCodec.ESCAPE) {
+            return (int) readBits(32);
+        }
+        return (int) ((long) q << k | readBits(k));
+    }
+
+    private int readBit() {
+        if (bitCount == 0) {
+            bits = readByte();
+            bitCount = 8;
+        }
+        bitCount--;
+        return (int) (bits >>> bitCount) & 1;
+    }
+
+    private long readBits(int n) {
+        while (bitCount < n) {
+            bits = (bits << 8) | readByte();
+            bitCount += 8;
+        }
+        bitCount -= n;
+        return (bits >>> bitCount) & ((1L << n) - 1);
+    }
+}
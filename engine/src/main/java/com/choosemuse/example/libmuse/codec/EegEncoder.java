@@ -0,0 +1,240 @@
+package com.choosemuse.example.libmuse.codec;
+
+import java.util.Arrays;
+
+/**
+ * Losslessly compresses blocks of interleaved multi-channel EEG, see
+ * {@link EegCodec} for the format.
+ * <p>
+ * Samples compress best on the headband's grid.  A channel whose block has a
+ * sample off the grid, eg. after filtering, is stored as raw float bits
+ * instead, so every block decodes to the values it was given.
+ * <p>
+ * Every block is self-contained, so blocks can be stored or sent on their own.
+ * The scratch buffers grow to the largest block seen and are reused, so once
+ * warmed up encode() does not allocate.  Not thread safe.
+ */
+public final class EegEncoder {
+
+    private final int channels;
+    private final double lsb;
+    private final int[] quantization;
+
+    // One channel's samples on the integer grid, and each channel's residuals
+    // and coding parameters.
+    private int[] codes = new int[0];
+    private int[][] residuals;
+    private final int[] orders;
+    private final int[] rice;
+
+    // Output state for the block being encoded.
+    private byte[] out;
+    private int pos;
+    private long bits;
+    private int bitCount;
+
+    /**
+     * @param lsb The value of one step of the headband's converter, eg.
+     *            {@link EegCodec#MUSE_LSB}.
+     */
+    public EegEncoder(int channels, double lsb) {
+        if (channels < 1 || !(lsb > 0)) {
+            throw new IllegalArgumentException("channels=" + channels + " lsb=" + lsb);
+        }
+        this.channels = channels;
+        this.lsb = lsb;
+        this.quantization = new int[channels];
+        Arrays.fill(quantization, 1);
+        this.residuals = new int[channels][0];
+        this.orders = new int[channels];
+        this.rice = new int[channels];
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * Sets the quantization levels from a QUANTIZATION packet: the headband
+     * only sends multiples of level * lsb on each channel.  Levels below 1 are
+     * treated as 1.
+     */
+    public void setQuantization(double[] levels) {
+        for (int c = 0; c < channels && c < levels.length; c++) {
+            quantization[c] = Math.max(1, (int) Math.round(levels[c]));
+        }
+    }
+
+    /**
+     * Encodes frames interleaved frames from samples into dst at offset.
+     *
+     * @param dst Must have room for {@link EegCodec#maxEncodedBytes} bytes.
+     * @return The number of bytes written.
+     */
+    public int encode(float[] samples, int frames, byte[] dst, int offset) {
+        if (codes.length < frames) {
+            codes = new int[frames];
+            residuals = new int[channels][frames];
+        }
+        out = dst;
+        pos = offset;
+        bits = 0;
+        bitCount = 0;
+
+        writeVarint(frames);
+        for (int c = 0; c < channels; c++) {
+            int level = quantization[c];
+            if (!quantize(samples, frames, c)) {
+                storeRaw(samples, frames, c);
+                level = EegCodec.RAW;
+            }
+            int order = chooseOrder(frames, residuals[c]);
+            orders[c] = order;
+            rice[c] = chooseRice(frames, order, residuals[c]);
+            writeVarint(level);
+            out[pos++] = (byte) ((order << 6) | rice[c]);
+            for (int i = 0; i < order && i < frames; i++) {
+                writeVarint(EegCodec.zigzag(codes[i]));
+            }
+        }
+        for (int c = 0; c < channels; c++) {
+            int[] r = residuals[c];
+            int k = rice[c];
+            for (int i = orders[c]; i < frames; i++) {
+                writeRice(EegCodec.zigzag(r[i]), k);
+            }
+        }
+        flushBits();
+        out = null;
+        return pos - offset;
+    }
+
+    /**
+     * Puts one channel's samples on the integer grid.
+     *
+     * @return false if a sample is not on the grid, ie. it would not decode to
+     * the same value, eg. because it was filtered or resampled.
+     */
+    private boolean quantize(float[] samples, int frames, int c) {
+        double step = lsb * quantization[c];
+        for (int i = 0; i < frames; i++) {
+            float v = samples[i * channels + c];
+            if (v != v) {
+                codes[i] = EegCodec.NAN_CODE;
+            } else {
+                long q = Math.max(-EegCodec.MAX_CODE, Math.min(EegCodec.MAX_CODE, Math.round(v / step)));
+                // The same arithmetic as the decoder.
+                if ((float) (q * step) != v) {
+                    return false;
+                }
+                codes[i] = (int) q;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Codes one channel's samples as their float bits instead.  The
+     * predictors still apply, with int arithmetic wrapping the same way in the
+     * decoder, so slowly changing values still compress somewhat.
+     */
+    private void storeRaw(float[] samples, int frames, int c) {
+        for (int i = 0; i < frames; i++) {
+            codes[i] = Float.floatToRawIntBits(samples[i * channels + c]);
+        }
+    }
+
+    /**
+     * Picks the fixed predictor with the smallest sum of absolute residuals
+     * and writes its residuals to r.
+     */
+    private int chooseOrder(int frames, int[] r) {
+        long sum0 = 0;
+        long sum1 = 0;
+        long sum2 = 0;
+        for (int i = EegCodec.MAX_ORDER; i < frames; i++) {
+            int x = codes[i];
+            int x1 = codes[i - 1];
+            int x2 = codes[i - 2];
+            sum0 += Math.abs(x);
+            sum1 += Math.abs(x - x1);
+            sum2 += Math.abs(x - 2 * x1 + x2);
+        }
+        int order = sum0 <= sum1 && sum0 <= sum2 ? 0 : (sum1 <= sum2 ? 1 : 2);
+        for (int i = order; i < frames; i++) {
+            int x = codes[i];
+            switch (order) {
+                case 0:
+                    r[i] = x;
+                    break;
+                case 1:
+                    r[i] = x - codes[i - 1];
+                    break;
+                default:
+                    r[i] = x - 2 * codes[i - 1] + codes[i - 2];
+                    break;
+            }
+        }
+        return order;
+    }
+
+    /**
+     * The Rice parameter for geometrically distributed values is about
+     * log2(mean); this takes the k with 2^k <= mean.
+     */
+    private int chooseRice(int frames, int order, int[] r) {
+        long sum = 0;
+        int n = 0;
+        for (int i = order; i < frames; i++) {
+            sum += EegCodec.zigzag(r[i]) & 0xffffffffL;
+            n++;
+        }
+        int k = 0;
+        while (k < EegCodec.MAX_RICE && ((long) n << (k + 1)) <= sum) {
+            k++;
+        }
+        return k;
+    }
+
+    private void writeVarint(int v) {
+        while ((v & ~0x7f) != 0) {
+            out[pos++] = (byte) ((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out[pos++] = (byte) v;
+    }
+
+    private void writeRice(int u, int k) {
+        int q = u >>> k;
+        if (q < EegCodec.ESCAPE) {
+            // q ones, a zero, then the k low bits.
+            writeBits((1L << q) - 1 << 1, q + 1);
+            writeBits(u & ((1L << k) - 1), k);
+        } else {
+            writeBits((1L << EegCodec.ESCAPE) - 1, EegCodec.ESCAPE);
+            writeBits(u & 0xffffffffL, 32);
+        }
+    }
+
+    /**
+     * Appends the low n bits of value, most significant first.
+     */
+    private void writeBits(long value, int n) {
+        if (n == 0) {
+            return;
+        }
+        bits = (bits << n) | value;
+        bitCount += n;
+        while (bitCount >= 8) {
+            bitCount -= 8;
+            out[pos++] = (byte) (bits >>> bitCount);
+        }
+    }
+
+    private void flushBits() {
+        if (bitCount > 0) {
+            out[pos++] = (byte) (bits << (8 - bitCount));
+            bitCount = 0;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.choosemuse.example.libmuse.live;
+
+import com.choosemuse.example.libmuse.analysis.RollingSeries;
+import com.choosemuse.example.libmuse.analysis.SnapshotPublisher;
+import com.choosemuse.example.libmuse.mood.Moods;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams the state of a session to the web interface's live dashboard.
+ * <p>
+ * Every period a background thread packs the EEG that arrived since the last
+ * frame, the latest band powers and the current mood into one
+ * {@link LiveFrame} and sends it over a WebSocket.  The EEG comes from a
+ * {@link RollingSeries} that already holds it downsampled, eg. the analysis
+ * rate history, and the band powers from {@link SnapshotPublisher}s, so the
+ * packet handler is never touched: a slow or unreachable server only delays
+ * this thread.  If the thread falls behind, the next frame carries only the
+ * newest maxFrames of EEG.
+ * <p>
+ * When the connection fails, frames are dropped and the publisher reconnects
+ * after RETRY_MILLIS.
+ */
+public class DashboardPublisher {
+
+    private static final long RETRY_MILLIS = 5000;
+    private static final int CONNECT_TIMEOUT_MILLIS = 3000;
+
+    private final URI uri;
+    private final RollingSeries eeg;
+    private final float eegRate;
+    private final SnapshotPublisher alpha;
+    private final SnapshotPublisher beta;
+    private final long periodMillis;
+    private final int channels;
+    private final int maxFrames;
+
+    // Only touched by the publisher thread, or by buildFrame() in tests.
+    private final long[] timestamps;
+    private final float[] values;
+    private final double[] bands;
+    private final byte[] frame;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private int sequence;
+    private WebSocketClient client;
+    private long nextAttempt;
+
+    // Set by setMood() from any thread.
+    private int mood = -1;
+    private float arousal;
+    private float valence;
+    private float confidence;
+
+    private volatile long framesSent;
+    private volatile long bytesSent;
+    private volatile long failures;
+    private ScheduledExecutorService sender;
+
+    /**
+     * @param uri          The relay's publish endpoint, eg. ws://10.0.2.2:3000/live/publish
+     * @param eeg          The downsampled EEG.
+     * @param eegRate      Its sample rate in Hz.
+     * @param periodMillis How often a frame is sent, eg. 250.
+     */
+    public DashboardPublisher(URI uri, RollingSeries eeg, double eegRate,
+                              SnapshotPublisher alpha, SnapshotPublisher beta, long periodMillis) {
+        this.uri = uri;
+        this.eeg = eeg;
+        this.eegRate = (float) eegRate;
+        this.alpha = alpha;
+        this.beta = beta;
+        this.periodMillis = periodMillis;
+        this.channels = eeg.getChannels();
+        // Room for twice the EEG of one period, for a late run.
+        this.maxFrames = Math.min(Short.MAX_VALUE, (int) Math.ceil(2 * eegRate * periodMillis / 1000.0));
+        this.timestamps = new long[maxFrames];
+        this.values = new float[maxFrames * channels];
+        this.bands = new double[Math.max(alpha.getWidth(), beta.getWidth())];
+        this.frame = new byte[LiveFrame.bytes(channels, maxFrames)];
+    }
+
+    /**
+     * Sets the mood sent with every following frame.
+     */
+    public synchronized void setMood(Moods mood, double arousal, double valence, double confidence) {
+        this.mood = mood.ordinal();
+        this.arousal = (float) arousal;
+        this.valence = (float) valence;
+        this.confidence = (float) confidence;
+    }
+
+    /**
+     * Starts sending frames every period on a background thread.
+     */
+    public synchronized void start() {
+        if (sender != null) {
+            return;
+        }
+        sender = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "dashboard");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        sender.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                publish();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sending and closes the connection.
+     */
+    public synchronized void stop() {
+        if (sender == null) {
+            return;
+        }
+        // Runs after the frame in progress; the periodic task is cancelled by shutdown().
+        sender.execute(new Runnable() {
+            @Override
+            public void run() {
+                disconnect();
+            }
+        });
+        sender.shutdown();
+        sender = null;
+    }
+
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return The number of failed connects and sends.
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    private void publish() {
+        final long now = System.currentTimeMillis();
+        if (client == null) {
+            if (now < nextAttempt) {
+                return;
+            }
+            try {
+                client = WebSocketClient.connect(uri, CONNECT_TIMEOUT_MILLIS);
+                sequence = 0;
+            } catch (IOException e) {
+                failures++;
+                nextAttempt = now + RETRY_MILLIS;
+                return;
+            }
+        }
+        final int n = buildFrame(ByteBuffer.wrap(frame));
+        try {
+            client.sendBinary(frame, 0, n);
+            framesSent++;
+            bytesSent += n;
+        } catch (IOException e) {
+            failures++;
+            disconnect();
+            nextAttempt = now + RETRY_MILLIS;
+        }
+    }
+
+    private void disconnect() {
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // Nothing to do.
+            }
+            client = null;
+        }
+    }
+
+    /**
+     * Packs the EEG since the last frame, the band powers and the mood into out.
+     *
+     * @return The number of bytes written.
+     */
+    int buildFrame(ByteBuffer out) {
+        final int frames = eeg.query(lastTimestamp == Long.MIN_VALUE ? Long.MIN_VALUE : lastTimestamp + 1,
+                Long.MAX_VALUE, timestamps, values, maxFrames);
+        if (frames > 0) {
+            lastTimestamp = timestamps[frames - 1];
+        }
+        final int start = out.position();
+        out.putInt(LiveFrame.MAGIC);
+        out.putInt(sequence++);
+        out.putLong(lastTimestamp == Long.MIN_VALUE ? 0 : lastTimestamp);
+        synchronized (this) {
+            out.put((byte) mood);
+            out.put((byte) channels);
+            out.putShort((short) frames);
+            out.putFloat(arousal);
+            out.putFloat(valence);
+            out.putFloat(confidence);
+        }
+        out.putFloat(eegRate);
+        out.putFloat(LiveFrame.EEG_LSB);
+        putBands(out, alpha);
+        putBands(out, beta);
+        for (int i = 0; i < frames * channels; i++) {
+            out.putShort(LiveFrame.code(values[i]));
+        }
+        return out.position() - start;
+    }
+
+    private void putBands(ByteBuffer out, SnapshotPublisher publisher) {
+        final boolean any = publisher.read(bands) > 0;
+        for (int c = 0; c < channels; c++) {
+            out.putFloat(any && c < publisher.getWidth() ? (float) bands[c] : Float.NaN);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.choosemuse.example.libmuse.live;
+
+/**
+ * Layout of the binary frames streamed to the live dashboard.  All values are
+ * big-endian, as read by a JavaScript DataView by default:
+ * <pre>
+ *  0 int     MAGIC
+ *  4 int     sequence number, starting at 0 for each connection
+ *  8 long    timestamp of the newest EEG sample in microseconds, or 0
+ * 16 byte    mood ordinal (see Moods), or -1 before the first decision
+ * 17 byte    channels
+ * 18 short   EEG frames in this message
+ * 20 float   arousal
+ * 24 float   valence
+ * 28 float   confidence of the mood
+ * 32 float   EEG rate in Hz
+ * 36 float   EEG_LSB, the microvolts per EEG code
+ * 40 float[channels]            alpha absolute band power
+ *    float[channels]            beta absolute band power
+ *    short[frames * channels]   EEG codes, frame by frame; NO_VALUE if missing
+ * </pre>
+ * EEG is sent downsampled and as codes of EEG_LSB, so a quarter second of six
+ * channels at 100Hz takes 300 bytes.
+ */
+public final class LiveFrame {
+
+    public static final int MAGIC = 0x4d4c5631;   // "MLV1"
+    public static final int HEADER_BYTES = 40;
+    public static final float EEG_LSB = 0.5f;
+    public static final short NO_VALUE = Short.MIN_VALUE;
+
+    private LiveFrame() {
+    }
+
+    /**
+     * @return The size of a frame with the given number of channels and EEG frames.
+     */
+    public static int bytes(int channels, int frames) {
+        return HEADER_BYTES + 8 * channels + 2 * channels * frames;
+    }
+
+    /**
+     * @return value as a code of EEG_LSB, or NO_VALUE if it is NaN or out of range.
+     */
+    static short code(float value) {
+        if (value != value) {
+            return NO_VALUE;
+        }
+        long code = Math.round((double) value / EEG_LSB);
+        if (code <= NO_VALUE || code > Short.MAX_VALUE) {
+            return NO_VALUE;
+        }
+        return (short) code;
+    }
+}
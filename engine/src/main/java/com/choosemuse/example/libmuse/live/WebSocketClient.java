@@ -0,0 +1,232 @@
+package com.choosemuse.example.libmuse.live;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Locale;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Minimal RFC 6455 client that sends binary messages, just enough to push
+ * dashboard frames to the web interface's relay without pulling in a library.
+ * <p>
+ * ws:// and wss:// URIs are supported.  For wss:// the server certificate is
+ * checked against the platform trust store and the host name with
+ * HttpsURLConnection's default verifier, which on Android is the platform's
+ * own.  Nothing sent by the server is read; the relay never sends anything to
+ * a publisher.  Not thread safe.
+ */
+public class WebSocketClient implements Closeable {
+
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int MAX_HEADER = 14;
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final SecureRandom random = new SecureRandom();
+    private final byte[] mask = new byte[4];
+    private byte[] buffer = new byte[1024];
+
+    private WebSocketClient(Socket socket) throws IOException {
+        this.socket = socket;
+        this.out = socket.getOutputStream();
+    }
+
+    /**
+     * Opens a connection and performs the opening handshake.
+     *
+     * @throws IOException If the server cannot be reached or refuses the upgrade.
+     */
+    public static WebSocketClient connect(URI uri, int timeoutMillis) throws IOException {
+        final boolean secure = "wss".equals(uri.getScheme());
+        if (!secure && !"ws".equals(uri.getScheme())) {
+            throw new IOException("Only ws:// and wss:// are supported: " + uri);
+        }
+        int port = uri.getPort() < 0 ? (secure ? 443 : 80) : uri.getPort();
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(uri.getHost(), port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            socket.setTcpNoDelay(true);
+            if (secure) {
+                socket = startTls(socket, uri.getHost(), port);
+            }
+            WebSocketClient client = new WebSocketClient(socket);
+            client.handshake(uri.getHost() + ":" + port, path);
+            return client;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Layers TLS over a connected socket, so the connect timeout also covers
+     * wss://, and checks the certificate is for host.
+     */
+    private static Socket startTls(Socket plain, String host, int port) throws IOException {
+        SSLSocket tls = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                .createSocket(plain, host, port, true);
+        try {
+            tls.startHandshake();
+            HostnameVerifier verifier = HttpsURLConnection.getDefaultHostnameVerifier();
+            if (!verifier.verify(host, tls.getSession())) {
+                throw new IOException("Certificate does not match " + host);
+            }
+            return tls;
+        } catch (IOException e) {
+            tls.close();
+            throw e;
+        }
+    }
+
+    private void handshake(String host, String path) throws IOException {
+        byte[] nonce = new byte[16];
+        random.nextBytes(nonce);
+        String key = base64(nonce);
+        String request = "GET " + path + " HTTP/1.1\r\n"
+                + "Host: " + host + "\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: " + key + "\r\n"
+                + "Sec-WebSocket-Version: 13\r\n\r\n";
+        out.write(request.getBytes(ASCII));
+        out.flush();
+
+        String response = readHeaders(socket.getInputStream());
+        String[] lines = response.split("\r\n");
+        if (lines.length == 0 || !lines[0].startsWith("HTTP/1.1 101")) {
+            throw new IOException("Upgrade refused: " + (lines.length == 0 ? "" : lines[0]));
+        }
+        String expected = base64(sha1(key + GUID));
+        for (String line : lines) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().toLowerCase(Locale.US).equals("sec-websocket-accept")
+                    && line.substring(colon + 1).trim().equals(expected)) {
+                return;
+            }
+        }
+        throw new IOException("Bad Sec-WebSocket-Accept");
+    }
+
+    /**
+     * Reads the response up to the blank line, one byte at a time so nothing
+     * after it is consumed.
+     */
+    private static String readHeaders(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 8192) {
+            int c = in.read();
+            if (c < 0) {
+                throw new IOException("Connection closed during handshake");
+            }
+            sb.append((char) c);
+            int n = sb.length();
+            if (n >= 4 && sb.charAt(n - 4) == '\r' && sb.charAt(n - 3) == '\n'
+                    && sb.charAt(n - 2) == '\r' && sb.charAt(n - 1) == '\n') {
+                return sb.toString();
+            }
+        }
+        throw new IOException("Handshake response too long");
+    }
+
+    /**
+     * Sends one binary message.  Blocks while the socket's send buffer is full.
+     */
+    public void sendBinary(byte[] data, int offset, int length) throws IOException {
+        send(OPCODE_BINARY, data, offset, length);
+    }
+
+    private void send(int opcode, byte[] data, int offset, int length) throws IOException {
+        if (buffer.length < MAX_HEADER + length) {
+            buffer = new byte[Math.max(MAX_HEADER + length, 2 * buffer.length)];
+        }
+        int n = 0;
+        buffer[n++] = (byte) (0x80 | opcode);
+        if (length < 126) {
+            buffer[n++] = (byte) (0x80 | length);
+        } else if (length < 65536) {
+            buffer[n++] = (byte) (0x80 | 126);
+            buffer[n++] = (byte) (length >>> 8);
+            buffer[n++] = (byte) length;
+        } else {
+            buffer[n++] = (byte) (0x80 | 127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[n++] = (byte) ((long) length >>> shift);
+            }
+        }
+        // Clients must mask every frame.
+        random.nextBytes(mask);
+        System.arraycopy(mask, 0, buffer, n, 4);
+        n += 4;
+        for (int i = 0; i < length; i++) {
+            buffer[n + i] = (byte) (data[offset + i] ^ mask[i & 3]);
+        }
+        out.write(buffer, 0, n + length);
+        out.flush();
+    }
+
+    /**
+     * Sends a close frame and closes the socket.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!socket.isClosed()) {
+                // Status 1000, normal closure.
+                send(OPCODE_CLOSE, new byte[]{0x03, (byte) 0xe8}, 0, 2);
+            }
+        } catch (IOException e) {
+            // The connection is going away anyway.
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static byte[] sha1(String s) throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(s.getBytes(ASCII));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    static String base64(byte[] b) {
+        StringBuilder sb = new StringBuilder((b.length + 2) / 3 * 4);
+        for (int i = 0; i < b.length; i += 3) {
+            int v = (b[i] & 0xff) << 16;
+            if (i + 1 < b.length) {
+                v |= (b[i + 1] & 0xff) << 8;
+            }
+            if (i + 2 < b.length) {
+                v |= b[i + 2] & 0xff;
+            }
+            sb.append(BASE64[v >>> 18 & 63]).append(BASE64[v >>> 12 & 63]);
+            sb.append(i + 1 < b.length ? BASE64[v >>> 6 & 63] : '=');
+            sb.append(i + 2 < b.length ? BASE64[v & 63] : '=');
+        }
+        return sb.toString();
+    }
+}
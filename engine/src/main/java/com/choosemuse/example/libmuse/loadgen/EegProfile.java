@@ -0,0 +1,104 @@
+package com.choosemuse.example.libmuse.loadgen;
+
+/**
+ * What a {@link SyntheticHeadband} produces: the oscillations, noise and how
+ * often the signal drops out or is hit by artifacts.  Amplitudes are in uV.
+ */
+public final class EegProfile {
+
+    /**
+     * Eyes closed and calm: strong alpha, little beta, few artifacts.
+     */
+    public static final EegProfile RELAXED = new EegProfile(840, 25, 4, 1.2, 3, 0.01, 200, 6, 0.5);
+
+    /**
+     * Focused: weak alpha, more beta, frequent blinks.
+     */
+    public static final EegProfile ALERT = new EegProfile(840, 6, 10, 0.8, 4, 0.01, 200, 20, 2);
+
+    /**
+     * Poor contact: heavy noise, frequent dropouts and movement.
+     */
+    public static final EegProfile NOISY = new EegProfile(840, 10, 6, 1, 25, 0.2, 1000, 15, 10);
+
+    private final double baseline;
+    private final double alphaAmplitude;
+    private final double betaAmplitude;
+    private final double rightAlphaGain;
+    private final double noise;
+    private final double dropoutsPerSecond;
+    private final long dropoutMillis;
+    private final double blinksPerMinute;
+    private final double movementsPerMinute;
+
+    /**
+     * @param rightAlphaGain     Alpha on the right channels relative to the left;
+     *                           above 1 gives a positive frontal asymmetry.
+     * @param dropoutsPerSecond  The chance per second that packets stop for
+     *                           dropoutMillis.
+     * @param movementsPerMinute Head movements, which show up on the
+     *                           accelerometer and as jaw-clench-like EEG bursts.
+     */
+    public EegProfile(double baseline, double alphaAmplitude, double betaAmplitude, double rightAlphaGain,
+                      double noise, double dropoutsPerSecond, long dropoutMillis,
+                      double blinksPerMinute, double movementsPerMinute) {
+        this.baseline = baseline;
+        this.alphaAmplitude = alphaAmplitude;
+        this.betaAmplitude = betaAmplitude;
+        this.rightAlphaGain = rightAlphaGain;
+        this.noise = noise;
+        this.dropoutsPerSecond = dropoutsPerSecond;
+        this.dropoutMillis = dropoutMillis;
+        this.blinksPerMinute = blinksPerMinute;
+        this.movementsPerMinute = movementsPerMinute;
+    }
+
+    public static EegProfile named(String name) {
+        switch (name) {
+            case "relaxed":
+                return RELAXED;
+            case "alert":
+                return ALERT;
+            case "noisy":
+                return NOISY;
+            default:
+                throw new IllegalArgumentException("Unknown profile " + name);
+        }
+    }
+
+    public double getBaseline() {
+        return baseline;
+    }
+
+    public double getAlphaAmplitude() {
+        return alphaAmplitude;
+    }
+
+    public double getBetaAmplitude() {
+        return betaAmplitude;
+    }
+
+    public double getRightAlphaGain() {
+        return rightAlphaGain;
+    }
+
+    public double getNoise() {
+        return noise;
+    }
+
+    public double getDropoutsPerSecond() {
+        return dropoutsPerSecond;
+    }
+
+    public long getDropoutMillis() {
+        return dropoutMillis;
+    }
+
+    public double getBlinksPerMinute() {
+        return blinksPerMinute;
+    }
+
+    public double getMovementsPerMinute() {
+        return movementsPerMinute;
+    }
+}
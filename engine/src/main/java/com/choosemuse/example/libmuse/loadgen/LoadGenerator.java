@@ -0,0 +1,132 @@
+package com.choosemuse.example.libmuse.loadgen;
+
+import com.choosemuse.example.libmuse.analysis.SampleListener;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives several {@link SyntheticHeadband}s in parallel, one thread each, as
+ * the libmuse callbacks of several connected headbands would.
+ * <p>
+ * Each thread sends its headband's packets in STEP_MICROS slices.  At speed 1
+ * the slices are paced to the wall clock, and the lag is how far a thread has
+ * fallen behind it because the listener could not keep up.  At speed 0 the
+ * packets are sent as fast as the listener takes them, which is how a 12 hour
+ * session is squeezed into minutes.
+ */
+public class LoadGenerator {
+
+    public static final long STEP_MICROS = 10000;
+
+    private final SyntheticHeadband[] headbands;
+    private final SampleListener[] listeners;
+    private final double speed;
+
+    private final AtomicLong maxLagMicros = new AtomicLong();
+    private volatile boolean running;
+    private Thread[] threads;
+    private CountDownLatch done;
+
+    /**
+     * @param speed Simulated time per wall clock time, or 0 for as fast as possible.
+     */
+    public LoadGenerator(SyntheticHeadband[] headbands, SampleListener[] listeners, double speed) {
+        if (headbands.length != listeners.length) {
+            throw new IllegalArgumentException("One listener per headband");
+        }
+        this.headbands = headbands;
+        this.listeners = listeners;
+        this.speed = speed;
+    }
+
+    /**
+     * Starts sending durationMicros worth of packets from every headband.
+     */
+    public synchronized void start(final long durationMicros) {
+        if (threads != null) {
+            throw new IllegalStateException("Already started");
+        }
+        running = true;
+        done = new CountDownLatch(headbands.length);
+        threads = new Thread[headbands.length];
+        for (int i = 0; i < headbands.length; i++) {
+            final SyntheticHeadband h = headbands[i];
+            final SampleListener l = listeners[i];
+            threads[i] = new Thread("headband-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        drive(h, l, durationMicros);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+    }
+
+    private void drive(SyntheticHeadband h, SampleListener l, long durationMicros) {
+        final long from = h.nextTimestamp();
+        final long wallStart = System.nanoTime();
+        for (long t = STEP_MICROS; running && t <= durationMicros; t += STEP_MICROS) {
+            h.emitUntil(from + t, l);
+            if (speed > 0) {
+                long due = wallStart + (long) (t * 1000 / speed);
+                long ahead = due - System.nanoTime();
+                if (ahead > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(ahead);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                } else {
+                    recordLag(-ahead / 1000);
+                }
+            }
+        }
+    }
+
+    private void recordLag(long micros) {
+        long current;
+        do {
+            current = maxLagMicros.get();
+        } while (micros > current && !maxLagMicros.compareAndSet(current, micros));
+    }
+
+    /**
+     * @return True if every headband finished within the timeout.
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    /**
+     * Asks the threads to stop after their current slice.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * @return The packets sent by all headbands.
+     */
+    public long getPackets() {
+        long n = 0;
+        for (SyntheticHeadband h : headbands) {
+            n += h.getPackets();
+        }
+        return n;
+    }
+
+    /**
+     * @return The furthest any thread fell behind the wall clock, in
+     * microseconds.  Always 0 at speed 0.
+     */
+    public long getMaxLagMicros() {
+        return maxLagMicros.get();
+    }
+}
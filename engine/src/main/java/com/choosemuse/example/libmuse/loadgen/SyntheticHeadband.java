@@ -0,0 +1,229 @@
+package com.choosemuse.example.libmuse.loadgen;
+
+import com.choosemuse.example.libmuse.analysis.ArtifactDetector;
+import com.choosemuse.example.libmuse.analysis.SampleKind;
+import com.choosemuse.example.libmuse.analysis.SampleListener;
+import com.choosemuse.example.libmuse.codec.EegCodec;
+
+import java.util.Random;
+
+/**
+ * One virtual headband producing the packets a Muse streams: EEG at the
+ * configured rate, alpha and beta absolute band powers and the artifact flags
+ * at 10Hz, the accelerometer at 52Hz and quantization once a second.
+ * <p>
+ * EEG is alpha (10Hz) and beta (20Hz) oscillations with a slow amplitude
+ * modulation, Gaussian noise, blinks on the frontal channels and
+ * muscle bursts during head movements, snapped to the headband's 12 bit grid.
+ * Band powers follow the oscillation amplitudes, roughly on the libmuse log
+ * scale.  The artifact flags report blinks, and jaw clenches for the muscle
+ * bursts, like the libmuse detectors would.  During a dropout no packets are sent at all, as with a lost
+ * Bluetooth link.
+ * <p>
+ * Timestamps are in microseconds.  Output is deterministic for a given seed.
+ * Not thread safe: each headband is driven by one thread.
+ */
+public class SyntheticHeadband {
+
+    public static final int EEG_CHANNELS = 6;
+
+    private static final double FULL_SCALE = 1682.815;
+    private static final long BAND_PERIOD = 100000;
+    private static final long ACCEL_PERIOD = 1000000 / 52;
+    private static final long QUANTIZATION_PERIOD = 1000000;
+    private static final long BLINK_MICROS = 300000;
+    private static final long MOVEMENT_MICROS = 800000;
+
+    private final int rate;
+    private final EegProfile profile;
+    private final Random random;
+    private final double[] phase = new double[EEG_CHANNELS];
+
+    private final double[] eeg = new double[EEG_CHANNELS];
+    private final double[] band = new double[EEG_CHANNELS];
+    private final double[] accel = new double[3];
+    private final double[] artifacts = new double[3];
+    private final double[] quantization = new double[EEG_CHANNELS];
+
+    private final long start;
+    private long eegIndex;
+    private long nextBand;
+    private long nextAccel;
+    private long nextQuantization;
+    private long nextSecond;
+    private long dropoutEnd;
+    private long blinkStart = Long.MIN_VALUE;
+    private long movementStart = Long.MIN_VALUE;
+
+    // Current oscillation amplitudes, slowly modulated.
+    private double alpha;
+    private double beta;
+
+    private volatile long packets;
+
+    /**
+     * @param rate  The EEG rate in Hz, eg. 220, 256 or 500.
+     * @param start The timestamp of the first packet.
+     */
+    public SyntheticHeadband(int rate, EegProfile profile, long seed, long start) {
+        if (rate < 1) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        this.rate = rate;
+        this.profile = profile;
+        this.random = new Random(seed);
+        this.start = start;
+        this.nextBand = start;
+        this.nextAccel = start;
+        this.nextQuantization = start;
+        this.nextSecond = start;
+        for (int c = 0; c < EEG_CHANNELS; c++) {
+            phase[c] = random.nextDouble() * 2 * Math.PI;
+            quantization[c] = 1;
+        }
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    /**
+     * @return The number of packets sent so far.
+     */
+    public long getPackets() {
+        return packets;
+    }
+
+    /**
+     * @return The timestamp of the next EEG packet.
+     */
+    public long nextTimestamp() {
+        return start + eegIndex * 1000000 / rate;
+    }
+
+    /**
+     * Sends every packet with a timestamp before until, in timestamp order.
+     */
+    public void emitUntil(long until, SampleListener listener) {
+        while (true) {
+            long eegAt = nextTimestamp();
+            long t = Math.min(Math.min(eegAt, nextBand), Math.min(nextAccel, nextQuantization));
+            if (t >= until) {
+                return;
+            }
+            if (t >= nextSecond) {
+                startEvents(nextSecond);
+                nextSecond += 1000000;
+            }
+            boolean send = t >= dropoutEnd;
+            if (t == eegAt) {
+                eegIndex++;
+                if (send) {
+                    fillEeg(t);
+                    listener.receiveSample(SampleKind.EEG, t, eeg);
+                    packets++;
+                }
+            } else if (t == nextBand) {
+                nextBand += BAND_PERIOD;
+                if (send) {
+                    modulate();
+                    fillBand(alpha, profile.getRightAlphaGain());
+                    listener.receiveSample(SampleKind.ALPHA_ABSOLUTE, t, band);
+                    fillBand(beta, 1);
+                    listener.receiveSample(SampleKind.BETA_ABSOLUTE, t, band);
+                    fillArtifacts(t);
+                    listener.receiveSample(SampleKind.ARTIFACTS, t, artifacts);
+                    packets += 3;
+                }
+            } else if (t == nextAccel) {
+                nextAccel += ACCEL_PERIOD;
+                if (send) {
+                    fillAccel(t);
+                    listener.receiveSample(SampleKind.ACCELEROMETER, t, accel);
+                    packets++;
+                }
+            } else {
+                nextQuantization += QUANTIZATION_PERIOD;
+                if (send) {
+                    listener.receiveSample(SampleKind.QUANTIZATION, t, quantization);
+                    packets++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rolls the dice for the dropouts, blinks and movements starting in the
+     * second from t.
+     */
+    private void startEvents(long t) {
+        if (random.nextDouble() < profile.getDropoutsPerSecond()) {
+            dropoutEnd = t + random.nextInt(1000000) + profile.getDropoutMillis() * 1000;
+        }
+        if (random.nextDouble() < profile.getBlinksPerMinute() / 60) {
+            blinkStart = t + random.nextInt(1000000);
+        }
+        if (random.nextDouble() < profile.getMovementsPerMinute() / 60) {
+            movementStart = t + random.nextInt(1000000);
+        }
+    }
+
+    private void modulate() {
+        alpha = profile.getAlphaAmplitude() * (1 + 0.3 * Math.sin(2 * Math.PI * nextBand / 30e6))
+                * (1 + 0.1 * random.nextGaussian());
+        beta = profile.getBetaAmplitude() * (1 + 0.3 * Math.cos(2 * Math.PI * nextBand / 45e6))
+                * (1 + 0.1 * random.nextGaussian());
+    }
+
+    private void fillEeg(long t) {
+        double seconds = (t - start) / 1e6;
+        long sinceBlink = t - blinkStart;
+        long sinceMovement = t - movementStart;
+        if (alpha == 0) {
+            modulate();
+        }
+        for (int c = 0; c < EEG_CHANNELS; c++) {
+            // Channels 0-3 are TP9, AF7, AF8 and TP10; 4 and 5 are the idle AUX inputs.
+            if (c >= 4) {
+                eeg[c] = 0;
+                continue;
+            }
+            double gain = c >= 2 ? profile.getRightAlphaGain() : 1;
+            double v = profile.getBaseline()
+                    + gain * alpha * Math.sin(2 * Math.PI * 10 * seconds + phase[c])
+                    + beta * Math.sin(2 * Math.PI * 20 * seconds + 2 * phase[c])
+                    + profile.getNoise() * random.nextGaussian();
+            if (sinceBlink >= 0 && sinceBlink < BLINK_MICROS && (c == 1 || c == 2)) {
+                v += 150 * Math.sin(Math.PI * sinceBlink / BLINK_MICROS);
+            }
+            if (sinceMovement >= 0 && sinceMovement < MOVEMENT_MICROS) {
+                v += 60 * random.nextGaussian();
+            }
+            v = Math.max(0, Math.min(FULL_SCALE, v));
+            eeg[c] = Math.round(v / EegCodec.MUSE_LSB) * EegCodec.MUSE_LSB;
+        }
+    }
+
+    private void fillBand(double amplitude, double rightGain) {
+        for (int c = 0; c < EEG_CHANNELS; c++) {
+            double a = c < 4 ? amplitude * (c >= 2 ? rightGain : 1) : 0;
+            band[c] = Math.log10(1 + a * a / 2);
+        }
+    }
+
+    private void fillArtifacts(long t) {
+        long sinceBlink = t - blinkStart;
+        long sinceMovement = t - movementStart;
+        artifacts[ArtifactDetector.HEADBAND_ON] = 1;
+        artifacts[ArtifactDetector.BLINK] = sinceBlink >= 0 && sinceBlink < BLINK_MICROS ? 1 : 0;
+        artifacts[ArtifactDetector.JAW_CLENCH] = sinceMovement >= 0 && sinceMovement < MOVEMENT_MICROS ? 1 : 0;
+    }
+
+    private void fillAccel(long t) {
+        long sinceMovement = t - movementStart;
+        double shake = sinceMovement >= 0 && sinceMovement < MOVEMENT_MICROS ? 0.3 : 0.01;
+        accel[0] = shake * random.nextGaussian();
+        accel[1] = shake * random.nextGaussian();
+        accel[2] = 1 + shake * random.nextGaussian();
+    }
+}
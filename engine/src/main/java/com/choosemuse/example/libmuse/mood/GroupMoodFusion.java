@@ -0,0 +1,236 @@
+package com.choosemuse.example.libmuse.mood;
+
+import com.choosemuse.example.libmuse.analysis.SnapshotPublisher;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fuses the mood decisions of several headbands into one group mood, eg. to
+ * pick the music for everyone in a room.
+ * <p>
+ * Every headband has its own {@link MoodEngine} and submits the features of
+ * each decision with its timestamp and signal quality.  Once per window,
+ * fuse() lines the headbands up at the window's end: each one contributes its
+ * newest decision at or before that time, unless it is older than the maximum
+ * age, so a headband that lags or has dropped out is left out rather than
+ * holding the group back.  The features are averaged weighted by signal
+ * quality, so a headband that has slipped off counts for little, and the
+ * average is classified like a single headband's.
+ * <p>
+ * Headbands may submit from their own threads; each submission is handed over
+ * through a {@link SnapshotPublisher}, so submitting never blocks.  fuse() and
+ * the getters must be called from one thread.  fuse() takes time proportional
+ * to the maximum number of headbands and does not allocate.
+ */
+public class GroupMoodFusion {
+
+    // A submission: the decision timestamp, its quality and the features.
+    private static final int TIME = 0;
+    private static final int QUALITY = 1;
+    private static final int FEATURES = 2;
+    private static final int WIDTH = FEATURES + MoodFeatures.COUNT;
+
+    private static final int FREE = 0;
+    private static final int ADDING = 1;
+    private static final int ACTIVE = 2;
+
+    private final long maxAgeMicros;
+    private final MoodClassifier classifier;
+
+    private final SnapshotPublisher[] submissions;
+    private final AtomicIntegerArray states;
+    // The submission version of each slot when its device was added.
+    private final AtomicLongArray addedAt;
+    private final double[][] submitBuffers;
+
+    // Only touched by fuse(): the newest and the previous submission read from
+    // each slot, so a decision made just after the window end does not hide
+    // the one made just before it.
+    private final long[] seen;
+    private final double[][] newest;
+    private final double[][] previous;
+
+    // The result of the last fuse()
+    private final double[] features = new double[MoodFeatures.COUNT];
+    private final double[] probabilities = new double[Moods.values().length];
+    private int contributors;
+    private double totalWeight;
+
+    /**
+     * @param maxDevices   The most headbands that can be in the group at once.
+     * @param maxAgeMicros Decisions older than this at the window end are left
+     *                     out, eg. one and a half decision intervals.
+     */
+    public GroupMoodFusion(int maxDevices, long maxAgeMicros, MoodClassifier classifier) {
+        if (maxDevices < 1 || maxAgeMicros <= 0) {
+            throw new IllegalArgumentException("Need at least one device and a positive age");
+        }
+        this.maxAgeMicros = maxAgeMicros;
+        this.classifier = classifier;
+        submissions = new SnapshotPublisher[maxDevices];
+        states = new AtomicIntegerArray(maxDevices);
+        addedAt = new AtomicLongArray(maxDevices);
+        submitBuffers = new double[maxDevices][WIDTH];
+        seen = new long[maxDevices];
+        newest = new double[maxDevices][WIDTH];
+        previous = new double[maxDevices][WIDTH];
+        for (int d = 0; d < maxDevices; d++) {
+            submissions[d] = new SnapshotPublisher(WIDTH);
+        }
+    }
+
+    public int getMaxDevices() {
+        return submissions.length;
+    }
+
+    /**
+     * Adds a headband to the group.  May be called from any thread.
+     *
+     * @return The device number to submit with.
+     * @throws IllegalStateException If the group is full.
+     */
+    public int addDevice() {
+        for (int d = 0; d < submissions.length; d++) {
+            if (states.compareAndSet(d, FREE, ADDING)) {
+                // Anything submitted before this point belongs to an earlier device.
+                addedAt.set(d, submissions[d].getVersion());
+                states.set(d, ACTIVE);
+                return d;
+            }
+        }
+        throw new IllegalStateException("The group is full at " + submissions.length + " headbands");
+    }
+
+    /**
+     * Takes a headband out of the group, eg. when it disconnects.  May be
+     * called from any thread; the device number must not be used afterwards.
+     */
+    public void removeDevice(int device) {
+        states.set(device, FREE);
+    }
+
+    /**
+     * Submits a decision of a headband.  Each device must only be submitted
+     * for from one thread at a time.
+     *
+     * @param timestamp The decision timestamp, on the same clock for all
+     *                  headbands, eg. MoodEngine.getTickTimestamp().
+     * @param quality   The weight of the decision, eg. MoodEngine.getSignalQuality().
+     * @param features  MoodFeatures.COUNT values.
+     */
+    public void submit(int device, long timestamp, double quality, double[] features) {
+        final double[] b = submitBuffers[device];
+        b[TIME] = timestamp;
+        b[QUALITY] = quality;
+        System.arraycopy(features, 0, b, FEATURES, MoodFeatures.COUNT);
+        submissions[device].publish(b);
+    }
+
+    /**
+     * Submits the last decision of a headband's engine, see
+     * {@link #submit(int, long, double, double[])}.
+     */
+    public void submit(int device, MoodEngine engine) {
+        final double[] b = submitBuffers[device];
+        b[TIME] = engine.getTickTimestamp();
+        b[QUALITY] = engine.getSignalQuality();
+        for (int i = 0; i < MoodFeatures.COUNT; i++) {
+            b[FEATURES + i] = engine.getFeature(i);
+        }
+        submissions[device].publish(b);
+    }
+
+    /**
+     * Fuses the decisions of all headbands as of the end of a window.  Call
+     * once per window with increasing window ends.
+     *
+     * @return The group mood, or null if no headband had a recent enough
+     * decision with any signal.
+     */
+    public Moods fuse(long windowEnd) {
+        for (int i = 0; i < features.length; i++) {
+            features[i] = 0;
+        }
+        contributors = 0;
+        totalWeight = 0;
+        for (int d = 0; d < submissions.length; d++) {
+            if (states.get(d) != ACTIVE) {
+                continue;
+            }
+            final long since = addedAt.get(d);
+            final SnapshotPublisher s = submissions[d];
+            if (s.getVersion() != seen[d]) {
+                // Keep the newest as the previous, unless it is from before the device was added.
+                final double[] p = previous[d];
+                previous[d] = newest[d];
+                newest[d] = p;
+                if (seen[d] <= since) {
+                    previous[d][TIME] = Double.NaN;
+                }
+                seen[d] = s.read(newest[d]);
+            }
+            if (seen[d] <= since) {
+                continue;
+            }
+            double[] decision = newest[d];
+            if (!(decision[TIME] <= windowEnd)) {
+                decision = previous[d];
+            }
+            final double age = windowEnd - decision[TIME];
+            final double weight = decision[QUALITY];
+            // NaN times and weights fail these comparisons, too.
+            if (!(age >= 0 && age <= maxAgeMicros && weight > 0)) {
+                continue;
+            }
+            for (int i = 0; i < features.length; i++) {
+                features[i] += weight * decision[FEATURES + i];
+            }
+            totalWeight += weight;
+            contributors++;
+        }
+        if (contributors == 0) {
+            return null;
+        }
+        for (int i = 0; i < features.length; i++) {
+            features[i] /= totalWeight;
+        }
+        return classifier.classify(features, probabilities);
+    }
+
+    /**
+     * @return How many headbands the last fuse() used.
+     */
+    public int getContributors() {
+        return contributors;
+    }
+
+    /**
+     * @return The summed signal quality of the headbands the last fuse() used.
+     */
+    public double getTotalWeight() {
+        return totalWeight;
+    }
+
+    /**
+     * @return A feature of the last group mood, indexed by the MoodFeatures constants.
+     */
+    public double getFeature(int index) {
+        return features[index];
+    }
+
+    public double getArousal() {
+        return features[MoodFeatures.AROUSAL];
+    }
+
+    public double getValence() {
+        return features[MoodFeatures.VALENCE];
+    }
+
+    /**
+     * @return The classifier's probability for a mood at the last fuse().
+     */
+    public double getProbability(Moods mood) {
+        return probabilities[mood.ordinal()];
+    }
+}
@@ -0,0 +1,125 @@
+package com.choosemuse.example.libmuse.mood;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Multinomial logistic regression over the {@link MoodFeatures}.
+ * <p>
+ * Each mood has a bias and one weight per feature; the mood scores are passed
+ * through a softmax to give probabilities.  A decision costs
+ * Moods x MoodFeatures.COUNT multiply-adds and five exp() calls, and allocates
+ * nothing.  Not thread safe: each instance keeps its own scratch scores.
+ * <p>
+ * Weights are read from a text model, one line per mood:
+ * <pre>
+ * # mood  bias  arousal  valence  alpha  beta  asymmetry  frontal  temporal
+ * HAPPY   0     1        1        0      0     0          0        0
+ * </pre>
+ * Blank lines and lines starting with # are ignored.  Every mood must appear
+ * exactly once.  Models from before a feature was added may leave its weight
+ * off the end of the line; it counts as 0.
+ */
+public class LogisticMoodClassifier implements MoodClassifier {
+
+    private static final Moods[] MOODS = Moods.values();
+
+    // weights[m * (COUNT + 1)] is the bias of mood m, followed by its feature weights.
+    private final double[] weights;
+    private final double[] scores = new double[MOODS.length];
+
+    public LogisticMoodClassifier(double[] weights) {
+        if (weights.length != MOODS.length * (MoodFeatures.COUNT + 1)) {
+            throw new IllegalArgumentException("Expected " + MOODS.length * (MoodFeatures.COUNT + 1)
+                    + " weights, got " + weights.length);
+        }
+        this.weights = weights.clone();
+    }
+
+    /**
+     * @return A classifier with the same weights and its own scratch scores,
+     * eg. for another thread.
+     */
+    public LogisticMoodClassifier copy() {
+        return new LogisticMoodClassifier(weights);
+    }
+
+    /**
+     * Reads a model in the format described above.
+     *
+     * @throws IOException If the model cannot be read or is malformed.
+     */
+    public static LogisticMoodClassifier load(Reader in) throws IOException {
+        final int stride = MoodFeatures.COUNT + 1;
+        double[] weights = new double[MOODS.length * stride];
+        boolean[] seen = new boolean[MOODS.length];
+        BufferedReader reader = new BufferedReader(in);
+        String line;
+        int lineNo = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            if (parts.length < 3 || parts.length > stride + 1) {
+                throw new IOException("Line " + lineNo + ": expected a mood and up to " + stride + " numbers");
+            }
+            final Moods mood;
+            try {
+                mood = Moods.valueOf(parts[0]);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Line " + lineNo + ": unknown mood " + parts[0]);
+            }
+            if (seen[mood.ordinal()]) {
+                throw new IOException("Line " + lineNo + ": " + mood.name() + " appears twice");
+            }
+            seen[mood.ordinal()] = true;
+            for (int i = 0; i < parts.length - 1; i++) {
+                try {
+                    weights[mood.ordinal() * stride + i] = Double.parseDouble(parts[i + 1]);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Line " + lineNo + ": bad number " + parts[i + 1]);
+                }
+            }
+        }
+        for (Moods m : MOODS) {
+            if (!seen[m.ordinal()]) {
+                throw new IOException("Model has no weights for " + m.name());
+            }
+        }
+        return new LogisticMoodClassifier(weights);
+    }
+
+    @Override
+    public Moods classify(double[] features, double[] probabilities) {
+        final int stride = MoodFeatures.COUNT + 1;
+        int best = 0;
+        for (int m = 0; m < MOODS.length; m++) {
+            int base = m * stride;
+            double s = weights[base];
+            for (int f = 0; f < MoodFeatures.COUNT; f++) {
+                s += weights[base + 1 + f] * features[f];
+            }
+            scores[m] = s;
+            if (s > scores[best]) {
+                best = m;
+            }
+        }
+        if (probabilities != null) {
+            // Subtract the best score so exp() cannot overflow.
+            double max = scores[best];
+            double sum = 0;
+            for (int m = 0; m < MOODS.length; m++) {
+                probabilities[m] = Math.exp(scores[m] - max);
+                sum += probabilities[m];
+            }
+            for (int m = 0; m < MOODS.length; m++) {
+                probabilities[m] /= sum;
+            }
+        }
+        return MOODS[best];
+    }
+}
@@ -0,0 +1,18 @@
+package com.choosemuse.example.libmuse.mood;
+
+/**
+ * Maps a feature vector to a mood.
+ * <p>
+ * Implementations must run in bounded time and must not allocate, since they
+ * are called on every decision on the service's analysis thread.
+ */
+public interface MoodClassifier {
+
+    /**
+     * @param features      MoodFeatures.COUNT values, indexed by the MoodFeatures constants.
+     * @param probabilities If not null, receives the probability of each mood,
+     *                      indexed by Moods.ordinal().
+     * @return The most likely mood.
+     */
+    Moods classify(double[] features, double[] probabilities);
+}
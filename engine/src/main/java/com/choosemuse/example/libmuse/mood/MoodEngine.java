@@ -0,0 +1,441 @@
+package com.choosemuse.example.libmuse.mood;
+
+import com.choosemuse.example.libmuse.analysis.ArtifactDetector;
+import com.choosemuse.example.libmuse.analysis.BiquadFilterBank;
+import com.choosemuse.example.libmuse.analysis.CrossSpectrum;
+import com.choosemuse.example.libmuse.analysis.SampleKind;
+import com.choosemuse.example.libmuse.analysis.SampleListener;
+import com.choosemuse.example.libmuse.analysis.SnapshotPublisher;
+
+/**
+ * Turns EEG, alpha and beta samples into a mood.
+ * <p>
+ * Samples are held as they arrive.  Every short interval tick() folds the latest
+ * values into the running features: the average alpha and beta power over the
+ * four EEG channels and the summed left (TP9, AF7) and right (AF8, TP10) EEG.
+ * Every long interval decide() turns the features into an arousal and a valence
+ * value and a {@link MoodClassifier} maps the features to one of the {@link Moods}.
+ * <p>
+ * Arousal is beta minus alpha power, valence is right minus left EEG, both
+ * corrected by the user's calibration recording.  The scaling and thresholds
+ * come from {@link MoodParameters}.
+ * <p>
+ * The engine has no Android dependencies; the app feeds it from the libmuse
+ * callbacks, and batch jobs and tests can feed it from recordings.  Samples may
+ * arrive on a different thread than the one calling tick(): they are handed
+ * over through a {@link SnapshotPublisher} per kind.  Everything else must be
+ * called from one thread.
+ * <p>
+ * Raw EEG is dominated by DC offset and mains hum, which swamp the left/right
+ * difference valence is computed from.  Set an EEG filter, eg.
+ * {@link BiquadFilterBank#forEeg(int, int)} for the headband rate, and EEG
+ * samples are filtered as they arrive, before they are handed over.
+ * <p>
+ * Set an EEG spectrum, eg. {@link CrossSpectrum#forAlpha(double)}, and the
+ * (filtered) EEG also feeds the frontal alpha asymmetry and the alpha
+ * coherence features.  They are updated once per spectrum segment at a
+ * constant cost per sample, and each decision uses the latest values.
+ * <p>
+ * ARTIFACTS and ACCELEROMETER samples feed an {@link ArtifactDetector}.  A tick
+ * whose window was contaminated by a blink, jaw clench, head movement or the
+ * headband being off is rejected: nothing is folded in, and decide() averages
+ * over the processed ticks only.  The window is the WINDOW_MICROS the sampled
+ * band powers describe, or the time since the previous tick if that is
+ * shorter, so a long hop is not rejected for a blink seconds before the
+ * sample.  Spectrum
+ * segments with contaminated EEG are dropped the same way.  The counts of
+ * processed and rejected windows are kept as metrics.
+ */
+public class MoodEngine implements SampleListener {
+
+    /**
+     * The span of EEG that libmuse's band powers are computed over, and so the
+     * longest window a tick checks for artifacts.
+     */
+    public static final long WINDOW_MICROS = 1000000;
+
+    private int ticksPerDecision;
+    private final MoodParameters parameters;
+    private final MoodClassifier classifier;
+
+    // The latest values of each sample kind, and the copies tick() works on.
+    private final SnapshotPublisher eegSnapshot = new SnapshotPublisher(6);
+    private final SnapshotPublisher alphaSnapshot = new SnapshotPublisher(6);
+    private final SnapshotPublisher betaSnapshot = new SnapshotPublisher(6);
+    private final double[] eeg = new double[6];
+    private final double[] alpha = new double[6];
+    private final double[] beta = new double[6];
+
+    // Filters EEG on the thread calling receiveSample(), into filteredEeg.
+    private volatile BiquadFilterBank eegFilter;
+    private final double[] filteredEeg = new double[6];
+
+    // Runs on the same thread as the filter; its features are handed over at
+    // the end of each segment.
+    private volatile CrossSpectrum eegSpectrum;
+    private final double[] spectrumFeatures = new double[3];
+    private final SnapshotPublisher spectrumSnapshot = new SnapshotPublisher(spectrumFeatures.length);
+    private final double[] spectrum = new double[spectrumFeatures.length];
+
+    // The timestamp of the newest sample received, and of the newest one the
+    // last tick() folded in, so latency can be traced per packet.
+    private volatile long lastTimestamp = Long.MIN_VALUE;
+    private long tickTimestamp = Long.MIN_VALUE;
+
+    // The average of all channels for alpha and beta
+    private double avgAlpha;
+    private double avgBeta;
+
+    private double avgAlphaLong;
+    private double avgBetaLong;
+
+    private double eegLeft;
+    private double eegRight;
+
+    // Alpha channels with contact summed over the ticks of the interval.
+    private int contacts;
+    private double signalQuality;
+
+    // Fed on the thread calling receiveSample(), checked by tick().
+    private final ArtifactDetector artifacts = new ArtifactDetector();
+    private int processedTicks;
+    private volatile long processedWindows;
+    private volatile long rejectedWindows;
+
+    // The inputs and outputs of the last decision
+    private Moods mood = Moods.NEUTRAL;
+    private double arousal;
+    private double valence;
+    private final double[] features = new double[MoodFeatures.COUNT];
+    private final double[] probabilities = new double[Moods.values().length];
+
+    // For calibration
+    private double relativeX = 0.0;
+    private double relativeY = 0.0;
+    private int noOfTime = 0;
+    private double totalX = 0.0;
+    private double totalY = 0.0;
+
+    /**
+     * @param ticksPerDecision The number of tick() calls between decide() calls,
+     *                         eg. LONG_INTERVAL / SHORT_INTERVAL.
+     */
+    public MoodEngine(int ticksPerDecision) {
+        this(ticksPerDecision, MoodParameters.DEFAULT);
+    }
+
+    public MoodEngine(int ticksPerDecision, MoodParameters parameters) {
+        this(ticksPerDecision, parameters, new QuadrantClassifier(parameters));
+    }
+
+    public MoodEngine(int ticksPerDecision, MoodParameters parameters, MoodClassifier classifier) {
+        this.ticksPerDecision = ticksPerDecision;
+        this.parameters = parameters;
+        this.classifier = classifier;
+    }
+
+    /**
+     * Changes the number of tick() calls between decide() calls, eg. when the
+     * analysis hop changes to save battery.  Call right after a decide().
+     */
+    public void setTicksPerDecision(int ticksPerDecision) {
+        this.ticksPerDecision = ticksPerDecision;
+    }
+
+    /**
+     * Sets the filter EEG samples are run through, or null to use them as they
+     * arrive.  The filter must be sized for the EEG channels, and should be a
+     * new one when the headband or its rate changes.
+     */
+    public void setEegFilter(BiquadFilterBank filter) {
+        eegFilter = filter;
+    }
+
+    /**
+     * Sets the spectrum the EEG feeds, or null to leave the asymmetry and
+     * coherence features at 0.  Like the filter, it should be a new one when
+     * the headband or its rate changes.
+     */
+    public void setEegSpectrum(CrossSpectrum spectrum) {
+        eegSpectrum = spectrum;
+    }
+
+    /**
+     * Sets up the EEG filter and spectrum for a headband, the way the app runs
+     * every engine: {@link BiquadFilterBank#forEeg(int, int)} and
+     * {@link CrossSpectrum#forAlpha(double)} at the headband's EEG rate.  Batch
+     * replays call this too, so they decide on the same features.
+     *
+     * @param channels The number of EEG values per sample.
+     * @param eegRate  The EEG output frequency of the headband.
+     */
+    public void setEegRate(int channels, int eegRate) {
+        setEegFilter(BiquadFilterBank.forEeg(channels, eegRate));
+        setEegSpectrum(CrossSpectrum.forAlpha(eegRate));
+    }
+
+    @Override
+    public void receiveSample(SampleKind kind, long timestamp, double[] values) {
+        switch (kind) {
+            case EEG:
+                double[] eegValues = values;
+                final BiquadFilterBank filter = eegFilter;
+                if (filter != null) {
+                    final int n = Math.min(values.length, filteredEeg.length);
+                    System.arraycopy(values, 0, filteredEeg, 0, n);
+                    filter.process(filteredEeg);
+                    eegValues = filteredEeg;
+                }
+                eegSnapshot.publish(eegValues);
+                final CrossSpectrum s = eegSpectrum;
+                if (s == null) {
+                    break;
+                }
+                if (artifacts.isContaminated(timestamp)) {
+                    s.skip();
+                } else if (s.add(eegValues)) {
+                    spectrumFeatures[0] = s.getAsymmetry(CrossSpectrum.AF7, CrossSpectrum.AF8);
+                    spectrumFeatures[1] = s.getCoherence(CrossSpectrum.FRONTAL);
+                    spectrumFeatures[2] = s.getCoherence(CrossSpectrum.TEMPORAL);
+                    spectrumSnapshot.publish(spectrumFeatures);
+                }
+                break;
+            case ALPHA_ABSOLUTE:
+                alphaSnapshot.publish(values);
+                break;
+            case BETA_ABSOLUTE:
+                betaSnapshot.publish(values);
+                break;
+            case ARTIFACTS:
+            case ACCELEROMETER:
+                artifacts.receiveSample(kind, timestamp, values);
+                return;
+            default:
+                return;
+        }
+        lastTimestamp = timestamp;
+    }
+
+    /**
+     * Folds the latest samples into the running features, unless the window
+     * they describe was contaminated.  Call once per short interval.
+     */
+    public void tick() {
+        final long sampled = lastTimestamp;
+        long windowStart = tickTimestamp;
+        if (sampled != Long.MIN_VALUE && sampled - WINDOW_MICROS > windowStart) {
+            windowStart = sampled - WINDOW_MICROS;
+        }
+        tickTimestamp = sampled;
+        if (artifacts.getContaminatedUntil() > windowStart) {
+            rejectedWindows++;
+            return;
+        }
+        processedWindows++;
+        processedTicks++;
+        if (eegSnapshot.read(eeg) > 0) {
+            eegLeft += eeg[0] + eeg[1];
+            eegRight += eeg[2] + eeg[3];
+        }
+        if (alphaSnapshot.read(alpha) > 0) {
+            avgAlpha = getAvg(alpha[0], alpha[1], alpha[2], alpha[3]);
+            avgAlphaLong += avgAlpha;
+            for (int i = 0; i < 4; i++) {
+                if (alpha[i] > 0) {
+                    contacts++;
+                }
+            }
+        }
+        if (betaSnapshot.read(beta) > 0) {
+            avgBeta = getAvg(beta[0], beta[1], beta[2], beta[3]);
+            avgBetaLong += avgBeta;
+        }
+    }
+
+    /**
+     * Averages the features over the ticks processed since the last decision,
+     * determines the mood and starts a new interval.  Call once per long
+     * interval.  If every tick was rejected nothing is computed: the last mood
+     * and features stand, with a signal quality of 0.
+     */
+    public Moods decide() {
+        final int ticks = processedTicks;
+        processedTicks = 0;
+        if (ticks == 0) {
+            signalQuality = 0;
+            return mood;
+        }
+        avgAlphaLong = avgAlphaLong / ticks;
+        avgBetaLong = avgBetaLong / ticks;
+        eegLeft = eegLeft / ticks;
+        eegRight = eegRight / ticks;
+
+        arousal = computeArousal();
+        valence = computeValence();
+        features[MoodFeatures.AROUSAL] = arousal;
+        features[MoodFeatures.VALENCE] = valence;
+        features[MoodFeatures.ALPHA] = avgAlphaLong;
+        features[MoodFeatures.BETA] = avgBetaLong;
+        spectrumSnapshot.read(spectrum);
+        features[MoodFeatures.ALPHA_ASYMMETRY] = spectrum[0];
+        features[MoodFeatures.FRONTAL_COHERENCE] = spectrum[1];
+        features[MoodFeatures.TEMPORAL_COHERENCE] = spectrum[2];
+        mood = classifier.classify(features, probabilities);
+        // Rejected ticks count as no contact, so the quality falls with artifacts.
+        signalQuality = Math.min(1.0, contacts / (4.0 * ticksPerDecision));
+
+        avgAlphaLong = 0;
+        avgBetaLong = 0;
+        contacts = 0;
+        return mood;
+    }
+
+    /**
+     * Starts a calibration recording.
+     */
+    public void startCalibration() {
+        noOfTime++;
+    }
+
+    /**
+     * Ends a calibration recording, folding the current features into the
+     * baseline that is subtracted from every later decision.
+     *
+     * @param elapsedMillis How long the recording lasted.
+     * @param tickMillis    The short interval between tick() calls.
+     */
+    public void stopCalibration(long elapsedMillis, long tickMillis) {
+        final long ticks = Math.max(1, elapsedMillis / tickMillis);
+        // Arousal
+        totalY += (avgBeta - avgAlpha) / ticks;
+        // Valence
+        totalX += (eegLeft - eegRight) / ticks;
+        relativeX = totalX / noOfTime;
+        relativeY = totalY / noOfTime;
+    }
+
+    /**
+     * @return The rounded valence of the last decision; positive is pleasant.
+     */
+    public double getValence() {
+        return valence;
+    }
+
+    /**
+     * @return The rounded arousal of the last decision; positive is alert.
+     */
+    public double getArousal() {
+        return arousal;
+    }
+
+    private double computeValence() {
+        final double scale = parameters.getValenceScale();
+        return Math.round(eegRight / scale - eegLeft / scale - relativeX / scale);
+    }
+
+    private double computeArousal() {
+        final double scale = parameters.getArousalScale();
+        return Math.round(avgBetaLong * scale - avgAlphaLong * scale - relativeY * scale);
+    }
+
+    /**
+     * @return The number of tick() windows folded into the features so far.
+     * May be called from any thread.
+     */
+    public long getProcessedWindows() {
+        return processedWindows;
+    }
+
+    /**
+     * @return The number of tick() windows skipped because of artifacts so
+     * far.  May be called from any thread.
+     */
+    public long getRejectedWindows() {
+        return rejectedWindows;
+    }
+
+    /**
+     * @return A feature of the last decision, indexed by the MoodFeatures constants.
+     */
+    public double getFeature(int index) {
+        return features[index];
+    }
+
+    /**
+     * @return The share of the four alpha channels that had contact over the
+     * last decision interval, from 0 (headband off) to 1 (all four on every
+     * tick).  Ticks rejected for artifacts count as no contact.
+     */
+    public double getSignalQuality() {
+        return signalQuality;
+    }
+
+    /**
+     * @return The classifier's probability for a mood at the last decision.
+     */
+    public double getProbability(Moods mood) {
+        return probabilities[mood.ordinal()];
+    }
+
+    /**
+     * @return The timestamp of the newest sample the last tick() folded in, or
+     * Long.MIN_VALUE before the first sample.  Decisions cover the samples up to
+     * this timestamp.
+     */
+    public long getTickTimestamp() {
+        return tickTimestamp;
+    }
+
+    public double getAvgAlpha() {
+        return avgAlpha;
+    }
+
+    public double getAvgBeta() {
+        return avgBeta;
+    }
+
+    /**
+     * Averages the positive values; channels with no contact report 0 or less.
+     */
+    public static double getAvg(double... nums) {
+        double sum = 0;
+        int count = 0;
+        for (double d : nums) {
+            if (d > 0) {
+                sum += d;
+                count++;
+            }
+        }
+        return (count > 0) ? (sum / count) : 0;
+    }
+
+    public MoodParameters getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Maps an arousal/valence point to the mood of its quadrant.
+     */
+    public static Moods determineMood(double arousal, double valence) {
+        return determineMood(arousal, valence, MoodParameters.DEFAULT);
+    }
+
+    /**
+     * Maps an arousal/valence point to the mood of its quadrant, treating points
+     * within the thresholds of an axis as NEUTRAL.
+     */
+    public static Moods determineMood(double arousal, double valence, MoodParameters p) {
+        final double a = p.getArousalThreshold();
+        final double v = p.getValenceThreshold();
+        if ((arousal > a) && (valence > v)) {
+            return Moods.HAPPY;
+        } else if ((arousal > a) && (valence < -v)) {
+            return Moods.ANGRY;
+        } else if ((arousal < -a) && (valence > v)) {
+            return Moods.RELAXED;
+        } else if ((arousal < -a) && (valence < -v)) {
+            return Moods.SAD;
+        }
+        return Moods.NEUTRAL;
+    }
+}
@@ -0,0 +1,49 @@
+package com.choosemuse.example.libmuse.mood;
+
+/**
+ * Indices into the feature vector {@link MoodEngine} hands to a
+ * {@link MoodClassifier} at each decision.
+ */
+public final class MoodFeatures {
+
+    /**
+     * The rounded, calibrated arousal (beta - alpha power).
+     */
+    public static final int AROUSAL = 0;
+
+    /**
+     * The rounded, calibrated valence (right - left EEG).
+     */
+    public static final int VALENCE = 1;
+
+    /**
+     * The average absolute alpha power over the decision interval.
+     */
+    public static final int ALPHA = 2;
+
+    /**
+     * The average absolute beta power over the decision interval.
+     */
+    public static final int BETA = 3;
+
+    /**
+     * Frontal alpha asymmetry: the log alpha power of AF8 minus that of AF7.
+     * Positive when the right has more alpha, ie. the left is more active.
+     */
+    public static final int ALPHA_ASYMMETRY = 4;
+
+    /**
+     * The alpha coherence of AF7 and AF8, from 0 to 1.
+     */
+    public static final int FRONTAL_COHERENCE = 5;
+
+    /**
+     * The alpha coherence of TP9 and TP10, from 0 to 1.
+     */
+    public static final int TEMPORAL_COHERENCE = 6;
+
+    public static final int COUNT = 7;
+
+    private MoodFeatures() {
+    }
+}
@@ -0,0 +1,53 @@
+package com.choosemuse.example.libmuse.mood;
+
+/**
+ * The tunable constants of {@link MoodEngine}.
+ * <p>
+ * Valence is (right - left - calibration) / valenceScale and arousal is
+ * (beta - alpha - calibration) * arousalScale, both rounded.  A point only
+ * counts towards a quadrant mood if it is further than the threshold from the
+ * axis; anything closer is NEUTRAL.  The defaults reproduce the original
+ * hand-tuned values.
+ */
+public final class MoodParameters {
+
+    public static final MoodParameters DEFAULT = new MoodParameters(50, 100, 0, 0);
+
+    private final double valenceScale;
+    private final double arousalScale;
+    private final double valenceThreshold;
+    private final double arousalThreshold;
+
+    public MoodParameters(double valenceScale, double arousalScale,
+                          double valenceThreshold, double arousalThreshold) {
+        if (valenceScale == 0) {
+            throw new IllegalArgumentException("valenceScale must not be 0");
+        }
+        this.valenceScale = valenceScale;
+        this.arousalScale = arousalScale;
+        this.valenceThreshold = valenceThreshold;
+        this.arousalThreshold = arousalThreshold;
+    }
+
+    public double getValenceScale() {
+        return valenceScale;
+    }
+
+    public double getArousalScale() {
+        return arousalScale;
+    }
+
+    public double getValenceThreshold() {
+        return valenceThreshold;
+    }
+
+    public double getArousalThreshold() {
+        return arousalThreshold;
+    }
+
+    @Override
+    public String toString() {
+        return "valenceScale=" + valenceScale + " arousalScale=" + arousalScale
+                + " valenceThreshold=" + valenceThreshold + " arousalThreshold=" + arousalThreshold;
+    }
+}
@@ -0,0 +1,31 @@
+package com.choosemuse.example.libmuse.mood;
+
+import java.util.Locale;
+
+/**
+ * The moods we can detect, one per quadrant of the arousal/valence plane plus
+ * NEUTRAL for the axes.
+ */
+public enum Moods {
+    HAPPY("Happy"), ANGRY("Angry"), RELAXED("Relaxed"), SAD("Sad"), NEUTRAL("Neutral");
+
+    private final String label;
+    private final String key;
+
+    Moods(String label) {
+        this.label = label;
+        this.key = label.toLowerCase(Locale.US);
+    }
+
+    /**
+     * @return The lower case name used as the song list key and in the UI.  The
+     * string is built once, so this is free to call on every tick.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    public String toString() {
+        return label;
+    }
+}
@@ -0,0 +1,28 @@
+package com.choosemuse.example.libmuse.mood;
+
+/**
+ * The original hand-tuned rule: the sign of arousal and valence pick the
+ * quadrant, and points on (or within the thresholds of) an axis are NEUTRAL.
+ * Probabilities are 1 for the chosen mood and 0 for the others.
+ */
+public class QuadrantClassifier implements MoodClassifier {
+
+    private final MoodParameters parameters;
+
+    public QuadrantClassifier(MoodParameters parameters) {
+        this.parameters = parameters;
+    }
+
+    @Override
+    public Moods classify(double[] features, double[] probabilities) {
+        Moods mood = MoodEngine.determineMood(features[MoodFeatures.AROUSAL],
+                features[MoodFeatures.VALENCE], parameters);
+        if (probabilities != null) {
+            for (int i = 0; i < probabilities.length; i++) {
+                probabilities[i] = 0;
+            }
+            probabilities[mood.ordinal()] = 1;
+        }
+        return mood;
+    }
+}
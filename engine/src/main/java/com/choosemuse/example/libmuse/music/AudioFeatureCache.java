@@ -0,0 +1,177 @@
+package com.choosemuse.example.libmuse.music;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A bounded cache of track audio features in front of an {@link AudioFeatureSource}.
+ * <p>
+ * Lookups collect the ids that are not cached and fetch them in batches of
+ * {@link AudioFeatureSource#MAX_BATCH}, so a catalog of a few hundred tracks
+ * costs a handful of requests once instead of one per track every launch.
+ * When the cache is full the least recently used track is dropped.  save() and
+ * load() persist the entries in LRU order, so the eviction order survives a
+ * restart.
+ * <p>
+ * Without a source, eg. when offline, lookups only return what is cached.  The
+ * cache is thread safe; fetches run outside the lock.
+ */
+public class AudioFeatureCache {
+
+    private static final int MAGIC = 0x41464331;   // "AFC1"
+
+    private final AudioFeatureSource source;
+    private final int batchSize;
+    private final LinkedHashMap<String, AudioFeatures> entries;
+
+    private int requests;
+
+    /**
+     * @param source   Where missing tracks are fetched from, or null.
+     * @param capacity The most tracks to keep.
+     */
+    public AudioFeatureCache(AudioFeatureSource source, final int capacity) {
+        this(source, capacity, AudioFeatureSource.MAX_BATCH);
+    }
+
+    public AudioFeatureCache(AudioFeatureSource source, final int capacity, int batchSize) {
+        if (capacity < 1 || batchSize < 1 || batchSize > AudioFeatureSource.MAX_BATCH) {
+            throw new IllegalArgumentException("capacity=" + capacity + " batchSize=" + batchSize);
+        }
+        this.source = source;
+        this.batchSize = batchSize;
+        this.entries = new LinkedHashMap<String, AudioFeatures>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, AudioFeatures> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return The cached features of a track, or null.  Never fetches.
+     */
+    public synchronized AudioFeatures peek(String trackId) {
+        return entries.get(trackId);
+    }
+
+    /**
+     * Returns the features of every known track in trackIds, fetching the ones
+     * that are not cached.
+     *
+     * @return The features in the order of trackIds, without duplicates and
+     * without tracks the source does not know.
+     */
+    public List<AudioFeatures> getAll(Collection<String> trackIds) throws IOException {
+        Set<String> unique = new LinkedHashSet<>(trackIds);
+        Map<String, AudioFeatures> found = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        synchronized (this) {
+            for (String id : unique) {
+                AudioFeatures f = entries.get(id);
+                if (f != null) {
+                    found.put(id, f);
+                } else {
+                    missing.add(id);
+                }
+            }
+        }
+
+        if (source == null) {
+            missing.clear();
+        }
+        for (int from = 0; from < missing.size(); from += batchSize) {
+            List<String> batch = missing.subList(from, Math.min(missing.size(), from + batchSize));
+            List<AudioFeatures> fetched = source.fetch(batch);
+            synchronized (this) {
+                requests++;
+                for (AudioFeatures f : fetched) {
+                    entries.put(f.getTrackId(), f);
+                    found.put(f.getTrackId(), f);
+                }
+            }
+        }
+
+        List<AudioFeatures> out = new ArrayList<>(found.size());
+        for (String id : unique) {
+            AudioFeatures f = found.get(id);
+            if (f != null) {
+                out.add(f);
+            }
+        }
+        return out;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The number of requests made to the source.
+     */
+    public synchronized int getRequests() {
+        return requests;
+    }
+
+    /**
+     * Writes the entries, least recently used first, replacing file atomically.
+     */
+    public synchronized void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for (AudioFeatures f : entries.values()) {
+                out.writeUTF(f.getTrackId());
+                out.writeFloat(f.getValence());
+                out.writeFloat(f.getEnergy());
+                out.writeFloat(f.getTempo());
+            }
+            out.flush();
+            fos.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    /**
+     * Adds the entries saved in file, if it exists.  Entries beyond the
+     * capacity evict the oldest ones as usual.
+     */
+    public synchronized void load(File file) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not an audio feature cache");
+            }
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String id = in.readUTF();
+                entries.put(id, new AudioFeatures(id, in.readFloat(), in.readFloat(), in.readFloat()));
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.choosemuse.example.libmuse.music;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Fetches audio features, eg. from the Spotify Web API.
+ */
+public interface AudioFeatureSource {
+
+    /**
+     * The most ids the Web API accepts in one audio-features request.
+     */
+    int MAX_BATCH = 100;
+
+    /**
+     * Fetches the features of up to MAX_BATCH tracks in one request.
+     *
+     * @return The features of every track that was found, in any order.
+     * Unknown ids are left out.
+     */
+    List<AudioFeatures> fetch(List<String> trackIds) throws IOException;
+}
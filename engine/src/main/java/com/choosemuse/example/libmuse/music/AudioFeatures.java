@@ -0,0 +1,46 @@
+package com.choosemuse.example.libmuse.music;
+
+/**
+ * The Spotify audio features of one track that matter for mood matching.
+ * <p>
+ * Valence and energy are in [0, 1]; energy is the track's counterpart of the
+ * user's arousal.  Tempo is in beats per minute.
+ */
+public final class AudioFeatures {
+
+    private final String trackId;
+    private final float valence;
+    private final float energy;
+    private final float tempo;
+
+    public AudioFeatures(String trackId, float valence, float energy, float tempo) {
+        if (trackId == null) {
+            throw new IllegalArgumentException("trackId must not be null");
+        }
+        this.trackId = trackId;
+        this.valence = valence;
+        this.energy = energy;
+        this.tempo = tempo;
+    }
+
+    public String getTrackId() {
+        return trackId;
+    }
+
+    public float getValence() {
+        return valence;
+    }
+
+    public float getEnergy() {
+        return energy;
+    }
+
+    public float getTempo() {
+        return tempo;
+    }
+
+    @Override
+    public String toString() {
+        return trackId + " valence=" + valence + " energy=" + energy + " tempo=" + tempo;
+    }
+}
@@ -0,0 +1,141 @@
+package com.choosemuse.example.libmuse.music;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A static 2-d tree over tracks keyed by (valence, energy).
+ * <p>
+ * The tree is stored implicitly: the tracks are sorted so that the median of
+ * every range [lo, hi) on the splitting axis sits at (lo + hi) / 2, with
+ * smaller values before it.  Even levels split on valence, odd levels on
+ * energy.  Building is O(n log^2 n); a nearest query visits O(log n) nodes on
+ * average instead of scanning the catalog.
+ */
+public class TrackIndex {
+
+    private static final Comparator<AudioFeatures> BY_VALENCE = new Comparator<AudioFeatures>() {
+        @Override
+        public int compare(AudioFeatures a, AudioFeatures b) {
+            return Float.compare(a.getValence(), b.getValence());
+        }
+    };
+
+    private static final Comparator<AudioFeatures> BY_ENERGY = new Comparator<AudioFeatures>() {
+        @Override
+        public int compare(AudioFeatures a, AudioFeatures b) {
+            return Float.compare(a.getEnergy(), b.getEnergy());
+        }
+    };
+
+    private final AudioFeatures[] tracks;
+    private final float[] valence;
+    private final float[] energy;
+
+    public TrackIndex(List<AudioFeatures> catalog) {
+        tracks = catalog.toArray(new AudioFeatures[catalog.size()]);
+        build(0, tracks.length, 0);
+        valence = new float[tracks.length];
+        energy = new float[tracks.length];
+        for (int i = 0; i < tracks.length; i++) {
+            valence[i] = tracks[i].getValence();
+            energy[i] = tracks[i].getEnergy();
+        }
+    }
+
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo < 2) {
+            return;
+        }
+        Arrays.sort(tracks, lo, hi, (depth & 1) == 0 ? BY_VALENCE : BY_ENERGY);
+        int mid = (lo + hi) >>> 1;
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    public int size() {
+        return tracks.length;
+    }
+
+    /**
+     * @return The track closest to (v, e), or null if the index is empty.
+     */
+    public AudioFeatures nearest(double v, double e) {
+        AudioFeatures[] out = new AudioFeatures[1];
+        return nearest(v, e, out) == 0 ? null : out[0];
+    }
+
+    /**
+     * Finds the out.length tracks closest to (v, e).
+     *
+     * @return The number of tracks written to out, closest first.
+     */
+    public int nearest(double v, double e, AudioFeatures[] out) {
+        Search s = new Search(v, e, Math.min(out.length, tracks.length));
+        search(s, 0, tracks.length, 0);
+        for (int i = 0; i < s.count; i++) {
+            out[i] = tracks[s.index[i]];
+        }
+        return s.count;
+    }
+
+    private void search(Search s, int lo, int hi, int depth) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double dv = s.v - valence[mid];
+        double de = s.e - energy[mid];
+        s.offer(mid, dv * dv + de * de);
+
+        double split = (depth & 1) == 0 ? dv : de;
+        if (split < 0) {
+            search(s, lo, mid, depth + 1);
+            if (split * split < s.worst()) {
+                search(s, mid + 1, hi, depth + 1);
+            }
+        } else {
+            search(s, mid + 1, hi, depth + 1);
+            if (split * split < s.worst()) {
+                search(s, lo, mid, depth + 1);
+            }
+        }
+    }
+
+    /**
+     * The k best candidates so far, sorted by distance.
+     */
+    private static class Search {
+        final double v;
+        final double e;
+        final int[] index;
+        final double[] distance;
+        int count;
+
+        Search(double v, double e, int k) {
+            this.v = v;
+            this.e = e;
+            this.index = new int[k];
+            this.distance = new double[k];
+        }
+
+        double worst() {
+            return count < index.length ? Double.POSITIVE_INFINITY : distance[count - 1];
+        }
+
+        void offer(int i, double d) {
+            if (index.length == 0 || d >= worst()) {
+                return;
+            }
+            int j = count < index.length ? count++ : count - 1;
+            while (j > 0 && distance[j - 1] > d) {
+                index[j] = index[j - 1];
+                distance[j] = distance[j - 1];
+                j--;
+            }
+            index[j] = i;
+            distance[j] = d;
+        }
+    }
+}
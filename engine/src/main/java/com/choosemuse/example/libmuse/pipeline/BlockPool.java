@@ -0,0 +1,75 @@
+package com.choosemuse.example.libmuse.pipeline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of same-shaped {@link SampleBlock}s so the steady state of a pipeline
+ * allocates nothing.
+ * <p>
+ * The pool keeps at most maxIdle free blocks.  If it runs dry a new block is
+ * allocated rather than blocking the producer; getAllocations() shows when a
+ * pool is undersized.
+ */
+public class BlockPool {
+
+    private final int channels;
+    private final int frames;
+    private final ArrayBlockingQueue<SampleBlock> idle;
+    private final AtomicLong allocations = new AtomicLong();
+
+    /**
+     * @param channels The number of channels in each block.
+     * @param frames   The capacity of each block in frames.
+     * @param maxIdle  The number of free blocks kept for reuse; this many are
+     *                 allocated up front.
+     */
+    public BlockPool(int channels, int frames, int maxIdle) {
+        if (channels < 1 || frames < 1 || maxIdle < 1) {
+            throw new IllegalArgumentException("Pool dimensions must be positive");
+        }
+        this.channels = channels;
+        this.frames = frames;
+        this.idle = new ArrayBlockingQueue<>(maxIdle);
+        for (int i = 0; i < maxIdle; i++) {
+            idle.offer(newBlock());
+        }
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return An empty block holding one reference.
+     */
+    public SampleBlock acquire() {
+        SampleBlock b = idle.poll();
+        if (b == null) {
+            b = newBlock();
+        }
+        b.reset();
+        return b;
+    }
+
+    /**
+     * @return The number of blocks allocated, including the initial ones.
+     */
+    public long getAllocations() {
+        return allocations.get();
+    }
+
+    void recycle(SampleBlock block) {
+        // If the pool is already full the block is left to the GC.
+        idle.offer(block);
+    }
+
+    private SampleBlock newBlock() {
+        allocations.incrementAndGet();
+        return new SampleBlock(this, channels, frames);
+    }
+}
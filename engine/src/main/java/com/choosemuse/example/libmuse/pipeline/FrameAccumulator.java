@@ -0,0 +1,73 @@
+package com.choosemuse.example.libmuse.pipeline;
+
+/**
+ * Collects single frames, such as the values of one EEG packet, into pooled
+ * blocks and pushes each block into the pipeline once it is full.
+ * <p>
+ * Packets arrive one frame at a time on the libmuse callback thread; batching
+ * them here keeps the per-packet cost to a few array writes and lets the stages
+ * work on whole blocks.  Use one accumulator per producer; close() may be
+ * called from another thread, eg. when the session ends.
+ */
+public class FrameAccumulator {
+
+    private final Pipeline pipeline;
+    private final Stage entry;
+    private final BlockPool pool;
+    private final float sampleRate;
+    private SampleBlock current;
+    private boolean closed;
+
+    public FrameAccumulator(Pipeline pipeline, Stage entry, BlockPool pool, float sampleRate) {
+        this.pipeline = pipeline;
+        this.entry = entry;
+        this.pool = pool;
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Adds one frame.
+     *
+     * @param timestamp The frame time in microseconds.
+     * @param frame     At least pool.getChannels() values.
+     */
+    public synchronized void add(long timestamp, double[] frame) {
+        if (closed) {
+            return;
+        }
+        if (current == null) {
+            current = pool.acquire();
+            current.setTimestamp(timestamp);
+            current.setSampleRate(sampleRate);
+        }
+        final int channels = current.getChannels();
+        final float[] data = current.getData();
+        final int base = current.getFrames() * channels;
+        for (int c = 0; c < channels; c++) {
+            data[base + c] = (float) frame[c];
+        }
+        current.setFrames(current.getFrames() + 1);
+        if (current.isFull()) {
+            flush();
+        }
+    }
+
+    /**
+     * Pushes the partially filled block, if any.
+     */
+    public synchronized void flush() {
+        if (current != null && current.getFrames() > 0) {
+            pipeline.push(entry, current);
+            current = null;
+        }
+    }
+
+    /**
+     * Pushes the partially filled block, if any, and ignores frames added
+     * afterwards.
+     */
+    public synchronized void close() {
+        flush();
+        closed = true;
+    }
+}
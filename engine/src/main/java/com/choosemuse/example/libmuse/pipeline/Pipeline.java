@@ -0,0 +1,132 @@
+package com.choosemuse.example.libmuse.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A graph of signal-processing {@link Stage}s that exchange pooled
+ * {@link SampleBlock}s.
+ * <p>
+ * Stages are added, then wired with connect().  Data enters through push() on
+ * any stage, which is safe to call from the libmuse callback thread since it
+ * only enqueues the block.  All processing happens on the executor given to the
+ * constructor; a single thread executor keeps the whole graph sequential, a
+ * pool lets independent stages run in parallel.
+ * <p>
+ * To stop without losing data, flush the producers, wait in awaitIdle() until
+ * every block has passed through the graph, then call shutdown().
+ */
+public class Pipeline {
+
+    private final Executor executor;
+    private final List<Stage> stages = new ArrayList<>();
+
+    // Blocks offered to a stage and not yet processed or dropped.  A stage
+    // emits before its own input is counted off, so this only reaches zero
+    // once the whole graph is quiet.
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Object idle = new Object();
+
+    public Pipeline(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Adds a stage to the graph.
+     *
+     * @return The stage, for chaining.
+     */
+    public synchronized <T extends Stage> T add(T stage) {
+        stage.bind(this, executor);
+        stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Sends every block emitted by from to to as well.  A stage may feed several
+     * stages and be fed by several.
+     */
+    public synchronized void connect(Stage from, Stage to) {
+        if (!stages.contains(from) || !stages.contains(to)) {
+            throw new IllegalArgumentException("Both stages must be added before connecting them");
+        }
+        from.connect(to);
+    }
+
+    /**
+     * Hands a block to a stage.  The pipeline takes over the caller's reference.
+     */
+    public void push(Stage entry, SampleBlock block) {
+        entry.offer(block);
+    }
+
+    /**
+     * Waits until every block pushed so far, and everything emitted from it,
+     * has been processed.
+     *
+     * @return false if the graph was still busy after timeoutMillis.
+     */
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (idle) {
+            while (inFlight.get() > 0) {
+                final long left = deadline - System.currentTimeMillis();
+                if (left <= 0) {
+                    return false;
+                }
+                idle.wait(left);
+            }
+        }
+        return true;
+    }
+
+    void enter() {
+        inFlight.incrementAndGet();
+    }
+
+    void exit() {
+        if (inFlight.decrementAndGet() == 0) {
+            synchronized (idle) {
+                idle.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return One line per stage with its block count and throughput, for
+     * logging or benchmarks.
+     */
+    public synchronized String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage s : stages) {
+            sb.append(String.format(Locale.US, "%-16s blocks=%d frames=%d busy=%.1fms %.0f frames/s",
+                    s.getName(), s.getBlocksIn(), s.getFramesIn(),
+                    s.getBusyNanos() / 1e6, s.getFramesPerBusySecond()));
+            if (s.getDropped() > 0) {
+                sb.append(String.format(Locale.US, " dropped=%d", s.getDropped()));
+            }
+            if (s.getFailures() > 0) {
+                sb.append(String.format(Locale.US, " failures=%d last=%s", s.getFailures(), s.getLastFailure()));
+            }
+            sb.append(String.format(Locale.US, "%n"));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stops the executor if the pipeline owns a pool.  Stage drains already
+     * queued on the executor still run, so blocks in their inboxes are
+     * processed.  A block that would need a new drain, eg. one pushed afterwards
+     * or emitted to an idle stage, is released unprocessed and counted in
+     * Stage.getDropped().
+     */
+    public void shutdown() {
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.choosemuse.example.libmuse.pipeline;
+
+import com.choosemuse.example.libmuse.analysis.PolyphaseResampler;
+
+/**
+ * Runs blocks through a {@link PolyphaseResampler}, eg. to bring raw EEG down to
+ * the common analysis rate.  Output blocks come from the stage's own pool, which
+ * must be large enough for the resampled input block.
+ */
+public class ResampleStage extends Stage {
+
+    private final PolyphaseResampler resampler;
+    private final BlockPool pool;
+
+    public ResampleStage(String name, PolyphaseResampler resampler, BlockPool pool) {
+        super(name);
+        this.resampler = resampler;
+        this.pool = pool;
+    }
+
+    @Override
+    protected void process(SampleBlock in) {
+        SampleBlock out = pool.acquire();
+        int frames = resampler.process(in.getData(), in.getFrames(), out.getData());
+        if (frames == 0) {
+            out.release();
+            return;
+        }
+        out.setFrames(frames);
+        out.setTimestamp(in.getTimestamp());
+        out.setSampleRate(in.getSampleRate() * resampler.getUp() / resampler.getDown());
+        emit(out);
+    }
+}
@@ -0,0 +1,116 @@
+package com.choosemuse.example.libmuse.pipeline;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed size block of interleaved multi-channel samples passed between
+ * pipeline stages.
+ * <p>
+ * Frame f, channel c lives at getData()[f * getChannels() + c].  Blocks come
+ * from a {@link BlockPool} and are reference counted: whoever holds a reference
+ * must either hand it on with {@link Stage#emit(SampleBlock)} or give it back
+ * with {@link #release()}.  A stage that forwards its input unchanged must call
+ * {@link #retain()} first, because the pipeline releases the input once
+ * process() returns.
+ */
+public final class SampleBlock {
+
+    private final BlockPool pool;
+    private final float[] data;
+    private final int channels;
+    private final int capacity;
+    private final AtomicInteger refs = new AtomicInteger();
+
+    private int frames;
+    private long timestamp;
+    private float sampleRate;
+
+    SampleBlock(BlockPool pool, int channels, int capacity) {
+        this.pool = pool;
+        this.channels = channels;
+        this.capacity = capacity;
+        this.data = new float[channels * capacity];
+    }
+
+    public float[] getData() {
+        return data;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return The maximum number of frames the block can hold.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The number of valid frames in the block.
+     */
+    public int getFrames() {
+        return frames;
+    }
+
+    public void setFrames(int frames) {
+        if (frames < 0 || frames > capacity) {
+            throw new IllegalArgumentException("frames " + frames + " outside 0.." + capacity);
+        }
+        this.frames = frames;
+    }
+
+    /**
+     * @return The time of the first frame in microseconds.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(float sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @return The time of frame i in microseconds, derived from the block
+     * timestamp and sample rate.
+     */
+    public long frameTimestamp(int i) {
+        return timestamp + (long) (i * 1000000.0 / sampleRate);
+    }
+
+    public boolean isFull() {
+        return frames == capacity;
+    }
+
+    public void retain() {
+        refs.incrementAndGet();
+    }
+
+    /**
+     * Drops one reference, returning the block to its pool when none are left.
+     */
+    public void release() {
+        int left = refs.decrementAndGet();
+        if (left == 0) {
+            pool.recycle(this);
+        } else if (left < 0) {
+            throw new IllegalStateException("SampleBlock released more often than retained");
+        }
+    }
+
+    void reset() {
+        refs.set(1);
+        frames = 0;
+        timestamp = 0;
+    }
+}
@@ -0,0 +1,26 @@
+package com.choosemuse.example.libmuse.pipeline;
+
+import com.choosemuse.example.libmuse.analysis.RollingSeries;
+
+/**
+ * Terminal stage that appends every frame it receives to a
+ * {@link RollingSeries}, eg. one of the history series.
+ */
+public class SeriesSink extends Stage {
+
+    private final RollingSeries series;
+
+    public SeriesSink(String name, RollingSeries series) {
+        super(name);
+        this.series = series;
+    }
+
+    @Override
+    protected void process(SampleBlock block) {
+        final float[] data = block.getData();
+        final int channels = block.getChannels();
+        for (int i = 0; i < block.getFrames(); i++) {
+            series.append(block.frameTimestamp(i), data, i * channels);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.choosemuse.example.libmuse.pipeline;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One node of a {@link Pipeline}, eg. a filter, a decimator, a feature
+ * extractor or a sink.
+ * <p>
+ * Each stage has its own inbox and is drained by at most one executor task at a
+ * time, so process() never runs concurrently with itself and blocks are seen in
+ * the order they were emitted.  Different stages run in parallel when the
+ * executor has more than one thread.
+ * <p>
+ * The pipeline releases the input block after process() returns.  To pass data
+ * on, a stage either acquires a block from its own {@link BlockPool}, fills it
+ * and calls emit(), or calls retain() on its input and emits that.
+ * <p>
+ * If process() throws, the block is counted in getFailures() and the stage
+ * carries on with the next one, so one bad block never stalls the stage.
+ */
+public abstract class Stage {
+
+    private final String name;
+    private final List<Stage> outputs = new CopyOnWriteArrayList<>();
+    private final Queue<SampleBlock> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    // Counters for benchmarking a stage on its own.
+    private final AtomicLong blocksIn = new AtomicLong();
+    private final AtomicLong framesIn = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile RuntimeException lastFailure;
+
+    private volatile Pipeline pipeline;
+    private volatile Executor executor;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                SampleBlock b;
+                while ((b = inbox.poll()) != null) {
+                    final long start = System.nanoTime();
+                    try {
+                        process(b);
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                        lastFailure = e;
+                    } finally {
+                        busyNanos.addAndGet(System.nanoTime() - start);
+                        blocksIn.incrementAndGet();
+                        framesIn.addAndGet(b.getFrames());
+                        b.release();
+                        pipeline.exit();
+                    }
+                }
+            } finally {
+                // Even an Error must not leave the stage looking scheduled.
+                scheduled.set(false);
+            }
+            // A block may have arrived between the last poll and clearing the flag.
+            if (!inbox.isEmpty()) {
+                schedule();
+            }
+        }
+    };
+
+    protected Stage(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Handles one input block.  Called on the pipeline executor, never
+     * concurrently for the same stage.
+     */
+    protected abstract void process(SampleBlock block);
+
+    /**
+     * Sends a block to every downstream stage, handing over the caller's
+     * reference.  If nothing is connected the block is released.
+     */
+    protected final void emit(SampleBlock block) {
+        final int n = outputs.size();
+        if (n == 0) {
+            block.release();
+            return;
+        }
+        for (int i = 1; i < n; i++) {
+            block.retain();
+        }
+        for (Stage s : outputs) {
+            s.offer(block);
+        }
+    }
+
+    public long getBlocksIn() {
+        return blocksIn.get();
+    }
+
+    public long getFramesIn() {
+        return framesIn.get();
+    }
+
+    public long getBusyNanos() {
+        return busyNanos.get();
+    }
+
+    /**
+     * @return The number of blocks whose process() threw.
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return The number of blocks dropped unprocessed because the pipeline
+     * was shut down.
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return The exception of the last failed block, or null if none failed.
+     */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * @return The number of input frames handled per second of time spent in
+     * process(), or 0 if the stage has not run yet.
+     */
+    public double getFramesPerBusySecond() {
+        long nanos = busyNanos.get();
+        return nanos == 0 ? 0 : framesIn.get() * 1e9 / nanos;
+    }
+
+    void bind(Pipeline pipeline, Executor executor) {
+        this.pipeline = pipeline;
+        this.executor = executor;
+    }
+
+    void connect(Stage next) {
+        outputs.add(next);
+    }
+
+    void offer(SampleBlock block) {
+        pipeline.enter();
+        inbox.add(block);
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(drain);
+            } catch (RejectedExecutionException e) {
+                // The pipeline was shut down while blocks were in flight; drop them.
+                SampleBlock b;
+                while ((b = inbox.poll()) != null) {
+                    dropped.incrementAndGet();
+                    b.release();
+                    pipeline.exit();
+                }
+                scheduled.set(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.choosemuse.example.libmuse.power;
+
+import java.util.Locale;
+
+/**
+ * Picks the {@link PowerMode} of a session from the battery levels of the
+ * headband and the phone, so a session of the target length finishes on one
+ * charge.
+ * <p>
+ * Each battery sets a floor: at LOW_PERCENT or below the session runs at most
+ * BALANCED, at CRITICAL_PERCENT or below SAVER.  Above that the governor
+ * measures how fast each battery drains in the current mode, once the mode
+ * has run for RATE_SPAN_MILLIS, and projects how long it will last.  If that
+ * is shorter than the rest of the session it steps down a mode; if it is
+ * HEADROOM times longer it steps back up.  The drain is measured afresh after
+ * every change, so the mode moves at most one step per RATE_SPAN_MILLIS and
+ * never steps up on a guess.  A battery that is charging, has not reported
+ * yet or has gained CHARGED_PERCENT since the drain was last measured does
+ * not hold the session back; smaller rises are taken as noise in the reading.
+ * <p>
+ * The levels may be set from any thread.  update() and the getters other
+ * than getMode() must be called from one thread.
+ */
+public class PowerGovernor {
+
+    public static final double LOW_PERCENT = 35;
+    public static final double CRITICAL_PERCENT = 15;
+    public static final long RATE_SPAN_MILLIS = 5 * 60 * 1000;
+    public static final double HEADROOM = 1.5;
+    public static final double CHARGED_PERCENT = 5;
+
+    /**
+     * Once the target length is reached, the governor keeps planning for this
+     * much more.
+     */
+    public static final long MIN_REMAINING_MILLIS = 15 * 60 * 1000;
+
+    private final long sessionMillis;
+    private final Battery headband = new Battery("headband");
+    private final Battery phone = new Battery("phone");
+
+    private volatile PowerMode mode = PowerMode.FULL;
+    private long sessionStart;
+    private String reason = "session started";
+
+    /**
+     * @param sessionMillis How long a session should last on one charge.
+     */
+    public PowerGovernor(long sessionMillis) {
+        if (sessionMillis <= 0) {
+            throw new IllegalArgumentException("sessionMillis must be positive");
+        }
+        this.sessionMillis = sessionMillis;
+    }
+
+    /**
+     * Sets the headband's charge, eg. from its BATTERY packets.
+     */
+    public void setHeadbandLevel(double percent) {
+        headband.level = percent;
+    }
+
+    /**
+     * Sets the phone's charge and whether it is plugged in.
+     */
+    public void setPhoneLevel(double percent, boolean charging) {
+        phone.level = percent;
+        phone.charging = charging;
+    }
+
+    /**
+     * Starts a new session in FULL mode.
+     */
+    public void start(long nowMillis) {
+        sessionStart = nowMillis;
+        mode = PowerMode.FULL;
+        reason = "session started";
+        headband.measure(nowMillis);
+        phone.measure(nowMillis);
+    }
+
+    /**
+     * Reconsiders the mode, eg. after every mood decision.
+     *
+     * @return true if the mode changed; see getMode() and getReason().
+     */
+    public boolean update(long nowMillis) {
+        final PowerMode current = mode;
+        final long remaining = Math.max(MIN_REMAINING_MILLIS, sessionStart + sessionMillis - nowMillis);
+        final PowerMode forHeadband = headband.propose(current, nowMillis, remaining);
+        final PowerMode forPhone = phone.propose(current, nowMillis, remaining);
+        // The later mode saves more.
+        final PowerMode next = forPhone.ordinal() > forHeadband.ordinal() ? forPhone : forHeadband;
+        if (next == current) {
+            return false;
+        }
+        mode = next;
+        // Credit the headband, unless the phone alone asked for the change.
+        final boolean byHeadband = next != forPhone || (next == forHeadband && headband.isDraining());
+        reason = (byHeadband ? headband : phone).explain();
+        // The drain measured so far was for the old mode.
+        headband.measure(nowMillis);
+        phone.measure(nowMillis);
+        return true;
+    }
+
+    /**
+     * @return The current mode.  May be called from any thread.
+     */
+    public PowerMode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return Why the mode last changed, eg. "phone at 30% (low)".
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @return The headband's projected time left in the current mode, or -1
+     * if it is not known yet.
+     */
+    public long getHeadbandRemainingMillis() {
+        return headband.projected;
+    }
+
+    /**
+     * @return The phone's projected time left in the current mode, or -1 if
+     * it is not known yet.
+     */
+    public long getPhoneRemainingMillis() {
+        return phone.projected;
+    }
+
+    private static final class Battery {
+        final String name;
+        volatile double level = Double.NaN;
+        volatile boolean charging;
+
+        // Only touched by the thread calling update().
+        long since;
+        double levelSince = Double.NaN;
+        long projected = -1;
+        double lastLevel = Double.NaN;
+        String cause = "";
+
+        Battery(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Starts measuring the drain afresh.
+         */
+        void measure(long nowMillis) {
+            since = nowMillis;
+            levelSince = level;
+            projected = -1;
+        }
+
+        PowerMode propose(PowerMode current, long nowMillis, long remaining) {
+            final double l = level;
+            lastLevel = l;
+            if (l != l || charging) {
+                cause = charging ? "charging" : "not reported";
+                return PowerMode.FULL;
+            }
+            PowerMode proposed = current;
+            if (levelSince != levelSince) {
+                measure(nowMillis);
+            } else if (l >= levelSince + CHARGED_PERCENT) {
+                // Charged in between.
+                proposed = PowerMode.FULL;
+                cause = "charged";
+                measure(nowMillis);
+            }
+            final long span = nowMillis - since;
+            if (span >= RATE_SPAN_MILLIS) {
+                // A level that has not moved yet has lost less than a percent.
+                final double drained = levelSince - l;
+                projected = (long) (l * span / (drained > 0 ? drained : 1));
+            }
+            if (projected >= 0 && projected < remaining) {
+                proposed = current.lower();
+                cause = "lasts " + minutes(projected) + " min of " + minutes(remaining) + " min left";
+            } else if (projected >= 0 && projected > HEADROOM * remaining) {
+                proposed = current.higher();
+                cause = "lasts " + minutes(projected) + " min, " + minutes(remaining) + " min left";
+            }
+            if (l <= CRITICAL_PERCENT) {
+                cause = "critical";
+                return PowerMode.SAVER;
+            }
+            if (l <= LOW_PERCENT && proposed == PowerMode.FULL) {
+                cause = "low";
+                return PowerMode.BALANCED;
+            }
+            return proposed;
+        }
+
+        boolean isDraining() {
+            return lastLevel == lastLevel && !charging;
+        }
+
+        String explain() {
+            if (lastLevel != lastLevel) {
+                return name + " " + cause;
+            }
+            return String.format(Locale.US, "%s at %.0f%% (%s)", name, lastLevel, cause);
+        }
+
+        private static long minutes(long millis) {
+            return millis / 60000;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.choosemuse.example.libmuse.power;
+
+import com.choosemuse.example.libmuse.analysis.SampleKind;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * How much work a session does, from FULL down to SAVER.  Each step trades
+ * detail for battery: the mood features are folded in less often, the UI is
+ * refreshed less often, raw EEG is recorded at a lower rate and packet types
+ * only kept for the recording are no longer streamed from the headband.
+ * <p>
+ * The recorded EEG is never thinned by dropping packets, which would leave
+ * gaps and alias.  It is low-passed and decimated by getRecordEegDecimation()
+ * instead, and each segment is annotated with the rate it holds.
+ * <p>
+ * Mood decisions keep their cadence in every mode, so the music does not
+ * change any slower; they are just averaged over fewer ticks.
+ */
+public enum PowerMode {
+
+    FULL(1000, 1000, 1, EnumSet.noneOf(SampleKind.class)),
+    BALANCED(2000, 2000, 2, EnumSet.of(SampleKind.DRL_REF, SampleKind.QUANTIZATION)),
+    SAVER(5000, 5000, 4, EnumSet.of(SampleKind.DRL_REF, SampleKind.QUANTIZATION, SampleKind.ACCELEROMETER));
+
+    private final int tickMillis;
+    private final int uiRefreshMillis;
+    private final int recordEegDecimation;
+    private final Set<SampleKind> dropped;
+
+    PowerMode(int tickMillis, int uiRefreshMillis, int recordEegDecimation, Set<SampleKind> dropped) {
+        this.tickMillis = tickMillis;
+        this.uiRefreshMillis = uiRefreshMillis;
+        this.recordEegDecimation = recordEegDecimation;
+        this.dropped = dropped;
+    }
+
+    /**
+     * @return The analysis hop: the time between MoodEngine.tick() calls.
+     */
+    public int getTickMillis() {
+        return tickMillis;
+    }
+
+    public int getUiRefreshMillis() {
+        return uiRefreshMillis;
+    }
+
+    /**
+     * @return 1 to record EEG at the headband rate, or n to record it low-passed
+     * at 1/n of that rate, eg. 64Hz from a 256Hz headband for 4.  Other packets
+     * are always recorded as they arrive.
+     */
+    public int getRecordEegDecimation() {
+        return recordEegDecimation;
+    }
+
+    /**
+     * @return false if packets of the kind should not be streamed from the
+     * headband in this mode.  The mood decision does not need those; without
+     * the accelerometer only the headband's artifact flags reject windows.
+     */
+    public boolean isSubscribed(SampleKind kind) {
+        return !dropped.contains(kind);
+    }
+
+    /**
+     * @return A step that saves more, or SAVER.
+     */
+    public PowerMode lower() {
+        return this == FULL ? BALANCED : SAVER;
+    }
+
+    /**
+     * @return A step that does more, or FULL.
+     */
+    public PowerMode higher() {
+        return this == SAVER ? BALANCED : FULL;
+    }
+
+    /**
+     * @return What the mode gives up, eg. for the log.
+     */
+    public String describe() {
+        StringBuilder b = new StringBuilder();
+        b.append("analysis every ").append(tickMillis).append("ms, UI every ").append(uiRefreshMillis).append("ms, ");
+        if (recordEegDecimation == 1) {
+            b.append("EEG recorded at full rate");
+        } else {
+            b.append("EEG recorded at 1/").append(recordEegDecimation).append(" rate");
+        }
+        if (!dropped.isEmpty()) {
+            b.append(", not streaming ").append(dropped);
+        }
+        return b.toString();
+    }
+}
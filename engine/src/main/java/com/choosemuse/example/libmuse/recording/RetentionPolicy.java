@@ -0,0 +1,105 @@
+package com.choosemuse.example.libmuse.recording;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Deletes old sessions written by {@link SegmentedRecorder}.
+ * <p>
+ * A session is a directory holding a manifest; its age is that of its newest
+ * file.  Sessions older than maxAgeMillis are deleted, then the oldest ones
+ * until all sessions together fit in maxTotalBytes.  The session being
+ * recorded is never deleted, and directories without a manifest are left
+ * alone.
+ */
+public class RetentionPolicy {
+
+    private final long maxAgeMillis;
+    private final long maxTotalBytes;
+
+    public RetentionPolicy(long maxAgeMillis, long maxTotalBytes) {
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxTotalBytes = maxTotalBytes;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    public long getMaxTotalBytes() {
+        return maxTotalBytes;
+    }
+
+    /**
+     * Sweeps the sessions under root.
+     *
+     * @param keep The session being recorded, or null.
+     * @return The number of sessions deleted.
+     */
+    public int apply(File root, long nowMillis, File keep) {
+        File[] dirs = root.listFiles();
+        if (dirs == null) {
+            return 0;
+        }
+        List<Session> sessions = new ArrayList<>();
+        long total = 0;
+        for (File dir : dirs) {
+            if (new File(dir, SegmentedRecorder.MANIFEST).isFile()) {
+                Session s = new Session(dir);
+                sessions.add(s);
+                total += s.bytes;
+            }
+        }
+        Collections.sort(sessions, new Comparator<Session>() {
+            @Override
+            public int compare(Session a, Session b) {
+                // Long.compare needs API 19.
+                return a.newest < b.newest ? -1 : (a.newest == b.newest ? 0 : 1);
+            }
+        });
+
+        int deleted = 0;
+        for (Session s : sessions) {
+            if (s.dir.equals(keep)) {
+                continue;
+            }
+            if (nowMillis - s.newest > maxAgeMillis || total > maxTotalBytes) {
+                if (delete(s.dir)) {
+                    total -= s.bytes;
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private static boolean delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        return dir.delete();
+    }
+
+    private static class Session {
+        final File dir;
+        long bytes;
+        long newest;
+
+        Session(File dir) {
+            this.dir = dir;
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    bytes += f.length();
+                    newest = Math.max(newest, f.lastModified());
+                }
+            }
+        }
+    }
+}
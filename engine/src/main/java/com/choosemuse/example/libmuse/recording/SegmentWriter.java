@@ -0,0 +1,15 @@
+package com.choosemuse.example.libmuse.recording;
+
+import java.io.Closeable;
+
+/**
+ * Writes one segment file of a {@link SegmentedRecorder}, eg. a MuseFileWriter.
+ */
+public interface SegmentWriter extends Closeable {
+
+    /**
+     * @return The size the segment will have once closed, including data that
+     * is still buffered.  Called about once a second, so it may be a syscall.
+     */
+    long size();
+}
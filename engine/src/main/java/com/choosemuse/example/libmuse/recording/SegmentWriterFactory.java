@@ -0,0 +1,12 @@
+package com.choosemuse.example.libmuse.recording;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Opens the writer of a new segment file.
+ */
+public interface SegmentWriterFactory<W extends SegmentWriter> {
+
+    W create(File file) throws IOException;
+}
@@ -0,0 +1,184 @@
+package com.choosemuse.example.libmuse.recording;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Records one session as a series of segment files.
+ * <p>
+ * Each session gets its own directory under the root, named after its start
+ * time, holding segment-0000, segment-0001, ... and a manifest.  The directory
+ * is only created when the first segment opens, so a recorder that never
+ * records leaves nothing behind.  A segment is
+ * closed once it is older than maxSegmentMillis or larger than maxSegmentBytes;
+ * it is then fsynced and a line "name start end bytes" is appended to the
+ * manifest and fsynced too.  A crash therefore loses at most the open segment's
+ * unflushed data, and every segment listed in the manifest is complete.
+ * <p>
+ * With a {@link RetentionPolicy}, old sessions are swept when the recorder is
+ * created and after every rollover.
+ * <p>
+ * Not thread safe: use it from one thread, eg. the file thread.  Times are in
+ * milliseconds and passed in by the caller.
+ */
+public class SegmentedRecorder<W extends SegmentWriter> implements Closeable {
+
+    public static final String MANIFEST = "manifest.txt";
+
+    // How often writer() checks whether the segment is due for rotation
+    private static final long CHECK_MILLIS = 1000;
+
+    private final File root;
+    private File sessionDir;
+    private final SegmentWriterFactory<W> factory;
+    private final String extension;
+    private final long maxSegmentMillis;
+    private final long maxSegmentBytes;
+    private final RetentionPolicy retention;
+
+    private W writer;
+    private File segmentFile;
+    private long segmentStart;
+    private long nextCheck;
+    private int segmentCount;
+
+    /**
+     * Sweeps old sessions; the new session starts with the first segment.
+     *
+     * @param extension The segment file extension, eg. ".muse".
+     * @param retention The policy to sweep root with, or null to keep everything.
+     */
+    public SegmentedRecorder(File root, long nowMillis, SegmentWriterFactory<W> factory, String extension,
+                             long maxSegmentMillis, long maxSegmentBytes, RetentionPolicy retention) {
+        if (maxSegmentMillis <= 0 || maxSegmentBytes <= 0) {
+            throw new IllegalArgumentException("segment limits must be positive");
+        }
+        this.root = root;
+        this.factory = factory;
+        this.extension = extension;
+        this.maxSegmentMillis = maxSegmentMillis;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.retention = retention;
+        sweep(nowMillis);
+    }
+
+    /**
+     * @return The session directory, or null until the first segment opens.
+     */
+    public File getSessionDir() {
+        return sessionDir;
+    }
+
+    /**
+     * @return The number of segments opened so far.
+     */
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Returns the writer of the current segment, closing it and opening the
+     * next one first if it is due.  Opens a segment if none is open.
+     */
+    public W writer(long nowMillis) throws IOException {
+        if (writer == null) {
+            open(nowMillis);
+        } else if (nowMillis >= nextCheck) {
+            nextCheck = nowMillis + CHECK_MILLIS;
+            if (nowMillis - segmentStart >= maxSegmentMillis || writer.size() >= maxSegmentBytes) {
+                closeSegment(nowMillis);
+                sweep(nowMillis);
+                open(nowMillis);
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * @return The writer of the open segment, or null.
+     */
+    public W currentWriter() {
+        return writer;
+    }
+
+    /**
+     * Closes the open segment, if any.  The next writer() call starts a new one
+     * in the same session.
+     */
+    public void closeSegment(long nowMillis) throws IOException {
+        if (writer == null) {
+            return;
+        }
+        W w = writer;
+        writer = null;
+        w.close();
+        sync(segmentFile);
+        appendManifest(segmentFile.getName() + " " + segmentStart + " " + nowMillis + " "
+                + segmentFile.length());
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeSegment(System.currentTimeMillis());
+    }
+
+    private void open(long nowMillis) throws IOException {
+        if (sessionDir == null) {
+            startSession(nowMillis);
+        }
+        segmentFile = new File(sessionDir,
+                String.format(Locale.US, "segment-%04d%s", segmentCount, extension));
+        writer = factory.create(segmentFile);
+        segmentCount++;
+        segmentStart = nowMillis;
+        nextCheck = nowMillis + CHECK_MILLIS;
+    }
+
+    private void startSession(long nowMillis) throws IOException {
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date(nowMillis));
+        File dir = new File(root, name);
+        for (int i = 1; dir.exists(); i++) {
+            dir = new File(root, name + "-" + i);
+        }
+        if (!dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        sessionDir = dir;
+        appendManifest("session " + nowMillis);
+    }
+
+    private void sweep(long nowMillis) {
+        if (retention != null) {
+            retention.apply(root, nowMillis, sessionDir);
+        }
+    }
+
+    private void appendManifest(String line) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(sessionDir, MANIFEST), true);
+        try {
+            out.write((line + "\n").getBytes("UTF-8"));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void sync(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        // fsync flushes the file itself, whichever descriptor it is called on.
+        RandomAccessFile f = new RandomAccessFile(file, "rw");
+        try {
+            f.getFD().sync();
+        } finally {
+            f.close();
+        }
+    }
+}
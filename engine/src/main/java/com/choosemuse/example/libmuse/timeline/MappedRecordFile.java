@@ -0,0 +1,123 @@
+package com.choosemuse.example.libmuse.timeline;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only file of fixed size records, accessed through memory maps.
+ * <p>
+ * The file starts with a small header (magic, record size, record count and
+ * one spare counter for the owner) followed by the records.  The file grows in
+ * chunks that each hold a whole number of records, and each chunk is mapped
+ * once, so reads and writes are plain memory accesses and records never span
+ * two maps.  A record only becomes visible once append() has bumped the count
+ * in the header.
+ * <p>
+ * All methods are synchronized on the file.
+ */
+class MappedRecordFile implements Closeable {
+
+    private static final int HEADER_SIZE = 32;
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_RECORD_SIZE = 4;
+    private static final int OFFSET_COUNT = 8;
+    private static final int OFFSET_MARK = 16;
+
+    private static final int RECORDS_PER_CHUNK = 16384;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int recordSize;
+    private final MappedByteBuffer header;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+    private long count;
+
+    /**
+     * Opens or creates a record file.
+     *
+     * @throws IOException If the file exists but was written with a different
+     *                     magic or record size.
+     */
+    MappedRecordFile(File path, int magic, int recordSize) throws IOException {
+        this.recordSize = recordSize;
+        this.file = new RandomAccessFile(path, "rw");
+        this.channel = file.getChannel();
+        boolean fresh = channel.size() < HEADER_SIZE;
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        if (fresh) {
+            header.putInt(OFFSET_MAGIC, magic);
+            header.putInt(OFFSET_RECORD_SIZE, recordSize);
+            header.putLong(OFFSET_COUNT, 0);
+            header.putLong(OFFSET_MARK, 0);
+        } else if (header.getInt(OFFSET_MAGIC) != magic
+                || header.getInt(OFFSET_RECORD_SIZE) != recordSize) {
+            close();
+            throw new IOException(path + " is not a record file of this type");
+        }
+        count = header.getLong(OFFSET_COUNT);
+    }
+
+    synchronized long size() {
+        return count;
+    }
+
+    /**
+     * @return The owner's spare header counter, eg. how far a rollup has read.
+     */
+    synchronized long getMark() {
+        return header.getLong(OFFSET_MARK);
+    }
+
+    synchronized void setMark(long mark) {
+        header.putLong(OFFSET_MARK, mark);
+    }
+
+    /**
+     * Returns the buffer holding record index, for reading or writing.  Use
+     * {@link #offset(long)} for the position of the record inside it.
+     */
+    synchronized MappedByteBuffer buffer(long index) throws IOException {
+        int chunk = (int) (index / RECORDS_PER_CHUNK);
+        while (chunks.size() <= chunk) {
+            long start = HEADER_SIZE + (long) chunks.size() * RECORDS_PER_CHUNK * recordSize;
+            chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, start,
+                    (long) RECORDS_PER_CHUNK * recordSize));
+        }
+        return chunks.get(chunk);
+    }
+
+    int offset(long index) {
+        return (int) (index % RECORDS_PER_CHUNK) * recordSize;
+    }
+
+    /**
+     * Publishes the record at index size(), which the caller has written
+     * through buffer(size()).
+     */
+    synchronized void commit() {
+        count++;
+        header.putLong(OFFSET_COUNT, count);
+    }
+
+    /**
+     * Asks the OS to write the mapped pages to storage.
+     */
+    synchronized void force() {
+        for (MappedByteBuffer b : chunks) {
+            b.force();
+        }
+        header.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+        file.close();
+    }
+}
@@ -0,0 +1,20 @@
+package com.choosemuse.example.libmuse.timeline;
+
+import com.choosemuse.example.libmuse.mood.Moods;
+
+/**
+ * One mood decision read back from a {@link MoodTimelineLog}.  Readers pass the
+ * same instance to every read to avoid allocating per entry.
+ */
+public class MoodEntry {
+
+    public long timestamp;
+    public Moods mood;
+    public float confidence;
+    public float arousal;
+    public float valence;
+    /**
+     * The track playing during the decision's window, not one it started.
+     */
+    public String trackId;
+}
@@ -0,0 +1,362 @@
+package com.choosemuse.example.libmuse.timeline;
+
+import com.choosemuse.example.libmuse.mood.Moods;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only history of mood decisions with multi-resolution rollups.
+ * <p>
+ * Every decision is appended to a memory-mapped raw log.  A background task
+ * folds new raw entries into one rollup file per {@link Resolution}, so a view
+ * covering hours only has to scan a few hundred ten minute buckets instead of
+ * every decision.  Buckets are only written once they are closed, ie. once a
+ * later decision falls into the next bucket; each tier remembers how many raw
+ * entries it has folded, so rollups resume correctly after a restart.
+ * <p>
+ * Timestamps are in milliseconds.  Appends and reads may happen on different
+ * threads.
+ */
+public class MoodTimelineLog implements Closeable {
+
+    private static final Moods[] MOODS = Moods.values();
+
+    private static final int RAW_MAGIC = 0x4d544c31;      // "MTL1"
+    private static final int ROLLUP_MAGIC = 0x4d545231;   // "MTR1"
+
+    // Raw record layout
+    private static final int RAW_SIZE = 48;
+    private static final int RAW_TIMESTAMP = 0;
+    private static final int RAW_MOOD = 8;
+    private static final int RAW_CONFIDENCE = 12;
+    private static final int RAW_AROUSAL = 16;
+    private static final int RAW_VALENCE = 20;
+    private static final int RAW_TRACK = 24;
+    private static final int TRACK_BYTES = 24;
+
+    // Rollup record layout
+    private static final int ROLLUP_SIZE = 48;
+    private static final int ROLLUP_START = 0;
+    private static final int ROLLUP_COUNT = 8;
+    private static final int ROLLUP_MOODS = 12;
+    private static final int ROLLUP_CONFIDENCE = 32;
+    private static final int ROLLUP_AROUSAL = 36;
+    private static final int ROLLUP_VALENCE = 40;
+
+    private final MappedRecordFile raw;
+    private final Tier[] tiers;
+    private ScheduledExecutorService roller;
+
+    /**
+     * Opens or creates a timeline in dir.
+     */
+    public MoodTimelineLog(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        raw = new MappedRecordFile(new File(dir, "moods.raw"), RAW_MAGIC, RAW_SIZE);
+        Resolution[] resolutions = Resolution.values();
+        tiers = new Tier[resolutions.length];
+        for (int i = 0; i < resolutions.length; i++) {
+            tiers[i] = new Tier(resolutions[i], new MappedRecordFile(
+                    new File(dir, "moods." + resolutions[i].name().toLowerCase(Locale.US) + ".rollup"),
+                    ROLLUP_MAGIC, ROLLUP_SIZE));
+        }
+    }
+
+    /**
+     * Appends one decision.
+     *
+     * @param trackId The Spotify track id that was playing during the window
+     *                the decision covers, or null.  A track started because of
+     *                this decision belongs to the following ones.  Only the
+     *                first 24 characters are kept.
+     */
+    public void append(long timestamp, Moods mood, float confidence, float arousal, float valence,
+                       String trackId) throws IOException {
+        synchronized (raw) {
+            long index = raw.size();
+            MappedByteBuffer b = raw.buffer(index);
+            int o = raw.offset(index);
+            b.putLong(o + RAW_TIMESTAMP, timestamp);
+            b.put(o + RAW_MOOD, (byte) mood.ordinal());
+            b.putFloat(o + RAW_CONFIDENCE, confidence);
+            b.putFloat(o + RAW_AROUSAL, arousal);
+            b.putFloat(o + RAW_VALENCE, valence);
+            int n = trackId == null ? 0 : Math.min(trackId.length(), TRACK_BYTES);
+            for (int i = 0; i < TRACK_BYTES; i++) {
+                b.put(o + RAW_TRACK + i, i < n ? (byte) trackId.charAt(i) : 0);
+            }
+            raw.commit();
+        }
+    }
+
+    /**
+     * @return The number of decisions in the raw log.
+     */
+    public long size() {
+        return raw.size();
+    }
+
+    /**
+     * Reads raw entry index into out.
+     */
+    public void read(long index, MoodEntry out) throws IOException {
+        MappedByteBuffer b = raw.buffer(index);
+        int o = raw.offset(index);
+        out.timestamp = b.getLong(o + RAW_TIMESTAMP);
+        out.mood = MOODS[b.get(o + RAW_MOOD)];
+        out.confidence = b.getFloat(o + RAW_CONFIDENCE);
+        out.arousal = b.getFloat(o + RAW_AROUSAL);
+        out.valence = b.getFloat(o + RAW_VALENCE);
+        StringBuilder sb = new StringBuilder(TRACK_BYTES);
+        for (int i = 0; i < TRACK_BYTES; i++) {
+            byte c = b.get(o + RAW_TRACK + i);
+            if (c == 0) {
+                break;
+            }
+            sb.append((char) c);
+        }
+        out.trackId = sb.length() == 0 ? null : sb.toString();
+    }
+
+    /**
+     * @return The index of the first raw entry at or after timestamp, found by
+     * binary search.
+     */
+    public long indexOf(long timestamp) throws IOException {
+        long lo = 0;
+        long hi = raw.size();
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (raw.buffer(mid).getLong(raw.offset(mid) + RAW_TIMESTAMP) < timestamp) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Adds the closed buckets of a tier with from <= start < to to out, oldest
+     * first.  Only the rollup file of that tier is read.
+     *
+     * @return The number of buckets added.
+     */
+    public int query(Resolution resolution, long from, long to, List<RollupBucket> out)
+            throws IOException {
+        MappedRecordFile f = tiers[resolution.ordinal()].file;
+        long n = f.size();
+        long lo = 0;
+        long hi = n;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (f.buffer(mid).getLong(f.offset(mid) + ROLLUP_START) < from) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int added = 0;
+        for (long i = lo; i < n; i++) {
+            MappedByteBuffer b = f.buffer(i);
+            int o = f.offset(i);
+            long start = b.getLong(o + ROLLUP_START);
+            if (start >= to) {
+                break;
+            }
+            RollupBucket bucket = new RollupBucket();
+            bucket.start = start;
+            bucket.count = b.getInt(o + ROLLUP_COUNT);
+            for (int m = 0; m < MOODS.length; m++) {
+                bucket.moodCounts[m] = b.getInt(o + ROLLUP_MOODS + 4 * m);
+            }
+            bucket.meanConfidence = b.getFloat(o + ROLLUP_CONFIDENCE);
+            bucket.meanArousal = b.getFloat(o + ROLLUP_AROUSAL);
+            bucket.meanValence = b.getFloat(o + ROLLUP_VALENCE);
+            out.add(bucket);
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * Sums the closed buckets of a tier with from <= start < to into one, eg.
+     * the last hour from the one minute tier.  The means are weighted by the
+     * number of decisions in each bucket.
+     *
+     * @return The sum, starting at from.  Its count is 0 if no bucket in the
+     * range has been closed yet.
+     */
+    public RollupBucket summarize(Resolution resolution, long from, long to) throws IOException {
+        List<RollupBucket> buckets = new ArrayList<>();
+        query(resolution, from, to, buckets);
+        RollupBucket sum = new RollupBucket();
+        sum.start = from;
+        double confidence = 0;
+        double arousal = 0;
+        double valence = 0;
+        for (RollupBucket b : buckets) {
+            sum.count += b.count;
+            for (int m = 0; m < MOODS.length; m++) {
+                sum.moodCounts[m] += b.moodCounts[m];
+            }
+            confidence += (double) b.meanConfidence * b.count;
+            arousal += (double) b.meanArousal * b.count;
+            valence += (double) b.meanValence * b.count;
+        }
+        if (sum.count > 0) {
+            sum.meanConfidence = (float) (confidence / sum.count);
+            sum.meanArousal = (float) (arousal / sum.count);
+            sum.meanValence = (float) (valence / sum.count);
+        }
+        return sum;
+    }
+
+    /**
+     * Starts folding new entries into the rollups every periodMillis on a
+     * background thread.
+     */
+    public synchronized void startRollups(long periodMillis) {
+        if (roller != null) {
+            return;
+        }
+        roller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "mood-rollup");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        roller.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rollup();
+                } catch (IOException e) {
+                    // Try again on the next run; the raw log is still intact.
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Folds every raw entry not yet rolled up into the tiers and flushes the
+     * files.  Called by the background task, or directly by batch jobs.
+     */
+    public synchronized void rollup() throws IOException {
+        long end = raw.size();
+        MoodEntry e = new MoodEntry();
+        for (Tier t : tiers) {
+            t.catchUp(end, e);
+            t.file.force();
+        }
+        raw.force();
+    }
+
+    /**
+     * Stops the background rollups, rolls up what is left and closes the files.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (roller != null) {
+            roller.shutdown();
+            roller = null;
+        }
+        rollup();
+        raw.close();
+        for (Tier t : tiers) {
+            t.file.close();
+        }
+    }
+
+    /**
+     * One rollup tier.  The open bucket lives in memory; the file's mark is the
+     * number of raw entries folded into closed buckets.
+     */
+    private class Tier {
+        final long width;
+        final MappedRecordFile file;
+
+        // Raw entries [file.getMark(), next) are in the open bucket.
+        long next = -1;
+        long openStart = Long.MIN_VALUE;
+        int count;
+        final int[] moodCounts = new int[MOODS.length];
+        double sumConfidence;
+        double sumArousal;
+        double sumValence;
+
+        Tier(Resolution resolution, MappedRecordFile file) {
+            this.width = resolution.getMillis();
+            this.file = file;
+        }
+
+        void catchUp(long end, MoodEntry e) throws IOException {
+            if (next < 0) {
+                // After a restart, rebuild the open bucket from the raw log.
+                next = file.getMark();
+            }
+            for (; next < end; next++) {
+                read(next, e);
+                long offset = e.timestamp % width;
+                long start = e.timestamp - (offset < 0 ? offset + width : offset);
+                if (count > 0 && start != openStart) {
+                    writeOpenBucket();
+                    file.setMark(next);
+                }
+                if (count == 0) {
+                    openStart = start;
+                }
+                count++;
+                moodCounts[e.mood.ordinal()]++;
+                sumConfidence += e.confidence;
+                sumArousal += e.arousal;
+                sumValence += e.valence;
+            }
+        }
+
+        /**
+         * Appends the open bucket, unless it is already the last one in the
+         * file: a bucket is committed before the mark moves past its entries,
+         * so after a crash in between the restart rebuilds a bucket that was
+         * already written.
+         */
+        private void writeOpenBucket() throws IOException {
+            long index = file.size();
+            if (index == 0 || file.buffer(index - 1).getLong(file.offset(index - 1) + ROLLUP_START) < openStart) {
+                MappedByteBuffer b = file.buffer(index);
+                int o = file.offset(index);
+                b.putLong(o + ROLLUP_START, openStart);
+                b.putInt(o + ROLLUP_COUNT, count);
+                for (int m = 0; m < MOODS.length; m++) {
+                    b.putInt(o + ROLLUP_MOODS + 4 * m, moodCounts[m]);
+                }
+                b.putFloat(o + ROLLUP_CONFIDENCE, (float) (sumConfidence / count));
+                b.putFloat(o + ROLLUP_AROUSAL, (float) (sumArousal / count));
+                b.putFloat(o + ROLLUP_VALENCE, (float) (sumValence / count));
+                file.commit();
+            }
+            for (int m = 0; m < MOODS.length; m++) {
+                moodCounts[m] = 0;
+            }
+            count = 0;
+            sumConfidence = 0;
+            sumArousal = 0;
+            sumValence = 0;
+        }
+    }
+}
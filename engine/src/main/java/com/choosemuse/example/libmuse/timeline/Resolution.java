@@ -0,0 +1,21 @@
+package com.choosemuse.example.libmuse.timeline;
+
+/**
+ * The rollup tiers kept by {@link MoodTimelineLog}.  History views pick the
+ * coarsest tier that still gives them enough points.
+ */
+public enum Resolution {
+    TEN_SECONDS(10 * 1000L),
+    ONE_MINUTE(60 * 1000L),
+    TEN_MINUTES(10 * 60 * 1000L);
+
+    private final long millis;
+
+    Resolution(long millis) {
+        this.millis = millis;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+}
@@ -0,0 +1,31 @@
+package com.choosemuse.example.libmuse.timeline;
+
+import com.choosemuse.example.libmuse.mood.Moods;
+
+/**
+ * Summary of the mood decisions in one bucket of a rollup tier.
+ */
+public class RollupBucket {
+
+    private static final Moods[] MOODS = Moods.values();
+
+    public long start;
+    public int count;
+    public final int[] moodCounts = new int[MOODS.length];
+    public float meanConfidence;
+    public float meanArousal;
+    public float meanValence;
+
+    /**
+     * @return The mood decided most often in the bucket.
+     */
+    public Moods getDominantMood() {
+        int best = 0;
+        for (int i = 1; i < moodCounts.length; i++) {
+            if (moodCounts[i] > moodCounts[best]) {
+                best = i;
+            }
+        }
+        return MOODS[best];
+    }
+}
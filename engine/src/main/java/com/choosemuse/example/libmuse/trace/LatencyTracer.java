@@ -0,0 +1,209 @@
+package com.choosemuse.example.libmuse.trace;
+
+import java.util.Locale;
+
+/**
+ * Follows items through a fixed chain of stages, eg. packet, tick, decide,
+ * switch, and keeps latency percentiles per stage and end to end.
+ * <p>
+ * An item is identified by a tag, normally the timestamp of the newest packet
+ * it contains.  When a stage marks a tag, the tracer looks up when that tag (or
+ * the newest older one, since stages may skip items) passed the previous stage
+ * and records the difference as the stage's latency.  Stage 0 has no previous
+ * stage, so its latency is the time from begin() to end(), eg. how long the
+ * packet handler ran.  The time the tag entered stage 0 travels along, so the
+ * last stage also records the end to end latency.
+ * Each stage remembers its last HISTORY tags; a tag the previous stage has
+ * already forgotten is not counted.
+ * <p>
+ * begin() and end() also open and close a section on the {@link TraceSink} of
+ * the calling thread.  Stages may be marked from different threads, but each
+ * stage from one thread at a time.
+ */
+public class LatencyTracer {
+
+    private static final int HISTORY = 1024;
+
+    private final TraceSink sink;
+    private final String[] names;
+    private final Stage[] stages;
+    private final LatencyHistogram total = new LatencyHistogram();
+
+    public LatencyTracer(TraceSink sink, String... names) {
+        if (names.length == 0) {
+            throw new IllegalArgumentException("At least one stage");
+        }
+        this.sink = sink;
+        this.names = names.clone();
+        this.stages = new Stage[names.length];
+        for (int i = 0; i < names.length; i++) {
+            stages[i] = new Stage();
+        }
+    }
+
+    /**
+     * Opens the trace section of a stage on the calling thread.
+     */
+    public void begin(int stage) {
+        sink.beginSection(names[stage]);
+        stages[stage].begun = System.nanoTime();
+    }
+
+    /**
+     * Closes the section opened by begin() and marks tag as having passed stage.
+     */
+    public void end(int stage, long tag) {
+        sink.endSection();
+        mark(stage, tag, stages[stage].begun);
+    }
+
+    /**
+     * Marks tag as having passed stage now.  Marks of stage 0 made this way
+     * are counted but record no latency.
+     */
+    public void mark(int stage, long tag) {
+        mark(stage, tag, Long.MIN_VALUE);
+    }
+
+    /**
+     * @param begun When begin() was called for the stage, or Long.MIN_VALUE.
+     */
+    private void mark(int stage, long tag, long begun) {
+        final long now = System.nanoTime();
+        long start = now;
+        long origin = now;
+        final boolean timed = stage > 0 || begun != Long.MIN_VALUE;
+        if (stage == 0 && timed) {
+            start = begun;
+            origin = begun;
+        } else if (stage > 0) {
+            Stage previous = stages[stage - 1];
+            synchronized (previous) {
+                int i = previous.find(tag);
+                if (i < 0) {
+                    return;
+                }
+                start = previous.nanos[i];
+                origin = previous.origins[i];
+            }
+        }
+        Stage s = stages[stage];
+        synchronized (s) {
+            s.add(tag, now, origin);
+            if (timed) {
+                s.latency.record(now - start);
+                if (stage == stages.length - 1) {
+                    total.record(now - origin);
+                }
+            }
+        }
+        sink.span(names[stage], tag, start, now);
+    }
+
+    /**
+     * @return A copy of a stage's latency since the previous stage, or from
+     * begin() to end() for stage 0.
+     */
+    public LatencyHistogram getLatency(int stage) {
+        LatencyHistogram copy = new LatencyHistogram();
+        synchronized (stages[stage]) {
+            copy.add(stages[stage].latency);
+        }
+        return copy;
+    }
+
+    /**
+     * @return A copy of the latency from stage 0 to the last stage.
+     */
+    public LatencyHistogram getEndToEnd() {
+        LatencyHistogram copy = new LatencyHistogram();
+        synchronized (stages[stages.length - 1]) {
+            copy.add(total);
+        }
+        return copy;
+    }
+
+    /**
+     * @return One line per stage and one for end to end with count and
+     * percentiles in milliseconds, for logging.
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%-12s %8s %10s %10s %10s %10s%n",
+                "stage", "count", "p50", "p90", "p99", "max"));
+        for (int i = 0; i < stages.length; i++) {
+            synchronized (stages[i]) {
+                if (i == 0 && stages[i].latency.getCount() == 0) {
+                    sb.append(String.format(Locale.US, "%-12s %8d%n", names[i], stages[i].marks));
+                } else {
+                    append(sb, names[i], stages[i].latency);
+                }
+            }
+        }
+        synchronized (stages[stages.length - 1]) {
+            append(sb, "end-to-end", total);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Forgets every tag and empties the histograms.
+     */
+    public void reset() {
+        for (Stage s : stages) {
+            synchronized (s) {
+                s.size = 0;
+                s.marks = 0;
+                s.latency.clear();
+            }
+        }
+        synchronized (stages[stages.length - 1]) {
+            total.clear();
+        }
+    }
+
+    private static void append(StringBuilder sb, String name, LatencyHistogram h) {
+        sb.append(String.format(Locale.US, "%-12s %8d %10.3f %10.3f %10.3f %10.3f%n", name, h.getCount(),
+                h.percentile(0.5) / 1e6, h.percentile(0.9) / 1e6, h.percentile(0.99) / 1e6,
+                h.getMax() / 1e6));
+    }
+
+    /**
+     * The recent tags of one stage in a ring, with when they passed it and when
+     * they entered stage 0.
+     */
+    private static class Stage {
+        final long[] tags = new long[HISTORY];
+        final long[] nanos = new long[HISTORY];
+        final long[] origins = new long[HISTORY];
+        final LatencyHistogram latency = new LatencyHistogram();
+        int next;
+        int size;
+        long marks;
+        // Set by begin() and read by end() on the thread marking the stage.
+        long begun = Long.MIN_VALUE;
+
+        void add(long tag, long now, long origin) {
+            tags[next] = tag;
+            nanos[next] = now;
+            origins[next] = origin;
+            next = (next + 1) % HISTORY;
+            size = Math.min(size + 1, HISTORY);
+            marks++;
+        }
+
+        /**
+         * @return The index of the newest entry with a tag at or before tag, or
+         * -1 if there is none.
+         */
+        int find(long tag) {
+            for (int n = 0; n < size; n++) {
+                int i = (next - 1 - n + HISTORY) % HISTORY;
+                if (tags[i] <= tag) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.choosemuse.example.libmuse.trace;
+
+/**
+ * Where a {@link LatencyTracer} sends its spans.  On the device this is
+ * android.os.Trace, so the sections show up in systrace next to the framework's
+ * own; on the JVM it can be anything, eg. a log or nothing at all.
+ * <p>
+ * beginSection and endSection are called in nested pairs on the thread doing
+ * the work, as android.os.Trace requires.
+ */
+public interface TraceSink {
+
+    /**
+     * Drops everything; the tracer still keeps its latency histograms.
+     */
+    TraceSink NONE = new TraceSink() {
+        @Override
+        public void beginSection(String name) {
+        }
+
+        @Override
+        public void endSection() {
+        }
+
+        @Override
+        public void span(String stage, long tag, long startNanos, long endNanos) {
+        }
+    };
+
+    void beginSection(String name);
+
+    void endSection();
+
+    /**
+     * Called once the item tagged tag has passed stage.
+     *
+     * @param startNanos When it passed the previous stage, in System.nanoTime().
+     * @param endNanos   When it passed this stage.
+     */
+    void span(String stage, long tag, long startNanos, long endNanos);
+}
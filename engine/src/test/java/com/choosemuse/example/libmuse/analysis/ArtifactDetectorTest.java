@@ -0,0 +1,93 @@
+package com.choosemuse.example.libmuse.analysis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ArtifactDetectorTest {
+
+    private static void artifacts(ArtifactDetector d, long timestamp, int on, int blink, int jaw) {
+        d.receiveSample(SampleKind.ARTIFACTS, timestamp, new double[]{on, blink, jaw});
+    }
+
+    private static void acc(ArtifactDetector d, long timestamp, double z) {
+        d.receiveSample(SampleKind.ACCELEROMETER, timestamp, new double[]{0, 0, z});
+    }
+
+    @Test
+    public void headbandOffHoldsUntilAfterItIsBackOn() {
+        ArtifactDetector d = new ArtifactDetector();
+        artifacts(d, 0, 1, 0, 0);
+        assertEquals(Long.MIN_VALUE, d.getContaminatedUntil());
+        assertFalse(d.isContaminated(0));
+
+        // Off for two seconds of samples, each extending the hold.
+        artifacts(d, 1000000, 0, 0, 0);
+        assertEquals(1000000 + ArtifactDetector.OFF_HEAD_HOLD_MICROS, d.getContaminatedUntil());
+        for (long t = 1100000; t <= 3000000; t += 100000) {
+            artifacts(d, t, 0, 0, 0);
+        }
+        artifacts(d, 3100000, 1, 0, 0);
+        assertTrue(d.isContaminated(3100000));
+        assertTrue(d.isContaminated(3000000 + ArtifactDetector.OFF_HEAD_HOLD_MICROS - 1));
+        assertFalse(d.isContaminated(3000000 + ArtifactDetector.OFF_HEAD_HOLD_MICROS));
+    }
+
+    @Test
+    public void blinksAndJawClenchesHoldForTheirOwnTimes() {
+        ArtifactDetector d = new ArtifactDetector();
+        artifacts(d, 1000000, 1, 1, 0);
+        assertEquals(1000000 + ArtifactDetector.BLINK_HOLD_MICROS, d.getContaminatedUntil());
+
+        artifacts(d, 2000000, 1, 0, 1);
+        assertEquals(2000000 + ArtifactDetector.JAW_HOLD_MICROS, d.getContaminatedUntil());
+
+        // Both at once: the longer hold wins, and a later short one does not
+        // cut it back.
+        artifacts(d, 3000000, 1, 1, 1);
+        artifacts(d, 3050000, 1, 1, 0);
+        assertEquals(3000000 + ArtifactDetector.JAW_HOLD_MICROS, d.getContaminatedUntil());
+
+        d.reset();
+        assertEquals(Long.MIN_VALUE, d.getContaminatedUntil());
+    }
+
+    @Test
+    public void gravityFollowsSlowDriftButNotMovement() {
+        ArtifactDetector d = new ArtifactDetector();
+        // The headband slowly settles at another angle: 0.3g over six seconds
+        // at 50Hz is followed without ever reading as movement.
+        long t = 0;
+        double z = 1.0;
+        for (int i = 0; i < 300; i++, t += 20000) {
+            acc(d, t, z);
+            z += 0.001;
+        }
+        assertEquals(Long.MIN_VALUE, d.getContaminatedUntil());
+
+        // A missing reading is ignored.
+        acc(d, t, Double.NaN);
+        assertEquals(Long.MIN_VALUE, d.getContaminatedUntil());
+
+        // A nod against the tracked gravity is movement.
+        acc(d, t, z + 2 * ArtifactDetector.MOVEMENT_G);
+        assertEquals(t + ArtifactDetector.MOVEMENT_HOLD_MICROS, d.getContaminatedUntil());
+
+        // Back at rest, the estimate was not pulled towards the nod.
+        acc(d, t + 20000, z);
+        assertEquals(t + ArtifactDetector.MOVEMENT_HOLD_MICROS, d.getContaminatedUntil());
+    }
+
+    @Test
+    public void resetForgetsTheGravityEstimate() {
+        ArtifactDetector d = new ArtifactDetector();
+        acc(d, 0, 1);
+        d.reset();
+        // A new headband reading 2g is taken as its gravity, not as movement.
+        acc(d, 20000, 2);
+        acc(d, 40000, 2);
+        assertEquals(Long.MIN_VALUE, d.getContaminatedUntil());
+    }
+}
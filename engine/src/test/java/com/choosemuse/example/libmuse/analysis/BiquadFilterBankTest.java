@@ -0,0 +1,86 @@
+package com.choosemuse.example.libmuse.analysis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BiquadFilterBankTest {
+
+    private static final int CHANNELS = 6;
+
+    @Test
+    public void eegDesignsNotchMainsAndKeepTheBands() {
+        for (int rate : new int[]{220, 256, 500}) {
+            BiquadDesign d = BiquadDesign.eeg(rate);
+            assertSame(d, BiquadDesign.eeg(rate));
+            assertTrue(rate + "Hz at 50Hz", d.gain(50) < 0.01);
+            assertTrue(rate + "Hz at 60Hz", d.gain(60) < 0.01);
+            assertTrue(rate + "Hz at DC", d.gain(0) < 1e-6);
+            for (double hz : new double[]{8, 10, 13, 20, 30}) {
+                assertEquals(rate + "Hz at " + hz + "Hz", 1, d.gain(hz), 0.05);
+            }
+        }
+        // Neither notch fits below the Nyquist frequency of the analysis rate.
+        assertEquals(3, BiquadDesign.eeg(100).getSections());
+        assertEquals(5, BiquadDesign.eeg(256).getSections());
+    }
+
+    @Test
+    public void removesOffsetAndHumFromEeg() {
+        final int rate = 256;
+        final int frames = 20 * rate;
+        BiquadFilterBank bank = BiquadFilterBank.forEeg(CHANNELS, rate);
+        float[] data = new float[frames * CHANNELS];
+        for (int f = 0; f < frames; f++) {
+            double t = (double) f / rate;
+            for (int c = 0; c < CHANNELS; c++) {
+                data[f * CHANNELS + c] = (float) (800 + 50 * Math.sin(2 * Math.PI * 60 * t)
+                        + 10 * Math.sin(2 * Math.PI * 10 * t + c));
+            }
+        }
+        bank.process(data, frames);
+        // After the filters have settled only the 10Hz component is left, phase
+        // shifted but with its offset gone and its amplitude intact.
+        for (int c = 0; c < CHANNELS; c++) {
+            double sum = 0;
+            double squares = 0;
+            int n = 0;
+            for (int f = 10 * rate; f < frames; f++, n++) {
+                double y = data[f * CHANNELS + c];
+                sum += y;
+                squares += y * y;
+            }
+            assertEquals(0, sum / n, 0.1);
+            assertEquals(10 / Math.sqrt(2), Math.sqrt(squares / n), 0.3);
+        }
+    }
+
+    @Test
+    public void framesMatchBlocksAndSkipMissingSamples() {
+        BiquadFilterBank blocks = BiquadFilterBank.forEeg(CHANNELS, 500);
+        BiquadFilterBank single = BiquadFilterBank.forEeg(CHANNELS, 500);
+        float[] data = new float[32 * CHANNELS];
+        double[] frame = new double[CHANNELS];
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (float) (800 + 100 * Math.sin(i * 0.37 + round));
+            }
+            data[5 * CHANNELS + 2] = Float.NaN;
+            float[] expected = data.clone();
+            blocks.process(expected, 32);
+            for (int f = 0; f < 32; f++) {
+                for (int c = 0; c < CHANNELS; c++) {
+                    frame[c] = data[f * CHANNELS + c];
+                }
+                single.process(frame);
+                for (int c = 0; c < CHANNELS; c++) {
+                    assertEquals(expected[f * CHANNELS + c], frame[c], 1e-3);
+                }
+            }
+            assertTrue(Float.isNaN(expected[5 * CHANNELS + 2]));
+            assertTrue(!Float.isNaN(expected[6 * CHANNELS + 2]));
+        }
+    }
+}
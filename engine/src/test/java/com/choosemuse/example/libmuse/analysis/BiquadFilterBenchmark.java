@@ -0,0 +1,75 @@
+package com.choosemuse.example.libmuse.analysis;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures the EEG filter bank on 6 channels at each supported headband rate,
+ * in blocks as the pipeline would run it and one packet at a time as the packet
+ * handler does, and reports the share of one core needed to keep up in real
+ * time.  Run with gradle :engine:filterBenchmark.
+ */
+public class BiquadFilterBenchmark {
+
+    private static final int CHANNELS = 6;
+    private static final int BLOCK_FRAMES = 32;
+    private static final int SECONDS = 600;
+
+    public static void main(String[] args) {
+        for (int rate : new int[]{220, 256, 500}) {
+            BiquadFilterBank bank = BiquadFilterBank.forEeg(CHANNELS, rate);
+            float[] block = new float[BLOCK_FRAMES * CHANNELS];
+            double[] frame = new double[CHANNELS];
+            Random random = new Random(42);
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (float) (800 + 20 * random.nextGaussian());
+            }
+            int frames = SECONDS * rate;
+
+            // Warm up both paths before timing so the JIT has compiled them.
+            for (int i = 0; i < 3; i++) {
+                blocks(bank, block, frames);
+                frames(bank, block, frame, frames);
+            }
+
+            report(rate, bank, "blocks", blocks(bank, block, frames), frames);
+            report(rate, bank, "frames", frames(bank, block, frame, frames), frames);
+        }
+    }
+
+    private static long blocks(BiquadFilterBank bank, float[] block, int frames) {
+        float[] data = new float[block.length];
+        long start = System.nanoTime();
+        for (int done = 0; done < frames; done += BLOCK_FRAMES) {
+            System.arraycopy(block, 0, data, 0, block.length);
+            bank.process(data, BLOCK_FRAMES);
+        }
+        consume(data[0]);
+        return System.nanoTime() - start;
+    }
+
+    private static long frames(BiquadFilterBank bank, float[] block, double[] frame, int frames) {
+        long start = System.nanoTime();
+        for (int f = 0; f < frames; f++) {
+            int base = (f % BLOCK_FRAMES) * CHANNELS;
+            for (int c = 0; c < CHANNELS; c++) {
+                frame[c] = block[base + c];
+            }
+            bank.process(frame);
+        }
+        consume((float) frame[0]);
+        return System.nanoTime() - start;
+    }
+
+    private static void report(int rate, BiquadFilterBank bank, String mode, long nanos, int frames) {
+        double perFrame = (double) nanos / frames;
+        System.out.printf(Locale.US, "%3dHz %d sections %-6s %7.1f ns/frame %8.4f%% of a core%n",
+                rate, bank.getDesign().getSections(), mode, perFrame, 100 * perFrame * rate / 1e9);
+    }
+
+    private static void consume(float value) {
+        if (value == 42) {
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.choosemuse.example.libmuse.analysis;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CrossSpectrumTest {
+
+    private static final int RATE = 256;
+
+    /**
+     * Feeds seconds of EEG where AF7 and AF8 share a 10Hz rhythm, AF8 at twice
+     * the amplitude and a quarter period later, and TP9 and TP10 are
+     * unrelated noise.
+     */
+    private static CrossSpectrum run(int seconds) {
+        CrossSpectrum s = CrossSpectrum.forAlpha(RATE);
+        Random random = new Random(7);
+        double[] frame = new double[6];
+        for (int n = 0; n < seconds * RATE; n++) {
+            double t = (double) n / RATE;
+            frame[CrossSpectrum.TP9] = 10 * random.nextGaussian();
+            frame[CrossSpectrum.AF7] = 10 * Math.sin(2 * Math.PI * 10 * t) + random.nextGaussian();
+            frame[CrossSpectrum.AF8] = 20 * Math.cos(2 * Math.PI * 10 * t) + random.nextGaussian();
+            frame[CrossSpectrum.TP10] = 10 * random.nextGaussian();
+            assertEquals((n + 1) % RATE == 0, s.add(frame));
+        }
+        return s;
+    }
+
+    @Test
+    public void resolvesTheAlphaBand() {
+        CrossSpectrum s = CrossSpectrum.forAlpha(RATE);
+        assertEquals(8.0, s.getFirstHz(), 1e-9);
+        assertEquals(1.0, s.getBinHz(), 1e-9);
+        assertEquals(6, s.getBins());
+        assertEquals(0, s.getCoherence(CrossSpectrum.FRONTAL), 1e-9);
+        assertEquals(0, s.getAsymmetry(CrossSpectrum.AF7, CrossSpectrum.AF8), 1e-9);
+    }
+
+    @Test
+    public void tracksAsymmetryAndCoherence() {
+        CrossSpectrum s = run(30);
+        assertEquals(30, s.getSegments());
+        assertEquals(Math.log(4), s.getAsymmetry(CrossSpectrum.AF7, CrossSpectrum.AF8), 0.05);
+        assertEquals(-Math.log(4), s.getAsymmetry(CrossSpectrum.AF8, CrossSpectrum.AF7), 0.05);
+        // The coherence ignores the phase lag.  The windowed 10Hz rhythm fills
+        // half of the six bins, the others only hold unrelated noise.
+        double frontal = s.getCoherence(CrossSpectrum.FRONTAL);
+        double temporal = s.getCoherence(CrossSpectrum.TEMPORAL);
+        assertTrue("frontal " + frontal, frontal > 0.45 && frontal < 0.7);
+        assertTrue("temporal " + temporal, temporal < 0.3);
+    }
+
+    @Test
+    public void coherenceIsOneForFilteredCopies() {
+        CrossSpectrum s = new CrossSpectrum(2, RATE, 8, 13, 1, 8, 0, 1);
+        Random random = new Random(3);
+        double[] frame = new double[2];
+        double previous = 0;
+        for (int n = 0; n < 20 * RATE; n++) {
+            double x = random.nextGaussian();
+            frame[0] = x;
+            // A two-tap filter changes gain and phase per bin, but not coherence.
+            frame[1] = 3 * x + previous;
+            previous = x;
+            s.add(frame);
+        }
+        assertEquals(1.0, s.getCoherence(0), 0.02);
+    }
+
+    @Test
+    public void dropsSegmentsWithMissingSamples() {
+        CrossSpectrum s = run(2);
+        double[] frame = new double[6];
+        for (int n = 0; n < RATE; n++) {
+            frame[CrossSpectrum.AF7] = n == 100 ? Double.NaN : Math.sin(n);
+            assertFalse(s.add(frame));
+        }
+        assertEquals(2, s.getSegments());
+        s.reset();
+        assertEquals(0, s.getSegments());
+        assertEquals(0, s.getBandPower(CrossSpectrum.AF8), 1e-9);
+    }
+
+    @Test
+    public void skippedFramesDropTheirSegment() {
+        CrossSpectrum s = run(2);
+        double[] frame = new double[6];
+        for (int n = 0; n < 2 * RATE; n++) {
+            frame[CrossSpectrum.AF7] = Math.sin(n);
+            if (n == 100) {
+                s.skip();
+            } else {
+                assertEquals(n == 2 * RATE - 1, s.add(frame));
+            }
+        }
+        assertEquals(3, s.getSegments());
+    }
+}
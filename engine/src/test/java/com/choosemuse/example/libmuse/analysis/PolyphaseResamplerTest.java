@@ -0,0 +1,127 @@
+package com.choosemuse.example.libmuse.analysis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PolyphaseResamplerTest {
+
+    private static final int INPUT_RATE = 256;
+    private static final int ANALYSIS_RATE = 100;
+
+    /**
+     * Ten seconds of a sine at the input rate, on two channels with the second
+     * at half the amplitude of the first.
+     */
+    private static float[] tone(double hz, double amplitude) {
+        float[] in = new float[10 * INPUT_RATE * 2];
+        for (int n = 0; n < in.length / 2; n++) {
+            float v = (float) (amplitude * Math.sin(2 * Math.PI * hz * n / INPUT_RATE));
+            in[2 * n] = v;
+            in[2 * n + 1] = v / 2;
+        }
+        return in;
+    }
+
+    private static float[] resample(float[] in) {
+        PolyphaseResampler r = PolyphaseResampler.forRates(2, INPUT_RATE, ANALYSIS_RATE, 16);
+        float[] out = new float[r.maxOutputFrames(in.length / 2) * 2];
+        int frames = r.process(in, in.length / 2, out);
+        float[] trimmed = new float[frames * 2];
+        System.arraycopy(out, 0, trimmed, 0, trimmed.length);
+        return trimmed;
+    }
+
+    /**
+     * @return The amplitude of the hz component of one channel, measured over
+     * whole seconds after the filter has settled.
+     */
+    private static double amplitudeAt(float[] out, int channel, double hz) {
+        double i = 0;
+        double q = 0;
+        int from = 2 * ANALYSIS_RATE;
+        int to = 9 * ANALYSIS_RATE;
+        for (int n = from; n < to; n++) {
+            double angle = 2 * Math.PI * hz * n / ANALYSIS_RATE;
+            i += out[2 * n + channel] * Math.cos(angle);
+            q += out[2 * n + channel] * Math.sin(angle);
+        }
+        return 2 * Math.hypot(i, q) / (to - from);
+    }
+
+    @Test
+    public void keepsFrequencyAndAmplitudeOfAnAlphaTone() {
+        PolyphaseResampler r = PolyphaseResampler.forRates(2, INPUT_RATE, ANALYSIS_RATE, 16);
+        assertEquals(25, r.getUp());
+        assertEquals(64, r.getDown());
+
+        float[] out = resample(tone(10, 100));
+        assertEquals(10 * ANALYSIS_RATE, out.length / 2);
+        assertEquals(100, amplitudeAt(out, 0, 10), 1);
+        assertEquals(50, amplitudeAt(out, 1, 10), 0.5);
+        // Nothing leaked into the neighbouring bins.
+        assertTrue(amplitudeAt(out, 0, 9) < 1);
+        assertTrue(amplitudeAt(out, 0, 11) < 1);
+    }
+
+    @Test
+    public void rejectsTonesAboveTheOutputNyquist() {
+        // 70Hz would alias to 30Hz at 100Hz.
+        float[] out = resample(tone(70, 100));
+        assertTrue(amplitudeAt(out, 0, 30) < 1);
+    }
+
+    @Test
+    public void blockBoundariesDoNotChangeTheOutput() {
+        float[] in = tone(10, 100);
+        float[] whole = resample(in);
+
+        // Blocks of odd sizes, so the phase carries across every boundary.
+        PolyphaseResampler blocks = PolyphaseResampler.forRates(2, INPUT_RATE, ANALYSIS_RATE, 16);
+        float[] joined = new float[whole.length];
+        float[] block = new float[37 * 2];
+        float[] out = new float[blocks.maxOutputFrames(37) * 2];
+        int written = 0;
+        int frames = in.length / 2;
+        for (int f = 0; f < frames; f += 37) {
+            int n = Math.min(37, frames - f);
+            System.arraycopy(in, f * 2, block, 0, n * 2);
+            int produced = blocks.process(block, n, out);
+            System.arraycopy(out, 0, joined, written, produced * 2);
+            written += produced * 2;
+        }
+        assertEquals(whole.length, written);
+        assertArrayEquals(whole, joined, 0);
+
+        // One packet at a time, as IngestionService feeds it.
+        PolyphaseResampler single = PolyphaseResampler.forRates(2, INPUT_RATE, ANALYSIS_RATE, 16);
+        double[] frame = new double[2];
+        written = 0;
+        for (int f = 0; f < frames; f++) {
+            frame[0] = in[2 * f];
+            frame[1] = in[2 * f + 1];
+            int produced = single.process(frame, out);
+            System.arraycopy(out, 0, joined, written, produced * 2);
+            written += produced * 2;
+        }
+        assertEquals(whole.length, written);
+        assertArrayEquals(whole, joined, 0);
+    }
+
+    @Test
+    public void resetStartsFromSilence() {
+        float[] in = tone(10, 100);
+        float[] first = resample(in);
+        PolyphaseResampler r = PolyphaseResampler.forRates(2, INPUT_RATE, ANALYSIS_RATE, 16);
+        float[] out = new float[r.maxOutputFrames(in.length / 2) * 2];
+        r.process(in, 1000, out);
+        r.reset();
+        int frames = r.process(in, in.length / 2, out);
+        assertEquals(first.length / 2, frames);
+        for (int i = 0; i < first.length; i++) {
+            assertEquals(first[i], out[i], 0);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.choosemuse.example.libmuse.analysis;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RollingSeriesTest {
+
+    private static RollingSeries filled(int capacity, int samples) {
+        RollingSeries s = new RollingSeries(2, capacity);
+        for (int i = 0; i < samples; i++) {
+            s.append(i * 10L, new float[]{i, -i});
+        }
+        return s;
+    }
+
+    @Test
+    public void overwritesTheOldestSampleOnceFull() {
+        // Seven samples into a ring of four, so head has wrapped past the end.
+        RollingSeries s = filled(4, 7);
+        assertEquals(4, s.size());
+        assertEquals(30, s.oldestTimestamp());
+        assertEquals(60, s.newestTimestamp());
+
+        long[] ts = new long[4];
+        float[] vals = new float[8];
+        assertEquals(4, s.query(Long.MIN_VALUE, Long.MAX_VALUE, ts, vals, 4));
+        assertArrayEquals(new long[]{30, 40, 50, 60}, ts);
+        assertArrayEquals(new float[]{3, -3, 4, -4, 5, -5, 6, -6}, vals, 0);
+    }
+
+    @Test
+    public void rangesAreInclusiveOfFromAndExclusiveOfTo() {
+        RollingSeries s = filled(4, 7);
+        assertEquals(2, s.count(40, 60));
+        assertEquals(2, s.count(35, 55));
+        assertEquals(0, s.count(0, 30));
+        assertEquals(0, s.count(70, 100));
+        assertEquals(4.5, s.mean(0, 40, 60), 1e-9);
+        assertEquals(-5.5, s.mean(1, 50, 61), 1e-9);
+        assertTrue(Double.isNaN(s.mean(0, 0, 30)));
+
+        // maxCount keeps the newest samples of the range.
+        long[] ts = new long[2];
+        assertEquals(2, s.query(0, 100, ts, null, 2));
+        assertArrayEquals(new long[]{50, 60}, ts);
+    }
+
+    @Test
+    public void appendsFromInterleavedAndDoubleBuffers() {
+        RollingSeries s = new RollingSeries(2, 3);
+        s.append(0, new float[]{9, 1, 2, 9}, 1);
+        s.append(1, new double[]{3, 4});
+        float[] vals = new float[4];
+        assertEquals(2, s.query(0, 2, null, vals, 2));
+        assertArrayEquals(new float[]{1, 2, 3, 4}, vals, 0);
+    }
+
+    @Test
+    public void clearEmptiesTheRing() {
+        RollingSeries s = filled(4, 7);
+        s.clear();
+        assertEquals(0, s.size());
+        assertEquals(Long.MIN_VALUE, s.newestTimestamp());
+        assertEquals(0, s.count(Long.MIN_VALUE, Long.MAX_VALUE));
+
+        // The ring starts over from its first slot.
+        s.append(100, new float[]{1, 2});
+        assertEquals(1, s.size());
+        assertEquals(100, s.oldestTimestamp());
+        assertEquals(1, s.mean(0, 0, 200), 0);
+    }
+
+    @Test
+    public void storeSizesSeriesFromRateAndRetention() {
+        TimeSeriesStore<String> store = new TimeSeriesStore<>(2000, 1 << 20);
+        RollingSeries eeg = store.register("eeg", 4, 256);
+        assertEquals(512, eeg.getCapacity());
+        assertEquals(eeg.memoryBytes(), store.usedBytes());
+        assertSame(eeg, store.register("eeg", 4, 256));
+        assertEquals(eeg.memoryBytes(), store.usedBytes());
+
+        // Three seconds at 256 Hz: only the last two are kept.
+        for (int i = 0; i < 768; i++) {
+            store.append("eeg", i * 3906L, new double[]{i, 0, 0, 0});
+        }
+        store.append("unknown", 0, new double[]{1});
+        assertEquals(512, eeg.size());
+        assertEquals(256 * 3906L, eeg.oldestTimestamp());
+        // The last 10 ms, newest sample included, holds the last three samples.
+        assertEquals(766, store.recentMean("eeg", 0, 10), 1e-9);
+        assertTrue(Double.isNaN(store.recentMean("unknown", 0, 10)));
+
+        store.clear();
+        assertEquals(0, eeg.size());
+        assertTrue(Double.isNaN(store.recentMean("eeg", 0, 10)));
+        assertEquals(eeg.memoryBytes(), store.usedBytes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void storeRefusesSeriesPastItsBudget() {
+        TimeSeriesStore<String> store = new TimeSeriesStore<>(60000, 400000);
+        store.register("eeg", 4, 256);
+        store.register("acc", 3, 52);
+    }
+}
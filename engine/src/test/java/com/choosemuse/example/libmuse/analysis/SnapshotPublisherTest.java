@@ -0,0 +1,89 @@
+package com.choosemuse.example.libmuse.analysis;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotPublisherTest {
+
+    private static final int WIDTH = 6;
+    private static final int READERS = 3;
+    private static final long RUN_MILLIS = 500;
+
+    @Test
+    public void readsNothingBeforeFirstPublish() {
+        SnapshotPublisher p = new SnapshotPublisher(WIDTH);
+        assertEquals(0, p.read(new double[WIDTH]));
+        p.publish(new double[]{1, 2, 3, 4, 5, 6});
+        double[] out = new double[WIDTH];
+        assertEquals(1, p.read(out));
+        assertEquals(6.0, out[5], 0);
+    }
+
+    /**
+     * Publish number i sets value k to i * (k + 1), so every snapshot must be a
+     * multiple of (1, 2, ..., 6) whose factor equals its version.  A snapshot
+     * mixing two publishes breaks the pattern.
+     */
+    @Test
+    public void readersNeverSeeTornSnapshots() throws Exception {
+        final SnapshotPublisher p = new SnapshotPublisher(WIDTH);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong torn = new AtomicLong();
+
+        Thread writer = new Thread("writer") {
+            @Override
+            public void run() {
+                double[] v = new double[WIDTH];
+                for (long i = 1; running.get(); i++) {
+                    for (int k = 0; k < WIDTH; k++) {
+                        v[k] = i * (k + 1);
+                    }
+                    p.publish(v);
+                }
+            }
+        };
+        Thread[] readers = new Thread[READERS];
+        for (int r = 0; r < READERS; r++) {
+            readers[r] = new Thread("reader-" + r) {
+                @Override
+                public void run() {
+                    double[] out = new double[WIDTH];
+                    long last = 0;
+                    while (running.get()) {
+                        long version = p.read(out);
+                        boolean ok = version >= last && (version == 0 || out[0] == version);
+                        for (int k = 1; k < WIDTH; k++) {
+                            ok &= out[k] == out[0] * (k + 1);
+                        }
+                        if (!ok) {
+                            torn.incrementAndGet();
+                        }
+                        last = version;
+                        reads.incrementAndGet();
+                    }
+                }
+            };
+        }
+
+        writer.start();
+        for (Thread t : readers) {
+            t.start();
+        }
+        Thread.sleep(RUN_MILLIS);
+        running.set(false);
+        writer.join();
+        for (Thread t : readers) {
+            t.join();
+        }
+
+        assertTrue("no reads", reads.get() > 0);
+        assertTrue("no publishes", p.getVersion() > 0);
+        assertEquals("torn reads", 0, torn.get());
+    }
+}
@@ -0,0 +1,132 @@
+package com.choosemuse.example.libmuse.batch;
+
+import com.choosemuse.example.libmuse.analysis.SampleKind;
+import com.choosemuse.example.libmuse.mood.LogisticMoodClassifier;
+import com.choosemuse.example.libmuse.mood.MoodParameters;
+import com.choosemuse.example.libmuse.mood.Moods;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MoodReplayTest {
+
+    private static final long START = 5000000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A happy session: right-heavy EEG, low alpha and high beta at 10 Hz.
+     */
+    private static Recording happy(int seconds) {
+        Recording r = new Recording(seconds * 30);
+        for (int i = 0; i < seconds * 10; i++) {
+            long t = START + i * 100000L;
+            r.add(t, SampleKind.EEG, new double[]{0, 0, 400, 400}, 4);
+            r.add(t, SampleKind.ALPHA_ABSOLUTE, new double[]{0.2, 0.2, 0.2, 0.2}, 4);
+            r.add(t, SampleKind.BETA_ABSOLUTE, new double[]{0.8, 0.8, 0.8, 0.8}, 4);
+        }
+        return r;
+    }
+
+    private static void writeCsv(File file, Recording r) throws Exception {
+        PrintWriter w = new PrintWriter(new FileWriter(file));
+        try {
+            double[] values = new double[Recording.CHANNELS];
+            for (int i = 0; i < r.size(); i++) {
+                r.getValues(i, values);
+                String path = r.getKind(i) == SampleKind.EEG ? "/muse/eeg"
+                        : r.getKind(i) == SampleKind.ALPHA_ABSOLUTE ? "/muse/elements/alpha_absolute"
+                        : "/muse/elements/beta_absolute";
+                w.printf(Locale.US, "%.6f, %s, %s, %s, %s, %s%n", r.getTimestamp(i) / 1e6, path,
+                        values[0], values[1], values[2], values[3]);
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    private static int lines(File file) throws Exception {
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            int n = 0;
+            while (in.readLine() != null) {
+                n++;
+            }
+            return n;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void decidesOnTheRecordingsOwnClock() {
+        MoodTimeline timeline = new MoodReplay(1000, 10).run(happy(25), MoodParameters.DEFAULT);
+        assertEquals(2, timeline.size());
+        assertEquals(START + 10000000, timeline.getTimestamp(0));
+        assertEquals(START + 20000000, timeline.getTimestamp(1));
+        assertEquals(Moods.HAPPY, timeline.getMood(0));
+        assertEquals(Moods.HAPPY, timeline.getMood(1));
+        assertEquals(2, timeline.counts()[Moods.HAPPY.ordinal()]);
+
+        assertEquals(0, new MoodReplay(1000, 10).run(new Recording(0), MoodParameters.DEFAULT).size());
+    }
+
+    @Test
+    public void configuresTheEngineLikeTheApp() throws Exception {
+        LogisticMoodClassifier model = LogisticMoodClassifier.load(new StringReader(
+                "HAPPY 0 0\nANGRY 0 0\nRELAXED 5 0\nSAD 0 0\nNEUTRAL 0 0\n"));
+        MoodTimeline modelled = new MoodReplay(1000, 10, 0, model).run(happy(25), MoodParameters.DEFAULT);
+        assertEquals(2, modelled.counts()[Moods.RELAXED.ordinal()]);
+
+        // The headband's filter takes out the constant right-heavy offset the
+        // unfiltered replay reads as valence.
+        MoodTimeline raw = new MoodReplay(1000, 10).run(happy(25), MoodParameters.DEFAULT);
+        MoodTimeline filtered = new MoodReplay(1000, 10, 256, null).run(happy(25), MoodParameters.DEFAULT);
+        assertEquals(2, filtered.size());
+        assertTrue(Math.abs(filtered.getValence(1)) < Math.abs(raw.getValence(1)));
+    }
+
+    @Test
+    public void batchReplaysEveryFileForEveryParameterSet() throws Exception {
+        File in = folder.newFolder("in");
+        File out = folder.newFolder("out");
+        writeCsv(new File(in, "a.csv"), happy(25));
+        writeCsv(new File(in, "b.csv"), happy(12));
+        List<MoodParameters> grid = Arrays.asList(MoodParameters.DEFAULT,
+                new MoodParameters(25, 100, 0, 0));
+        List<File> files = Arrays.asList(new File(in, "a.csv"), new File(in, "b.csv"),
+                new File(in, "missing.csv"));
+
+        BatchProcessor processor = new BatchProcessor(new MoodReplay(1000, 10), grid, out);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            processor.run(pool, files);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(25 * 30 + 12 * 30, processor.getSamplesParsed());
+        assertEquals(2 * (25 * 30 + 12 * 30), processor.getSamplesReplayed());
+        assertEquals(1, processor.getFailures());
+        // A header and one line per decision.
+        assertEquals(3, lines(new File(out, "a.csv.0.moods.csv")));
+        assertEquals(3, lines(new File(out, "a.csv.1.moods.csv")));
+        assertEquals(2, lines(new File(out, "b.csv.1.moods.csv")));
+    }
+}
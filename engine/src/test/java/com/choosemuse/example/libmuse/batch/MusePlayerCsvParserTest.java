@@ -0,0 +1,103 @@
+package com.choosemuse.example.libmuse.batch;
+
+import com.choosemuse.example.libmuse.analysis.SampleKind;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MusePlayerCsvParserTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static double number(String text) {
+        byte[] data = text.getBytes(ASCII);
+        return MusePlayerCsvParser.parseNumber(data, new int[]{0}, data.length);
+    }
+
+    private static Recording parse(String text) {
+        byte[] data = text.getBytes(ASCII);
+        return MusePlayerCsvParser.parseRange(data, 0, data.length);
+    }
+
+    @Test
+    public void parsesNumbers() {
+        assertEquals(12.5, number("12.5"), 0);
+        assertEquals(-0.25, number(" -0.25"), 0);
+        assertEquals(3, number("+3"), 0);
+        assertEquals(1000, number("1e3"), 0);
+        assertEquals(0.015, number("1.5E-2"), 1e-15);
+        assertEquals(1.2345678901234568e20, number("123456789012345678901"), 1e6);
+        assertTrue(Double.isNaN(number("abc")));
+        assertTrue(Double.isNaN(number("-")));
+
+        // The cursor stops on the character after the number.
+        byte[] data = "  7.5, 8".getBytes(ASCII);
+        int[] cursor = {0};
+        assertEquals(7.5, MusePlayerCsvParser.parseNumber(data, cursor, data.length), 0);
+        assertEquals(5, cursor[0]);
+    }
+
+    @Test
+    public void keepsOnlyKnownPaths() {
+        Recording r = parse("1.5, /muse/eeg, 800.5, 801, 802, 803\r\n"
+                + "1.6, /muse/batt, 9000, 1\n"
+                + "1.7, /muse/elements/alpha_absolute, 0.5, , 0.25\n"
+                + "garbage line\n"
+                + "1.8, /muse/acc, 0.1, -0.2, 0.98");
+        assertEquals(3, r.size());
+        assertEquals(1500000, r.getTimestamp(0));
+        assertEquals(SampleKind.EEG, r.getKind(0));
+        double[] values = new double[Recording.CHANNELS];
+        r.getValues(0, values);
+        assertArrayEquals(new double[]{800.5, 801, 802, 803, 0, 0}, values, 1e-4);
+
+        // An empty value reads as 0.
+        assertEquals(SampleKind.ALPHA_ABSOLUTE, r.getKind(1));
+        r.getValues(1, values);
+        assertArrayEquals(new double[]{0.5, 0, 0.25, 0, 0, 0}, values, 1e-6);
+
+        assertEquals(SampleKind.ACCELEROMETER, r.getKind(2));
+        assertEquals(1800000, r.getTimestamp(2));
+    }
+
+    @Test
+    public void splitsLargeFilesAtLineBoundaries() throws Exception {
+        // Several megabytes, so the file is parsed as more than one chunk.
+        final int lines = 100000;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            sb.append(i / 100.0).append(", /muse/eeg, ").append(i).append(", 1, 2, 3, 4.5, 6.25\n");
+        }
+        File file = new File(folder.getRoot(), "large.csv");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(sb.toString().getBytes(ASCII));
+        } finally {
+            out.close();
+        }
+        assertTrue(file.length() > 2 << 20);
+
+        Recording r = MusePlayerCsvParser.parse(file);
+        assertEquals(lines, r.size());
+        double[] values = new double[Recording.CHANNELS];
+        for (int i = 0; i < lines; i += 997) {
+            // Truncating seconds to microseconds may lose one.
+            assertEquals(i * 10000.0, r.getTimestamp(i), 1);
+            r.getValues(i, values);
+            assertEquals(i, values[0], 0);
+            assertEquals(6.25, values[5], 0);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.choosemuse.example.libmuse.codec;
+
+import com.choosemuse.example.libmuse.analysis.SampleKind;
+import com.choosemuse.example.libmuse.batch.MusePlayerCsvParser;
+import com.choosemuse.example.libmuse.batch.Recording;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Reports the compression ratio and speed of the EEG codec on recorded
+ * sessions, given as muse-player CSV files or directories of them.  Without
+ * arguments a synthetic ten minute session is used.  Run with
+ * gradle :engine:codecBenchmark -PcodecArgs="recordings".
+ */
+public class EegCodecBenchmark {
+
+    private static final int CHANNELS = Recording.CHANNELS;
+    private static final int BLOCK_FRAMES = 256;
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) throws Exception {
+        List<File> files = new ArrayList<>();
+        for (String a : args) {
+            File f = new File(a);
+            File[] listed = f.listFiles();
+            if (listed == null) {
+                files.add(f);
+            } else {
+                for (File l : listed) {
+                    if (l.getName().endsWith(".csv")) {
+                        files.add(l);
+                    }
+                }
+            }
+        }
+        if (files.isEmpty()) {
+            run("synthetic", synthetic(10 * 60 * 256));
+        }
+        for (File f : files) {
+            run(f.getName(), MusePlayerCsvParser.parse(f));
+        }
+    }
+
+    /**
+     * Splits the EEG of a recording into blocks, applying quantization packets
+     * as they come, then times encoding and decoding all blocks.
+     */
+    private static void run(String name, Recording recording) {
+        List<float[]> blocks = new ArrayList<>();
+        List<double[]> levels = new ArrayList<>();
+        double[] values = new double[CHANNELS];
+        double[] quantization = {1, 1, 1, 1, 1, 1};
+        float[] block = new float[BLOCK_FRAMES * CHANNELS];
+        int frames = 0;
+        for (int i = 0; i < recording.size(); i++) {
+            SampleKind kind = recording.getKind(i);
+            if (kind == SampleKind.QUANTIZATION) {
+                recording.getValues(i, quantization);
+            } else if (kind == SampleKind.EEG) {
+                recording.getValues(i, values);
+                for (int c = 0; c < CHANNELS; c++) {
+                    block[frames * CHANNELS + c] = (float) values[c];
+                }
+                if (++frames == BLOCK_FRAMES) {
+                    blocks.add(block);
+                    levels.add(quantization.clone());
+                    block = new float[BLOCK_FRAMES * CHANNELS];
+                    frames = 0;
+                }
+            }
+        }
+        if (blocks.isEmpty()) {
+            System.out.println(name + ": no EEG");
+            return;
+        }
+
+        EegEncoder encoder = new EegEncoder(CHANNELS, EegCodec.MUSE_LSB);
+        EegDecoder decoder = new EegDecoder(CHANNELS, EegCodec.MUSE_LSB);
+        byte[][] encoded = new byte[blocks.size()][];
+        int[] lengths = new int[blocks.size()];
+        byte[] scratch = new byte[EegCodec.maxEncodedBytes(CHANNELS, BLOCK_FRAMES)];
+        float[] decoded = new float[BLOCK_FRAMES * CHANNELS];
+
+        long encodedBytes = 0;
+        double maxError = 0;
+        for (int b = 0; b < blocks.size(); b++) {
+            encoder.setQuantization(levels.get(b));
+            lengths[b] = encoder.encode(blocks.get(b), BLOCK_FRAMES, scratch, 0);
+            encoded[b] = scratch.clone();
+            encodedBytes += lengths[b];
+            decoder.decode(encoded[b], 0, lengths[b], decoded);
+            for (int i = 0; i < decoded.length; i++) {
+                maxError = Math.max(maxError, Math.abs(decoded[i] - blocks.get(b)[i]));
+            }
+        }
+
+        // Warm up, then time.
+        long sink = 0;
+        for (int r = 0; r < 3; r++) {
+            sink += encodeAll(encoder, blocks, scratch) + decodeAll(decoder, encoded, lengths, decoded);
+        }
+        long encodeStart = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            sink += encodeAll(encoder, blocks, scratch);
+        }
+        long encodeNanos = System.nanoTime() - encodeStart;
+        long decodeStart = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            sink += decodeAll(decoder, encoded, lengths, decoded);
+        }
+        long decodeNanos = System.nanoTime() - decodeStart;
+
+        long rawBytes = (long) blocks.size() * BLOCK_FRAMES * CHANNELS * 4;
+        double megabytes = rawBytes * (double) ROUNDS / (1 << 20);
+        System.out.printf(Locale.US, "%s: %d blocks, %d -> %d bytes, ratio %.2f (%.2f bits/sample),"
+                        + " encode %.0f MB/s, decode %.0f MB/s, max error %.3g uV%n",
+                name, blocks.size(), rawBytes, encodedBytes, (double) rawBytes / encodedBytes,
+                encodedBytes * 8.0 / (rawBytes / 4), megabytes / (encodeNanos / 1e9),
+                megabytes / (decodeNanos / 1e9), maxError);
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    private static long encodeAll(EegEncoder encoder, List<float[]> blocks, byte[] scratch) {
+        long n = 0;
+        for (float[] b : blocks) {
+            n += encoder.encode(b, BLOCK_FRAMES, scratch, 0);
+        }
+        return n;
+    }
+
+    private static long decodeAll(EegDecoder decoder, byte[][] encoded, int[] lengths, float[] out) {
+        long n = 0;
+        for (int b = 0; b < encoded.length; b++) {
+            n += decoder.decode(encoded[b], 0, lengths[b], out);
+        }
+        return n;
+    }
+
+    /**
+     * 256Hz EEG on the 12 bit grid: a drifting baseline, 10Hz alpha and noise
+     * on four channels, with the auxiliary channels idle.
+     */
+    private static Recording synthetic(int frames) {
+        Random random = new Random(1);
+        Recording r = new Recording(frames);
+        double[] v = new double[CHANNELS];
+        double[] drift = new double[CHANNELS];
+        for (int i = 0; i < frames; i++) {
+            for (int c = 0; c < 4; c++) {
+                drift[c] += random.nextGaussian() * 0.5;
+                double uv = 840 + drift[c] + 20 * Math.sin(2 * Math.PI * 10 * i / 256.0 + c)
+                        + random.nextGaussian() * 3;
+                v[c] = Math.round(uv / EegCodec.MUSE_LSB) * EegCodec.MUSE_LSB;
+            }
+            r.add(i * 1000000L / 256, SampleKind.EEG, v, CHANNELS);
+        }
+        return r;
+    }
+}
@@ -0,0 +1,95 @@
+package com.choosemuse.example.libmuse.codec;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EegCodecTest {
+
+    private static final int CHANNELS = 4;
+
+    @Test
+    public void roundTripsBlocksWithReusedBuffers() {
+        Random random = new Random(7);
+        EegEncoder encoder = new EegEncoder(CHANNELS, EegCodec.MUSE_LSB);
+        EegDecoder decoder = new EegDecoder(CHANNELS, EegCodec.MUSE_LSB);
+        encoder.setQuantization(new double[]{1, 2, 4, 16});
+        int[] steps = {1, 2, 4, 16};
+        int[] level = {2000, 2000, 2000, 2000};
+        byte[] encoded = new byte[EegCodec.maxEncodedBytes(CHANNELS, 256)];
+        float[] decoded = new float[CHANNELS * 256];
+
+        for (int block = 0; block < 50; block++) {
+            int frames = 1 + random.nextInt(256);
+            float[] samples = new float[CHANNELS * frames];
+            for (int i = 0; i < frames; i++) {
+                for (int c = 0; c < CHANNELS; c++) {
+                    level[c] += random.nextInt(21) - 10;
+                    // Values on the headband's grid, occasionally dropped or spiking.
+                    int code = random.nextInt(500) == 0 ? level[c] + 100000 : level[c] / steps[c];
+                    samples[i * CHANNELS + c] = random.nextInt(300) == 0
+                            ? Float.NaN : (float) (code * EegCodec.MUSE_LSB * steps[c]);
+                }
+            }
+            int n = encoder.encode(samples, frames, encoded, 3);
+            assertTrue(n <= EegCodec.maxEncodedBytes(CHANNELS, frames));
+            assertEquals(frames, EegDecoder.frames(encoded, 3));
+            assertEquals(frames, decoder.decode(encoded, 3, n, decoded));
+            float[] out = new float[CHANNELS * frames];
+            System.arraycopy(decoded, 0, out, 0, out.length);
+            assertArrayEquals(samples, out, 0);
+        }
+    }
+
+    @Test
+    public void compressesSmoothSignals() {
+        int frames = 256;
+        float[] samples = new float[CHANNELS * frames];
+        for (int i = 0; i < frames; i++) {
+            for (int c = 0; c < CHANNELS; c++) {
+                long code = Math.round(2000 + 100 * Math.sin(2 * Math.PI * 10 * i / 256.0 + c));
+                samples[i * CHANNELS + c] = (float) (code * EegCodec.MUSE_LSB);
+            }
+        }
+        byte[] encoded = new byte[EegCodec.maxEncodedBytes(CHANNELS, frames)];
+        int n = new EegEncoder(CHANNELS, EegCodec.MUSE_LSB).encode(samples, frames, encoded, 0);
+        // Under a byte per sample, against four for floats.
+        assertTrue("encoded " + n + " bytes", n < CHANNELS * frames);
+    }
+
+    @Test
+    public void storesOffGridChannelsAsRawFloats() {
+        int frames = 256;
+        float[] samples = new float[CHANNELS * frames];
+        for (int i = 0; i < frames; i++) {
+            for (int c = 0; c < CHANNELS; c++) {
+                long code = Math.round(2000 + 100 * Math.sin(2 * Math.PI * 10 * i / 256.0 + c));
+                samples[i * CHANNELS + c] = (float) (code * EegCodec.MUSE_LSB);
+            }
+            // Channel 1 is filtered, so off the grid; channel 2 has one value
+            // off it, and the largest float beyond the clamp.
+            samples[i * CHANNELS + 1] = (float) (0.37 * Math.sin(i / 10.0));
+        }
+        samples[100 * CHANNELS + 2] += 0.01f;
+        samples[101 * CHANNELS + 2] = Float.MAX_VALUE;
+        samples[102 * CHANNELS + 1] = Float.NaN;
+
+        byte[] encoded = new byte[EegCodec.maxEncodedBytes(CHANNELS, frames)];
+        int n = new EegEncoder(CHANNELS, EegCodec.MUSE_LSB).encode(samples, frames, encoded, 0);
+        float[] decoded = new float[samples.length];
+        new EegDecoder(CHANNELS, EegCodec.MUSE_LSB).decode(encoded, 0, n, decoded);
+        assertArrayEquals(samples, decoded, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedBlocks() {
+        float[] samples = new float[CHANNELS * 64];
+        byte[] encoded = new byte[EegCodec.maxEncodedBytes(CHANNELS, 64)];
+        int n = new EegEncoder(CHANNELS, EegCodec.MUSE_LSB).encode(samples, 64, encoded, 0);
+        new EegDecoder(CHANNELS, EegCodec.MUSE_LSB).decode(encoded, 0, n / 2, new float[samples.length]);
+    }
+}
@@ -0,0 +1,179 @@
+package com.choosemuse.example.libmuse.live;
+
+import com.choosemuse.example.libmuse.analysis.RollingSeries;
+import com.choosemuse.example.libmuse.analysis.SnapshotPublisher;
+import com.choosemuse.example.libmuse.mood.Moods;
+
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DashboardPublisherTest {
+
+    @Test
+    public void framesCarryOnlyNewEeg() {
+        RollingSeries eeg = new RollingSeries(4, 1000);
+        SnapshotPublisher alpha = new SnapshotPublisher(6);
+        SnapshotPublisher beta = new SnapshotPublisher(6);
+        DashboardPublisher publisher = new DashboardPublisher(URI.create("ws://localhost:1/live/publish"),
+                eeg, 100, alpha, beta, 250);
+        for (int i = 0; i < 10; i++) {
+            eeg.append(i * 10000L, new double[]{800, 800.26, Double.NaN, 1e6});
+        }
+        alpha.publish(new double[]{1, 2, 3, 4, 5, 6});
+        publisher.setMood(Moods.RELAXED, -3, 2, 0.75);
+
+        ByteBuffer b = ByteBuffer.allocate(4096);
+        int n = publisher.buildFrame(b);
+        assertEquals(LiveFrame.bytes(4, 10), n);
+        b.flip();
+        assertEquals(LiveFrame.MAGIC, b.getInt());
+        assertEquals(0, b.getInt());
+        assertEquals(90000, b.getLong());
+        assertEquals(Moods.RELAXED.ordinal(), b.get());
+        assertEquals(4, b.get());
+        assertEquals(10, b.getShort());
+        assertEquals(-3, b.getFloat(), 0);
+        assertEquals(2, b.getFloat(), 0);
+        assertEquals(0.75, b.getFloat(), 1e-6);
+        assertEquals(100, b.getFloat(), 0);
+        assertEquals(LiveFrame.EEG_LSB, b.getFloat(), 0);
+        assertEquals(1, b.getFloat(), 0);
+        b.position(b.position() + 12);
+        assertTrue(Float.isNaN(b.getFloat()));
+        b.position(LiveFrame.HEADER_BYTES + 8 * 4);
+        assertEquals(1600, b.getShort());
+        assertEquals(1601, b.getShort());
+        assertEquals(LiveFrame.NO_VALUE, b.getShort());
+        assertEquals(LiveFrame.NO_VALUE, b.getShort());
+
+        eeg.append(100000, new double[]{1, 2, 3, 4});
+        b.clear();
+        assertEquals(LiveFrame.bytes(4, 1), publisher.buildFrame(b));
+        assertEquals(1, b.getInt(4));
+        assertEquals(100000, b.getLong(8));
+        b.clear();
+        assertEquals(LiveFrame.bytes(4, 0), publisher.buildFrame(b));
+    }
+
+    @Test
+    public void clientHandshakesAndMasks() throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        final byte[][] received = new byte[1][];
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Socket s = server.accept();
+                    String key = null;
+                    for (String line : readHeaders(s.getInputStream()).split("\r\n")) {
+                        if (line.startsWith("Sec-WebSocket-Key: ")) {
+                            key = line.substring(19);
+                        }
+                    }
+                    byte[] sha = MessageDigest.getInstance("SHA-1")
+                            .digest((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes("US-ASCII"));
+                    OutputStream out = s.getOutputStream();
+                    out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\n"
+                            + "Connection: Upgrade\r\nSec-WebSocket-Accept: "
+                            + WebSocketClient.base64(sha) + "\r\n\r\n").getBytes("US-ASCII"));
+                    DataInputStream in = new DataInputStream(s.getInputStream());
+                    assertEquals(0x82, in.readUnsignedByte());
+                    assertEquals(0x80 | 126, in.readUnsignedByte());
+                    byte[] payload = new byte[in.readUnsignedShort()];
+                    byte[] mask = new byte[4];
+                    in.readFully(mask);
+                    in.readFully(payload);
+                    for (int i = 0; i < payload.length; i++) {
+                        payload[i] ^= mask[i & 3];
+                    }
+                    received[0] = payload;
+                    assertEquals(0x88, in.readUnsignedByte());
+                    s.close();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        t.start();
+
+        byte[] message = new byte[300];
+        for (int i = 0; i < message.length; i++) {
+            message[i] = (byte) i;
+        }
+        WebSocketClient client = WebSocketClient.connect(
+                URI.create("ws://localhost:" + server.getLocalPort() + "/live/publish"), 2000);
+        client.sendBinary(message, 0, message.length);
+        client.close();
+        t.join(2000);
+        server.close();
+        assertArrayEquals(message, received[0]);
+    }
+
+    @Test
+    public void wssStartsWithATlsHandshake() throws Exception {
+        final ServerSocket server = new ServerSocket(0);
+        final int[] first = new int[1];
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Socket s = server.accept();
+                    first[0] = s.getInputStream().read();
+                    // Not a TLS server, so the client must give up.
+                    s.getOutputStream().write("HTTP/1.1 400 Bad Request\r\n\r\n".getBytes("US-ASCII"));
+                    s.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        t.start();
+        try {
+            WebSocketClient.connect(URI.create("wss://localhost:" + server.getLocalPort() + "/live/publish"), 2000);
+            fail("connected without TLS");
+        } catch (IOException expected) {
+            // The handshake failed.
+        }
+        t.join(2000);
+        server.close();
+        // A TLS record of type handshake, not an HTTP request.
+        assertEquals(0x16, first[0]);
+
+        try {
+            WebSocketClient.connect(URI.create("http://localhost:1/"), 100);
+            fail("accepted http://");
+        } catch (IOException expected) {
+            // Only ws:// and wss://.
+        }
+    }
+
+    @Test
+    public void base64MatchesTheRfcExamples() {
+        assertEquals("", WebSocketClient.base64(new byte[0]));
+        assertEquals("Zg==", WebSocketClient.base64("f".getBytes()));
+        assertEquals("Zm8=", WebSocketClient.base64("fo".getBytes()));
+        assertEquals("Zm9vYmFy", WebSocketClient.base64("foobar".getBytes()));
+    }
+
+    private static String readHeaders(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (!sb.toString().endsWith("\r\n\r\n")) {
+            sb.append((char) in.read());
+        }
+        return sb.toString();
+    }
+}
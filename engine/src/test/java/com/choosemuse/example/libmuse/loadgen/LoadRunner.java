@@ -0,0 +1,272 @@
+package com.choosemuse.example.libmuse.loadgen;
+
+import com.choosemuse.example.libmuse.analysis.BiquadFilterBank;
+import com.choosemuse.example.libmuse.analysis.CrossSpectrum;
+import com.choosemuse.example.libmuse.analysis.PolyphaseResampler;
+import com.choosemuse.example.libmuse.analysis.SampleKind;
+import com.choosemuse.example.libmuse.analysis.SampleListener;
+import com.choosemuse.example.libmuse.analysis.SnapshotPublisher;
+import com.choosemuse.example.libmuse.analysis.TimeSeriesStore;
+import com.choosemuse.example.libmuse.mood.GroupMoodFusion;
+import com.choosemuse.example.libmuse.mood.MoodEngine;
+import com.choosemuse.example.libmuse.mood.MoodParameters;
+import com.choosemuse.example.libmuse.mood.QuadrantClassifier;
+import com.choosemuse.example.libmuse.pipeline.BlockPool;
+import com.choosemuse.example.libmuse.pipeline.FrameAccumulator;
+import com.choosemuse.example.libmuse.pipeline.Pipeline;
+import com.choosemuse.example.libmuse.pipeline.ResampleStage;
+import com.choosemuse.example.libmuse.pipeline.SeriesSink;
+import com.choosemuse.example.libmuse.trace.LatencyHistogram;
+import com.choosemuse.example.libmuse.trace.LatencyTracer;
+import com.choosemuse.example.libmuse.trace.TraceSink;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command line soak and load test: N synthetic headbands feed the same
+ * processing the app runs for a real one.
+ * <p>
+ * Every headband gets what MainActivity sets up on connect: the EEG resampling
+ * pipeline into a history store, the alpha, beta and accelerometer history, the
+ * UI snapshots and a mood engine ticked by packet time.  The pipelines share
+ * one pool of worker threads.  Every decision is submitted to one group mood
+ * fusion, which the first headband fuses at each of its decision times.  Progress is printed every report interval, and
+ * the packet to decision latency percentiles of all headbands at the end.
+ * <p>
+ * Usage:
+ * <pre>
+ * LoadRunner [--devices 8] [--rate 256] [--profile relaxed|alert|noisy]
+ *          [--minutes 10] [--speed 1] [--report-seconds 10] [--seed 1]
+ * </pre>
+ * --speed 0 runs as fast as possible, eg. a 12 hour soak with --minutes 720.
+ */
+public class LoadRunner {
+
+    private static final int ANALYSIS_RATE = 100;
+    private static final int RESAMPLER_SPAN = 16;
+    private static final int BLOCK_FRAMES = 32;
+    private static final int POOL_BLOCKS = 16;
+    private static final long HISTORY_MILLIS = 5 * 60 * 1000;
+    private static final long HISTORY_BUDGET_BYTES = 8 * 1024 * 1024;
+    private static final long TICK_MICROS = 1000000;
+    private static final int TICKS_PER_DECISION = 10;
+    private static final int TRACE_PACKET = 0;
+    private static final int TRACE_TICK = 1;
+    private static final int TRACE_DECIDE = 2;
+    private static final long GROUP_MAX_AGE_MICROS = TICK_MICROS * TICKS_PER_DECISION * 3 / 2;
+
+    /**
+     * The per-headband processing, mirroring MainActivity.receiveMuseDataPacket.
+     */
+    static class Rig implements SampleListener {
+        final TimeSeriesStore<SampleKind> history = new TimeSeriesStore<>(HISTORY_MILLIS, HISTORY_BUDGET_BYTES);
+        final MoodEngine moodEngine = new MoodEngine(TICKS_PER_DECISION);
+        final SnapshotPublisher eegSnapshot = new SnapshotPublisher(SyntheticHeadband.EEG_CHANNELS);
+        final SnapshotPublisher alphaSnapshot = new SnapshotPublisher(SyntheticHeadband.EEG_CHANNELS);
+        final SnapshotPublisher betaSnapshot = new SnapshotPublisher(SyntheticHeadband.EEG_CHANNELS);
+        final Pipeline pipeline;
+        final FrameAccumulator eegFrames;
+        final LatencyTracer tracer = new LatencyTracer(TraceSink.NONE, "packet", "tick", "decide");
+        final GroupMoodFusion group;
+        final int groupDevice;
+        // Only set on the headband that fuses the group.
+        final LatencyHistogram fuseTimes;
+        long fusions;
+        long fusedContributors;
+
+        long nextTick = Long.MIN_VALUE;
+        int ticks;
+        volatile long decisions;
+
+        Rig(ExecutorService workers, int eegRate, GroupMoodFusion group, boolean fuses) {
+            this.group = group;
+            this.groupDevice = group.addDevice();
+            this.fuseTimes = fuses ? new LatencyHistogram() : null;
+            int channels = SyntheticHeadband.EEG_CHANNELS;
+            history.register(SampleKind.EEG, channels, ANALYSIS_RATE);
+            history.register(SampleKind.ALPHA_ABSOLUTE, channels, 10);
+            history.register(SampleKind.BETA_ABSOLUTE, channels, 10);
+            history.register(SampleKind.ACCELEROMETER, 3, 52);
+            moodEngine.setEegFilter(BiquadFilterBank.forEeg(channels, eegRate));
+            moodEngine.setEegSpectrum(CrossSpectrum.forAlpha(eegRate));
+
+            PolyphaseResampler resampler =
+                    PolyphaseResampler.forRates(channels, eegRate, ANALYSIS_RATE, RESAMPLER_SPAN);
+            pipeline = new Pipeline(workers);
+            ResampleStage resample = pipeline.add(new ResampleStage("eeg-resample", resampler,
+                    new BlockPool(channels, resampler.maxOutputFrames(BLOCK_FRAMES), POOL_BLOCKS)));
+            SeriesSink sink = pipeline.add(new SeriesSink("eeg-history", history.get(SampleKind.EEG)));
+            pipeline.connect(resample, sink);
+            eegFrames = new FrameAccumulator(pipeline, resample,
+                    new BlockPool(channels, BLOCK_FRAMES, POOL_BLOCKS), eegRate);
+        }
+
+        @Override
+        public void receiveSample(SampleKind kind, long timestamp, double[] values) {
+            if (nextTick == Long.MIN_VALUE) {
+                nextTick = timestamp + TICK_MICROS;
+            }
+            while (timestamp >= nextTick) {
+                tracer.begin(TRACE_TICK);
+                moodEngine.tick();
+                tracer.end(TRACE_TICK, moodEngine.getTickTimestamp());
+                if (++ticks % TICKS_PER_DECISION == 0) {
+                    tracer.begin(TRACE_DECIDE);
+                    moodEngine.decide();
+                    tracer.end(TRACE_DECIDE, moodEngine.getTickTimestamp());
+                    decisions++;
+                    group.submit(groupDevice, moodEngine);
+                    if (fuseTimes != null) {
+                        long start = System.nanoTime();
+                        group.fuse(nextTick);
+                        fuseTimes.record(System.nanoTime() - start);
+                        fusions++;
+                        fusedContributors += group.getContributors();
+                    }
+                }
+                nextTick += TICK_MICROS;
+            }
+            tracer.begin(TRACE_PACKET);
+            moodEngine.receiveSample(kind, timestamp, values);
+            switch (kind) {
+                case EEG:
+                    eegFrames.add(timestamp, values);
+                    eegSnapshot.publish(values);
+                    break;
+                case ACCELEROMETER:
+                    history.append(kind, timestamp, values);
+                    break;
+                case ALPHA_ABSOLUTE:
+                    history.append(kind, timestamp, values);
+                    alphaSnapshot.publish(values);
+                    break;
+                case BETA_ABSOLUTE:
+                    history.append(kind, timestamp, values);
+                    betaSnapshot.publish(values);
+                    break;
+                default:
+                    break;
+            }
+            tracer.end(TRACE_PACKET, timestamp);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int devices = 8;
+        int rate = 256;
+        EegProfile profile = EegProfile.RELAXED;
+        double minutes = 10;
+        double speed = 1;
+        long reportSeconds = 10;
+        long seed = 1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--devices":
+                    devices = Integer.parseInt(value);
+                    break;
+                case "--rate":
+                    rate = Integer.parseInt(value);
+                    break;
+                case "--profile":
+                    profile = EegProfile.named(value);
+                    break;
+                case "--minutes":
+                    minutes = Double.parseDouble(value);
+                    break;
+                case "--speed":
+                    speed = Double.parseDouble(value);
+                    break;
+                case "--report-seconds":
+                    reportSeconds = Long.parseLong(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        SyntheticHeadband[] headbands = new SyntheticHeadband[devices];
+        Rig[] rigs = new Rig[devices];
+        GroupMoodFusion group = new GroupMoodFusion(devices, GROUP_MAX_AGE_MICROS,
+                new QuadrantClassifier(MoodParameters.DEFAULT));
+        for (int d = 0; d < devices; d++) {
+            headbands[d] = new SyntheticHeadband(rate, profile, seed + d, 0);
+            rigs[d] = new Rig(workers, rate, group, d == 0);
+        }
+        LoadGenerator generator = new LoadGenerator(headbands, rigs, speed);
+
+        System.out.printf(Locale.US, "%d headbands at %dHz, %.1f minutes at speed %s%n",
+                devices, rate, minutes, speed == 0 ? "max" : Double.toString(speed));
+        long start = System.nanoTime();
+        generator.start((long) (minutes * 60e6));
+        long lastPackets = 0;
+        long lastNanos = start;
+        boolean finished = false;
+        while (!finished) {
+            finished = generator.await(reportSeconds, TimeUnit.SECONDS);
+            long now = System.nanoTime();
+            long packets = generator.getPackets();
+            long decisions = 0;
+            long historyBytes = 0;
+            for (Rig r : rigs) {
+                decisions += r.decisions;
+                historyBytes += r.history.usedBytes();
+            }
+            Runtime rt = Runtime.getRuntime();
+            System.out.printf(Locale.US,
+                    "%6.0fs packets=%d (%.0f/s) decisions=%d maxLag=%.1fms heap=%dMB history=%dMB%n",
+                    (now - start) / 1e9, packets, (packets - lastPackets) / ((now - lastNanos) / 1e9),
+                    decisions, generator.getMaxLagMicros() / 1e3,
+                    (rt.totalMemory() - rt.freeMemory()) >> 20, historyBytes >> 20);
+            lastPackets = packets;
+            lastNanos = now;
+        }
+        for (Rig r : rigs) {
+            r.eegFrames.close();
+        }
+        for (Rig r : rigs) {
+            r.pipeline.awaitIdle(10000);
+        }
+        workers.shutdown();
+        workers.awaitTermination(10, TimeUnit.SECONDS);
+        System.out.print("Pipeline of headband 0:\n" + rigs[0].pipeline.report());
+
+        LatencyHistogram packet = new LatencyHistogram();
+        LatencyHistogram tick = new LatencyHistogram();
+        LatencyHistogram decide = new LatencyHistogram();
+        LatencyHistogram total = new LatencyHistogram();
+        long processed = 0;
+        long rejected = 0;
+        for (Rig r : rigs) {
+            packet.add(r.tracer.getLatency(TRACE_PACKET));
+            tick.add(r.tracer.getLatency(TRACE_TICK));
+            decide.add(r.tracer.getLatency(TRACE_DECIDE));
+            total.add(r.tracer.getEndToEnd());
+            processed += r.moodEngine.getProcessedWindows();
+            rejected += r.moodEngine.getRejectedWindows();
+        }
+        System.out.printf(Locale.US, "Mood windows processed=%d rejected=%d (%.1f%%)%n", processed, rejected,
+                processed + rejected > 0 ? 100.0 * rejected / (processed + rejected) : 0.0);
+        System.out.println("Latency of all headbands (ms):");
+        printLatency("packet", packet);
+        printLatency("tick", tick);
+        printLatency("decide", decide);
+        printLatency("end-to-end", total);
+        Rig fuser = rigs[0];
+        System.out.printf(Locale.US, "Group fusions=%d contributors=%.1f of %d%n", fuser.fusions,
+                fuser.fusions > 0 ? (double) fuser.fusedContributors / fuser.fusions : 0.0, devices);
+        printLatency("group fuse", fuser.fuseTimes);
+    }
+
+    private static void printLatency(String name, LatencyHistogram h) {
+        System.out.printf(Locale.US, "%-12s count=%d p50=%.3f p90=%.3f p99=%.3f max=%.3f%n", name, h.getCount(),
+                h.percentile(0.5) / 1e6, h.percentile(0.9) / 1e6, h.percentile(0.99) / 1e6, h.getMax() / 1e6);
+    }
+}
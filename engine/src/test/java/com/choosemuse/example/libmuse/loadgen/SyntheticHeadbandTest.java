@@ -0,0 +1,92 @@
+package com.choosemuse.example.libmuse.loadgen;
+
+import com.choosemuse.example.libmuse.analysis.SampleKind;
+import com.choosemuse.example.libmuse.analysis.SampleListener;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SyntheticHeadbandTest {
+
+    /**
+     * Counts packets per kind and checks their timestamps never go back.
+     */
+    private static class Counter implements SampleListener {
+        final int[] counts = new int[SampleKind.values().length];
+        long last = Long.MIN_VALUE;
+        double checksum;
+
+        @Override
+        public void receiveSample(SampleKind kind, long timestamp, double[] values) {
+            assertTrue(timestamp >= last);
+            last = timestamp;
+            counts[kind.ordinal()]++;
+            for (double v : values) {
+                checksum = checksum * 31 + v;
+            }
+        }
+    }
+
+    @Test
+    public void sendsEachKindAtItsRate() {
+        SyntheticHeadband h = new SyntheticHeadband(500, EegProfile.RELAXED, 1, 0);
+        Counter c = new Counter();
+        h.emitUntil(10000000, c);
+        assertEquals(5000, c.counts[SampleKind.EEG.ordinal()]);
+        assertEquals(100, c.counts[SampleKind.ALPHA_ABSOLUTE.ordinal()]);
+        assertEquals(100, c.counts[SampleKind.BETA_ABSOLUTE.ordinal()]);
+        assertEquals(100, c.counts[SampleKind.ARTIFACTS.ordinal()]);
+        assertEquals(10, c.counts[SampleKind.QUANTIZATION.ordinal()]);
+        assertTrue(c.counts[SampleKind.ACCELEROMETER.ordinal()] >= 520);
+        assertEquals(10000000, h.nextTimestamp());
+    }
+
+    @Test
+    public void dropoutsLoseWholePackets() {
+        SyntheticHeadband h = new SyntheticHeadband(256, EegProfile.NOISY, 2, 0);
+        Counter c = new Counter();
+        h.emitUntil(60000000, c);
+        assertTrue(c.counts[SampleKind.EEG.ordinal()] < 256 * 60);
+        assertEquals(h.getPackets(), sum(c.counts));
+    }
+
+    @Test
+    public void isDeterministicPerSeed() {
+        Counter a = new Counter();
+        Counter b = new Counter();
+        new SyntheticHeadband(220, EegProfile.ALERT, 3, 1000).emitUntil(5000000, a);
+        new SyntheticHeadband(220, EegProfile.ALERT, 3, 1000).emitUntil(5000000, b);
+        assertEquals(a.checksum, b.checksum, 0);
+    }
+
+    @Test
+    public void generatorDrivesEveryHeadband() throws InterruptedException {
+        SyntheticHeadband[] headbands = new SyntheticHeadband[4];
+        Counter[] counters = new Counter[4];
+        for (int i = 0; i < headbands.length; i++) {
+            headbands[i] = new SyntheticHeadband(256, EegProfile.RELAXED, i, 0);
+            counters[i] = new Counter();
+        }
+        LoadGenerator g = new LoadGenerator(headbands, counters, 0);
+        g.start(2000000);
+        assertTrue(g.await(10, TimeUnit.SECONDS));
+        long total = 0;
+        for (Counter c : counters) {
+            assertEquals(512, c.counts[SampleKind.EEG.ordinal()]);
+            total += sum(c.counts);
+        }
+        assertEquals(total, g.getPackets());
+    }
+
+    private static long sum(int[] counts) {
+        long n = 0;
+        for (int c : counts) {
+            n += c;
+        }
+        return n;
+    }
+}
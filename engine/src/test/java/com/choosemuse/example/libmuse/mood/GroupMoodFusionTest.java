@@ -0,0 +1,108 @@
+package com.choosemuse.example.libmuse.mood;
+
+import com.choosemuse.example.libmuse.analysis.SampleKind;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class GroupMoodFusionTest {
+
+    private static final long WINDOW = 10000000;
+
+    private static GroupMoodFusion fusion(int devices) {
+        return new GroupMoodFusion(devices, WINDOW * 3 / 2, new QuadrantClassifier(MoodParameters.DEFAULT));
+    }
+
+    private static double[] features(double arousal, double valence) {
+        double[] f = new double[MoodFeatures.COUNT];
+        f[MoodFeatures.AROUSAL] = arousal;
+        f[MoodFeatures.VALENCE] = valence;
+        return f;
+    }
+
+    @Test
+    public void weighsHeadbandsBySignalQuality() {
+        GroupMoodFusion fusion = fusion(4);
+        int happy = fusion.addDevice();
+        int sad = fusion.addDevice();
+        fusion.submit(happy, WINDOW - 100, 0.9, features(4, 2));
+        fusion.submit(sad, WINDOW - 200, 0.1, features(-6, -8));
+
+        assertEquals(Moods.HAPPY, fusion.fuse(WINDOW));
+        assertEquals(2, fusion.getContributors());
+        assertEquals(1.0, fusion.getTotalWeight(), 1e-9);
+        assertEquals(0.9 * 4 - 0.1 * 6, fusion.getArousal(), 1e-9);
+        assertEquals(0.9 * 2 - 0.1 * 8, fusion.getValence(), 1e-9);
+        assertEquals(1.0, fusion.getProbability(Moods.HAPPY), 1e-9);
+    }
+
+    @Test
+    public void alignsDecisionsOnTheWindowEnd() {
+        GroupMoodFusion fusion = fusion(4);
+        int early = fusion.addDevice();
+        int late = fusion.addDevice();
+        int gone = fusion.addDevice();
+        fusion.submit(gone, 0, 1, features(-5, -5));
+        fusion.submit(early, 2 * WINDOW - 10, 1, features(5, 5));
+        fusion.submit(late, 2 * WINDOW - 10, 1, features(5, 5));
+        assertEquals(Moods.HAPPY, fusion.fuse(2 * WINDOW));
+        assertEquals(2, fusion.getContributors());
+
+        // The late headband's next decision is already in when the next window
+        // is fused; its decision before the window end is used instead.
+        fusion.submit(early, 3 * WINDOW - 10, 1, features(-15, 5));
+        fusion.submit(late, 4 * WINDOW - 10, 1, features(5, -5));
+        assertEquals(Moods.RELAXED, fusion.fuse(3 * WINDOW));
+        assertEquals(-5, fusion.getArousal(), 1e-9);
+        assertEquals(5, fusion.getValence(), 1e-9);
+
+        assertEquals(2, fusion.getContributors());
+    }
+
+    @Test
+    public void forgetsRemovedHeadbands() {
+        GroupMoodFusion fusion = fusion(1);
+        int d = fusion.addDevice();
+        fusion.submit(d, WINDOW, 1, features(5, 5));
+        assertEquals(Moods.HAPPY, fusion.fuse(WINDOW));
+
+        fusion.removeDevice(d);
+        assertNull(fusion.fuse(WINDOW));
+        // The slot is reused, but not the decision of its earlier headband.
+        assertEquals(d, fusion.addDevice());
+        assertNull(fusion.fuse(WINDOW));
+        fusion.submit(d, WINDOW, 0, features(5, 5));
+        assertNull(fusion.fuse(WINDOW));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesHeadbandsBeyondTheLimit() {
+        GroupMoodFusion fusion = fusion(2);
+        fusion.addDevice();
+        fusion.addDevice();
+        fusion.addDevice();
+    }
+
+    @Test
+    public void fusesEngineDecisions() {
+        GroupMoodFusion fusion = fusion(64);
+        for (int i = 0; i < 64; i++) {
+            MoodEngine engine = new MoodEngine(10);
+            double alpha = i < 48 ? 0.2 : 0.8;
+            engine.receiveSample(SampleKind.EEG, WINDOW, new double[]{0, 0, 400, 400, 0, 0});
+            engine.receiveSample(SampleKind.ALPHA_ABSOLUTE, WINDOW, new double[]{alpha, alpha, 0, 0, 0, 0});
+            engine.receiveSample(SampleKind.BETA_ABSOLUTE, WINDOW, new double[]{0.8, 0.8, 0.8, 0.8, 0, 0});
+            for (int t = 0; t < 10; t++) {
+                engine.tick();
+            }
+            engine.decide();
+            assertEquals(0.5, engine.getSignalQuality(), 1e-9);
+            fusion.submit(fusion.addDevice(), engine);
+        }
+        assertEquals(Moods.HAPPY, fusion.fuse(WINDOW));
+        assertEquals(64, fusion.getContributors());
+        assertEquals(32, fusion.getTotalWeight(), 1e-9);
+    }
+}
@@ -0,0 +1,48 @@
+package com.choosemuse.example.libmuse.mood;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+
+public class LogisticMoodClassifierTest {
+
+    private static double[] features(double arousal, double valence) {
+        double[] f = new double[MoodFeatures.COUNT];
+        f[MoodFeatures.AROUSAL] = arousal;
+        f[MoodFeatures.VALENCE] = valence;
+        return f;
+    }
+
+    @Test
+    public void loadsModelAndClassifies() throws Exception {
+        MoodClassifier c = LogisticMoodClassifier.load(new StringReader(
+                "# comment\n\n" + MoodClassifierBenchmark.MODEL));
+        double[] probabilities = new double[Moods.values().length];
+        assertEquals(Moods.HAPPY, c.classify(features(2, 2), probabilities));
+        assertEquals(Moods.SAD, c.classify(features(-2, -2), probabilities));
+        assertEquals(Moods.NEUTRAL, c.classify(features(0, 0), probabilities));
+        double sum = 0;
+        for (double p : probabilities) {
+            sum += p;
+        }
+        assertEquals(1.0, sum, 1e-9);
+    }
+
+    @Test
+    public void readsOlderModelsWithFewerFeatures() throws Exception {
+        MoodClassifier c = LogisticMoodClassifier.load(new StringReader(MoodClassifierBenchmark.MODEL
+                .replace("HAPPY 0 1 1 0 0\n", "HAPPY 0 1 1 0 0 4\n")));
+        double[] f = features(0, 0);
+        assertEquals(Moods.NEUTRAL, c.classify(f, null));
+        f[MoodFeatures.ALPHA_ASYMMETRY] = 1;
+        assertEquals(Moods.HAPPY, c.classify(f, null));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMissingMood() throws Exception {
+        LogisticMoodClassifier.load(new StringReader("HAPPY 0 1 1 0 0\n"));
+    }
+}
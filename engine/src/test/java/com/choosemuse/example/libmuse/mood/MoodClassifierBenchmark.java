@@ -0,0 +1,98 @@
+package com.choosemuse.example.libmuse.mood;
+
+import java.io.StringReader;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the cost of a mood decision with the old string based path, the
+ * quadrant rule and the logistic model.  Run with gradle :engine:benchmark.
+ */
+public class MoodClassifierBenchmark {
+
+    private static final int POINTS = 4096;
+    private static final int ROUNDS = 2000;
+
+    static final String MODEL =
+            "HAPPY 0 1 1 0 0\n"
+            + "ANGRY 0 1 -1 0 0\n"
+            + "RELAXED 0 -1 1 0 0\n"
+            + "SAD 0 -1 -1 0 0\n"
+            + "NEUTRAL 1.5 0 0 0 0\n";
+
+    public static void main(String[] args) throws Exception {
+        Random random = new Random(42);
+        double[][] points = new double[POINTS][MoodFeatures.COUNT];
+        for (double[] p : points) {
+            p[MoodFeatures.AROUSAL] = Math.round(random.nextGaussian() * 3);
+            p[MoodFeatures.VALENCE] = Math.round(random.nextGaussian() * 3);
+            p[MoodFeatures.ALPHA] = random.nextDouble();
+            p[MoodFeatures.BETA] = random.nextDouble();
+        }
+        MoodClassifier quadrant = new QuadrantClassifier(MoodParameters.DEFAULT);
+        MoodClassifier logistic = LogisticMoodClassifier.load(new StringReader(MODEL));
+        double[] probabilities = new double[Moods.values().length];
+
+        // Warm up every path before timing so the JIT has compiled them.
+        for (int i = 0; i < 3; i++) {
+            legacy(points);
+            run(quadrant, points, probabilities);
+            run(logistic, points, probabilities);
+        }
+
+        report("legacy strings", legacy(points));
+        report("quadrant", run(quadrant, points, probabilities));
+        report("logistic", run(logistic, points, probabilities));
+
+        int agree = 0;
+        for (double[] p : points) {
+            if (quadrant.classify(p, null) == logistic.classify(p, null)) {
+                agree++;
+            }
+        }
+        System.out.printf(Locale.US, "logistic agrees with quadrant on %.1f%% of points%n",
+                100.0 * agree / POINTS);
+    }
+
+    /**
+     * The decision as getMood used to make it: the mood string is built twice
+     * and lower-cased for the song key and the label.
+     */
+    private static long legacy(double[][] points) {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            for (double[] p : points) {
+                String key = MoodEngine.determineMood(p[MoodFeatures.AROUSAL], p[MoodFeatures.VALENCE])
+                        .toString().toLowerCase();
+                String label = MoodEngine.determineMood(p[MoodFeatures.AROUSAL], p[MoodFeatures.VALENCE])
+                        .toString().toLowerCase();
+                sink += key.length() + label.length();
+            }
+        }
+        consume(sink);
+        return System.nanoTime() - start;
+    }
+
+    private static long run(MoodClassifier classifier, double[][] points, double[] probabilities) {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int r = 0; r < ROUNDS; r++) {
+            for (double[] p : points) {
+                sink += classifier.classify(p, probabilities).getKey().length();
+            }
+        }
+        consume(sink);
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, long nanos) {
+        System.out.printf(Locale.US, "%-16s %8.1f ns/decision%n", name, (double) nanos / ((long) ROUNDS * POINTS));
+    }
+
+    private static void consume(int value) {
+        if (value == 42) {
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.choosemuse.example.libmuse.mood;
+
+import com.choosemuse.example.libmuse.analysis.CrossSpectrum;
+import com.choosemuse.example.libmuse.analysis.SampleKind;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the mood engine on the JVM, without a headband or Android.
+ */
+public class MoodEngineTest {
+
+    private static final int TICKS = 10;
+
+    private static Moods run(double[] eeg, double alpha, double beta) {
+        MoodEngine engine = new MoodEngine(TICKS);
+        engine.receiveSample(SampleKind.EEG, 0, eeg);
+        engine.receiveSample(SampleKind.ALPHA_ABSOLUTE, 0, new double[]{alpha, alpha, alpha, alpha, 0, 0});
+        engine.receiveSample(SampleKind.BETA_ABSOLUTE, 0, new double[]{beta, beta, beta, beta, 0, 0});
+        for (int i = 0; i < TICKS; i++) {
+            engine.tick();
+        }
+        return engine.decide();
+    }
+
+    @Test
+    public void quadrants() throws Exception {
+        double[] rightHeavy = {0, 0, 400, 400, 0, 0};
+        double[] leftHeavy = {400, 400, 0, 0, 0, 0};
+        assertEquals(Moods.HAPPY, run(rightHeavy, 0.2, 0.8));
+        assertEquals(Moods.ANGRY, run(leftHeavy, 0.2, 0.8));
+        assertEquals(Moods.RELAXED, run(rightHeavy, 0.8, 0.2));
+        assertEquals(Moods.SAD, run(leftHeavy, 0.8, 0.2));
+        assertEquals(Moods.NEUTRAL, run(new double[6], 0.5, 0.5));
+    }
+
+    @Test
+    public void averageIgnoresChannelsWithoutContact() throws Exception {
+        assertEquals(2.0, MoodEngine.getAvg(1, 3, 0, -1), 1e-9);
+        assertEquals(0.0, MoodEngine.getAvg(0, 0), 1e-9);
+    }
+
+    @Test
+    public void spectrumFeedsAlphaFeatures() throws Exception {
+        MoodEngine engine = new MoodEngine(TICKS);
+        engine.setEegSpectrum(CrossSpectrum.forAlpha(256));
+        double[] eeg = new double[6];
+        for (int n = 0; n < 10 * 256; n++) {
+            double alpha = Math.sin(2 * Math.PI * 10 * n / 256);
+            eeg[CrossSpectrum.AF7] = 10 * alpha;
+            eeg[CrossSpectrum.AF8] = 20 * alpha;
+            engine.receiveSample(SampleKind.EEG, n, eeg);
+        }
+        engine.tick();
+        engine.decide();
+        assertEquals(Math.log(4), engine.getFeature(MoodFeatures.ALPHA_ASYMMETRY), 1e-6);
+        assertEquals(1, engine.getFeature(MoodFeatures.FRONTAL_COHERENCE), 1e-6);
+        assertEquals(0, engine.getFeature(MoodFeatures.TEMPORAL_COHERENCE), 1e-9);
+    }
+
+    @Test
+    public void skipsWindowsContaminatedByArtifacts() throws Exception {
+        MoodEngine engine = new MoodEngine(TICKS);
+        engine.receiveSample(SampleKind.EEG, 0, new double[]{0, 0, 400, 400, 0, 0});
+        engine.receiveSample(SampleKind.ALPHA_ABSOLUTE, 0, new double[]{0.2, 0.2, 0.2, 0.2, 0, 0});
+        engine.receiveSample(SampleKind.BETA_ABSOLUTE, 0, new double[]{0.8, 0.8, 0.8, 0.8, 0, 0});
+        engine.tick();
+
+        // A blink: the left-heavy EEG that comes with it is not used.
+        engine.receiveSample(SampleKind.ARTIFACTS, 1000, new double[]{1, 1, 0});
+        engine.receiveSample(SampleKind.EEG, 1000, new double[]{400, 400, 0, 0, 0, 0});
+        engine.tick();
+        engine.tick();
+        assertEquals(Moods.HAPPY, engine.decide());
+        assertEquals(0.1, engine.getSignalQuality(), 1e-9);
+
+        // A head movement rejects the whole next interval; the mood stands.
+        engine.receiveSample(SampleKind.ACCELEROMETER, 500000, new double[]{0, 0, 1});
+        engine.receiveSample(SampleKind.ACCELEROMETER, 600000, new double[]{0.5, 0, 1});
+        engine.receiveSample(SampleKind.EEG, 600000, new double[]{400, 400, 0, 0, 0, 0});
+        engine.tick();
+        assertEquals(Moods.HAPPY, engine.decide());
+        assertEquals(0, engine.getSignalQuality(), 1e-9);
+
+        engine.receiveSample(SampleKind.EEG, 2000000, new double[]{400, 400, 0, 0, 0, 0});
+        engine.tick();
+        engine.tick();
+        engine.tick();
+        assertEquals(Moods.ANGRY, engine.decide());
+        assertEquals(3, engine.getProcessedWindows());
+        assertEquals(4, engine.getRejectedWindows());
+    }
+
+    @Test
+    public void longHopsOnlyCheckTheSampledWindow() {
+        MoodEngine engine = new MoodEngine(TICKS);
+        engine.receiveSample(SampleKind.ALPHA_ABSOLUTE, 0, new double[]{0.2, 0.2, 0.2, 0.2, 0, 0});
+        engine.tick();
+
+        // Ticks 5s apart, as in SAVER: a blink early in the hop is long over
+        // by the time the band powers are sampled.
+        engine.receiveSample(SampleKind.ARTIFACTS, 1000000, new double[]{1, 1, 0});
+        engine.receiveSample(SampleKind.ALPHA_ABSOLUTE, 5000000, new double[]{0.2, 0.2, 0.2, 0.2, 0, 0});
+        engine.tick();
+        assertEquals(0, engine.getRejectedWindows());
+
+        // One within the last second is not.
+        engine.receiveSample(SampleKind.ARTIFACTS, 9500000, new double[]{1, 1, 0});
+        engine.receiveSample(SampleKind.ALPHA_ABSOLUTE, 10000000, new double[]{0.2, 0.2, 0.2, 0.2, 0, 0});
+        engine.tick();
+        assertEquals(2, engine.getProcessedWindows());
+        assertEquals(1, engine.getRejectedWindows());
+    }
+}
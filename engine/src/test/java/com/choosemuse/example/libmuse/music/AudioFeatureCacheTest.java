@@ -0,0 +1,66 @@
+package com.choosemuse.example.libmuse.music;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class AudioFeatureCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void fetchesMissingTracksInBatches() throws Exception {
+        StubWebApi api = new StubWebApi();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            api.add("t" + i, i / 250f, 0.5f);
+            ids.add("t" + i);
+        }
+        ids.add("unknown");
+        AudioFeatureCache cache = new AudioFeatureCache(api, 1000);
+
+        List<AudioFeatures> first = cache.getAll(ids);
+        assertEquals(250, first.size());
+        assertEquals("t0", first.get(0).getTrackId());
+        assertEquals(Arrays.asList(100, 100, 51), api.batchSizes);
+
+        // Only the unknown id is asked for again.
+        cache.getAll(ids);
+        assertEquals(Arrays.asList(100, 100, 51, 1), api.batchSizes);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedAndPersistsOrder() throws Exception {
+        StubWebApi api = new StubWebApi();
+        api.add("a", 0, 0);
+        api.add("b", 0, 0);
+        api.add("c", 0, 0);
+        AudioFeatureCache cache = new AudioFeatureCache(api, 2);
+        cache.getAll(Arrays.asList("a", "b"));
+        cache.peek("a");
+        cache.getAll(Arrays.asList("c"));
+        assertNull(cache.peek("b"));
+        assertNotNull(cache.peek("a"));
+
+        File file = new File(folder.getRoot(), "features.bin");
+        cache.save(file);
+        AudioFeatureCache restored = new AudioFeatureCache(api, 2);
+        restored.load(file);
+        assertEquals(2, restored.size());
+        // "a" was peeked after "c" was added, so "c" goes first.
+        restored.getAll(Arrays.asList("b"));
+        assertNull(restored.peek("c"));
+        assertNotNull(restored.peek("a"));
+        assertEquals(1, restored.getRequests());
+    }
+}
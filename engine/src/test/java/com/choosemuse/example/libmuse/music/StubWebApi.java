@@ -0,0 +1,37 @@
+package com.choosemuse.example.libmuse.music;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stands in for the Web API audio-features endpoint: answers from an in-memory
+ * catalog, rejects oversized batches like the real endpoint and counts calls.
+ */
+class StubWebApi implements AudioFeatureSource {
+
+    final Map<String, AudioFeatures> catalog = new HashMap<>();
+    final List<Integer> batchSizes = new ArrayList<>();
+
+    void add(String id, float valence, float energy) {
+        catalog.put(id, new AudioFeatures(id, valence, energy, 120));
+    }
+
+    @Override
+    public List<AudioFeatures> fetch(List<String> trackIds) throws IOException {
+        if (trackIds.size() > MAX_BATCH) {
+            throw new IOException("400 too many ids");
+        }
+        batchSizes.add(trackIds.size());
+        List<AudioFeatures> out = new ArrayList<>();
+        for (String id : trackIds) {
+            AudioFeatures f = catalog.get(id);
+            if (f != null) {
+                out.add(f);
+            }
+        }
+        return out;
+    }
+}
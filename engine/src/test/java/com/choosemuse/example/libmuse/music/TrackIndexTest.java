@@ -0,0 +1,57 @@
+package com.choosemuse.example.libmuse.music;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TrackIndexTest {
+
+    @Test
+    public void matchesLinearScan() {
+        Random random = new Random(42);
+        List<AudioFeatures> catalog = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            catalog.add(new AudioFeatures("t" + i, random.nextFloat(), random.nextFloat(), 120));
+        }
+        TrackIndex index = new TrackIndex(catalog);
+        AudioFeatures[] out = new AudioFeatures[5];
+        for (int q = 0; q < 500; q++) {
+            double v = random.nextDouble();
+            double e = random.nextDouble();
+            assertEquals(5, index.nearest(v, e, out));
+            double previous = -1;
+            for (AudioFeatures f : out) {
+                double d = distance(f, v, e);
+                assertEquals(true, d >= previous);
+                previous = d;
+            }
+            assertEquals(distance(scan(catalog, v, e), v, e), distance(out[0], v, e), 0);
+        }
+    }
+
+    @Test
+    public void emptyIndexFindsNothing() {
+        assertNull(new TrackIndex(new ArrayList<AudioFeatures>()).nearest(0.5, 0.5));
+    }
+
+    private static AudioFeatures scan(List<AudioFeatures> catalog, double v, double e) {
+        AudioFeatures best = null;
+        for (AudioFeatures f : catalog) {
+            if (best == null || distance(f, v, e) < distance(best, v, e)) {
+                best = f;
+            }
+        }
+        return best;
+    }
+
+    private static double distance(AudioFeatures f, double v, double e) {
+        double dv = v - f.getValence();
+        double de = e - f.getEnergy();
+        return dv * dv + de * de;
+    }
+}
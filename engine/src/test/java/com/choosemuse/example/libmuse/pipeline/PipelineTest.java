@@ -0,0 +1,199 @@
+package com.choosemuse.example.libmuse.pipeline;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PipelineTest {
+
+    /**
+     * Runs every drain on the calling thread, so a test sees the whole graph
+     * settled as soon as push() returns.
+     */
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Records the timestamp of every block it sees and throws on those at or
+     * after failFrom.
+     */
+    private static final class Recorder extends Stage {
+        final List<Long> seen = new ArrayList<>();
+        long failFrom = Long.MAX_VALUE;
+
+        Recorder(String name) {
+            super(name);
+        }
+
+        @Override
+        protected void process(SampleBlock block) {
+            seen.add(block.getTimestamp());
+            if (block.getTimestamp() >= failFrom) {
+                throw new IllegalStateException("bad block " + block.getTimestamp());
+            }
+        }
+    }
+
+    private static SampleBlock block(BlockPool pool, long timestamp) {
+        SampleBlock b = pool.acquire();
+        b.setTimestamp(timestamp);
+        b.setFrames(1);
+        return b;
+    }
+
+    /**
+     * Forwards its input unchanged to every connected stage.
+     */
+    private static Stage forward(String name) {
+        return new Stage(name) {
+            @Override
+            protected void process(SampleBlock block) {
+                block.retain();
+                emit(block);
+            }
+        };
+    }
+
+    @Test
+    public void blocksReturnToThePoolOnTheLastRelease() {
+        BlockPool pool = new BlockPool(2, 4, 1);
+        SampleBlock b = pool.acquire();
+        b.retain();
+        b.release();
+        // Still held once, so the pool has to allocate.
+        SampleBlock other = pool.acquire();
+        assertEquals(2, pool.getAllocations());
+        b.release();
+        // The pool keeps one block, so the other is left to the GC.
+        other.release();
+        assertSame(b, pool.acquire());
+        assertEquals(0, b.getFrames());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void releasingTooOftenFails() {
+        SampleBlock b = new BlockPool(1, 1, 1).acquire();
+        b.release();
+        b.release();
+    }
+
+    @Test
+    public void poolGrowsWhenDryAndKeepsAtMostMaxIdle() {
+        BlockPool pool = new BlockPool(1, 4, 2);
+        SampleBlock[] held = new SampleBlock[3];
+        for (int i = 0; i < held.length; i++) {
+            held[i] = pool.acquire();
+        }
+        assertEquals(3, pool.getAllocations());
+        for (SampleBlock b : held) {
+            b.release();
+        }
+        // Only two were kept, so the third acquire allocates again.
+        for (int i = 0; i < held.length; i++) {
+            held[i] = pool.acquire();
+        }
+        assertEquals(4, pool.getAllocations());
+    }
+
+    @Test
+    public void fanOutSharesOneBlockAndRecyclesIt() {
+        Pipeline p = new Pipeline(DIRECT);
+        Stage split = p.add(forward("split"));
+        Recorder a = p.add(new Recorder("a"));
+        Recorder b = p.add(new Recorder("b"));
+        Stage unconnected = p.add(forward("unconnected"));
+        p.connect(split, a);
+        p.connect(split, b);
+        BlockPool pool = new BlockPool(1, 4, 1);
+        for (long t = 1; t <= 100; t++) {
+            p.push(split, block(pool, t));
+            p.push(unconnected, block(pool, -t));
+        }
+
+        assertEquals(100, a.seen.size());
+        assertEquals(100, b.seen.size());
+        assertEquals(Long.valueOf(100), b.seen.get(99));
+        // Every block came back once both outputs, or none, were done with it.
+        assertEquals(1, pool.getAllocations());
+    }
+
+    @Test
+    public void failingBlocksAreCountedAndSkipped() {
+        Pipeline p = new Pipeline(DIRECT);
+        Recorder r = p.add(new Recorder("recorder"));
+        r.failFrom = 2;
+        BlockPool pool = new BlockPool(1, 4, 2);
+        for (long t = 1; t <= 3; t++) {
+            p.push(r, block(pool, t));
+        }
+        r.failFrom = Long.MAX_VALUE;
+        p.push(r, block(pool, 4));
+
+        assertEquals(4, r.seen.size());
+        assertEquals(4, r.getBlocksIn());
+        assertEquals(2, r.getFailures());
+        assertEquals("bad block 3", r.getLastFailure().getMessage());
+        assertTrue(p.report().contains("failures=2"));
+        // Failed blocks still went back to the pool.
+        assertEquals(2, pool.getAllocations());
+    }
+
+    @Test
+    public void blocksPushedAfterShutdownAreDropped() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Pipeline p = new Pipeline(executor);
+        Recorder r = p.add(new Recorder("recorder"));
+        BlockPool pool = new BlockPool(1, 4, 1);
+        p.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+        p.push(r, block(pool, 1));
+        p.push(r, block(pool, 2));
+        assertEquals(0, r.seen.size());
+        assertEquals(2, r.getDropped());
+        assertTrue(p.report().contains("dropped=2"));
+        // Both went back to the pool, so it never had to grow.
+        assertEquals(1, pool.getAllocations());
+    }
+
+    @Test
+    public void closingFlushesThePartialBlockBeforeShutdown() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Pipeline p = new Pipeline(executor);
+        Recorder last = p.add(new Recorder("last"));
+        // Forwards its input so the block also has to cross the second stage.
+        Stage forward = p.add(new Stage("forward") {
+            @Override
+            protected void process(SampleBlock block) {
+                block.retain();
+                emit(block);
+            }
+        });
+        p.connect(forward, last);
+        FrameAccumulator frames = new FrameAccumulator(p, forward, new BlockPool(1, 4, 2), 100);
+        for (int i = 0; i < 6; i++) {
+            frames.add(1000 + i, new double[]{i});
+        }
+        frames.close();
+        frames.add(2000, new double[]{0});
+
+        assertTrue(p.awaitIdle(1000));
+        p.shutdown();
+        assertEquals(2, last.getBlocksIn());
+        assertEquals(6, last.getFramesIn());
+        assertEquals(0, last.getDropped());
+    }
+}
@@ -0,0 +1,106 @@
+package com.choosemuse.example.libmuse.power;
+
+import com.choosemuse.example.libmuse.analysis.SampleKind;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PowerGovernorTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    @Test
+    public void staysFullWithoutReadings() {
+        PowerGovernor g = new PowerGovernor(120 * MINUTE);
+        g.start(0);
+        assertFalse(g.update(60 * MINUTE));
+        assertEquals(PowerMode.FULL, g.getMode());
+        assertEquals(-1, g.getPhoneRemainingMillis());
+    }
+
+    @Test
+    public void lowLevelsSetAFloor() {
+        PowerGovernor g = new PowerGovernor(120 * MINUTE);
+        g.start(0);
+        g.setPhoneLevel(30, false);
+        assertTrue(g.update(MINUTE));
+        assertEquals(PowerMode.BALANCED, g.getMode());
+        assertEquals("phone at 30% (low)", g.getReason());
+
+        g.setHeadbandLevel(12);
+        assertTrue(g.update(2 * MINUTE));
+        assertEquals(PowerMode.SAVER, g.getMode());
+        assertEquals("headband at 12% (critical)", g.getReason());
+
+        // Charging the phone does not help the headband.
+        g.setPhoneLevel(30, true);
+        assertFalse(g.update(3 * MINUTE));
+        g.setHeadbandLevel(100);
+        assertTrue(g.update(4 * MINUTE));
+        assertEquals(PowerMode.FULL, g.getMode());
+        assertEquals("headband at 100% (charged)", g.getReason());
+    }
+
+    @Test
+    public void stepsOnTheProjectedDrain() {
+        PowerGovernor g = new PowerGovernor(120 * MINUTE);
+        g.start(0);
+        g.setHeadbandLevel(80);
+        assertFalse(g.update(0));
+        g.setHeadbandLevel(75);
+        assertFalse(g.update(4 * MINUTE));
+
+        // 5% in 5 minutes lasts 75 more minutes, not the 115 left.
+        assertTrue(g.update(5 * MINUTE));
+        assertEquals(PowerMode.BALANCED, g.getMode());
+        assertEquals("headband at 75% (lasts 75 min of 115 min left)", g.getReason());
+
+        // The drain is measured afresh in the new mode before stepping again.
+        g.setHeadbandLevel(74.4);
+        assertFalse(g.update(9 * MINUTE));
+        assertTrue(g.update(10 * MINUTE));
+        assertEquals(PowerMode.FULL, g.getMode());
+        assertEquals("headband at 74% (lasts 620 min, 110 min left)", g.getReason());
+    }
+
+    @Test
+    public void smallRisesDoNotCountAsCharging() {
+        PowerGovernor g = new PowerGovernor(120 * MINUTE);
+        g.start(0);
+        g.setHeadbandLevel(80);
+        assertFalse(g.update(0));
+        g.setHeadbandLevel(75);
+        assertTrue(g.update(5 * MINUTE));
+        assertEquals(PowerMode.BALANCED, g.getMode());
+
+        // The reading jitters back up; the step down stands.
+        g.setHeadbandLevel(75.1);
+        assertFalse(g.update(6 * MINUTE));
+        assertEquals(PowerMode.BALANCED, g.getMode());
+
+        g.setHeadbandLevel(80.1);
+        assertTrue(g.update(7 * MINUTE));
+        assertEquals(PowerMode.FULL, g.getMode());
+        assertEquals("headband at 80% (charged)", g.getReason());
+    }
+
+    @Test
+    public void modesTradeDetailForBattery() {
+        assertTrue(PowerMode.FULL.isSubscribed(SampleKind.QUANTIZATION));
+        assertFalse(PowerMode.BALANCED.isSubscribed(SampleKind.DRL_REF));
+        assertFalse(PowerMode.SAVER.isSubscribed(SampleKind.ACCELEROMETER));
+        assertTrue(PowerMode.SAVER.isSubscribed(SampleKind.EEG));
+        assertEquals(PowerMode.SAVER, PowerMode.SAVER.lower());
+        assertEquals(PowerMode.FULL, PowerMode.BALANCED.higher());
+        // Every mode records the whole EEG stream, at most at a lower rate.
+        for (PowerMode mode : PowerMode.values()) {
+            assertTrue(mode.getRecordEegDecimation() >= 1);
+        }
+        assertEquals(1, PowerMode.FULL.getRecordEegDecimation());
+        assertEquals("analysis every 2000ms, UI every 2000ms, EEG recorded at 1/2 rate,"
+                + " not streaming [DRL_REF, QUANTIZATION]", PowerMode.BALANCED.describe());
+    }
+}
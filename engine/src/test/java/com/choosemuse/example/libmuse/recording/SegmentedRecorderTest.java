@@ -0,0 +1,123 @@
+package com.choosemuse.example.libmuse.recording;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentedRecorderTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class ByteWriter implements SegmentWriter {
+        final FileOutputStream out;
+        long size;
+
+        ByteWriter(File file) throws IOException {
+            out = new FileOutputStream(file);
+        }
+
+        void write(int n) throws IOException {
+            out.write(new byte[n]);
+            size += n;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static final SegmentWriterFactory<ByteWriter> FACTORY = new SegmentWriterFactory<ByteWriter>() {
+        @Override
+        public ByteWriter create(File file) throws IOException {
+            return new ByteWriter(file);
+        }
+    };
+
+    @Test
+    public void rotatesOnTimeAndSizeAndWritesManifest() throws Exception {
+        File root = folder.getRoot();
+        long t = 1000000;
+        SegmentedRecorder<ByteWriter> r = new SegmentedRecorder<>(root, t, FACTORY, ".bin",
+                10 * MINUTE, 1000, null);
+
+        // Size: 600 bytes per second rolls over after two seconds.
+        for (int s = 0; s < 3; s++) {
+            r.writer(t + s * 1000).write(600);
+        }
+        assertEquals(2, r.getSegmentCount());
+        // Time: ten quiet minutes later the next write starts segment 2.
+        r.writer(t + 2000 + 10 * MINUTE).write(1);
+        assertEquals(3, r.getSegmentCount());
+        r.closeSegment(t + 2001 + 10 * MINUTE);
+
+        List<String> manifest = Files.readAllLines(
+                new File(r.getSessionDir(), SegmentedRecorder.MANIFEST).toPath(), Charset.forName("UTF-8"));
+        assertEquals(4, manifest.size());
+        assertEquals("session " + t, manifest.get(0));
+        assertEquals("segment-0000.bin " + t + " " + (t + 2000) + " 1200", manifest.get(1));
+        assertEquals("segment-0001.bin " + (t + 2000) + " " + (t + 2000 + 10 * MINUTE) + " 600",
+                manifest.get(2));
+        assertTrue(manifest.get(3).startsWith("segment-0002.bin "));
+    }
+
+    @Test
+    public void retentionDeletesOldAndExcessSessions() throws Exception {
+        File root = folder.getRoot();
+        long now = System.currentTimeMillis();
+        File old = session(root, "old", 10, now - 100 * MINUTE);
+        File big1 = session(root, "big1", 600, now - 3 * MINUTE);
+        File big2 = session(root, "big2", 600, now - 2 * MINUTE);
+        File unrelated = new File(root, "unrelated");
+        assertTrue(unrelated.mkdir());
+        assertTrue(new File(unrelated, "x").createNewFile());
+        assertTrue(new File(unrelated, "x").setLastModified(now - 100 * MINUTE));
+
+        SegmentedRecorder<ByteWriter> r = new SegmentedRecorder<>(root, now, FACTORY, ".bin",
+                MINUTE, 1 << 20, new RetentionPolicy(60 * MINUTE, 1000));
+
+        assertFalse(old.exists());
+        assertFalse(big1.exists());
+        assertTrue(big2.exists());
+        assertTrue(unrelated.exists());
+        // Nothing is created until the first segment opens.
+        assertNull(r.getSessionDir());
+        assertEquals(2, root.list().length);
+        r.writer(now).write(1);
+        assertTrue(r.getSessionDir().exists());
+    }
+
+    private static File session(File root, String name, int bytes, long modified) throws IOException {
+        File dir = new File(root, name);
+        assertTrue(dir.mkdir());
+        File manifest = new File(dir, SegmentedRecorder.MANIFEST);
+        File segment = new File(dir, "segment-0000.bin");
+        FileOutputStream out = new FileOutputStream(segment);
+        out.write(new byte[bytes]);
+        out.close();
+        assertTrue(manifest.createNewFile());
+        assertTrue(manifest.setLastModified(modified));
+        assertTrue(segment.setLastModified(modified));
+        return dir;
+    }
+}
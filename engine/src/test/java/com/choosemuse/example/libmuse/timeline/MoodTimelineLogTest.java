@@ -0,0 +1,175 @@
+package com.choosemuse.example.libmuse.timeline;
+
+import com.choosemuse.example.libmuse.mood.Moods;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MoodTimelineLogTest {
+
+    private static final long SECOND = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<RollupBucket> query(MoodTimelineLog log, Resolution r, long from, long to)
+            throws IOException {
+        List<RollupBucket> out = new ArrayList<>();
+        log.query(r, from, to, out);
+        return out;
+    }
+
+    @Test
+    public void recordsSpanSeveralMapsAndSurviveReopening() throws Exception {
+        File dir = folder.newFolder("records");
+        File path = new File(dir, "test.records");
+        // More than one chunk, so records land in a second map.
+        final int n = 20000;
+        MappedRecordFile f = new MappedRecordFile(path, 0x54455354, 16);
+        for (int i = 0; i < n; i++) {
+            f.buffer(i).putLong(f.offset(i), i * 3L);
+            f.commit();
+        }
+        f.setMark(1234);
+        f.force();
+        f.close();
+
+        f = new MappedRecordFile(path, 0x54455354, 16);
+        assertEquals(n, f.size());
+        assertEquals(1234, f.getMark());
+        assertEquals(3L * (n - 1), f.buffer(n - 1).getLong(f.offset(n - 1)));
+        assertEquals(3L * 16384, f.buffer(16384).getLong(f.offset(16384)));
+        f.close();
+
+        try {
+            new MappedRecordFile(path, 0x54455354, 32);
+            fail("opened with another record size");
+        } catch (IOException expected) {
+            // The record size is part of the header.
+        }
+    }
+
+    @Test
+    public void appendsAndSearchesDecisions() throws Exception {
+        MoodTimelineLog log = new MoodTimelineLog(folder.newFolder("appends"));
+        log.append(1000, Moods.HAPPY, 0.9f, 20, 3, "4uLU6hMCjMI75M1A2tKUQC");
+        log.append(2000, Moods.SAD, 0.5f, -20, -3, null);
+        log.append(2000, Moods.SAD, 0.5f, -20, -3, "averyveryverylongtrackidthatistruncated");
+
+        MoodEntry e = new MoodEntry();
+        log.read(0, e);
+        assertEquals(1000, e.timestamp);
+        assertEquals(Moods.HAPPY, e.mood);
+        assertEquals(20, e.arousal, 0);
+        assertEquals("4uLU6hMCjMI75M1A2tKUQC", e.trackId);
+        log.read(1, e);
+        assertNull(e.trackId);
+        log.read(2, e);
+        assertEquals("averyveryverylongtrackid", e.trackId);
+
+        assertEquals(0, log.indexOf(0));
+        assertEquals(1, log.indexOf(1500));
+        assertEquals(1, log.indexOf(2000));
+        assertEquals(3, log.indexOf(5000));
+        log.close();
+    }
+
+    @Test
+    public void rollsUpClosedBucketsOnly() throws Exception {
+        MoodTimelineLog log = new MoodTimelineLog(folder.newFolder("rollups"));
+        // Two decisions per ten second bucket over one minute, then one more.
+        for (long t = 0; t < 60 * SECOND; t += 5 * SECOND) {
+            log.append(t, t % (20 * SECOND) == 0 ? Moods.HAPPY : Moods.RELAXED, 0.5f, t / SECOND, 0, null);
+        }
+        log.append(60 * SECOND, Moods.ANGRY, 1, 0, 0, null);
+        log.rollup();
+
+        List<RollupBucket> tens = query(log, Resolution.TEN_SECONDS, 0, Long.MAX_VALUE);
+        assertEquals(6, tens.size());
+        assertEquals(10 * SECOND, tens.get(1).start);
+        assertEquals(2, tens.get(1).count);
+        assertEquals(12.5, tens.get(1).meanArousal, 1e-6);
+        assertEquals(Moods.HAPPY, tens.get(0).getDominantMood());
+        assertEquals(1, tens.get(0).moodCounts[Moods.RELAXED.ordinal()]);
+
+        // The open bucket at 60s is not written yet, nor is the first minute.
+        assertEquals(1, query(log, Resolution.ONE_MINUTE, 0, Long.MAX_VALUE).size());
+        assertEquals(0, query(log, Resolution.TEN_MINUTES, 0, Long.MAX_VALUE).size());
+
+        // Range queries cover from <= start < to.
+        List<RollupBucket> range = query(log, Resolution.TEN_SECONDS, 15 * SECOND, 40 * SECOND);
+        assertEquals(2, range.size());
+        assertEquals(20 * SECOND, range.get(0).start);
+        assertEquals(30 * SECOND, range.get(1).start);
+
+        // The first minute summed from its ten second buckets.
+        RollupBucket minute = log.summarize(Resolution.TEN_SECONDS, 0, 60 * SECOND);
+        assertEquals(0, minute.start);
+        assertEquals(12, minute.count);
+        assertEquals(3, minute.moodCounts[Moods.HAPPY.ordinal()]);
+        assertEquals(Moods.RELAXED, minute.getDominantMood());
+        assertEquals(27.5, minute.meanArousal, 1e-5);
+        assertEquals(0, log.summarize(Resolution.TEN_MINUTES, 0, Long.MAX_VALUE).count);
+        log.close();
+    }
+
+    @Test
+    public void resumesRollupsAfterRestart() throws Exception {
+        File dir = folder.newFolder("restart");
+        MoodTimelineLog log = new MoodTimelineLog(dir);
+        log.append(0, Moods.HAPPY, 1, 0, 0, null);
+        log.append(5 * SECOND, Moods.HAPPY, 1, 0, 0, null);
+        log.append(10 * SECOND, Moods.SAD, 1, 0, 0, null);
+        log.close();
+
+        // The open bucket at 10s is rebuilt from the raw log.
+        log = new MoodTimelineLog(dir);
+        log.append(15 * SECOND, Moods.SAD, 1, 0, 0, null);
+        log.append(20 * SECOND, Moods.ANGRY, 1, 0, 0, null);
+        log.rollup();
+        List<RollupBucket> tens = query(log, Resolution.TEN_SECONDS, 0, Long.MAX_VALUE);
+        assertEquals(2, tens.size());
+        assertEquals(2, tens.get(0).count);
+        assertEquals(2, tens.get(1).count);
+        assertEquals(Moods.SAD, tens.get(1).getDominantMood());
+        log.close();
+    }
+
+    @Test
+    public void bucketsAreNotWrittenTwiceAfterACrash() throws Exception {
+        File dir = folder.newFolder("crash");
+        MoodTimelineLog log = new MoodTimelineLog(dir);
+        log.append(0, Moods.HAPPY, 1, 0, 0, null);
+        log.append(10 * SECOND, Moods.SAD, 1, 0, 0, null);
+        log.close();
+
+        // As if the process died after writing the first bucket but before
+        // moving the mark past its entries.
+        MappedRecordFile tier = new MappedRecordFile(new File(dir, "moods.ten_seconds.rollup"),
+                0x4d545231, 48);
+        assertEquals(1, tier.size());
+        assertTrue(tier.getMark() > 0);
+        tier.setMark(0);
+        tier.close();
+
+        log = new MoodTimelineLog(dir);
+        log.append(20 * SECOND, Moods.ANGRY, 1, 0, 0, null);
+        log.rollup();
+        List<RollupBucket> tens = query(log, Resolution.TEN_SECONDS, 0, Long.MAX_VALUE);
+        assertEquals(2, tens.size());
+        assertEquals(0, tens.get(0).start);
+        assertEquals(10 * SECOND, tens.get(1).start);
+        log.close();
+    }
+}
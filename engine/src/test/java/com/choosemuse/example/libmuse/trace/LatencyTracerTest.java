@@ -0,0 +1,113 @@
+package com.choosemuse.example.libmuse.trace;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyTracerTest {
+
+    /**
+     * Remembers the spans and checks sections are properly nested.
+     */
+    private static class RecordingSink implements TraceSink {
+        final List<String> spans = new ArrayList<>();
+        int depth;
+
+        @Override
+        public void beginSection(String name) {
+            depth++;
+        }
+
+        @Override
+        public void endSection() {
+            assertTrue(depth > 0);
+            depth--;
+        }
+
+        @Override
+        public void span(String stage, long tag, long startNanos, long endNanos) {
+            assertTrue(endNanos >= startNanos);
+            spans.add(stage + "@" + tag);
+        }
+    }
+
+    private static String[] packetLine(LatencyTracer tracer) {
+        return tracer.report().split("\r?\n")[1].trim().split(" +");
+    }
+
+    @Test
+    public void histogramPercentilesAreWithinBucketResolution() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1; v <= 100000; v++) {
+            h.record(v * 1000);
+        }
+        assertEquals(100000, h.getCount());
+        assertEquals(100000000, h.getMax());
+        assertEquals(50e6, h.percentile(0.5), 50e6 * 0.07);
+        assertEquals(99e6, h.percentile(0.99), 99e6 * 0.07);
+        assertEquals(h.getMax(), h.percentile(1));
+        assertTrue(LatencyHistogram.upperBound(LatencyHistogram.bucket(Long.MAX_VALUE)) > 0);
+    }
+
+    @Test
+    public void followsTagsThroughEveryStage() throws InterruptedException {
+        RecordingSink sink = new RecordingSink();
+        LatencyTracer tracer = new LatencyTracer(sink, "packet", "tick", "decide");
+        for (long t = 0; t < 50; t++) {
+            tracer.begin(0);
+            tracer.end(0, t * 1000);
+        }
+        Thread.sleep(5);
+        tracer.begin(1);
+        tracer.end(1, 49000);
+        // A later stage may work on an item between two tags of the previous one.
+        tracer.begin(2);
+        tracer.end(2, 49500);
+        assertEquals(0, sink.depth);
+
+        assertEquals(1, tracer.getLatency(1).getCount());
+        assertTrue(tracer.getLatency(1).getMax() >= 5000000);
+        LatencyHistogram total = tracer.getEndToEnd();
+        assertEquals(1, total.getCount());
+        assertTrue(total.getMax() >= tracer.getLatency(1).getMax());
+        assertEquals("decide@49500", sink.spans.get(sink.spans.size() - 1));
+    }
+
+    @Test
+    public void firstStageRecordsTheTimeBetweenBeginAndEnd() throws InterruptedException {
+        LatencyTracer tracer = new LatencyTracer(TraceSink.NONE, "packet", "tick");
+        tracer.begin(0);
+        Thread.sleep(2);
+        tracer.end(0, 1000);
+        assertEquals(1, tracer.getLatency(0).getCount());
+        assertTrue(tracer.getLatency(0).getMax() >= 2000000);
+
+        // The end to end latency starts when the packet handler began.
+        tracer.mark(1, 1000);
+        assertTrue(tracer.getEndToEnd().getMax() >= tracer.getLatency(0).getMax());
+        // So the report shows percentiles for it, not just a count.
+        assertEquals(6, packetLine(tracer).length);
+
+        // Plain marks of the first stage only count.
+        tracer.reset();
+        tracer.mark(0, 2000);
+        assertEquals(0, tracer.getLatency(0).getCount());
+        assertEquals(2, packetLine(tracer).length);
+    }
+
+    @Test
+    public void ignoresTagsThePreviousStageNeverSaw() {
+        LatencyTracer tracer = new LatencyTracer(TraceSink.NONE, "packet", "tick");
+        tracer.mark(0, 1000);
+        tracer.mark(1, 999);
+        assertEquals(0, tracer.getLatency(1).getCount());
+        tracer.mark(1, 1000);
+        assertEquals(1, tracer.getEndToEnd().getCount());
+        tracer.reset();
+        assertEquals(0, tracer.getEndToEnd().getCount());
+    }
+}
@@ -6,6 +6,8 @@ angular.module('museWebInterfaceApp').config(['$locationProvider', '$routeProvid
             template: '<about></about>'
         }).when('/choose-music', {
             template: '<choose-music></choose-music>'
+        }).when('/live', {
+            template: '<live></live>'
         }).when('/login', {
             template: '<login></login>'
         }).otherwise('/login');
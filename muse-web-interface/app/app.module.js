@@ -1 +1 @@
-angular.module('museWebInterfaceApp', ['ngRoute', 'ngAnimate', 'login', 'firebase', 'navBar', 'chooseMusic', 'about']);
\ No newline at end of file
+angular.module('museWebInterfaceApp', ['ngRoute', 'ngAnimate', 'login', 'firebase', 'navBar', 'chooseMusic', 'about', 'live']);
\ No newline at end of file
@@ -0,0 +1,30 @@
+// Evaluates the attribute's expression with the element's scrollTop as
+// `scrollTop` whenever it scrolls, at most once per animation frame, eg.
+// <div catalog-scroll="$ctrl.scrolled(scrollTop)">
+angular.module('chooseMusic').directive('catalogScroll', ['$parse', function ($parse) {
+    return {
+        restrict: 'A',
+        link: function (scope, element, attrs) {
+            var handler = $parse(attrs.catalogScroll);
+            var pending = false;
+
+            function onScroll() {
+                if (pending) {
+                    return;
+                }
+                pending = true;
+                window.requestAnimationFrame(function () {
+                    pending = false;
+                    scope.$apply(function () {
+                        handler(scope, {scrollTop: element[0].scrollTop});
+                    });
+                });
+            }
+
+            element.on('scroll', onScroll);
+            scope.$on('$destroy', function () {
+                element.off('scroll', onScroll);
+            });
+        }
+    };
+}]);
@@ -1,29 +1,207 @@
 angular.module('chooseMusic').component('chooseMusic', {
     templateUrl: 'choose-music/choose-music.template.html',
 
-    controller: ['$routeParams', '$route', '$firebaseObject', '$firebaseArray', function chooseMusicController($routeParams, $route, $firebaseObject, $firebaseArray) {
+    controller: ['$scope', function chooseMusicController($scope) {
         var self = this;
         var user = firebase.auth().currentUser;
         self.chooseMusicRef = firebase.database().ref().child("choose-music");
         // self.chooseMusicRef.set("hello");
 
-        self.happyMusicArray = $firebaseArray(self.chooseMusicRef.child("happy"));
-        self.sadMusicArray = $firebaseArray(self.chooseMusicRef.child("sad"));
-        self.angryMusicArray = $firebaseArray(self.chooseMusicRef.child("angry"));
-        self.relaxedMusicArray = $firebaseArray(self.chooseMusicRef.child("relaxed"));
-        self.neutralMusicArray = $firebaseArray(self.chooseMusicRef.child("neutral"));
+        // A mood's songs are only fetched once its tab is opened, PAGE_SIZE at a
+        // time in key order, and the next page only when the user scrolls near
+        // the end of what is loaded.  Only the rows in view plus OVERSCAN are
+        // rendered; spacers above and below give the scrollbar its full size.
+        //
+        // Each loaded page then watches its key range with child_added and
+        // child_removed, so songs added or deleted elsewhere, eg. in another
+        // tab, show up without a reload.  The ranges are contiguous and the last
+        // page's is open ended once the list is done; songs past a page still to
+        // be loaded turn up when paging reaches them.
+        var PAGE_SIZE = 50;
+        var OVERSCAN = 10;
+        self.rowHeight = 48;
+        self.viewportHeight = 480;
+        self.error = null;
 
+        self.moods = [
+            {key: 'happy', title: 'Happy'},
+            {key: 'sad', title: 'Sad'},
+            {key: 'angry', title: 'Angry'},
+            {key: 'relaxed', title: 'Relaxed'},
+            {key: 'neutral', title: 'Neutral'}
+        ];
+        self.lists = {};
+        self.newSongLinks = {};
+        self.moods.forEach(function (mood) {
+            self.lists[mood.key] = {
+                songs: [],
+                keys: {},
+                lastKey: null,
+                done: false,
+                loading: false,
+                scrollTop: 0,
+                visible: [],
+                padTop: 0,
+                padBottom: 0
+            };
+        });
+
+        // The queries whose listeners are detached when the view goes away.
+        var watched = [];
+        $scope.$on('$destroy', function () {
+            watched.forEach(function (query) {
+                query.off();
+            });
+        });
+
+        self.open = function (mood) {
+            self.active = mood;
+            var list = self.lists[mood];
+            // The tab's list is rendered afresh, scrolled to the top.
+            list.scrollTop = 0;
+            if (list.songs.length === 0 && !list.done) {
+                loadPage(mood);
+            }
+            updateWindow(list);
+        };
+
+        self.scrolled = function (scrollTop) {
+            var list = self.lists[self.active];
+            list.scrollTop = scrollTop;
+            updateWindow(list);
+            if (!list.done && !list.loading && list.visibleEnd + OVERSCAN >= list.songs.length) {
+                loadPage(self.active);
+            }
+        };
+
+        // The page watching the song's key shows it as soon as the write is
+        // made locally, and takes it out again if the database refuses it.
         self.addSong = function(songtype, songLink) {
           if (songLink && songLink.length > 0) {
-            self.chooseMusicRef.child(songtype).child(songLink.split('/')[songLink.split('/').length - 1]).set({
+            self.chooseMusicRef.child(songtype).child(songKey(songLink)).set({
               link: songLink
+            }).then(null, function (error) {
+              report("Could not add " + songLink + ": " + error.message);
             });
           }
         };
 
         self.deleteSong = function(songtype, songLink) {
-            self.chooseMusicRef.child(songtype).child(songLink.split('/')[songLink.split('/').length - 1]).set(null);
+            self.chooseMusicRef.child(songtype).child(songKey(songLink)).set(null).then(null, function (error) {
+                report("Could not delete " + songLink + ": " + error.message);
+            });
         };
 
+        function loadPage(mood) {
+            var list = self.lists[mood];
+            var from = list.lastKey;
+            list.loading = true;
+            // startAt is inclusive, so ask for one more and skip the last key we have.
+            var query = self.chooseMusicRef.child(mood).orderByKey();
+            query = from === null ? query.limitToFirst(PAGE_SIZE)
+                : query.startAt(from).limitToFirst(PAGE_SIZE + 1);
+            query.once('value', function (snapshot) {
+                var added = 0;
+                snapshot.forEach(function (child) {
+                    if (child.key !== from) {
+                        insert(list, child.key, child.val().link);
+                        list.lastKey = child.key;
+                        added++;
+                    }
+                });
+                list.done = added < PAGE_SIZE;
+                list.loading = false;
+                watch(mood, from, list.done ? null : list.lastKey);
+                $scope.$applyAsync(function () {
+                    updateWindow(list);
+                });
+            }, function (error) {
+                list.loading = false;
+                console.log("Could not load " + mood + ": " + error);
+            });
+        }
+
+        // Keeps the songs from from to to, both inclusive and either null for
+        // no bound, in sync.  The initial child_added events repeat the page
+        // just loaded and are skipped.
+        function watch(mood, from, to) {
+            var list = self.lists[mood];
+            var query = self.chooseMusicRef.child(mood).orderByKey();
+            if (from !== null) {
+                query = query.startAt(from);
+            }
+            if (to !== null) {
+                query = query.endAt(to);
+            }
+            query.on('child_added', function (child) {
+                if (!list.keys[child.key]) {
+                    $scope.$applyAsync(function () {
+                        insert(list, child.key, child.val().link);
+                        updateWindow(list);
+                    });
+                }
+            });
+            query.on('child_removed', function (child) {
+                $scope.$applyAsync(function () {
+                    remove(list, child.key);
+                    updateWindow(list);
+                });
+            });
+            watched.push(query);
+        }
+
+        function report(message) {
+            console.log(message);
+            $scope.$applyAsync(function () {
+                self.error = message;
+            });
+        }
+
+        function updateWindow(list) {
+            var count = list.songs.length;
+            var end = Math.min(count, Math.ceil((list.scrollTop + self.viewportHeight) / self.rowHeight) + OVERSCAN);
+            var first = Math.min(end, Math.max(0, Math.floor(list.scrollTop / self.rowHeight) - OVERSCAN));
+            list.visible = list.songs.slice(first, end);
+            list.visibleEnd = end;
+            list.padTop = first * self.rowHeight;
+            list.padBottom = (count - end) * self.rowHeight;
+        }
+
+        function insert(list, key, link) {
+            if (list.keys[key]) {
+                return;
+            }
+            list.keys[key] = true;
+            list.songs.splice(position(list, key), 0, {key: key, link: link});
+        }
+
+        function remove(list, key) {
+            if (!list.keys[key]) {
+                return;
+            }
+            delete list.keys[key];
+            list.songs.splice(position(list, key), 1);
+        }
+
+        // The index of key in the sorted songs, or where it would go.
+        function position(list, key) {
+            var lo = 0;
+            var hi = list.songs.length;
+            while (lo < hi) {
+                var mid = (lo + hi) >>> 1;
+                if (list.songs[mid].key < key) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        function songKey(songLink) {
+            return songLink.split('/')[songLink.split('/').length - 1];
+        }
+
+        self.open('happy');
     }]
 });
@@ -0,0 +1,245 @@
+angular.module('live').component('live', {
+    templateUrl: 'live/live.template.html',
+
+    controller: ['$scope', '$timeout', '$window', '$http', function liveController($scope, $timeout, $window, $http) {
+        var self = this;
+
+        // Frames come from the relay in server.js (see LiveFrame in the engine
+        // module for the layout); the relay only sends the signed-in user's
+        // own session and wants their Firebase ID token.  Each frame only updates the buffers; the
+        // canvases are redrawn once per animation frame and the text at most
+        // every TEXT_MILLIS, so a fast stream never backs up the page.
+        var MAGIC = 0x4d4c5631;
+        var HEADER_BYTES = 40;
+        var NO_VALUE = -32768;
+        var MOODS = ['Happy', 'Angry', 'Relaxed', 'Sad', 'Neutral'];
+        var CHANNELS_SHOWN = 4;
+        var CHANNEL_NAMES = ['TP9', 'AF7', 'AF8', 'TP10'];
+        var COLORS = ['#e91e63', '#2196f3', '#4caf50', '#ff9800'];
+        var WINDOW_SECONDS = 10;
+        var RETRY_MILLIS = 3000;
+        var TEXT_MILLIS = 500;
+
+        var socket = null;
+        var retry = null;
+        var animation = null;
+        var destroyed = false;
+        var eeg = null;
+        var eegRate = 0;
+        var write = 0;
+        var bands = {alpha: [], beta: []};
+        var lastSequence = -1;
+        var received = 0;
+        var textUpdate = null;
+        var latest = null;
+        var rateStart = Date.now();
+        var user = null;
+        var stopAuth = null;
+
+        self.connected = false;
+        self.frame = null;
+        self.framesPerSecond = 0;
+        self.framesMissed = 0;
+        self.signedIn = false;
+        self.publishUrl = null;
+
+        // Tokens expire after an hour, so every attempt asks for a fresh one.
+        function connect() {
+            if (!user || destroyed) {
+                return;
+            }
+            user.getToken().then(function (token) {
+                if (user && !destroyed && !socket) {
+                    open(token);
+                }
+            }, function () {
+                retry = $timeout(connect, RETRY_MILLIS);
+            });
+        }
+
+        function open(token) {
+            var scheme = $window.location.protocol === 'https:' ? 'wss://' : 'ws://';
+            socket = new WebSocket(scheme + $window.location.host + '/live/view?token=' + encodeURIComponent(token));
+            socket.binaryType = 'arraybuffer';
+            socket.onopen = function () {
+                $scope.$applyAsync(function () {
+                    self.connected = true;
+                });
+            };
+            socket.onmessage = function (event) {
+                receive(new DataView(event.data));
+            };
+            socket.onclose = function () {
+                socket = null;
+                $scope.$applyAsync(function () {
+                    self.connected = false;
+                });
+                if (!destroyed) {
+                    retry = $timeout(connect, RETRY_MILLIS);
+                }
+            };
+        }
+
+        // The app has no Firebase login; it publishes with this URL instead.
+        function fetchPublishUrl() {
+            user.getToken().then(function (token) {
+                return $http.get('/live/key', {headers: {Authorization: 'Bearer ' + token}});
+            }).then(function (response) {
+                self.publishUrl = response.data.publishUrl;
+            });
+        }
+
+        function receive(view) {
+            if (view.byteLength < HEADER_BYTES || view.getUint32(0) !== MAGIC) {
+                return;
+            }
+            var sequence = view.getUint32(4);
+            if (lastSequence >= 0 && sequence > lastSequence + 1) {
+                self.framesMissed += sequence - lastSequence - 1;
+            }
+            lastSequence = sequence;
+            received++;
+
+            var mood = view.getInt8(16);
+            var channels = view.getUint8(17);
+            var frames = view.getUint16(18);
+            var rate = view.getFloat32(32);
+            var lsb = view.getFloat32(36);
+            var offset = HEADER_BYTES;
+            for (var c = 0; c < channels; c++) {
+                bands.alpha[c] = view.getFloat32(offset + 4 * c);
+                bands.beta[c] = view.getFloat32(offset + 4 * (channels + c));
+            }
+            offset += 8 * channels;
+
+            if (!eeg || rate !== eegRate) {
+                eegRate = rate;
+                eeg = [];
+                for (c = 0; c < CHANNELS_SHOWN; c++) {
+                    eeg.push(new Float32Array(Math.max(1, Math.round(rate * WINDOW_SECONDS))).fill(NaN));
+                }
+                write = 0;
+            }
+            for (var f = 0; f < frames; f++) {
+                for (c = 0; c < Math.min(channels, CHANNELS_SHOWN); c++) {
+                    var code = view.getInt16(offset + 2 * (f * channels + c));
+                    eeg[c][write] = code === NO_VALUE ? NaN : code * lsb;
+                }
+                write = (write + 1) % eeg[0].length;
+            }
+
+            latest = {
+                mood: mood >= 0 && mood < MOODS.length ? MOODS[mood] : 'No mood yet',
+                arousal: view.getFloat32(20),
+                valence: view.getFloat32(24),
+                confidence: view.getFloat32(28)
+            };
+            if (!textUpdate) {
+                textUpdate = $timeout(function () {
+                    textUpdate = null;
+                    var now = Date.now();
+                    self.framesPerSecond = received * 1000 / Math.max(1, now - rateStart);
+                    received = 0;
+                    rateStart = now;
+                    self.frame = latest;
+                }, TEXT_MILLIS);
+            }
+        }
+
+        function draw() {
+            animation = $window.requestAnimationFrame(draw);
+            var canvas = document.getElementById('live-eeg');
+            if (!canvas || !eeg) {
+                return;
+            }
+            var ctx = canvas.getContext('2d');
+            var width = canvas.width;
+            var height = canvas.height;
+            var row = height / CHANNELS_SHOWN;
+            var n = eeg[0].length;
+            ctx.clearRect(0, 0, width, height);
+            for (var c = 0; c < CHANNELS_SHOWN; c++) {
+                // Center each trace on its own mean so offsets do not hide it.
+                var sum = 0;
+                var count = 0;
+                for (var i = 0; i < n; i++) {
+                    if (eeg[c][i] === eeg[c][i]) {
+                        sum += eeg[c][i];
+                        count++;
+                    }
+                }
+                var mean = count ? sum / count : 0;
+                var mid = row * (c + 0.5);
+                ctx.strokeStyle = COLORS[c];
+                ctx.beginPath();
+                var pen = false;
+                for (i = 0; i < n; i++) {
+                    var v = eeg[c][(write + i) % n];
+                    if (v !== v) {
+                        pen = false;
+                        continue;
+                    }
+                    var x = i * width / n;
+                    var y = mid - (v - mean) * row / 400;
+                    if (pen) {
+                        ctx.lineTo(x, y);
+                    } else {
+                        ctx.moveTo(x, y);
+                        pen = true;
+                    }
+                }
+                ctx.stroke();
+                ctx.fillStyle = COLORS[c];
+                ctx.fillText(CHANNEL_NAMES[c], 4, mid - row / 2 + 12);
+            }
+
+            var bandCanvas = document.getElementById('live-bands');
+            if (bandCanvas) {
+                var b = bandCanvas.getContext('2d');
+                var slot = bandCanvas.width / (2 * CHANNELS_SHOWN);
+                b.clearRect(0, 0, bandCanvas.width, bandCanvas.height);
+                for (c = 0; c < CHANNELS_SHOWN; c++) {
+                    drawBar(b, bands.alpha[c], 2 * c * slot, slot, bandCanvas.height, '#03a9f4', 'alpha ' + CHANNEL_NAMES[c]);
+                    drawBar(b, bands.beta[c], (2 * c + 1) * slot, slot, bandCanvas.height, '#ff5722', 'beta ' + CHANNEL_NAMES[c]);
+                }
+            }
+        }
+
+        // Band powers are on the libmuse log scale, roughly 0 to 3.
+        function drawBar(ctx, value, x, width, height, color, label) {
+            var h = value === value ? Math.max(0, Math.min(1, value / 3)) * (height - 16) : 0;
+            ctx.fillStyle = color;
+            ctx.fillRect(x + 4, height - 16 - h, width - 8, h);
+            ctx.fillStyle = '#333';
+            ctx.fillText(label, x + 4, height - 4);
+        }
+
+        stopAuth = firebase.auth().onAuthStateChanged(function (signedIn) {
+            user = signedIn;
+            $scope.$applyAsync(function () {
+                self.signedIn = !!user;
+                self.publishUrl = null;
+            });
+            if (socket) {
+                socket.close();
+            } else if (user) {
+                connect();
+            }
+            if (user) {
+                fetchPublishUrl();
+            }
+        });
+        animation = $window.requestAnimationFrame(draw);
+
+        self.$onDestroy = function () {
+            destroyed = true;
+            stopAuth();
+            $timeout.cancel(retry);
+            $timeout.cancel(textUpdate);
+            $window.cancelAnimationFrame(animation);
+            if (socket) {
+                socket.close();
+            }
+        };
+    }]
+});
@@ -0,0 +1 @@
+angular.module('live', []);
\ No newline at end of file
@@ -30,4 +30,5 @@ function updateNavBar(location, self) {
     self.url = location.url();
     self.chooseMusic = /choose-music$/.test(self.path);
     self.about = /about$/.test(self.path);
+    self.live = /live$/.test(self.path);
 }
\ No newline at end of file
@@ -0,0 +1,145 @@
+// Authenticates the two ends of the live relay.
+//
+// Browsers are signed in with Firebase, so a viewer presents its Firebase ID
+// token, verified here against Google's public keys: an RS256 JWT whose
+// audience and issuer are our project.  The app has no Firebase login, so a
+// publisher presents a publish key instead: the user's id and an HMAC of it
+// under the server's secret.  A signed-in user fetches theirs from /live/key
+// and pastes the publish URL into the app's Live Dashboard setting.  Either way the result is the
+// Firebase user id, which the relay keys its streams by.
+
+var crypto = require('crypto');
+var https = require('https');
+
+var KEYS_URL = 'https://www.googleapis.com/robot/v1/metadata/x509/securetoken@system.gserviceaccount.com';
+var CLOCK_SKEW_SECONDS = 300;
+var DEFAULT_KEYS_SECONDS = 3600;
+
+function base64url(buffer) {
+    return buffer.toString('base64').replace(/=+$/, '').replace(/\+/g, '-').replace(/\//g, '_');
+}
+
+function fromBase64url(text) {
+    return Buffer.from(text.replace(/-/g, '+').replace(/_/g, '/'), 'base64');
+}
+
+// Fetches Google's signing certificates as {kid: pem} and how long they may
+// be cached, in seconds.
+function fetchGoogleKeys(callback) {
+    https.get(KEYS_URL, function (res) {
+        var body = '';
+        res.setEncoding('utf8');
+        res.on('data', function (chunk) {
+            body += chunk;
+        });
+        res.on('end', function () {
+            var maxAge = /max-age=(\d+)/.exec(res.headers['cache-control'] || '');
+            try {
+                callback(null, JSON.parse(body), maxAge ? parseInt(maxAge[1], 10) : DEFAULT_KEYS_SECONDS);
+            } catch (e) {
+                callback(e);
+            }
+        });
+    }).on('error', callback);
+}
+
+// Returns verify(token, callback(err, uid)) for Firebase ID tokens of a project.
+// options.fetchKeys and options.now (in seconds) replace the network and the
+// clock, eg. in tests.
+function firebaseVerifier(options) {
+    var projectId = options.projectId;
+    var fetchKeys = options.fetchKeys || fetchGoogleKeys;
+    var now = options.now || function () {
+        return Date.now() / 1000;
+    };
+    var keys = null;
+    var keysExpire = 0;
+
+    function withKeys(callback) {
+        if (keys && now() < keysExpire) {
+            callback(null, keys);
+            return;
+        }
+        fetchKeys(function (err, fetched, maxAgeSeconds) {
+            if (err) {
+                callback(err);
+                return;
+            }
+            keys = fetched;
+            keysExpire = now() + (maxAgeSeconds || DEFAULT_KEYS_SECONDS);
+            callback(null, keys);
+        });
+    }
+
+    return function verify(token, callback) {
+        var parts = (token || '').split('.');
+        var header;
+        var claims;
+        try {
+            header = JSON.parse(fromBase64url(parts[0]).toString('utf8'));
+            claims = JSON.parse(fromBase64url(parts[1]).toString('utf8'));
+        } catch (e) {
+            callback(new Error('Malformed token'));
+            return;
+        }
+        if (parts.length !== 3 || header.alg !== 'RS256') {
+            callback(new Error('Malformed token'));
+            return;
+        }
+        withKeys(function (err, keys) {
+            if (err) {
+                callback(err);
+                return;
+            }
+            var key = keys[header.kid];
+            if (!key) {
+                callback(new Error('Unknown signing key'));
+                return;
+            }
+            var signed = crypto.createVerify('RSA-SHA256').update(parts[0] + '.' + parts[1])
+                .verify(key, fromBase64url(parts[2]));
+            var t = now();
+            if (!signed) {
+                callback(new Error('Bad signature'));
+            } else if (claims.aud !== projectId || claims.iss !== 'https://securetoken.google.com/' + projectId) {
+                callback(new Error('Token is for another project'));
+            } else if (!(claims.exp > t) || !(claims.iat <= t + CLOCK_SKEW_SECONDS)) {
+                callback(new Error('Token expired'));
+            } else if (typeof claims.sub !== 'string' || !claims.sub || claims.sub.length > 128) {
+                callback(new Error('Token has no user'));
+            } else {
+                callback(null, claims.sub);
+            }
+        });
+    };
+}
+
+function sign(secret, uid) {
+    return base64url(crypto.createHmac('sha256', secret).update(uid).digest());
+}
+
+// The key a user's app publishes with.
+function publishKey(secret, uid) {
+    return uid + '.' + sign(secret, uid);
+}
+
+// Returns verify(key, callback(err, uid)) for publish keys.
+function publishKeyVerifier(secret) {
+    return function verify(key, callback) {
+        var dot = (key || '').lastIndexOf('.');
+        var uid = dot > 0 ? key.slice(0, dot) : '';
+        var expected = Buffer.from(sign(secret, uid));
+        var given = Buffer.from(dot > 0 ? key.slice(dot + 1) : '');
+        if (!uid || given.length !== expected.length || !crypto.timingSafeEqual(given, expected)) {
+            callback(new Error('Bad publish key'));
+            return;
+        }
+        callback(null, uid);
+    };
+}
+
+module.exports = {
+    firebaseVerifier: firebaseVerifier,
+    publishKey: publishKey,
+    publishKeyVerifier: publishKeyVerifier
+};
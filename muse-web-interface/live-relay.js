@@ -0,0 +1,276 @@
+// Relays live session frames from the app to browser dashboards over
+// WebSockets.
+//
+// The app connects to /live/publish and sends binary frames (see LiveFrame in
+// the engine module); every browser connected to /live/view of the same user
+// gets each frame as is.  A viewer that cannot keep up is never queued for
+// more than one frame: while a write to it is still in flight, newer frames
+// replace its pending one, so slow viewers skip frames instead of slowing down
+// the publisher or the other viewers.
+//
+// Both ends must pass ?token=... on the upgrade, which attach()'s caller
+// resolves to a user id (see live-auth.js); anything else is refused with a
+// 401.  Each user has their own channel with at most one publisher: a new
+// publisher, eg. the app reconnecting, replaces the old one, so two streams
+// are never interleaved.
+//
+// Only the parts of RFC 6455 needed here are implemented, with no dependency
+// beyond node itself: binary, close, ping and pong frames without extensions.
+
+var crypto = require('crypto');
+var url = require('url');
+
+var GUID = '258EAFA5-E914-47DA-95CA-C5AB0DC85B11';
+var MAX_MESSAGE_BYTES = 1 << 20;
+
+var OPCODE_BINARY = 0x2;
+var OPCODE_CLOSE = 0x8;
+var OPCODE_PING = 0x9;
+var OPCODE_PONG = 0xa;
+
+// Channels by user id: {publisher: socket, viewers: [...]}.
+var channels = {};
+var stats = {publishers: 0, viewers: 0, framesIn: 0, framesOut: 0, framesSkipped: 0, bytesIn: 0, refused: 0};
+
+// options.authenticate(path, token, callback(err, uid)) checks the token of an
+// upgrade to path.
+function attach(server, options) {
+    server.on('upgrade', function (req, socket) {
+        var parsed = url.parse(req.url, true);
+        var path = parsed.pathname;
+        var token = parsed.query.token;
+        if ((path !== '/live/publish' && path !== '/live/view') || typeof token !== 'string') {
+            refuse(socket);
+            return;
+        }
+        // Data may arrive while the token is being checked.
+        socket.pause();
+        options.authenticate(path, token, function (err, uid) {
+            if (err || !uid || socket.destroyed) {
+                refuse(socket);
+                return;
+            }
+            if (!accept(req, socket)) {
+                socket.destroy();
+                return;
+            }
+            socket.setNoDelay(true);
+            if (path === '/live/publish') {
+                publish(channelOf(uid), uid, socket);
+            } else {
+                view(channelOf(uid), uid, socket);
+            }
+            socket.resume();
+        });
+    });
+}
+
+function refuse(socket) {
+    stats.refused++;
+    socket.end('HTTP/1.1 401 Unauthorized\r\nConnection: close\r\nContent-Length: 0\r\n\r\n');
+    socket.destroy();
+}
+
+function channelOf(uid) {
+    var channel = channels[uid];
+    if (!channel) {
+        channel = channels[uid] = {publisher: null, viewers: []};
+    }
+    return channel;
+}
+
+function release(channel, uid) {
+    if (!channel.publisher && channel.viewers.length === 0) {
+        delete channels[uid];
+    }
+}
+
+function publish(channel, uid, socket) {
+    var replaced = channel.publisher;
+    channel.publisher = socket;
+    stats.publishers++;
+    if (replaced) {
+        replaced.end(encode(OPCODE_CLOSE, Buffer.from([0x03, 0xe8])));
+    }
+    readFrames(socket, function (opcode, payload) {
+        // Frames still in flight from a replaced publisher are dropped.
+        if (opcode === OPCODE_BINARY && channel.publisher === socket) {
+            stats.framesIn++;
+            stats.bytesIn += payload.length;
+            broadcast(channel, encode(OPCODE_BINARY, payload));
+        }
+    }, function () {
+        stats.publishers--;
+        if (channel.publisher === socket) {
+            channel.publisher = null;
+        }
+        release(channel, uid);
+    });
+}
+
+function view(channel, uid, socket) {
+    var viewer = {socket: socket, writing: false, pending: null};
+    channel.viewers.push(viewer);
+    stats.viewers++;
+    // Viewers only ever send control frames.
+    readFrames(socket, function () {
+    }, function () {
+        channel.viewers.splice(channel.viewers.indexOf(viewer), 1);
+        stats.viewers--;
+        release(channel, uid);
+    });
+}
+
+function accept(req, socket) {
+    var key = req.headers['sec-websocket-key'];
+    if (!key || (req.headers.upgrade || '').toLowerCase() !== 'websocket') {
+        return false;
+    }
+    var hash = crypto.createHash('sha1').update(key + GUID).digest('base64');
+    socket.write('HTTP/1.1 101 Switching Protocols\r\n' +
+        'Upgrade: websocket\r\n' +
+        'Connection: Upgrade\r\n' +
+        'Sec-WebSocket-Accept: ' + hash + '\r\n\r\n');
+    return true;
+}
+
+function broadcast(channel, frame) {
+    channel.viewers.forEach(function (viewer) {
+        if (viewer.writing) {
+            if (viewer.pending) {
+                stats.framesSkipped++;
+            }
+            viewer.pending = frame;
+        } else {
+            send(viewer, frame);
+        }
+    });
+}
+
+function send(viewer, frame) {
+    viewer.writing = true;
+    stats.framesOut++;
+    viewer.socket.write(frame, function () {
+        viewer.writing = false;
+        var next = viewer.pending;
+        if (next && !viewer.socket.destroyed) {
+            viewer.pending = null;
+            send(viewer, next);
+        }
+    });
+}
+
+// Servers never mask their frames.
+function encode(opcode, payload) {
+    var header;
+    if (payload.length < 126) {
+        header = Buffer.alloc(2);
+        header[1] = payload.length;
+    } else if (payload.length < 65536) {
+        header = Buffer.alloc(4);
+        header[1] = 126;
+        header.writeUInt16BE(payload.length, 2);
+    } else {
+        header = Buffer.alloc(10);
+        header[1] = 127;
+        header.writeUInt32BE(Math.floor(payload.length / 0x100000000), 2);
+        header.writeUInt32BE(payload.length % 0x100000000, 6);
+    }
+    header[0] = 0x80 | opcode;
+    return Buffer.concat([header, payload]);
+}
+
+// Calls onMessage(opcode, payload) for every complete message and onClose once
+// the socket is gone.  Fragmented messages are reassembled.
+function readFrames(socket, onMessage, onClose) {
+    var buffered = Buffer.alloc(0);
+    var fragments = [];
+    var fragmentOpcode = 0;
+    var closed = false;
+
+    function close() {
+        if (!closed) {
+            closed = true;
+            socket.destroy();
+            onClose();
+        }
+    }
+
+    socket.on('data', function (chunk) {
+        buffered = Buffer.concat([buffered, chunk]);
+        while (buffered.length >= 2) {
+            var fin = (buffered[0] & 0x80) !== 0;
+            var opcode = buffered[0] & 0x0f;
+            var masked = (buffered[1] & 0x80) !== 0;
+            var length = buffered[1] & 0x7f;
+            var offset = 2;
+            if (length === 126) {
+                if (buffered.length < 4) {
+                    return;
+                }
+                length = buffered.readUInt16BE(2);
+                offset = 4;
+            } else if (length === 127) {
+                if (buffered.length < 10) {
+                    return;
+                }
+                length = buffered.readUInt32BE(2) * 0x100000000 + buffered.readUInt32BE(6);
+                offset = 10;
+            }
+            if (length > MAX_MESSAGE_BYTES) {
+                close();
+                return;
+            }
+            var maskOffset = offset;
+            if (masked) {
+                offset += 4;
+            }
+            if (buffered.length < offset + length) {
+                return;
+            }
+            var payload = Buffer.from(buffered.slice(offset, offset + length));
+            if (masked) {
+                for (var i = 0; i < length; i++) {
+                    payload[i] ^= buffered[maskOffset + (i & 3)];
+                }
+            }
+            buffered = buffered.slice(offset + length);
+
+            if (opcode === OPCODE_CLOSE) {
+                // Echo the close and let the socket finish writing it.
+                socket.end(encode(OPCODE_CLOSE, payload.slice(0, 2)));
+                if (!closed) {
+                    closed = true;
+                    onClose();
+                }
+                return;
+            } else if (opcode === OPCODE_PING) {
+                socket.write(encode(OPCODE_PONG, payload));
+            } else if (opcode === OPCODE_PONG) {
+                // Nothing to do.
+            } else {
+                if (opcode !== 0) {
+                    fragmentOpcode = opcode;
+                }
+                fragments.push(payload);
+                if (fin) {
+                    var message = Buffer.concat(fragments);
+                    fragments = [];
+                    onMessage(fragmentOpcode, message);
+                }
+            }
+        }
+    });
+    // HTTP servers allow half-open sockets, so a peer that just goes away
+    // only ends its side.
+    socket.on('end', close);
+    socket.on('error', close);
+    socket.on('close', close);
+}
+
+module.exports = {
+    attach: attach,
+    stats: function () {
+        return stats;
+    }
+};
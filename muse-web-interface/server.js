@@ -2,6 +2,9 @@ var express = require("express");
 var os = require('os');
 const path = require('path');
 var bodyParser = require('body-parser');
+var crypto = require('crypto');
+var liveRelay = require('./live-relay');
+var liveAuth = require('./live-auth');
 
 var app = express();
 
@@ -20,6 +23,16 @@ var port = process.env.PORT || 3000;
  node server.js
  */
 
+// Signs the publish keys of the live relay.  Set LIVE_SECRET so keys stay
+// valid across restarts.
+var liveSecret = process.env.LIVE_SECRET;
+if (!liveSecret) {
+    liveSecret = crypto.randomBytes(32).toString('hex');
+    console.log('LIVE_SECRET is not set; live publish keys last until the server restarts');
+}
+var verifyIdToken = liveAuth.firebaseVerifier({projectId: process.env.FIREBASE_PROJECT || 'muse-music-player'});
+var verifyPublishKey = liveAuth.publishKeyVerifier(liveSecret);
+
 var ifaces = os.networkInterfaces();
 
 Object.keys(ifaces).forEach(function (ifname) {
@@ -54,12 +67,48 @@ app.use("/server.js",function (req, res, next) {
 
 app.use(express.static(path.join(__dirname, "app")));
 
+// Counters of the live dashboard relay, eg. to check a session is streaming.
+app.get('/live/stats', function (req, res) {
+    res.json(liveRelay.stats());
+});
+
+// The URL the signed-in user's app publishes to, for the live page to show.
+// wss:// when the page itself came over TLS; the app's client speaks both.
+app.get('/live/key', function (req, res) {
+    var auth = /^Bearer (.+)$/.exec(req.headers.authorization || '');
+    verifyIdToken(auth && auth[1], function (err, uid) {
+        if (err) {
+            res.status(401).json({error: err.message});
+            return;
+        }
+        var scheme = req.secure ? 'wss://' : 'ws://';
+        res.json({
+            publishUrl: scheme + req.headers.host + '/live/publish?token=' +
+                encodeURIComponent(liveAuth.publishKey(liveSecret, uid))
+        });
+    });
+});
+
 
 app.all('*', function (req, res) {
     res.redirect("/");
 });
 
-app.listen(port, function () {
+var server = app.listen(port, function () {
     console.log('listening on port ' + port);
     // console.log('press Ctrl + C to shut down server');
+});
+
+// The app streams live sessions to ws://<host>:<port>/live/publish and the
+// dashboard at /live watches them on /live/view.  Viewers sign in with their
+// Firebase ID token; the app, which has no Firebase login, with the publish
+// key from /live/key.
+liveRelay.attach(server, {
+    authenticate: function (path, token, callback) {
+        if (path === '/live/publish' && token.split('.').length === 2) {
+            verifyPublishKey(token, callback);
+        } else {
+            verifyIdToken(token, callback);
+        }
+    }
 });
\ No newline at end of file
@@ -0,0 +1,253 @@
+// Tests of the live relay and its tokens, run with `npm test`.  Uses only
+// node: tokens are signed with a generated key and the sockets speak just
+// enough WebSocket to publish and watch.
+
+var assert = require('assert');
+var crypto = require('crypto');
+var http = require('http');
+var net = require('net');
+var liveAuth = require('../live-auth');
+var liveRelay = require('../live-relay');
+
+var PROJECT = 'test-project';
+var SECRET = 'test-secret';
+var NOW = 1500000000;
+
+var keyPair = crypto.generateKeyPairSync('rsa', {
+    modulusLength: 2048,
+    publicKeyEncoding: {type: 'spki', format: 'pem'},
+    privateKeyEncoding: {type: 'pkcs8', format: 'pem'}
+});
+
+function base64url(buffer) {
+    return buffer.toString('base64').replace(/=+$/, '').replace(/\+/g, '-').replace(/\//g, '_');
+}
+
+function idToken(claims, kid) {
+    var header = base64url(Buffer.from(JSON.stringify({alg: 'RS256', kid: kid || 'k1', typ: 'JWT'})));
+    var body = base64url(Buffer.from(JSON.stringify(claims)));
+    var signature = crypto.createSign('RSA-SHA256').update(header + '.' + body).sign(keyPair.privateKey);
+    return header + '.' + body + '.' + base64url(signature);
+}
+
+function claimsFor(uid) {
+    return {
+        aud: PROJECT,
+        iss: 'https://securetoken.google.com/' + PROJECT,
+        sub: uid,
+        iat: NOW - 60,
+        exp: NOW + 3600
+    };
+}
+
+var keyFetches = 0;
+var verifyIdToken = liveAuth.firebaseVerifier({
+    projectId: PROJECT,
+    fetchKeys: function (callback) {
+        keyFetches++;
+        callback(null, {k1: keyPair.publicKey}, 600);
+    },
+    now: function () {
+        return NOW;
+    }
+});
+var verifyPublishKey = liveAuth.publishKeyVerifier(SECRET);
+
+function verified(verify, token) {
+    var result;
+    verify(token, function (err, uid) {
+        result = err ? 'error: ' + err.message : uid;
+    });
+    return result;
+}
+
+function testIdTokens() {
+    assert.strictEqual(verified(verifyIdToken, idToken(claimsFor('alice'))), 'alice');
+    assert.strictEqual(keyFetches, 1);
+
+    var other = claimsFor('alice');
+    other.aud = 'other-project';
+    assert.strictEqual(verified(verifyIdToken, idToken(other)), 'error: Token is for another project');
+    var expired = claimsFor('alice');
+    expired.exp = NOW - 1;
+    assert.strictEqual(verified(verifyIdToken, idToken(expired)), 'error: Token expired');
+    assert.strictEqual(verified(verifyIdToken, idToken(claimsFor('alice'), 'k2')), 'error: Unknown signing key');
+
+    // Claims swapped in under a valid signature.
+    var parts = idToken(claimsFor('alice')).split('.');
+    parts[1] = base64url(Buffer.from(JSON.stringify(claimsFor('mallory'))));
+    assert.strictEqual(verified(verifyIdToken, parts.join('.')), 'error: Bad signature');
+    assert.strictEqual(verified(verifyIdToken, 'garbage'), 'error: Malformed token');
+    // The keys are cached.
+    assert.strictEqual(keyFetches, 1);
+}
+
+function testPublishKeys() {
+    var key = liveAuth.publishKey(SECRET, 'alice');
+    assert.strictEqual(verified(verifyPublishKey, key), 'alice');
+    assert.strictEqual(verified(verifyPublishKey, 'mallory' + key.slice(key.indexOf('.'))), 'error: Bad publish key');
+    assert.strictEqual(verified(verifyPublishKey, liveAuth.publishKey('other-secret', 'alice')), 'error: Bad publish key');
+    assert.strictEqual(verified(verifyPublishKey, ''), 'error: Bad publish key');
+}
+
+// A minimal client: connects, upgrades and collects the binary messages it
+// receives.  Frames it sends are masked, as clients must.
+function client(port, path, callback) {
+    var socket = net.connect(port, '127.0.0.1');
+    var c = {socket: socket, messages: [], status: null, closed: false};
+    var buffered = Buffer.alloc(0);
+    var upgraded = false;
+    socket.on('connect', function () {
+        socket.write('GET ' + path + ' HTTP/1.1\r\n' +
+            'Host: 127.0.0.1\r\n' +
+            'Upgrade: websocket\r\n' +
+            'Connection: Upgrade\r\n' +
+            'Sec-WebSocket-Key: ' + crypto.randomBytes(16).toString('base64') + '\r\n' +
+            'Sec-WebSocket-Version: 13\r\n\r\n');
+    });
+    socket.on('data', function (chunk) {
+        buffered = Buffer.concat([buffered, chunk]);
+        if (!upgraded) {
+            var end = buffered.indexOf('\r\n\r\n');
+            if (end < 0) {
+                return;
+            }
+            c.status = parseInt(buffered.toString('latin1', 9, 12), 10);
+            buffered = buffered.slice(end + 4);
+            upgraded = true;
+            callback(c);
+        }
+        // The relay's frames here are short and unmasked.
+        while (buffered.length >= 2 && buffered.length >= 2 + (buffered[1] & 0x7f)) {
+            var length = buffered[1] & 0x7f;
+            if ((buffered[0] & 0x0f) === 0x2) {
+                c.messages.push(buffered.slice(2, 2 + length).toString());
+            }
+            buffered = buffered.slice(2 + length);
+        }
+    });
+    socket.on('close', function () {
+        c.closed = true;
+        if (!upgraded) {
+            upgraded = true;
+            callback(c);
+        }
+    });
+    socket.on('error', function () {
+    });
+    c.send = function (text) {
+        var payload = Buffer.from(text);
+        var mask = crypto.randomBytes(4);
+        var frame = Buffer.alloc(6 + payload.length);
+        frame[0] = 0x82;
+        frame[1] = 0x80 | payload.length;
+        mask.copy(frame, 2);
+        for (var i = 0; i < payload.length; i++) {
+            frame[6 + i] = payload[i] ^ mask[i & 3];
+        }
+        socket.write(frame);
+    };
+    return c;
+}
+
+function connect(port, path) {
+    return new Promise(function (resolve) {
+        client(port, path, resolve);
+    });
+}
+
+function settle() {
+    return new Promise(function (resolve) {
+        setTimeout(resolve, 100);
+    });
+}
+
+function viewPath(uid) {
+    return '/live/view?token=' + encodeURIComponent(idToken(claimsFor(uid)));
+}
+
+function publishPath(uid) {
+    return '/live/publish?token=' + encodeURIComponent(liveAuth.publishKey(SECRET, uid));
+}
+
+function testRelay() {
+    var server = http.createServer();
+    liveRelay.attach(server, {
+        authenticate: function (path, token, callback) {
+            if (path === '/live/publish' && token.split('.').length === 2) {
+                verifyPublishKey(token, callback);
+            } else {
+                verifyIdToken(token, callback);
+            }
+        }
+    });
+    var port;
+    var alice;
+    var bob;
+    var first;
+    var second;
+    return new Promise(function (resolve) {
+        server.listen(0, '127.0.0.1', function () {
+            port = server.address().port;
+            resolve();
+        });
+    }).then(function () {
+        return Promise.all([
+            connect(port, '/live/view'),
+            connect(port, '/live/view?token=garbage'),
+            connect(port, '/live/publish?token=' + encodeURIComponent(liveAuth.publishKey('other-secret', 'alice')))
+        ]);
+    }).then(function (refused) {
+        refused.forEach(function (c) {
+            assert.strictEqual(c.status, 401);
+        });
+        return Promise.all([connect(port, viewPath('alice')), connect(port, viewPath('bob')),
+            connect(port, publishPath('alice'))]);
+    }).then(function (clients) {
+        alice = clients[0];
+        bob = clients[1];
+        first = clients[2];
+        assert.strictEqual(alice.status, 101);
+        assert.strictEqual(first.status, 101);
+        first.send('one');
+        return settle();
+    }).then(function () {
+        // Only alice sees her own session.
+        assert.deepStrictEqual(alice.messages, ['one']);
+        assert.deepStrictEqual(bob.messages, []);
+        return connect(port, publishPath('alice'));
+    }).then(function (c) {
+        second = c;
+        return settle();
+    }).then(function () {
+        // The new publisher replaces the old one instead of interleaving.
+        assert.ok(first.closed);
+        first.send('stale');
+        second.send('two');
+        return settle();
+    }).then(function () {
+        assert.deepStrictEqual(alice.messages, ['one', 'two']);
+        assert.deepStrictEqual(bob.messages, []);
+        var stats = liveRelay.stats();
+        assert.strictEqual(stats.publishers, 1);
+        assert.strictEqual(stats.viewers, 2);
+        assert.strictEqual(stats.refused, 3);
+        [alice, bob, second].forEach(function (c) {
+            c.socket.destroy();
+        });
+        return settle();
+    }).then(function () {
+        assert.strictEqual(liveRelay.stats().viewers, 0);
+        assert.strictEqual(liveRelay.stats().publishers, 0);
+        server.close();
+    });
+}
+
+testIdTokens();
+testPublishKeys();
+testRelay().then(function () {
+    console.log('live relay tests passed');
+}, function (err) {
+    console.error(err);
+    process.exit(1);
+});